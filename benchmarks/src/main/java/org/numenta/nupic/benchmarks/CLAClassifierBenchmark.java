@@ -0,0 +1,104 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+package org.numenta.nupic.benchmarks;
+
+import gnu.trove.list.array.TIntArrayList;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.numenta.nupic.algorithms.CLAClassifier;
+import org.numenta.nupic.algorithms.ClassifierResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link CLAClassifier#compute(int, Map, int[], boolean, boolean)} on
+ * a repeating stream of sparse patterns, predicting one or several steps ahead.
+ * 
+ * @author David Ray
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CLAClassifierBenchmark {
+    private static final int NUM_PATTERNS = 100;
+    private static final int NUM_BUCKETS = 20;
+
+    /** The predicted steps, separated by commas */
+    @Param({ "1", "1,5,10,50,100" })
+    public String steps;
+
+    @Param({ "2048" })
+    public int inputWidth;
+
+    @Param({ "40" })
+    public int activeBits;
+
+    private CLAClassifier classifier;
+    private int[][] patterns;
+    private Map<String, Object> classification = new LinkedHashMap<String, Object>();
+    private int recordNum;
+
+    @Setup
+    public void setUp() {
+        TIntArrayList stepList = new TIntArrayList();
+        for(String step : steps.split(",")) {
+            stepList.add(Integer.parseInt(step.trim()));
+        }
+        classifier = new CLAClassifier(stepList, 0.001, 0.3, 0);
+
+        Random random = new Random(42);
+        patterns = new int[NUM_PATTERNS][activeBits];
+        for(int[] pattern : patterns) {
+            for(int i = 0;i < pattern.length;i++) {
+                pattern[i] = random.nextInt(inputWidth);
+            }
+        }
+    }
+
+    @Benchmark
+    public ClassifierResult<Double> compute() {
+        int bucketIdx = recordNum % NUM_BUCKETS;
+        classification.put("bucketIdx", bucketIdx);
+        classification.put("actValue", (double)bucketIdx);
+        ClassifierResult<Double> result = classifier.compute(
+            recordNum, classification, patterns[recordNum % NUM_PATTERNS], true, true);
+        recordNum++;
+        return result;
+    }
+}
@@ -0,0 +1,134 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+package org.numenta.nupic.benchmarks;
+
+import gnu.trove.list.array.TIntArrayList;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.numenta.nupic.algorithms.CLAClassifier;
+import org.numenta.nupic.algorithms.ClassifierResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the JSON serialization of a {@link CLAClassifier} ({@link CLAClassifier#serialize()}
+ * and {@link CLAClassifier#deSerialize(String)}) with its binary serialization 
+ * ({@link CLAClassifier#serializeBinary()} and {@link CLAClassifier#deSerializeBinary(byte[])}),
+ * for a classifier holding a bit history for each of its 4 prediction steps on every
+ * input bit.
+ * 
+ * @author David Ray
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CLAClassifierSerializationBenchmark {
+    private static final int ACTIVE_BITS = 40;
+    private static final int PASSES = 4;
+
+    /** Either "json" or "binary" */
+    @Param({ "json", "binary" })
+    public String serializer;
+
+    @Param({ "25000" })
+    public int inputWidth;
+
+    @Param({ "20" })
+    public int buckets;
+
+    private boolean json;
+    private CLAClassifier classifier;
+    private String serializedJson;
+    private byte[] serializedBinary;
+
+    @Setup
+    public void setUp() {
+        if(!serializer.equals("json") && !serializer.equals("binary")) {
+            throw new IllegalArgumentException("Unknown serializer: " + serializer);
+        }
+        json = serializer.equals("json");
+        
+        // Consecutive records activate consecutive blocks of bits, so that every
+        // bit of the input gets a history for every step
+        classifier = new CLAClassifier(new TIntArrayList(new int[] { 1, 2, 3, 5 }), 0.001, 0.3, 0);
+        Map<String, Object> classification = new LinkedHashMap<String, Object>();
+        Random random = new Random(42);
+        int numBlocks = inputWidth / ACTIVE_BITS;
+        int[] pattern = new int[ACTIVE_BITS];
+        for(int record = 0;record < PASSES * numBlocks;record++) {
+            int first = (record % numBlocks) * ACTIVE_BITS;
+            for(int i = 0;i < ACTIVE_BITS;i++) {
+                pattern[i] = first + i;
+            }
+            int bucketIdx = random.nextInt(buckets);
+            classification.put("bucketIdx", bucketIdx);
+            classification.put("actValue", bucketIdx * 1.5);
+            classifier.compute(record, classification, pattern, true, false);
+        }
+
+        serializedJson = classifier.serialize();
+        serializedBinary = classifier.serializeBinary();
+        // Both copies must infer the same from the first block
+        classification.put("bucketIdx", 0);
+        classification.put("actValue", 0.0);
+        int[] first = new int[ACTIVE_BITS];
+        for(int i = 0;i < ACTIVE_BITS;i++) {
+            first[i] = i;
+        }
+        ClassifierResult<Double> fromJson = CLAClassifier.deSerialize(serializedJson).compute(
+            PASSES * numBlocks, classification, first, false, true);
+        ClassifierResult<Double> fromBinary = CLAClassifier.deSerializeBinary(serializedBinary).compute(
+            PASSES * numBlocks, classification, first, false, true);
+        for(int i = 0;i < buckets;i++) {
+            if(fromJson.getStat(1, i) != fromBinary.getStat(1, i)) {
+                throw new IllegalStateException("Binary and JSON round trips infer differently");
+            }
+        }
+    }
+
+    @Benchmark
+    public Object serialize() {
+        return json ? classifier.serialize() : classifier.serializeBinary();
+    }
+
+    @Benchmark
+    public CLAClassifier deserialize() {
+        return json ? CLAClassifier.deSerialize(serializedJson) : CLAClassifier.deSerializeBinary(serializedBinary);
+    }
+}
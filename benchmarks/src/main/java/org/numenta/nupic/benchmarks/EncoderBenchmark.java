@@ -0,0 +1,215 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+package org.numenta.nupic.benchmarks;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.numenta.nupic.encoders.CategoryEncoder;
+import org.numenta.nupic.encoders.CoordinateEncoder;
+import org.numenta.nupic.encoders.Encoder;
+import org.numenta.nupic.encoders.GeospatialCoordinateEncoder;
+import org.numenta.nupic.encoders.LogEncoder;
+import org.numenta.nupic.encoders.MultiEncoder;
+import org.numenta.nupic.encoders.PassThroughEncoder;
+import org.numenta.nupic.encoders.SDRCategoryEncoder;
+import org.numenta.nupic.encoders.ScalarEncoder;
+import org.numenta.nupic.encoders.SparsePassThroughEncoder;
+import org.numenta.nupic.util.Tuple;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link Encoder#encodeIntoArray(Object, int[])} of each encoder,
+ * cycling through a few input values so that no single input is favored.
+ * 
+ * @author David Ray
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncoderBenchmark {
+    private static final int NUM_INPUTS = 16;
+
+    private static final List<String> CATEGORIES = Arrays.asList(
+        "run", "pass", "kick", "throw", "catch", "jump", "walk", "stop");
+
+    private ScalarEncoder scalarEncoder;
+    private LogEncoder logEncoder;
+    private CategoryEncoder categoryEncoder;
+    private SDRCategoryEncoder sdrCategoryEncoder;
+    private PassThroughEncoder passThroughEncoder;
+    private SparsePassThroughEncoder sparsePassThroughEncoder;
+    private CoordinateEncoder coordinateEncoder;
+    private GeospatialCoordinateEncoder geospatialEncoder;
+    private MultiEncoder multiEncoder;
+
+    private int[] scalarOutput;
+    private int[] logOutput;
+    private int[] categoryOutput;
+    private int[] sdrCategoryOutput;
+    private int[] passThroughOutput;
+    private int[] sparsePassThroughOutput;
+    private int[] coordinateOutput;
+    private int[] geospatialOutput;
+    private int[] multiOutput;
+
+    private int[][] denseInputs;
+    private int[][] sparseInputs;
+    private Tuple[] coordinates;
+    private Tuple[] positions;
+    private Map<String, Object>[] records;
+    private int next;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        scalarEncoder = ScalarEncoder.builder()
+            .n(400).w(21).minVal(0).maxVal(100).periodic(false).forced(true).build();
+        logEncoder = LogEncoder.builder()
+            .w(21).resolution(0.1).minVal(1.0).maxVal(10000.).name("amount").forced(true).build();
+        categoryEncoder = ((CategoryEncoder.Builder)CategoryEncoder.builder())
+            .w(21).radius(1).categoryList(CATEGORIES).forced(true).build();
+        sdrCategoryEncoder = SDRCategoryEncoder.builder()
+            .n(400).w(21).categoryList(CATEGORIES).name("category").forced(true).build();
+        passThroughEncoder = new PassThroughEncoder(400, null);
+        passThroughEncoder.setName("dense");
+        sparsePassThroughEncoder = new SparsePassThroughEncoder(400, null);
+        sparsePassThroughEncoder.setName("sparse");
+        coordinateEncoder = CoordinateEncoder.builder().name("coordinate").n(400).w(21).build();
+        geospatialEncoder = GeospatialCoordinateEncoder.geobuilder()
+            .name("position").n(400).w(21).scale(30).timestep(60).build();
+
+        ScalarEncoder dow = ScalarEncoder.builder()
+            .w(3).resolution(1).minVal(1).maxVal(8).periodic(true).name("day of week").forced(true).build();
+        multiEncoder = MultiEncoder.builder().name("").build();
+        multiEncoder.addEncoder("dow", dow);
+        multiEncoder.addEncoder("value", scalarEncoder);
+        multiEncoder.addEncoder("category", categoryEncoder);
+
+        scalarOutput = new int[scalarEncoder.getWidth()];
+        logOutput = new int[logEncoder.getWidth()];
+        categoryOutput = new int[categoryEncoder.getWidth()];
+        sdrCategoryOutput = new int[sdrCategoryEncoder.getWidth()];
+        passThroughOutput = new int[passThroughEncoder.getWidth()];
+        sparsePassThroughOutput = new int[sparsePassThroughEncoder.getWidth()];
+        coordinateOutput = new int[coordinateEncoder.getWidth()];
+        geospatialOutput = new int[geospatialEncoder.getWidth()];
+        multiOutput = new int[multiEncoder.getWidth()];
+
+        denseInputs = new int[NUM_INPUTS][400];
+        sparseInputs = new int[NUM_INPUTS][21];
+        coordinates = new Tuple[NUM_INPUTS];
+        positions = new Tuple[NUM_INPUTS];
+        records = new Map[NUM_INPUTS];
+        for(int i = 0;i < NUM_INPUTS;i++) {
+            for(int j = 0;j < 21;j++) {
+                sparseInputs[i][j] = (i * 7 + j * 19) % 400;
+                denseInputs[i][sparseInputs[i][j]] = 1;
+            }
+            Arrays.sort(sparseInputs[i]);
+            coordinates[i] = new Tuple(2, new int[] { i * 10, i * 5 }, 3.0);
+            positions[i] = new Tuple(3, -122.229194 + i * 0.001, 37.486782 + i * 0.001, 5.0 + i);
+            records[i] = new HashMap<String, Object>();
+            records[i].put("dow", (double)(1 + i % 7));
+            records[i].put("value", i * 6.0);
+            records[i].put("category", CATEGORIES.get(i % CATEGORIES.size()));
+        }
+    }
+
+    private int nextInput() {
+        next = (next + 1) % NUM_INPUTS;
+        return next;
+    }
+
+    @Benchmark
+    public int[] scalar() {
+        scalarEncoder.encodeIntoArray(nextInput() * 6.0, scalarOutput);
+        return scalarOutput;
+    }
+
+    @Benchmark
+    public int[] log() {
+        logEncoder.encodeIntoArray(1.0 + nextInput() * 600.0, logOutput);
+        return logOutput;
+    }
+
+    @Benchmark
+    public int[] category() {
+        categoryEncoder.encodeIntoArray(CATEGORIES.get(nextInput() % CATEGORIES.size()), categoryOutput);
+        return categoryOutput;
+    }
+
+    @Benchmark
+    public int[] sdrCategory() {
+        sdrCategoryEncoder.encodeIntoArray(CATEGORIES.get(nextInput() % CATEGORIES.size()), sdrCategoryOutput);
+        return sdrCategoryOutput;
+    }
+
+    @Benchmark
+    public int[] passThrough() {
+        passThroughEncoder.encodeIntoArray(denseInputs[nextInput()], passThroughOutput);
+        return passThroughOutput;
+    }
+
+    @Benchmark
+    public int[] sparsePassThrough() {
+        Arrays.fill(sparsePassThroughOutput, 0);
+        sparsePassThroughEncoder.encodeIntoArray(sparseInputs[nextInput()], sparsePassThroughOutput);
+        return sparsePassThroughOutput;
+    }
+
+    @Benchmark
+    public int[] coordinate() {
+        Arrays.fill(coordinateOutput, 0);
+        coordinateEncoder.encodeIntoArray(coordinates[nextInput()], coordinateOutput);
+        return coordinateOutput;
+    }
+
+    @Benchmark
+    public int[] geospatialCoordinate() {
+        Arrays.fill(geospatialOutput, 0);
+        geospatialEncoder.encodeIntoArray(positions[nextInput()], geospatialOutput);
+        return geospatialOutput;
+    }
+
+    @Benchmark
+    public int[] multi() {
+        multiEncoder.encodeIntoArray(records[nextInput()], multiOutput);
+        return multiOutput;
+    }
+}
@@ -0,0 +1,102 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+package org.numenta.nupic.benchmarks;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.numenta.nupic.util.ArrayUtils;
+import org.numenta.nupic.util.TopKSelector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the selection of the winning columns of global inhibition by the
+ * {@link TopKSelector} with the former insertion sort based
+ * {@link ArrayUtils#nGreatest(double[], int)}, across column counts.
+ * 
+ * @author David Ray
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GlobalInhibitionBenchmark {
+    @Param({ "1024", "2048", "4096", "8192", "16384" })
+    public int numColumns;
+
+    /** The fraction of winning columns */
+    @Param({ "0.02" })
+    public double density;
+
+    private TopKSelector selector;
+    private double[] overlaps;
+    private int numActive;
+    private int[] winners;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        overlaps = new double[numColumns];
+        for(int i = 0;i < numColumns;i++) {
+            // Integer overlaps plus the small tie breaking noise added by the pooler
+            overlaps[i] = random.nextInt(40) + random.nextDouble() * 0.01;
+        }
+        numActive = (int)(density * numColumns);
+        winners = new int[numActive];
+        selector = new TopKSelector();
+
+        int[] expected = nGreatest();
+        if(!Arrays.equals(expected, selector.select(overlaps, numActive))) {
+            throw new IllegalStateException("Selections differ for " + numColumns + " columns");
+        }
+    }
+
+    /**
+     * Includes the copy {@link ArrayUtils#nGreatest(double[], int)} requires
+     * since it sorts its input, and the sort of the winners into index order
+     */
+    @Benchmark
+    public int[] nGreatest() {
+        int[] selected = ArrayUtils.nGreatest(Arrays.copyOf(overlaps, numColumns), numActive);
+        Arrays.sort(selected);
+        return selected;
+    }
+
+    @Benchmark
+    public int topK() {
+        return selector.select(overlaps, numActive, winners);
+    }
+}
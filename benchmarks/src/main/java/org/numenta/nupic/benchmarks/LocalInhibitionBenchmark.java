@@ -0,0 +1,126 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+package org.numenta.nupic.benchmarks;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.numenta.nupic.Connections;
+import org.numenta.nupic.Parameters;
+import org.numenta.nupic.Parameters.KEY;
+import org.numenta.nupic.research.SpatialPooler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the scaling of {@link SpatialPooler#inhibitColumnsLocal(Connections, double[], double)}
+ * with the number of threads of the {@link Connections#getInhibitionPool()}, from the
+ * sequential version (0 threads, no pool) up to 16 threads.
+ * 
+ * @author David Ray
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LocalInhibitionBenchmark {
+    private static final double DENSITY = 0.02;
+
+    /** The number of threads of the inhibition pool, 0 inhibiting sequentially */
+    @Param({ "0", "1", "2", "4", "8", "16" })
+    public int threads;
+
+    /** The side of the square column grid */
+    @Param({ "64" })
+    public int side;
+
+    @Param({ "10" })
+    public int inhibitionRadius;
+
+    private SpatialPooler sp;
+    private Connections c;
+    private ForkJoinPool pool;
+    private double[] overlaps;
+    private double[] scratch;
+
+    @Setup
+    public void setUp() {
+        Parameters parameters = Parameters.getAllDefaultParameters();
+        parameters.setParameterByKey(KEY.INPUT_DIMENSIONS, new int[] { side, side });
+        parameters.setParameterByKey(KEY.COLUMN_DIMENSIONS, new int[] { side, side });
+        parameters.setParameterByKey(KEY.POTENTIAL_RADIUS, 3);
+        parameters.setParameterByKey(KEY.GLOBAL_INHIBITIONS, false);
+
+        sp = new SpatialPooler();
+        c = new Connections();
+        parameters.apply(c);
+        sp.init(c);
+        c.setInhibitionRadius(inhibitionRadius);
+
+        Random random = new Random(42);
+        overlaps = new double[c.getNumColumns()];
+        for(int i = 0;i < overlaps.length;i++) {
+            overlaps[i] = random.nextInt(20) + random.nextDouble() * 0.001;
+        }
+        scratch = new double[overlaps.length];
+
+        int[] expected = sp.inhibitColumnsLocal(c, Arrays.copyOf(overlaps, overlaps.length), DENSITY);
+        if(threads > 0) {
+            pool = new ForkJoinPool(threads);
+            c.setInhibitionPool(pool);
+            if(!Arrays.equals(expected, inhibit())) {
+                throw new IllegalStateException("Parallel inhibition differs from the sequential result");
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if(pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Inhibits a copy of the overlaps, which the inhibition modifies
+     */
+    @Benchmark
+    public int[] inhibit() {
+        System.arraycopy(overlaps, 0, scratch, 0, overlaps.length);
+        return sp.inhibitColumnsLocal(c, scratch, DENSITY);
+    }
+}
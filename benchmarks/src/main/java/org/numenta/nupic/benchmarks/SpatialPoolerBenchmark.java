@@ -0,0 +1,107 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+package org.numenta.nupic.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.numenta.nupic.Connections;
+import org.numenta.nupic.Parameters;
+import org.numenta.nupic.Parameters.KEY;
+import org.numenta.nupic.research.SpatialPooler;
+import org.numenta.nupic.util.MersenneTwister;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link SpatialPooler#compute(Connections, int[], int[], boolean, boolean)}
+ * over a fixed set of random inputs, with global or local inhibition, with
+ * learning on or off, for square input and column grids of several sizes.
+ * 
+ * @author David Ray
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SpatialPoolerBenchmark {
+    private static final int NUM_INPUTS = 64;
+
+    /** The side of the square input and column grids */
+    @Param({ "32", "64" })
+    public int side;
+
+    @Param({ "true", "false" })
+    public boolean globalInhibition;
+
+    @Param({ "true", "false" })
+    public boolean learn;
+
+    private SpatialPooler sp;
+    private Connections c;
+    private int[][] inputs;
+    private int[] activeArray;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Parameters parameters = Parameters.getAllDefaultParameters();
+        parameters.setParameterByKey(KEY.INPUT_DIMENSIONS, new int[] { side, side });
+        parameters.setParameterByKey(KEY.COLUMN_DIMENSIONS, new int[] { side, side });
+        parameters.setParameterByKey(KEY.POTENTIAL_RADIUS, 5);
+        parameters.setParameterByKey(KEY.GLOBAL_INHIBITIONS, globalInhibition);
+
+        sp = new SpatialPooler();
+        c = new Connections();
+        parameters.apply(c);
+        c.setRandom(new MersenneTwister(42));
+        sp.init(c);
+
+        Random random = new Random(42);
+        inputs = new int[NUM_INPUTS][side * side];
+        for(int[] input : inputs) {
+            for(int i = 0;i < input.length;i++) {
+                input[i] = random.nextDouble() < 0.1 ? 1 : 0;
+            }
+        }
+        activeArray = new int[c.getNumColumns()];
+    }
+
+    @Benchmark
+    public int[] compute() {
+        sp.compute(c, inputs[next], activeArray, learn, true);
+        next = (next + 1) % NUM_INPUTS;
+        return activeArray;
+    }
+}
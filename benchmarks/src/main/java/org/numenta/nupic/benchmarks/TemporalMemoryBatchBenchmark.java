@@ -0,0 +1,138 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+package org.numenta.nupic.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.numenta.nupic.Connections;
+import org.numenta.nupic.Parameters;
+import org.numenta.nupic.Parameters.KEY;
+import org.numenta.nupic.research.ComputeCycle;
+import org.numenta.nupic.research.TemporalMemory;
+import org.numenta.nupic.research.TemporalMemoryBatch;
+import org.numenta.nupic.util.MersenneTwister;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the throughput of many small {@link TemporalMemory} models each fed one
+ * record per block, computed either one after the other or by a {@link TemporalMemoryBatch}.
+ * Each operation is one record of one model, so the scores read as model records per second.
+ * 
+ * @author David Ray
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@OperationsPerInvocation(TemporalMemoryBatchBenchmark.NUM_MODELS)
+public class TemporalMemoryBatchBenchmark {
+    static final int NUM_MODELS = 1000;
+    private static final int COLUMNS = 64;
+    private static final int BLOCKS = 16;
+
+    @Param({ "1", "4", "8" })
+    public int workers;
+
+    private TemporalMemory tm;
+    private TemporalMemoryBatch batch;
+    private Connections[] models;
+    private int[][][] blocks;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Parameters parameters = Parameters.getAllDefaultParameters();
+        parameters.setParameterByKey(KEY.COLUMN_DIMENSIONS, new int[] { COLUMNS });
+        parameters.setParameterByKey(KEY.CELLS_PER_COLUMN, 4);
+        parameters.setParameterByKey(KEY.MIN_THRESHOLD, 2);
+        parameters.setParameterByKey(KEY.ACTIVATION_THRESHOLD, 3);
+
+        tm = new TemporalMemory();
+        models = new Connections[NUM_MODELS];
+        for(int i = 0;i < NUM_MODELS;i++) {
+            models[i] = new Connections();
+            parameters.apply(models[i]);
+            models[i].setRandom(new MersenneTwister(42 + i));
+            tm.init(models[i]);
+        }
+
+        // Every model sees a short repeating sequence of its own
+        Random random = new Random(42);
+        blocks = new int[BLOCKS][NUM_MODELS][];
+        for(int b = 0;b < BLOCKS;b++) {
+            for(int i = 0;i < NUM_MODELS;i++) {
+                int[] pattern = new int[4];
+                for(int j = 0;j < pattern.length;j++) {
+                    pattern[j] = random.nextInt(COLUMNS);
+                }
+                blocks[b][i] = pattern;
+            }
+        }
+
+        batch = new TemporalMemoryBatch(tm, workers);
+        for(int i = 0;i < 3 * BLOCKS;i++) {
+            batch.compute(models, nextBlock(), true);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        batch.close();
+    }
+
+    @Benchmark
+    public ComputeCycle[] batch() {
+        return batch.compute(models, nextBlock(), true);
+    }
+
+    @Benchmark
+    public ComputeCycle[] sequential() {
+        int[][] block = nextBlock();
+        ComputeCycle[] results = new ComputeCycle[NUM_MODELS];
+        for(int i = 0;i < NUM_MODELS;i++) {
+            results[i] = tm.compute(models[i], block[i], true);
+        }
+        return results;
+    }
+
+    private int[][] nextBlock() {
+        int[][] block = blocks[next];
+        next = (next + 1) % BLOCKS;
+        return block;
+    }
+}
@@ -0,0 +1,137 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+package org.numenta.nupic.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.numenta.nupic.Connections;
+import org.numenta.nupic.Parameters;
+import org.numenta.nupic.Parameters.KEY;
+import org.numenta.nupic.research.ComputeCycle;
+import org.numenta.nupic.research.TemporalMemory;
+import org.numenta.nupic.util.MersenneTwister;
+import org.numenta.nupic.util.PatternMachine;
+import org.numenta.nupic.util.SequenceMachine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link TemporalMemory#compute(Connections, int[], boolean)} fed with
+ * sequences produced by a {@link PatternMachine} and a {@link SequenceMachine}, as
+ * in the integration tests. The model is first trained on the sequences so that
+ * the measured cycles include predictions and segment adaptation rather than
+ * bursting only.
+ * 
+ * @author David Ray
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TemporalMemoryBenchmark {
+    private static final int NUM_SEQUENCES = 4;
+    private static final int SEQUENCE_LENGTH = 20;
+    private static final int TRAINING_PASSES = 5;
+
+    @Param({ "512", "2048" })
+    public int columns;
+
+    @Param({ "8", "32" })
+    public int cellsPerColumn;
+
+    @Param({ "true", "false" })
+    public boolean learn;
+
+    private TemporalMemory tm;
+    private Connections c;
+    /** The active columns of each step, null marking the end of a sequence */
+    private int[][] sequence;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Parameters parameters = Parameters.getAllDefaultParameters();
+        parameters.setParameterByKey(KEY.COLUMN_DIMENSIONS, new int[] { columns });
+        parameters.setParameterByKey(KEY.CELLS_PER_COLUMN, cellsPerColumn);
+
+        tm = new TemporalMemory();
+        c = new Connections();
+        parameters.apply(c);
+        c.setRandom(new MersenneTwister(42));
+        tm.init(c);
+
+        PatternMachine patternMachine = new PatternMachine(columns, columns / 50);
+        SequenceMachine sequenceMachine = new SequenceMachine(patternMachine);
+        List<Integer> numbers = new ArrayList<Integer>();
+        for(int s = 0;s < NUM_SEQUENCES;s++) {
+            for(int i = 0;i < SEQUENCE_LENGTH;i++) {
+                numbers.add(s * SEQUENCE_LENGTH + i);
+            }
+            numbers.add(-1);
+        }
+        List<Set<Integer>> patterns = sequenceMachine.generateFromNumbers(numbers);
+        sequence = new int[patterns.size()][];
+        for(int i = 0;i < sequence.length;i++) {
+            Set<Integer> pattern = patterns.get(i);
+            if(pattern == SequenceMachine.NONE) continue;
+            sequence[i] = new int[pattern.size()];
+            int j = 0;
+            for(int column : pattern) {
+                sequence[i][j++] = column;
+            }
+        }
+
+        for(int i = 0;i < TRAINING_PASSES * sequence.length;i++) {
+            compute(true);
+        }
+    }
+
+    @Benchmark
+    public ComputeCycle compute() {
+        return compute(learn);
+    }
+
+    private ComputeCycle compute(boolean learn) {
+        int[] activeColumns = sequence[next];
+        next = (next + 1) % sequence.length;
+        if(activeColumns == null) {
+            tm.reset(c);
+            return null;
+        }
+        return tm.compute(c, activeColumns, learn);
+    }
+}
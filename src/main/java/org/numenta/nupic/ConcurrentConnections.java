@@ -0,0 +1,252 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+package org.numenta.nupic;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.numenta.nupic.model.Cell;
+import org.numenta.nupic.model.DistalDendrite;
+import org.numenta.nupic.model.DistalSynapseStore;
+import org.numenta.nupic.model.Segment;
+import org.numenta.nupic.model.Synapse;
+import org.numenta.nupic.research.TemporalMemory;
+
+/**
+ * A {@link Connections} whose distal structure may be modified by several threads
+ * at once, each of which owns a disjoint partition of the columns.
+ * <p>
+ * The maps of cells to their receptor synapses and segments, and of segments to
+ * their synapses, are concurrent maps whose entries are created atomically on first
+ * access. A segment and its synapses are only modified by the thread owning the column
+ * of the segment's cell, so the lists of segments and synapses are plain lists. The
+ * receptor synapses of a cell however are destroyed by the threads owning the segments
+ * synapsed to it, so each receptor set is synchronized; it is only iterated while no 
+ * thread modifies it. Segment and synapse indexes are allocated from atomic
+ * counters (see {@link #nextSegmentIndex()} and {@link #nextSynapseIndex()}), freed segment
+ * indexes being reused under a lock. The flat segment lookup is an array which is copied 
+ * when it grows, so that segments are looked up without locking; only adding and removing
+ * segments is guarded by a lock.
+ * </p><p>
+ * {@link TemporalMemory} learning honors the ownership of segments when a learning pool
+ * is set (see {@link #setLearningPool(ForkJoinPool)}), and only reads the receptor synapses
+ * of cells in the phases which run on a single thread. Distal synapses
+ * are kept in their own {@link org.numenta.nupic.model.Pool}s: a {@link DistalSynapseStore},
+ * whose slots are shared by all segments, isn't supported.
+ * </p>
+ * 
+ * @author David Ray
+ */
+public class ConcurrentConnections extends Connections {
+    private final AtomicInteger segmentIndexes = new AtomicInteger();
+    private final AtomicInteger synapseIndexes = new AtomicInteger();
+    private final Object segmentLock = new Object();
+    
+    private volatile AtomicReferenceArray<DistalDendrite> segmentArray = new AtomicReferenceArray<DistalDendrite>(0);
+    
+    private ForkJoinPool learningPool;
+    
+    /**
+     * Constructs a new {@code ConcurrentConnections}
+     */
+    public ConcurrentConnections() {
+        receptorSynapses = new ConcurrentHashMap<Cell, Set<Synapse>>();
+        segments = new ConcurrentHashMap<Cell, List<DistalDendrite>>();
+        synapses = new ConcurrentHashMap<Segment, List<Synapse>>();
+    }
+    
+    /**
+     * Sets the {@link ForkJoinPool} on which the {@link TemporalMemory} adapts the
+     * segments of disjoint column partitions in parallel. Synapses then grow from 
+     * winner cells picked with a random generator of each partition, seeded in turn
+     * from this object's generator, and are grown once all partitions have been adapted,
+     * numbered in partition order: learning is deterministic, and independent of the 
+     * pool's parallelism, but differs from the sequential learning. A 
+     * {@link org.numenta.nupic.persistence.LearningJournal} installed on this
+     * object journals the parallel learning as well.
+     * 
+     * @param pool  the pool to use or null to learn sequentially
+     */
+    public void setLearningPool(ForkJoinPool pool) {
+        this.learningPool = pool;
+    }
+    
+    /**
+     * Returns the {@link ForkJoinPool} used to learn on column partitions in
+     * parallel, or null if learning is sequential.
+     * 
+     * @return
+     */
+    public ForkJoinPool getLearningPool() {
+        return learningPool;
+    }
+    
+    @Override
+    public int getSegmentCount() {
+        return segmentIndexes.get();
+    }
+    
+    @Override
+    public void setSegmentCount(int counter) {
+        synchronized(segmentLock) {
+            segmentIndexes.set(counter);
+            resetFreeSegmentIndexes(counter);
+        }
+    }
+    
+    @Override
+    public void setTmIterationNum(int num) {
+        synchronized(segmentLock) {
+            super.setTmIterationNum(num);
+        }
+    }
+    
+    @Override
+    public int nextSegmentIndex() {
+        synchronized(segmentLock) {
+            int index = takeFreeSegmentIndex();
+            return index == -1 ? segmentIndexes.getAndIncrement() : index;
+        }
+    }
+    
+    @Override
+    public int getSynapseCount() {
+        return synapseIndexes.get();
+    }
+    
+    @Override
+    public void setSynapseCount(int i) {
+        synapseIndexes.set(i);
+    }
+    
+    @Override
+    public int nextSynapseIndex() {
+        return synapseIndexes.getAndIncrement();
+    }
+    
+    @Override
+    public Set<Synapse> getReceptorSynapses(Cell cell) {
+        if(cell == null) {
+            throw new IllegalArgumentException("Cell was null");
+        }
+        
+        ConcurrentMap<Cell, Set<Synapse>> map = (ConcurrentMap<Cell, Set<Synapse>>)receptorSynapses;
+        Set<Synapse> retVal = map.get(cell);
+        if(retVal == null) {
+            Set<Synapse> created = Collections.synchronizedSet(new LinkedHashSet<Synapse>());
+            retVal = map.putIfAbsent(cell, created);
+            if(retVal == null) retVal = created;
+        }
+        return retVal;
+    }
+    
+    @Override
+    public List<DistalDendrite> getSegments(Cell cell) {
+        if(cell == null) {
+            throw new IllegalArgumentException("Cell was null");
+        }
+        
+        ConcurrentMap<Cell, List<DistalDendrite>> map = (ConcurrentMap<Cell, List<DistalDendrite>>)segments;
+        List<DistalDendrite> retVal = map.get(cell);
+        if(retVal == null) {
+            List<DistalDendrite> created = new ArrayList<DistalDendrite>();
+            retVal = map.putIfAbsent(cell, created);
+            if(retVal == null) retVal = created;
+        }
+        return retVal;
+    }
+    
+    @Override
+    public List<Synapse> getSynapses(DistalDendrite segment) {
+        if(segment == null) {
+            throw new IllegalArgumentException("Segment was null");
+        }
+        
+        ConcurrentMap<Segment, List<Synapse>> map = (ConcurrentMap<Segment, List<Synapse>>)synapses;
+        List<Synapse> retVal = map.get(segment);
+        if(retVal == null) {
+            List<Synapse> created = new ArrayList<Synapse>();
+            retVal = map.putIfAbsent(segment, created);
+            if(retVal == null) retVal = created;
+        }
+        return retVal;
+    }
+    
+    @Override
+    public void putSegment(DistalDendrite segment) {
+        int index = segment.getIndex();
+        synchronized(segmentLock) {
+            AtomicReferenceArray<DistalDendrite> array = segmentArray;
+            if(index >= array.length()) {
+                AtomicReferenceArray<DistalDendrite> grown = 
+                    new AtomicReferenceArray<DistalDendrite>(Math.max(index + 1, array.length() * 2));
+                for(int i = 0;i < array.length();i++) {
+                    grown.set(i, array.get(i));
+                }
+                segmentArray = array = grown;
+            }
+            array.set(index, segment);
+            claimSegmentIndex(index);
+        }
+    }
+    
+    @Override
+    public void removeSegment(DistalDendrite segment) {
+        int index = segment.getIndex();
+        synchronized(segmentLock) {
+            AtomicReferenceArray<DistalDendrite> array = segmentArray;
+            if(index < array.length() && array.compareAndSet(index, segment, null)) {
+                releaseSegmentIndex(index);
+            }
+        }
+        synapses.remove(segment);
+    }
+    
+    @Override
+    public DistalDendrite getSegment(int index) {
+        AtomicReferenceArray<DistalDendrite> array = segmentArray;
+        return index < array.length() ? array.get(index) : null;
+    }
+    
+    /**
+     * Not supported: the slots of a {@link DistalSynapseStore} are shared by all segments.
+     * 
+     * @param store     must be null
+     * @throws IllegalArgumentException if the store isn't null
+     */
+    @Override
+    public void setDistalSynapseStore(DistalSynapseStore store) {
+        if(store != null) {
+            throw new IllegalArgumentException("ConcurrentConnections doesn't support a DistalSynapseStore");
+        }
+        super.setDistalSynapseStore(store);
+    }
+}
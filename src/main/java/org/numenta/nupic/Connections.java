@@ -22,7 +22,11 @@
 
 package org.numenta.nupic;
 
+import gnu.trove.list.array.TIntArrayList;
+
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
@@ -30,20 +34,32 @@ import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
 import org.numenta.nupic.model.Cell;
 import org.numenta.nupic.model.Column;
 import org.numenta.nupic.model.DistalDendrite;
+import org.numenta.nupic.model.DistalSynapseStore;
 import org.numenta.nupic.model.Pool;
 import org.numenta.nupic.model.ProximalDendrite;
 import org.numenta.nupic.model.Segment;
 import org.numenta.nupic.model.Synapse;
+import org.numenta.nupic.persistence.LearningJournal;
+import org.numenta.nupic.research.IndexedComputeCycle;
+import org.numenta.nupic.research.IndexedTemporalMemory;
+import org.numenta.nupic.research.SegmentActivity;
 import org.numenta.nupic.research.SpatialPooler;
+import org.numenta.nupic.research.SpatialPoolerWorkspace;
+import org.numenta.nupic.research.StreamState;
 import org.numenta.nupic.research.TemporalMemory;
+import org.numenta.nupic.research.TemporalMemoryBatch;
 import org.numenta.nupic.util.MersenneTwister;
+import org.numenta.nupic.util.NeighborhoodIndex;
 import org.numenta.nupic.util.SparseBinaryMatrix;
 import org.numenta.nupic.util.SparseMatrix;
 import org.numenta.nupic.util.SparseObjectMatrix;
+import org.numenta.nupic.util.TopKSelector;
+import org.numenta.nupic.util.TraceSink;
 
 /**
  * Contains the definition of the interconnected structural state of the {@link SpatialPooler} and 
@@ -122,6 +138,20 @@ public class Connections {
      * average number of connected synapses per column.
      */
     private int inhibitionRadius = 0;
+    /**
+     * Optional pool used to spread local inhibition over several cores.
+     * When null, local inhibition is performed sequentially.
+     */
+    private ForkJoinPool inhibitionPool;
+    /**
+     * Cached column neighborhoods for the current inhibition radius, indexed
+     * by wrap around flag (0 = no wrap around, 1 = wrap around).
+     */
+    private NeighborhoodIndex[] neighborhoods = new NeighborhoodIndex[2];
+    /** Reusable scratch used to pick the winners of global inhibition */
+    private TopKSelector topKSelector = new TopKSelector();
+    /** Scratch buffers reused across {@link SpatialPooler} compute cycles */
+    private SpatialPoolerWorkspace spWorkspace;
     
     private int proximalSynapseCounter = 0;
     
@@ -184,6 +214,27 @@ public class Connections {
      * are decremented during learning.
      */
     private double permanenceDecrement = 0.10;
+    /** 
+     * The maximum number of segments a cell may own. When exceeded, the
+     * least recently used segment of the cell is destroyed.
+     */
+    private int maxSegmentsPerCell = Integer.MAX_VALUE;
+    /** 
+     * The maximum number of synapses a segment may own. When exceeded, the
+     * synapses of the segment having the lowest permanences are destroyed.
+     */
+    private int maxSynapsesPerSegment = Integer.MAX_VALUE;
+    /** Whether synapses whose permanence decays to zero are destroyed */
+    private boolean pruneZeroPermanenceSynapses = false;
+    /** Counts the compute cycles of the temporal memory */
+    private int tmIterationNum = 0;
+    /**
+     * Optional pool used to search the best matching cells of bursting
+     * columns concurrently. When null, the search is sequential.
+     */
+    private ForkJoinPool burstPool;
+    /** Segment activity counters reused across {@link TemporalMemory} compute cycles */
+    private SegmentActivity segmentActivity;
     
     /** The main data structure containing columns, cells, and synapses */
     private SparseObjectMatrix<Column> memory;
@@ -196,6 +247,23 @@ public class Connections {
     
     protected Map<Cell, List<DistalDendrite>> segments;
     protected Map<Segment, List<Synapse>> synapses;
+    /** Flat storage of distal synapse state, or null when each synapse uses its own {@link Pool} */
+    protected DistalSynapseStore distalSynapseStore;
+    /** Records the changes made by learning, or null when they aren't journaled */
+    protected LearningJournal learningJournal;
+    /** Receives the diagnostic output of the algorithms */
+    protected TraceSink traceSink = TraceSink.DISABLED;
+    /** Flat lookup of {@link DistalDendrite}s by their segment index */
+    protected List<DistalDendrite> segmentIndex = new ArrayList<DistalDendrite>();
+    /** Indexes of destroyed segments available for new segments, taken lowest first */
+    protected BitSet freeSegmentIndexes = new BitSet();
+    /** Indexes of the segments destroyed during the current iteration of the temporal memory */
+    protected TIntArrayList releasedSegmentIndexes = new TIntArrayList();
+    
+    /** Reused cycle state of the {@link IndexedTemporalMemory} for t */
+    protected IndexedComputeCycle indexedCycle;
+    /** Reused cycle state of the {@link IndexedTemporalMemory} for t-1 */
+    protected IndexedComputeCycle prevIndexedCycle;
     
     /** Helps index each new Segment */
     protected int segmentCounter = 0;
@@ -243,11 +311,84 @@ public class Connections {
     }
     
     /**
-     * Sets the segment counter
+     * Sets the segment counter. The indexes below it which aren't held by
+     * a segment become available for new segments.
      * @param counter
      */
     public void setSegmentCount(int counter) {
     	this.segmentCounter = counter;
+    	resetFreeSegmentIndexes(counter);
+    }
+    
+    /**
+     * Returns the index of a new segment: the lowest index freed by a segment
+     * destroyed before the current iteration of the temporal memory, or else
+     * the segment counter, which is then incremented. Reusing indexes keeps the
+     * counter, and every structure sized by it, bounded by the number of segments
+     * alive at once rather than the number ever created.
+     * @return
+     */
+    public int nextSegmentIndex() {
+        int index = takeFreeSegmentIndex();
+        return index == -1 ? segmentCounter++ : index;
+    }
+    
+    /**
+     * Removes and returns the lowest free segment index, or -1 if there is none
+     * @return
+     */
+    protected int takeFreeSegmentIndex() {
+        int index = freeSegmentIndexes.nextSetBit(0);
+        if(index != -1) {
+            freeSegmentIndexes.clear(index);
+        }
+        return index;
+    }
+    
+    /**
+     * Marks the index of a destroyed segment as free from the next iteration of
+     * the temporal memory on. It isn't reused during the current one, as the 
+     * activity of the previous iteration may still refer to it.
+     * 
+     * @param index     the index of the destroyed segment
+     */
+    protected void releaseSegmentIndex(int index) {
+        releasedSegmentIndexes.add(index);
+    }
+    
+    /**
+     * Marks the index of a new segment as taken
+     * 
+     * @param index     the index of the new segment
+     */
+    protected void claimSegmentIndex(int index) {
+        freeSegmentIndexes.clear(index);
+        releasedSegmentIndexes.remove(index);
+    }
+    
+    /**
+     * Makes the indexes released during the last iteration available
+     */
+    protected void freeReleasedSegmentIndexes() {
+        for(int i = 0;i < releasedSegmentIndexes.size();i++) {
+            freeSegmentIndexes.set(releasedSegmentIndexes.get(i));
+        }
+        releasedSegmentIndexes.clear();
+    }
+    
+    /**
+     * Frees every index below the specified counter not held by a segment
+     * 
+     * @param counter   the segment counter
+     */
+    protected void resetFreeSegmentIndexes(int counter) {
+        freeSegmentIndexes.clear();
+        releasedSegmentIndexes.clear();
+        for(int i = 0;i < counter;i++) {
+            if(getSegment(i) == null) {
+                freeSegmentIndexes.set(i);
+            }
+        }
     }
     
     /**
@@ -266,6 +407,22 @@ public class Connections {
     	this.iterationNum = num;
     }
     
+    /**
+     * Returns the number of cycles run with learning enabled.
+     * @return
+     */
+    public int getIterationLearnNum() {
+    	return iterationLearnNum;
+    }
+    
+    /**
+     * Sets the number of cycles run with learning enabled.
+     * @param num
+     */
+    public void setIterationLearnNum(int num) {
+    	this.iterationLearnNum = num;
+    }
+    
     /**
      * Returns the period count which is the number of cycles
      * between meta information updates.
@@ -413,6 +570,9 @@ public class Connections {
      * @param radius
      */
     public void setInhibitionRadius(int radius) {
+        if(radius != inhibitionRadius) {
+            Arrays.fill(neighborhoods, null);
+        }
         this.inhibitionRadius = radius;
     }
     
@@ -524,6 +684,14 @@ public class Connections {
     	this.synapseCounter = i;
     }
     
+    /**
+     * Returns the index of a new {@link Synapse} and increments the count of {@link Synapse}s
+     * @return
+     */
+    public int nextSynapseIndex() {
+        return synapseCounter++;
+    }
+    
     /**
      * Returns the indexed count of connected synapses per column.
      * @return
@@ -560,6 +728,120 @@ public class Connections {
     	this.connectedCounts = matrix;
     }
     
+    /**
+     * Sets the {@link ForkJoinPool} used by the {@link SpatialPooler} to perform
+     * local inhibition in parallel. The result is identical to that of the
+     * sequential algorithm, which is used when the pool is null (the default).
+     * 
+     * @param pool  the pool to use or null for sequential inhibition
+     */
+    public void setInhibitionPool(ForkJoinPool pool) {
+        this.inhibitionPool = pool;
+    }
+    
+    /**
+     * Returns the {@link ForkJoinPool} used to perform local inhibition
+     * in parallel, or null if local inhibition is sequential.
+     * 
+     * @return
+     */
+    public ForkJoinPool getInhibitionPool() {
+        return inhibitionPool;
+    }
+    
+    /**
+     * Sets the {@link ForkJoinPool} used by the {@link TemporalMemory} to search
+     * the best matching cells and segments of bursting columns in parallel. Segments
+     * are still created, and the random generator still used, sequentially in column
+     * order, so the result is identical to that of the sequential algorithm, which is
+     * used when the pool is null (the default).
+     * 
+     * @param pool  the pool to use or null for a sequential search
+     */
+    public void setBurstPool(ForkJoinPool pool) {
+        this.burstPool = pool;
+    }
+    
+    /**
+     * Returns the per segment activity counters filled by the {@link TemporalMemory}
+     * during the current compute cycle.
+     * 
+     * @return
+     */
+    public SegmentActivity getSegmentActivity() {
+        if(segmentActivity == null) {
+            segmentActivity = new SegmentActivity();
+        }
+        return segmentActivity;
+    }
+    
+    /**
+     * Sets the segment activity counters used by the {@link TemporalMemory}. Since
+     * the counters are only meaningful during a compute cycle, models computed by
+     * the same thread may share them; see {@link TemporalMemoryBatch}.
+     * 
+     * @param activity  the counters to use, or null to allocate them on demand
+     */
+    public void setSegmentActivity(SegmentActivity activity) {
+        this.segmentActivity = activity;
+    }
+    
+    /**
+     * Returns the {@link ForkJoinPool} used to search the best matching cells
+     * of bursting columns in parallel, or null if the search is sequential.
+     * 
+     * @return
+     */
+    public ForkJoinPool getBurstPool() {
+        return burstPool;
+    }
+    
+    /**
+     * Stores the column neighborhoods computed for the current inhibition
+     * radius. The cache is cleared whenever the inhibition radius changes.
+     * 
+     * @param index     the neighborhoods of all columns
+     */
+    public void setNeighborhoodIndex(NeighborhoodIndex index) {
+        this.neighborhoods[index.isWrapAround() ? 1 : 0] = index;
+    }
+    
+    /**
+     * Returns the cached column neighborhoods for the specified wrap around
+     * flag, or null if they have not been computed since the inhibition
+     * radius last changed.
+     * 
+     * @param wrapAround    whether the neighborhoods wrap around the column topology
+     * @return
+     */
+    public NeighborhoodIndex getNeighborhoodIndex(boolean wrapAround) {
+        return neighborhoods[wrapAround ? 1 : 0];
+    }
+    
+    /**
+     * Returns the {@link TopKSelector} used by the {@link SpatialPooler}
+     * to select the winning columns of global inhibition.
+     * 
+     * @return
+     */
+    public TopKSelector getTopKSelector() {
+        return topKSelector;
+    }
+    
+    /**
+     * Returns the {@link SpatialPoolerWorkspace} holding the scratch buffers
+     * of the {@link SpatialPooler}, (re)creating it if it doesn't match the
+     * current number of inputs and columns.
+     * 
+     * @return
+     */
+    public SpatialPoolerWorkspace getSpatialPoolerWorkspace() {
+        if(spWorkspace == null || !spWorkspace.fits(this)) {
+            spWorkspace = new SpatialPoolerWorkspace(numInputs, numColumns);
+        }
+        return spWorkspace;
+    }
+    
     /**
      * Sets the array holding the random noise added to proximal dendrite overlaps.
      * 
@@ -1177,7 +1459,8 @@ public class Connections {
     
     /**
      * Returns the mapping of {@link Cell}s to their reverse mapped 
-     * {@link Synapse}s.
+     * {@link Synapse}s. When a {@link DistalSynapseStore} is installed,
+     * returns a read only view of the synapses it holds.
      * 
      * @param cell      the {@link Cell} used as a key.
      * @return          the mapping of {@link Cell}s to their reverse mapped 
@@ -1188,6 +1471,10 @@ public class Connections {
             throw new IllegalArgumentException("Cell was null");
         }
         
+        if(distalSynapseStore != null) {
+            return distalSynapseStore.getReceptorSynapses(this, cell);
+        }
+        
         if(receptorSynapses == null) {
             receptorSynapses = new LinkedHashMap<Cell, Set<Synapse>>();
         }
@@ -1223,8 +1510,170 @@ public class Connections {
         return retVal;
     }
     
+    /**
+     * Creates the receptor {@link Synapse} set and the {@link DistalDendrite} list of
+     * every {@link Cell}, and the {@link Synapse} list of every segment, which are otherwise
+     * created on first access. Afterwards the inference of the {@link TemporalMemory} and 
+     * the forking of a {@link StreamState} only read this {@code Connections}, so that one
+     * trained model may be shared by the concurrently computed streams of several 
+     * {@link StreamState}s.
+     */
+    public void prepareForSharing() {
+        for(Cell cell : cells) {
+            getReceptorSynapses(cell);
+            for(DistalDendrite dd : getSegments(cell)) {
+                getSynapses(dd);
+            }
+        }
+    }
+    
+    /**
+     * Installs a {@link DistalSynapseStore} which will hold the presynaptic cell, 
+     * segment, index and permanence of all subsequently created distal {@link Synapse}s
+     * in flat arrays. The synapses of distal segments and the receptor synapses of cells
+     * are then looked up in the store, so it must be installed before any distal synapse
+     * is created.
+     * 
+     * @param store     the store to use, or null to revert to per synapse pools
+     */
+    public void setDistalSynapseStore(DistalSynapseStore store) {
+        this.distalSynapseStore = store;
+    }
+    
+    /**
+     * Returns the {@link DistalSynapseStore} holding the state of distal
+     * {@link Synapse}s, or null if none has been installed.
+     * @return
+     */
+    public DistalSynapseStore getDistalSynapseStore() {
+        return distalSynapseStore;
+    }
+    
+    /**
+     * Installs the {@link LearningJournal} to which the {@link SpatialPooler} and
+     * {@link TemporalMemory} report every change they make to the connectivity
+     * of this model while learning.
+     * 
+     * @param journal   the journal to use, or null to stop journaling
+     */
+    public void setLearningJournal(LearningJournal journal) {
+        this.learningJournal = journal;
+    }
+    
+    /**
+     * Returns the {@link LearningJournal} recording the changes made
+     * by learning, or null if none has been installed.
+     * @return
+     */
+    public LearningJournal getLearningJournal() {
+        return learningJournal;
+    }
+    
+    /**
+     * Sets the {@link TraceSink} to which the {@link SpatialPooler} and the
+     * {@link TemporalMemory} send their per cycle metrics and debug messages.
+     * 
+     * @param sink  the sink to use, or null to disable tracing
+     */
+    public void setTraceSink(TraceSink sink) {
+        this.traceSink = sink == null ? TraceSink.DISABLED : sink;
+    }
+    
+    /**
+     * Returns the {@link TraceSink} receiving the diagnostic output of the
+     * algorithms, {@link TraceSink#DISABLED} by default.
+     * @return
+     */
+    public TraceSink getTraceSink() {
+        return traceSink;
+    }
+    
+    /**
+     * Adds the specified {@link DistalDendrite} to the flat segment lookup
+     * so that it may be retrieved by its index via {@link #getSegment(int)}.
+     * 
+     * @param segment   the newly created {@link DistalDendrite}
+     */
+    public void putSegment(DistalDendrite segment) {
+        int index = segment.getIndex();
+        while(segmentIndex.size() <= index) {
+            segmentIndex.add(null);
+        }
+        segmentIndex.set(index, segment);
+        claimSegmentIndex(index);
+    }
+    
+    /**
+     * Removes the specified destroyed {@link DistalDendrite} from the flat 
+     * segment lookup and discards its list of {@link Synapse}s.
+     * 
+     * @param segment   the destroyed {@link DistalDendrite}
+     */
+    public void removeSegment(DistalDendrite segment) {
+        int index = segment.getIndex();
+        if(index < segmentIndex.size() && segmentIndex.get(index) == segment) {
+            segmentIndex.set(index, null);
+            releaseSegmentIndex(index);
+        }
+        if(synapses != null) {
+            synapses.remove(segment);
+        }
+        if(distalSynapseStore != null) {
+            distalSynapseStore.removeSegment(index);
+        }
+    }
+    
+    /**
+     * Returns the {@link DistalDendrite} with the specified segment index, 
+     * or null if no such segment has been created.
+     * 
+     * @param index     the index of the segment to return
+     * @return          the {@link DistalDendrite} with the specified index
+     */
+    public DistalDendrite getSegment(int index) {
+        return index < segmentIndex.size() ? segmentIndex.get(index) : null;
+    }
+    
+    /**
+     * Returns the reusable {@link IndexedComputeCycle} holding the 
+     * state of the current cycle of the {@link IndexedTemporalMemory}
+     * @return
+     */
+    public IndexedComputeCycle getIndexedCycle() {
+        return indexedCycle;
+    }
+    
+    /**
+     * Sets the reusable {@link IndexedComputeCycle} holding the 
+     * state of the current cycle of the {@link IndexedTemporalMemory}
+     * @param cycle
+     */
+    public void setIndexedCycle(IndexedComputeCycle cycle) {
+        this.indexedCycle = cycle;
+    }
+    
+    /**
+     * Returns the reusable {@link IndexedComputeCycle} holding the 
+     * state of the previous cycle of the {@link IndexedTemporalMemory}
+     * @return
+     */
+    public IndexedComputeCycle getPrevIndexedCycle() {
+        return prevIndexedCycle;
+    }
+    
+    /**
+     * Sets the reusable {@link IndexedComputeCycle} holding the 
+     * state of the previous cycle of the {@link IndexedTemporalMemory}
+     * @param cycle
+     */
+    public void setPrevIndexedCycle(IndexedComputeCycle cycle) {
+        this.prevIndexedCycle = cycle;
+    }
+    
     /**
      * Returns the mapping of {@link DistalDendrite}s to their {@link Synapse}s.
+     * When a {@link DistalSynapseStore} is installed, returns a read only view
+     * of the synapses it holds.
      * 
      * @param segment   the {@link DistalDendrite} used as a key.
      * @return          the mapping of {@link DistalDendrite}s to their {@link Synapse}s.
@@ -1234,6 +1683,10 @@ public class Connections {
             throw new IllegalArgumentException("Segment was null");
         }
         
+        if(distalSynapseStore != null) {
+            return distalSynapseStore.getSynapses(this, segment);
+        }
+        
         if(synapses == null) {
             synapses = new LinkedHashMap<Segment, List<Synapse>>();
         }
@@ -1284,6 +1737,7 @@ public class Connections {
      * @param columnDimensions
      */
     public void setColumnDimensions(int[] columnDimensions) {
+        Arrays.fill(neighborhoods, null);
         this.columnDimensions = columnDimensions;
     }
     
@@ -1412,6 +1866,80 @@ public class Connections {
     public int getMaxNewSynapseCount() {
     	return maxNewSynapseCount;
     }
+    
+    /**
+     * Sets the maximum number of segments a cell may own. When exceeded,
+     * the least recently used segment of the cell is destroyed.
+     * 
+     * @param maxSegmentsPerCell
+     */
+    public void setMaxSegmentsPerCell(int maxSegmentsPerCell) {
+        this.maxSegmentsPerCell = maxSegmentsPerCell;
+    }
+    
+    /**
+     * Returns the maximum number of segments a cell may own.
+     * @return
+     */
+    public int getMaxSegmentsPerCell() {
+        return maxSegmentsPerCell;
+    }
+    
+    /**
+     * Sets the maximum number of synapses a segment may own. When exceeded,
+     * the synapses having the lowest permanences are destroyed.
+     * 
+     * @param maxSynapsesPerSegment
+     */
+    public void setMaxSynapsesPerSegment(int maxSynapsesPerSegment) {
+        this.maxSynapsesPerSegment = maxSynapsesPerSegment;
+    }
+    
+    /**
+     * Returns the maximum number of synapses a segment may own.
+     * @return
+     */
+    public int getMaxSynapsesPerSegment() {
+        return maxSynapsesPerSegment;
+    }
+    
+    /**
+     * Sets whether synapses whose permanence decays to zero
+     * are destroyed during learning.
+     * 
+     * @param prune
+     */
+    public void setPruneZeroPermanenceSynapses(boolean prune) {
+        this.pruneZeroPermanenceSynapses = prune;
+    }
+    
+    /**
+     * Returns a flag indicating whether synapses whose permanence 
+     * decays to zero are destroyed during learning.
+     * @return
+     */
+    public boolean getPruneZeroPermanenceSynapses() {
+        return pruneZeroPermanenceSynapses;
+    }
+    
+    /**
+     * Returns the number of compute cycles run by the temporal memory,
+     * used to determine the least recently used segments.
+     * @return
+     */
+    public int getTmIterationNum() {
+        return tmIterationNum;
+    }
+    
+    /**
+     * Sets the number of compute cycles run by the temporal memory. The indexes
+     * of the segments destroyed so far become available for new segments.
+     * @param num
+     */
+    public void setTmIterationNum(int num) {
+        this.tmIterationNum = num;
+        freeReleasedSegmentIndexes();
+    }
 
     /** 
      * Initial permanence of a new synapse 
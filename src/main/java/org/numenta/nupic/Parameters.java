@@ -76,6 +76,9 @@ public class Parameters {
         defaultTemporalParams.put(KEY.CONNECTED_PERMANENCE, 0.5);
         defaultTemporalParams.put(KEY.PERMANENCE_INCREMENT, 0.10);
         defaultTemporalParams.put(KEY.PERMANENCE_DECREMENT, 0.10);
+        defaultTemporalParams.put(KEY.MAX_SEGMENTS_PER_CELL, Integer.MAX_VALUE);
+        defaultTemporalParams.put(KEY.MAX_SYNAPSES_PER_SEGMENT, Integer.MAX_VALUE);
+        defaultTemporalParams.put(KEY.PRUNE_ZERO_PERMANENCE_SYNAPSES, false);
         defaultTemporalParams.put(KEY.TM_VERBOSITY, 0);
         DEFAULTS_TEMPORAL = Collections.unmodifiableMap(defaultTemporalParams);
         defaultParams.putAll(DEFAULTS_TEMPORAL);
@@ -169,6 +172,21 @@ public class Parameters {
          * are decremented during learning.
          */
         PERMANENCE_DECREMENT("permanenceDecrement", Double.class, 0.0, 1.0),
+        /**
+         * The maximum number of segments a cell may own. When exceeded,
+         * the least recently used segment of the cell is destroyed.
+         */
+        MAX_SEGMENTS_PER_CELL("maxSegmentsPerCell", Integer.class, 1, null),
+        /**
+         * The maximum number of synapses a segment may own. When exceeded,
+         * the synapses having the lowest permanences are destroyed.
+         */
+        MAX_SYNAPSES_PER_SEGMENT("maxSynapsesPerSegment", Integer.class, 1, null),
+        /**
+         * Whether synapses whose permanence decays to 
+         * zero are destroyed during learning.
+         */
+        PRUNE_ZERO_PERMANENCE_SYNAPSES("pruneZeroPermanenceSynapses", Boolean.class),
         TM_VERBOSITY("tmVerbosity", Integer.class, 0, 10),
 
         /////////// Spatial Pooler Parameters ///////////
@@ -541,6 +559,36 @@ public class Parameters {
         paramMap.put(KEY.PERMANENCE_DECREMENT, permanenceDecrement);
     }
 
+    /**
+     * The maximum number of segments a cell may own. When exceeded,
+     * the least recently used segment of the cell is destroyed.
+     *
+     * @param maxSegmentsPerCell
+     */
+    public void setMaxSegmentsPerCell(int maxSegmentsPerCell) {
+        paramMap.put(KEY.MAX_SEGMENTS_PER_CELL, maxSegmentsPerCell);
+    }
+
+    /**
+     * The maximum number of synapses a segment may own. When exceeded,
+     * the synapses having the lowest permanences are destroyed.
+     *
+     * @param maxSynapsesPerSegment
+     */
+    public void setMaxSynapsesPerSegment(int maxSynapsesPerSegment) {
+        paramMap.put(KEY.MAX_SYNAPSES_PER_SEGMENT, maxSynapsesPerSegment);
+    }
+
+    /**
+     * Whether synapses whose permanence decays to
+     * zero are destroyed during learning.
+     *
+     * @param prune
+     */
+    public void setPruneZeroPermanenceSynapses(boolean prune) {
+        paramMap.put(KEY.PRUNE_ZERO_PERMANENCE_SYNAPSES, prune);
+    }
+
     ////////////////////////////// SPACIAL POOLER PARAMS //////////////////////////////////
 
     /**
@@ -22,10 +22,9 @@
 
 package org.numenta.nupic.algorithms;
 
-import org.numenta.nupic.util.ArrayUtils;
+import java.util.Arrays;
 
-import gnu.trove.list.TDoubleList;
-import gnu.trove.list.array.TDoubleArrayList;
+import org.numenta.nupic.util.TraceSink;
 
 /**
  * Stores an activationPattern bit history.
@@ -36,13 +35,16 @@ import gnu.trove.list.array.TDoubleArrayList;
 public class BitHistory {
 	/** Store reference to the classifier */
 	CLAClassifier classifier;
-	/** Form our "id" */
-	String id;
+	/** The activation pattern bit this history is for */
+	int bitNum;
+	/** The number of steps of prediction this history is for */
+	int nSteps;
 	/**
-	 * Dictionary of bucket entries. The key is the bucket index, the
-     * value is the dutyCycle, which is the rolling average of the duty cycle
+	 * Duty cycles of the bucket entries, indexed by bucket index. Each
+	 * value is the rolling average of the duty cycle. The array only
+	 * grows up to the highest bucket index stored for this bit.
 	 */
-	TDoubleList stats;
+	double[] stats = new double[0];
 	/** lastUpdate is the iteration number of the last time it was updated. */
 	int lastTotalUpdate = -1;
 	
@@ -68,8 +70,17 @@ public class BitHistory {
 	 */
 	public BitHistory(CLAClassifier classifier, int bitNum, int nSteps) {
 		this.classifier = classifier;
-		this.id = String.format("%d[%d]", bitNum, nSteps);
-		this.stats = new TDoubleArrayList();
+		this.bitNum = bitNum;
+		this.nSteps = nSteps;
+	}
+	
+	/**
+	 * Returns the id of this history, formed of its bit number and
+	 * number of steps, as used in debug messages.
+	 * @return
+	 */
+	public String getId() {
+		return bitNum + "[" + nSteps + "]";
 	}
 	
 	/**
@@ -102,15 +113,14 @@ public class BitHistory {
 		}
 		
 		// Get the duty cycle stored for this bucket.
-		int statsLen = stats.size() - 1;
-		if(bucketIdx > statsLen) {
-			stats.add(new double[bucketIdx - statsLen]);
+		if(bucketIdx >= stats.length) {
+			stats = Arrays.copyOf(stats, bucketIdx + 1);
 		}
 		
 		// Update it now.
 	    // duty cycle n steps ago is dc{-n}
 	    // duty cycle for current iteration is (1-alpha)*dc{-n}*(1-alpha)**(n)+alpha
-		double dc = stats.get(bucketIdx);
+		double dc = stats[bucketIdx];
 		
 		// To get the duty cycle from n iterations ago that when updated to the
 	    // current iteration would equal the dc of the current iteration we simply
@@ -127,23 +137,24 @@ public class BitHistory {
 		if(denom == 0 || dcNew > DUTY_CYCLE_UPDATE_INTERVAL) {
 			double exp = Math.pow((1.0 - classifier.alpha), (iteration - lastTotalUpdate));
 			double dcT = 0;
-			for(int i = 0;i < stats.size();i++) {
+			for(int i = 0;i < stats.length;i++) {
 				dcT *= exp;
-				stats.set(i, dcT);
+				stats[i] = dcT;
 			}
 			
 			// Reset time since last update
 			lastTotalUpdate = iteration;
 			
 			// Add alpha since now exponent is 0
-			dc = stats.get(bucketIdx) + classifier.alpha;
+			dc = stats[bucketIdx] + classifier.alpha;
 		} else {
 			dc = dcNew;
 		}
 		
-		stats.set(bucketIdx, dc);
-		if(classifier.verbosity >= 2) {
-			System.out.println(String.format("updated DC for %s,  bucket %d to %f", id, bucketIdx, dc));
+		stats[bucketIdx] = dc;
+		TraceSink trace = classifier.getTraceSink();
+		if(trace.isEnabled(TraceSink.DETAIL)) {
+			trace.trace(TraceSink.DETAIL, "BitHistory", String.format("updated DC for %s,  bucket %d to %f", getId(), bucketIdx, dc));
 		}
 	}
 	
@@ -160,8 +171,8 @@ public class BitHistory {
 		// Place the duty cycle into the votes and update the running total for
 	    // normalization
 		double total = 0;
-		for(int i = 0;i < stats.size();i++) {
-			double dc = stats.get(i);
+		for(int i = 0;i < stats.length;i++) {
+			double dc = stats[i];
 			if(dc > 0.0) {
 				votes[i] = dc;
 				total += dc;
@@ -170,12 +181,44 @@ public class BitHistory {
 		
 		// Experiment... try normalizing the votes from each bit
 		if(total > 0) {
-			double[] temp = ArrayUtils.divide(votes, total);
-			for(int i = 0;i < temp.length;i++) votes[i] = temp[i];
+			for(int i = 0;i < votes.length;i++) votes[i] /= total;
+		}
+		
+		TraceSink trace = classifier.getTraceSink();
+		if(trace.isEnabled(TraceSink.DETAIL)) {
+			trace.trace(TraceSink.DETAIL, "BitHistory", String.format("bucket votes for %s: %s", getId(), pFormatArray(votes)));
+		}
+	}
+	
+	/**
+	 * Adds the normalized votes of this bit for each bucketIdx to the specified
+	 * running sum. This is equivalent to calling {@link #infer(int, double[])} on
+	 * a zeroed array and adding the result to sumVotes, without the intermediate array.
+	 * 
+	 * @param iteration		the learning iteration number, which is only incremented
+     *             			when learning is enabled
+	 * @param sumVotes		the votes accumulated so far, whose length must be at least
+	 * 						the number of buckets seen by this bit
+	 */
+	public void accumulate(int iteration, double[] sumVotes) {
+		double total = 0;
+		for(int i = 0;i < stats.length;i++) {
+			if(stats[i] > 0.0) {
+				total += stats[i];
+			}
+		}
+		if(total > 0) {
+			for(int i = 0;i < stats.length;i++) {
+				if(stats[i] > 0.0) {
+					sumVotes[i] += stats[i] / total;
+				}
+			}
 		}
 		
-		if(classifier.verbosity >= 2) {
-			System.out.println(String.format("bucket votes for %s:", id, pFormatArray(votes)));
+		TraceSink trace = classifier.getTraceSink();
+		if(trace.isEnabled(TraceSink.DETAIL)) {
+			double[] votes = new double[sumVotes.length];
+			infer(iteration, votes);
 		}
 	}
 	
@@ -24,16 +24,22 @@ package org.numenta.nupic.algorithms;
 
 import gnu.trove.list.TIntList;
 import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import org.numenta.nupic.util.ArrayUtils;
-import org.numenta.nupic.util.Deque;
-import org.numenta.nupic.util.Tuple;
+import org.numenta.nupic.util.PrintStreamTraceSink;
+import org.numenta.nupic.util.TraceSink;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
@@ -71,6 +77,13 @@ import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 @JsonDeserialize(using=CLAClassifierDeserializer.class)
 public class CLAClassifier {
 	int verbosity = 0;
+	/** 
+	 * Receives the debug output. When not set, output up to the verbosity
+	 * level is printed to the console.
+	 */
+	TraceSink traceSink;
+	/** Infers the different steps concurrently when set */
+	ForkJoinPool inferencePool;
 	/**
 	 * The alpha used to compute running averages of the bucket duty
      * cycles for each activation pattern bit. A lower alpha results
@@ -101,14 +114,15 @@ public class CLAClassifier {
      * these so that we can associate the current iteration's classification
      * with the activationPattern from N steps ago
 	 */
-	Deque<Tuple> patternNZHistory;
+	PatternHistory patternNZHistory;
 	/**
 	 * These are the bit histories. Each one is a BitHistory instance, stored in
-     * this dict, where the key is (bit, nSteps). The 'bit' is the index of the
+     * this map, where the key is (bit, nSteps) packed into a long by 
+     * {@link #bitHistoryKey(int, int)}. The 'bit' is the index of the
      * bit in the activation pattern and nSteps is the number of steps of
      * prediction desired for that bit.
 	 */
-	Map<Tuple, BitHistory> activeBitHistory = new HashMap<Tuple, BitHistory>();
+	TLongObjectMap<BitHistory> activeBitHistory = new TLongObjectHashMap<BitHistory>();
 	/**
 	 * This keeps track of the actual value to use for each bucket index. We
      * start with 1 bucket, no actual value so that the first infer has something
@@ -142,7 +156,7 @@ public class CLAClassifier {
 		this.actValueAlpha = actValueAlpha;
 		this.verbosity = verbosity;
 		actualValues.add(null);
-		patternNZHistory = new Deque<Tuple>(steps.size() + 1);
+		patternNZHistory = new PatternHistory(historyCapacity(steps));
 	}
 	
 	/**
@@ -191,16 +205,19 @@ public class CLAClassifier {
 		// Update the learn iteration
 		learnIteration = recordNum - recordNumMinusLearnIteration;
 		
-		if(verbosity >= 1) {
-			System.out.println(String.format("\n%s: compute ", g_debugPrefix));
-			System.out.println(" recordNum: " + recordNum);
-			System.out.println(" learnIteration: " + learnIteration);
-			System.out.println(String.format(" patternNZ(%d): ", patternNZ.length, patternNZ));
-			System.out.println(" classificationIn: " + classification);
+		TraceSink trace = getTraceSink();
+		if(trace.isEnabled(TraceSink.SUMMARY)) {
+			trace.trace(TraceSink.SUMMARY, g_debugPrefix, String.format("\n%s: compute ", g_debugPrefix));
+			trace.trace(TraceSink.SUMMARY, g_debugPrefix, " recordNum: " + recordNum);
+			trace.trace(TraceSink.SUMMARY, g_debugPrefix, " learnIteration: " + learnIteration);
+			trace.trace(TraceSink.SUMMARY, g_debugPrefix, String.format(" patternNZ(%d): %s", patternNZ.length, Arrays.toString(patternNZ)));
+			trace.trace(TraceSink.SUMMARY, g_debugPrefix, " classificationIn: " + classification);
 		}
 		
-		patternNZHistory.append(new Tuple(2, learnIteration, patternNZ));
-		System.out.println("deque size = " + learnIteration + "  " + patternNZHistory);
+		patternNZHistory.append(learnIteration, patternNZ);
+		if(trace.isEnabled(TraceSink.DETAIL)) {
+			trace.trace(TraceSink.DETAIL, g_debugPrefix, "history size = " + learnIteration + "  " + patternNZHistory);
+		}
 		
 		//------------------------------------------------------------------------
 	    // Inference:
@@ -228,36 +245,18 @@ public class CLAClassifier {
 			retVal.setActualValues(actValues);
 			
 			// For each n-step prediction...
-			for(int nSteps : steps.toArray()) {
-				// Accumulate bucket index votes and actValues into these arrays
-				double[] sumVotes = new double[maxBucketIdx + 1];
-				double[] bitVotes = new double[maxBucketIdx + 1];
-				
-				for(int bit : patternNZ) {
-					Tuple key = new Tuple(2, bit, nSteps);
-					BitHistory history = activeBitHistory.get(key);
-					if(history == null) continue;
-					
-					history.infer(learnIteration, bitVotes);
-					
-					sumVotes = ArrayUtils.d_add(sumVotes, bitVotes);
-				}
-				
-				// Return the votes for each bucket, normalized
-				double total = ArrayUtils.sum(sumVotes);
-				if(total > 0) {
-					sumVotes = ArrayUtils.divide(sumVotes, total);
-				}else{
-					// If all buckets have zero probability then simply make all of the
-			        // buckets equally likely. There is no actual prediction for this
-			        // timestep so any of the possible predictions are just as good.
-					if(sumVotes.length > 0) {
-						Arrays.fill(sumVotes, 1);
-						sumVotes = ArrayUtils.divide(sumVotes, sumVotes.length);
-					}
+			int[] stepArray = steps.toArray();
+			double[][] likelihoods = new double[stepArray.length][];
+			if(inferencePool != null && stepArray.length > 1) {
+				inferencePool.invoke(new InferenceTask(stepArray, patternNZ, likelihoods, 0, stepArray.length));
+			}else{
+				for(int i = 0;i < stepArray.length;i++) {
+					likelihoods[i] = inferStep(stepArray[i], patternNZ);
 				}
-				
-				retVal.setStats(nSteps, sumVotes);
+			}
+			
+			for(int i = 0;i < stepArray.length;i++) {
+				retVal.setStats(stepArray[i], likelihoods[i]);
 			}
 		}
 		
@@ -294,30 +293,19 @@ public class CLAClassifier {
 			
 			// Train each pattern that we have in our history that aligns with the
 		    // steps we have in self.steps
-			int nSteps = -1;
-			int iteration = 0;
-			int[] learnPatternNZ = null;
-			for(int n : steps.toArray()) {
-				nSteps = n;
+			for(int i = 0;i < steps.size();i++) {
+				int nSteps = steps.get(i);
 				// Do we have the pattern that should be assigned to this classification
 		        // in our pattern history? If not, skip it
-				boolean found = false;
-				for(Tuple t : patternNZHistory) {
-					iteration = (int)t.get(0);
-					learnPatternNZ = (int[]) t.get(1);
-					if(iteration == learnIteration - nSteps) {
-						found = true;
-						break;
-					}
-					iteration++;
-				}
-				if(!found) continue;
+				int slot = patternNZHistory.find(learnIteration - nSteps);
+				if(slot == -1) continue;
 				
 				// Store classification info for each active bit from the pattern
 		        // that we got nSteps time steps ago.
-				for(int bit : learnPatternNZ) {
+				for(int j = 0, length = patternNZHistory.getLength(slot);j < length;j++) {
+					int bit = patternNZHistory.getBit(slot, j);
 					// Get the history structure for this bit and step
-					Tuple key = new Tuple(2, bit, nSteps);
+					long key = bitHistoryKey(bit, nSteps);
 					BitHistory history = activeBitHistory.get(key);
 					if(history == null) {
 						activeBitHistory.put(key, history = new BitHistory(this, bit, nSteps));
@@ -327,14 +315,14 @@ public class CLAClassifier {
 			}
 		}
 		
-		if(infer && verbosity >= 1) {
-			System.out.println(" inference: combined bucket likelihoods:");
-			System.out.println("   actual bucket values: " + Arrays.toString((T[])retVal.getActualValues()));
+		if(infer && trace.isEnabled(TraceSink.SUMMARY)) {
+			trace.trace(TraceSink.SUMMARY, g_debugPrefix, " inference: combined bucket likelihoods:");
+			trace.trace(TraceSink.SUMMARY, g_debugPrefix, "   actual bucket values: " + Arrays.toString((T[])retVal.getActualValues()));
 			
 			for(int key : retVal.stepSet()) {
-				System.out.println(String.format("  %d steps: ", key, pFormatArray((double[])retVal.getActualValue(key))));
-				int bestBucketIdx = ArrayUtils.argmax((double[])retVal.getActualValue(key));
-				System.out.println(String.format("   most likely bucket idx: %d, value: %s ", bestBucketIdx, 
+				trace.trace(TraceSink.SUMMARY, g_debugPrefix, String.format("  %d steps: %s", key, pFormatArray(retVal.getStats(key))));
+				int bestBucketIdx = ArrayUtils.argmax(retVal.getStats(key));
+				trace.trace(TraceSink.SUMMARY, g_debugPrefix, String.format("   most likely bucket idx: %d, value: %s ", bestBucketIdx, 
 					retVal.getActualValue(bestBucketIdx)));
 				
 			}
@@ -343,6 +331,157 @@ public class CLAClassifier {
 		return retVal;
 	}
 	
+	/**
+	 * Sets the {@link TraceSink} receiving the debug output of this classifier
+	 * and of its {@link BitHistory}s.
+	 * 
+	 * @param sink	the sink, or null to print up to the verbosity level to the console
+	 */
+	public void setTraceSink(TraceSink sink) {
+		this.traceSink = sink;
+	}
+	
+	/**
+	 * Returns the {@link TraceSink} receiving the debug output, which defaults
+	 * to printing up to the verbosity level to the console.
+	 * @return
+	 */
+	public TraceSink getTraceSink() {
+		if(traceSink == null) {
+			traceSink = verbosity > 0 ? new PrintStreamTraceSink(System.out, verbosity) : TraceSink.DISABLED;
+		}
+		return traceSink;
+	}
+	
+	/**
+	 * Packs an activation pattern bit and a number of steps into the 
+	 * key of their {@link BitHistory}.
+	 * 
+	 * @param bit		the index of the bit in the activation pattern
+	 * @param nSteps	the number of steps of prediction
+	 * @return	the key of the bit's history in {@link #activeBitHistory}
+	 */
+	static long bitHistoryKey(int bit, int nSteps) {
+		return ((long)bit << 32) | (nSteps & 0xFFFFFFFFL);
+	}
+	
+	/**
+	 * Returns the activation pattern bit of a key made by {@link #bitHistoryKey(int, int)}
+	 * @param key	the packed key
+	 * @return	the bit index
+	 */
+	static int keyBit(long key) {
+		return (int)(key >> 32);
+	}
+	
+	/**
+	 * Returns the number of steps of a key made by {@link #bitHistoryKey(int, int)}
+	 * @param key	the packed key
+	 * @return	the number of steps
+	 */
+	static int keySteps(long key) {
+		return (int)key;
+	}
+	
+	/**
+	 * Returns the number of iterations of pattern history needed
+	 * to learn the specified steps of prediction.
+	 * 
+	 * @param steps		the steps of prediction
+	 * @return	the capacity of the pattern history
+	 */
+	static int historyCapacity(TIntList steps) {
+		return (steps.isEmpty() ? 0 : steps.max()) + 1;
+	}
+	
+	/**
+	 * Returns the normalized likelihood of each bucket index, nSteps in
+	 * the future, given the specified active bits.
+	 * 
+	 * @param nSteps		the number of steps of prediction
+	 * @param patternNZ		the active indices of the current pattern
+	 * @return	the relative likelihood of each bucketIdx starting from bucketIdx 0
+	 */
+	double[] inferStep(int nSteps, int[] patternNZ) {
+		// Accumulate bucket index votes into this array
+		double[] sumVotes = new double[maxBucketIdx + 1];
+		
+		for(int bit : patternNZ) {
+			BitHistory history = activeBitHistory.get(bitHistoryKey(bit, nSteps));
+			if(history == null) continue;
+			
+			history.accumulate(learnIteration, sumVotes);
+		}
+		
+		// Return the votes for each bucket, normalized
+		double total = ArrayUtils.sum(sumVotes);
+		if(total > 0) {
+			for(int i = 0;i < sumVotes.length;i++) sumVotes[i] /= total;
+		}else{
+			// If all buckets have zero probability then simply make all of the
+	        // buckets equally likely. There is no actual prediction for this
+	        // timestep so any of the possible predictions are just as good.
+			Arrays.fill(sumVotes, 1.0 / sumVotes.length);
+		}
+		
+		return sumVotes;
+	}
+	
+	/**
+	 * Sets the {@link ForkJoinPool} on which the predictions for the different
+	 * steps are inferred concurrently. When null (the default), or when only
+	 * one step is predicted, inference runs on the calling thread.
+	 * 
+	 * @param pool	the pool, or null to infer sequentially
+	 */
+	public void setInferencePool(ForkJoinPool pool) {
+		this.inferencePool = pool;
+	}
+	
+	/**
+	 * Returns the {@link ForkJoinPool} used to infer the different steps
+	 * concurrently, or null if inference is sequential.
+	 * @return
+	 */
+	public ForkJoinPool getInferencePool() {
+		return inferencePool;
+	}
+	
+	/**
+	 * Infers a range of the predicted steps, splitting it in halves until
+	 * a single step remains. Bit histories are only read during inference,
+	 * so the steps do not interfere with one another.
+	 */
+	private class InferenceTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		private final int[] stepArray;
+		private final int[] patternNZ;
+		private final double[][] likelihoods;
+		private final int start;
+		private final int end;
+		
+		InferenceTask(int[] stepArray, int[] patternNZ, double[][] likelihoods, int start, int end) {
+			this.stepArray = stepArray;
+			this.patternNZ = patternNZ;
+			this.likelihoods = likelihoods;
+			this.start = start;
+			this.end = end;
+		}
+		
+		@Override
+		protected void compute() {
+			if(end - start == 1) {
+				likelihoods[start] = inferStep(stepArray[start], patternNZ);
+				return;
+			}
+			int mid = (start + end) >>> 1;
+			invokeAll(
+				new InferenceTask(stepArray, patternNZ, likelihoods, start, mid),
+				new InferenceTask(stepArray, patternNZ, likelihoods, mid, end));
+		}
+	}
+	
 	/**
 	 * Return a string with pretty-print of an array using the given format
   	 * for each element
@@ -383,4 +522,38 @@ public class CLAClassifier {
 		
 		return c;
 	}
+	
+	/**
+	 * Returns this classifier in the compact binary format of the
+	 * {@link CLAClassifierBinarySerializer}
+	 * 
+	 * @return	the serialized classifier
+	 */
+	public byte[] serializeBinary() {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try {
+			CLAClassifierBinarySerializer.write(this, bytes);
+		}catch(IOException e) {
+			e.printStackTrace();
+		}
+		
+		return bytes.toByteArray();
+	}
+	
+	/**
+	 * Restores a classifier serialized with {@link #serializeBinary()}
+	 * 
+	 * @param bytes		the serialized classifier
+	 * @return	the classifier, or null if the bytes aren't a serialized classifier
+	 */
+	public static CLAClassifier deSerializeBinary(byte[] bytes) {
+		CLAClassifier c = null;
+		try {
+			c = CLAClassifierBinarySerializer.read(new ByteArrayInputStream(bytes));
+		}catch(IOException e) {
+			e.printStackTrace();
+		}
+		
+		return c;
+	}
 }
@@ -0,0 +1,208 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+package org.numenta.nupic.algorithms;
+
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Compact binary counterpart of {@link CLAClassifierSerializer} and
+ * {@link CLAClassifierDeserializer}. The pattern history and the bit histories
+ * are written as length prefixed primitive arrays rather than as delimited 
+ * strings, so that classifiers holding many {@link BitHistory}s are saved
+ * and restored without any text formatting or parsing.
+ * <p>
+ * The format holds, in this order: the {@link #MAGIC} number and the 
+ * {@link #VERSION} of the format, the classifier's parameters and counters,
+ * its steps, its pattern history, its bit histories and its actual values
+ * (each one either null, a number or a string).
+ * </p>
+ * 
+ * @author David Ray
+ * @see CLAClassifier#serializeBinary()
+ */
+public class CLAClassifierBinarySerializer {
+	/** Identifies a serialized classifier ("CLAC") */
+	public static final int MAGIC = 0x434C4143;
+	/** The current version of the format */
+	public static final int VERSION = 1;
+	
+	private static final byte NULL_VALUE = 0;
+	private static final byte NUMBER_VALUE = 1;
+	private static final byte STRING_VALUE = 2;
+	
+	private CLAClassifierBinarySerializer() {}
+	
+	/**
+	 * Writes the specified classifier to a stream. The stream is flushed
+	 * but left open.
+	 * 
+	 * @param cla		the classifier to write
+	 * @param os		the destination stream
+	 * @throws IOException
+	 */
+	public static void write(CLAClassifier cla, OutputStream os) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os, 1 << 16));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		
+		out.writeDouble(cla.alpha);
+		out.writeDouble(cla.actValueAlpha);
+		out.writeInt(cla.learnIteration);
+		out.writeInt(cla.recordNumMinusLearnIteration);
+		out.writeInt(cla.maxBucketIdx);
+		out.writeInt(cla.verbosity);
+		
+		writeInts(out, cla.steps.toArray());
+		
+		out.writeInt(cla.patternNZHistory.capacity());
+		out.writeInt(cla.patternNZHistory.size());
+		for(int iteration : cla.patternNZHistory.iterations()) {
+			out.writeInt(iteration);
+			writeInts(out, cla.patternNZHistory.get(iteration));
+		}
+		
+		out.writeInt(cla.activeBitHistory.size());
+		for(BitHistory history : cla.activeBitHistory.valueCollection()) {
+			out.writeInt(history.bitNum);
+			out.writeInt(history.nSteps);
+			out.writeInt(history.lastTotalUpdate);
+			out.writeInt(history.stats.length);
+			for(double dc : history.stats) {
+				out.writeDouble(dc);
+			}
+		}
+		
+		out.writeInt(cla.actualValues.size());
+		for(Object o : cla.actualValues) {
+			if(o == null) {
+				out.writeByte(NULL_VALUE);
+			}else if(o instanceof Number) {
+				out.writeByte(NUMBER_VALUE);
+				out.writeDouble(((Number)o).doubleValue());
+			}else{
+				out.writeByte(STRING_VALUE);
+				out.writeUTF(o.toString());
+			}
+		}
+		out.flush();
+	}
+	
+	/**
+	 * Reads a classifier written by {@link #write(CLAClassifier, OutputStream)}.
+	 * Numeric actual values are restored as {@link Double}s, as with the 
+	 * {@link CLAClassifierDeserializer}.
+	 * 
+	 * @param is		the source stream
+	 * @return	the restored classifier
+	 * @throws IOException	if the data isn't a serialized classifier
+	 */
+	public static CLAClassifier read(InputStream is) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(is, 1 << 16));
+		if(in.readInt() != MAGIC) {
+			throw new IOException("Not a serialized classifier");
+		}
+		int version = in.readInt();
+		if(version != VERSION) {
+			throw new IOException("Unsupported classifier version: " + version);
+		}
+		
+		CLAClassifier retVal = new CLAClassifier();
+		retVal.alpha = in.readDouble();
+		retVal.actValueAlpha = in.readDouble();
+		retVal.learnIteration = in.readInt();
+		retVal.recordNumMinusLearnIteration = in.readInt();
+		retVal.maxBucketIdx = in.readInt();
+		retVal.verbosity = in.readInt();
+		
+		TIntList steps = new TIntArrayList(readInts(in));
+		retVal.steps = steps;
+		
+		PatternHistory patterns = new PatternHistory(in.readInt());
+		int numPatterns = in.readInt();
+		for(int i = 0;i < numPatterns;i++) {
+			int iteration = in.readInt();
+			patterns.append(iteration, readInts(in));
+		}
+		retVal.patternNZHistory = patterns;
+		
+		int numHistories = in.readInt();
+		TLongObjectMap<BitHistory> bitHistoryMap = new TLongObjectHashMap<BitHistory>(numHistories);
+		for(int i = 0;i < numHistories;i++) {
+			BitHistory history = new BitHistory();
+			history.classifier = retVal;
+			history.bitNum = in.readInt();
+			history.nSteps = in.readInt();
+			history.lastTotalUpdate = in.readInt();
+			history.stats = new double[in.readInt()];
+			for(int j = 0;j < history.stats.length;j++) {
+				history.stats[j] = in.readDouble();
+			}
+			bitHistoryMap.put(CLAClassifier.bitHistoryKey(history.bitNum, history.nSteps), history);
+		}
+		retVal.activeBitHistory = bitHistoryMap;
+		
+		int numValues = in.readInt();
+		List<Object> values = new ArrayList<Object>(numValues);
+		for(int i = 0;i < numValues;i++) {
+			byte type = in.readByte();
+			switch(type) {
+				case NULL_VALUE: values.add(null); break;
+				case NUMBER_VALUE: values.add(in.readDouble()); break;
+				case STRING_VALUE: values.add(in.readUTF()); break;
+				default: throw new IOException("Unknown actual value type: " + type);
+			}
+		}
+		retVal.actualValues = values;
+		
+		return retVal;
+	}
+	
+	private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+		out.writeInt(values.length);
+		for(int v : values) {
+			out.writeInt(v);
+		}
+	}
+	
+	private static int[] readInts(DataInputStream in) throws IOException {
+		int[] values = new int[in.readInt()];
+		for(int i = 0;i < values.length;i++) {
+			values[i] = in.readInt();
+		}
+		return values;
+	}
+}
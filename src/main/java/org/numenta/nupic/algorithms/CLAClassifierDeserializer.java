@@ -22,19 +22,15 @@
 
 package org.numenta.nupic.algorithms;
 
-import gnu.trove.list.TDoubleList;
 import gnu.trove.list.TIntList;
-import gnu.trove.list.array.TDoubleArrayList;
 import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
-import org.numenta.nupic.util.Deque;
-import org.numenta.nupic.util.Tuple;
 
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
@@ -67,7 +63,7 @@ public class CLAClassifierDeserializer extends JsonDeserializer<CLAClassifier> {
         retVal.steps = t;
         
         String[] tupleStrs = node.get("patternNZHistory").asText().split(";");
-        Deque<Tuple> patterns = new Deque<Tuple>(tupleStrs.length);
+        PatternHistory patterns = new PatternHistory(CLAClassifier.historyCapacity(t));
         for(String tupleStr : tupleStrs) {
         	String[] tupleParts = tupleStr.split("-");
         	int iteration = Integer.parseInt(tupleParts[0]);
@@ -77,33 +73,31 @@ public class CLAClassifierDeserializer extends JsonDeserializer<CLAClassifier> {
         	for(int i = 0;i < indices.length;i++) {
         		indices[i] = Integer.parseInt(indexes[i].trim());
         	}
-        	Tuple tup = new Tuple(2, iteration, indices);
-        	patterns.append(tup);
+        	patterns.append(iteration, indices);
         }
         retVal.patternNZHistory = patterns;
         
-        Map<Tuple, BitHistory> bitHistoryMap = new HashMap<Tuple, BitHistory>();
+        TLongObjectMap<BitHistory> bitHistoryMap = new TLongObjectHashMap<BitHistory>();
         String[] bithists = node.get("activeBitHistory").asText().split(";");
         for(String bh : bithists) {
         	String[] parts = bh.split("-");
         	
         	String[] left = parts[0].split(",");
-        	Tuple iteration = new Tuple(2, Integer.parseInt(left[0].trim()), Integer.parseInt(left[1].trim()));
-        	
         	BitHistory bitHistory = new BitHistory();
+        	bitHistory.bitNum = Integer.parseInt(left[0].trim());
+        	bitHistory.nSteps = Integer.parseInt(left[1].trim());
         	String[] right = parts[1].split("=");
-        	bitHistory.id = right[0].trim();
         	
-        	TDoubleList dubs = new TDoubleArrayList();
         	String[] stats = right[1].substring(1, right[1].indexOf("}")).trim().split(",");
+        	double[] dubs = new double[stats.length];
         	for(int i = 0;i < stats.length;i++) {
-        		dubs.add(Double.parseDouble(stats[i].trim()));
+        		dubs[i] = Double.parseDouble(stats[i].trim());
         	}
         	bitHistory.stats = dubs;
         	
         	bitHistory.lastTotalUpdate = Integer.parseInt(right[2].trim());
         	
-        	bitHistoryMap.put(iteration, bitHistory);
+        	bitHistoryMap.put(CLAClassifier.bitHistoryKey(bitHistory.bitNum, bitHistory.nSteps), bitHistory);
         }
         retVal.activeBitHistory = bitHistoryMap;
         
@@ -121,8 +115,8 @@ public class CLAClassifierDeserializer extends JsonDeserializer<CLAClassifier> {
         retVal.actualValues = l;
         
         //Go back and set the classifier on the BitHistory objects
-        for(Tuple tuple : bitHistoryMap.keySet()) {
-        	bitHistoryMap.get(tuple).classifier = retVal;
+        for(BitHistory bitHistory : bitHistoryMap.valueCollection()) {
+        	bitHistory.classifier = retVal;
         }
         
         return retVal;
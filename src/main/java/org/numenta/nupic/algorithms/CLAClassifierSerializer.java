@@ -25,7 +25,6 @@ package org.numenta.nupic.algorithms;
 import java.io.IOException;
 import java.util.Arrays;
 
-import org.numenta.nupic.util.Tuple;
 
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
@@ -53,18 +52,23 @@ public class CLAClassifierSerializer extends JsonSerializer<CLAClassifier> {
 		jgen.writeStringField("steps", sb.toString());
 		
 		sb = new StringBuilder();
-		for(Tuple t : cla.patternNZHistory) {
-			sb.append(t.get(0)).append("-").append(Arrays.toString((int[])t.get(1))).append(";");
+		for(int iteration : cla.patternNZHistory.iterations()) {
+			sb.append(iteration).append("-").append(Arrays.toString(cla.patternNZHistory.get(iteration))).append(";");
 		}
 		sb.setLength(sb.length() - 1);
 		jgen.writeStringField("patternNZHistory", sb.toString());
 		
 		sb = new StringBuilder();
-		for(Tuple t : cla.activeBitHistory.keySet()) {
-			sb.append(t.get(0)).append(",").append(t.get(1)).append("-");
-			BitHistory bh = cla.activeBitHistory.get(t);
-			sb.append(bh.id).append("=").append(bh.stats).append("=").append(bh.lastTotalUpdate)
-			.append(";");
+		for(long key : cla.activeBitHistory.keys()) {
+			sb.append(CLAClassifier.keyBit(key)).append(",").append(CLAClassifier.keySteps(key)).append("-");
+			BitHistory bh = cla.activeBitHistory.get(key);
+			sb.append(bh.getId()).append("=");
+			sb.append("{");
+			for(int i = 0;i < bh.stats.length;i++) {
+				sb.append(i > 0 ? ", " : "").append(bh.stats[i]);
+			}
+			sb.append("}");
+			sb.append("=").append(bh.lastTotalUpdate).append(";");
 		}
 		sb.setLength(sb.length() - 1);
 		jgen.writeStringField("activeBitHistory", sb.toString());
@@ -0,0 +1,218 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+package org.numenta.nupic.algorithms;
+
+import java.util.Arrays;
+
+/**
+ * Fixed capacity history of the active bits fed to the {@link CLAClassifier},
+ * keyed by learning iteration.
+ * <p>
+ * The pattern of a given iteration lives in the slot {@code iteration mod capacity},
+ * so finding the pattern seen n steps ago is a constant time operation. All
+ * patterns are copied into a single pooled int arena which is divided into
+ * slots of equal stride; the stride only grows when a pattern longer than any
+ * previous one is appended. Appending or looking up a pattern therefore creates
+ * no objects once the history has warmed up.
+ * </p><p>
+ * Like a bounded deque, only the patterns of the last {@code capacity} calls to
+ * {@link #append(int, int[])} are remembered, so that presenting the same
+ * iteration twice also ages the oldest pattern out.
+ * </p>
+ * 
+ * @author David Ray
+ */
+public class PatternHistory {
+	/** Marks a slot holding no pattern */
+	private static final int EMPTY = Integer.MIN_VALUE;
+	
+	private final int capacity;
+	/** The iteration whose pattern is held by each slot */
+	private final int[] iterations;
+	/** The value of {@link #appends} when each slot was written */
+	private final long[] stamps;
+	/** The number of active bits of each slot's pattern */
+	private final int[] lengths;
+	/** Pattern storage, slot i starting at i * stride */
+	private int[] arena;
+	private int stride;
+	private long appends;
+	
+	/**
+	 * Constructs a new {@code PatternHistory} able to hold the patterns
+	 * of the specified number of consecutive iterations.
+	 * 
+	 * @param capacity	the number of iterations remembered
+	 */
+	public PatternHistory(int capacity) {
+		if(capacity < 1) {
+			throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+		}
+		this.capacity = capacity;
+		iterations = new int[capacity];
+		lengths = new int[capacity];
+		stamps = new long[capacity];
+		Arrays.fill(iterations, EMPTY);
+		arena = new int[0];
+	}
+	
+	/**
+	 * Records the active bits of the specified iteration, replacing
+	 * the pattern previously held by its slot.
+	 * 
+	 * @param iteration		the learning iteration
+	 * @param patternNZ		the active bits, which are copied
+	 */
+	public void append(int iteration, int[] patternNZ) {
+		if(patternNZ.length > stride) {
+			grow(patternNZ.length);
+		}
+		int slot = slotOf(iteration);
+		iterations[slot] = iteration;
+		stamps[slot] = appends++;
+		lengths[slot] = patternNZ.length;
+		System.arraycopy(patternNZ, 0, arena, slot * stride, patternNZ.length);
+	}
+	
+	/**
+	 * Returns the slot holding the pattern of the specified iteration,
+	 * or -1 if that pattern isn't (or is no longer) remembered.
+	 * 
+	 * @param iteration		the learning iteration
+	 * @return	the slot index or -1
+	 */
+	public int find(int iteration) {
+		int slot = slotOf(iteration);
+		return iterations[slot] == iteration && isLive(slot) ? slot : -1;
+	}
+	
+	/**
+	 * Returns the number of active bits of the pattern in the specified slot
+	 * 
+	 * @param slot	a slot returned by {@link #find(int)}
+	 * @return	the pattern's length
+	 */
+	public int getLength(int slot) {
+		return lengths[slot];
+	}
+	
+	/**
+	 * Returns the i'th active bit of the pattern in the specified slot
+	 * 
+	 * @param slot	a slot returned by {@link #find(int)}
+	 * @param i		the position within the pattern
+	 * @return	the index of the active bit
+	 */
+	public int getBit(int slot, int i) {
+		return arena[slot * stride + i];
+	}
+	
+	/**
+	 * Returns a copy of the pattern of the specified iteration,
+	 * or null if it isn't remembered.
+	 * 
+	 * @param iteration		the learning iteration
+	 * @return	the active bits or null
+	 */
+	public int[] get(int iteration) {
+		int slot = find(iteration);
+		if(slot == -1) return null;
+		return Arrays.copyOfRange(arena, slot * stride, slot * stride + lengths[slot]);
+	}
+	
+	/**
+	 * Returns the remembered iterations, oldest first
+	 * @return
+	 */
+	public int[] iterations() {
+		int[] retVal = new int[size()];
+		int i = 0;
+		for(int slot = 0;slot < capacity;slot++) {
+			if(isLive(slot)) {
+				retVal[i++] = iterations[slot];
+			}
+		}
+		Arrays.sort(retVal);
+		return retVal;
+	}
+	
+	/**
+	 * Returns the number of patterns held
+	 * @return
+	 */
+	public int size() {
+		int size = 0;
+		for(int slot = 0;slot < capacity;slot++) {
+			if(isLive(slot)) size++;
+		}
+		return size;
+	}
+	
+	/**
+	 * Returns the number of iterations this history can remember
+	 * @return
+	 */
+	public int capacity() {
+		return capacity;
+	}
+	
+	/**
+	 * Widens every slot of the arena to hold patterns of the specified length
+	 * 
+	 * @param newStride		the new slot width
+	 */
+	private void grow(int newStride) {
+		newStride = Math.max(newStride, stride * 2);
+		int[] newArena = new int[capacity * newStride];
+		for(int slot = 0;slot < capacity;slot++) {
+			System.arraycopy(arena, slot * stride, newArena, slot * newStride, lengths[slot]);
+		}
+		arena = newArena;
+		stride = newStride;
+	}
+	
+	/**
+	 * Returns a flag indicating whether the slot holds one of the
+	 * patterns of the last {@code capacity} appends.
+	 */
+	private boolean isLive(int slot) {
+		return iterations[slot] != EMPTY && stamps[slot] >= appends - capacity;
+	}
+	
+	private int slotOf(int iteration) {
+		int slot = iteration % capacity;
+		return slot < 0 ? slot + capacity : slot;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("[");
+		for(int iteration : iterations()) {
+			sb.append(sb.length() > 1 ? ", " : "").append(iteration).append("=").append(Arrays.toString(get(iteration)));
+		}
+		return sb.append("]").toString();
+	}
+}
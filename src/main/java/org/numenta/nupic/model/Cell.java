@@ -26,6 +26,7 @@ import java.util.List;
 import java.util.Set;
 
 import org.numenta.nupic.Connections;
+import org.numenta.nupic.persistence.LearningJournal;
 
 /**
  * Software implementation of a neuron in the neocortical region.
@@ -77,6 +78,17 @@ public class Cell implements Comparable<Cell> {
         c.getReceptorSynapses(this).add(s);
     }
     
+    /**
+     * Removes a {@link Synapse} which was the receiver of signals
+     * from this {@code Cell}
+     * 
+     * @param c     the connections state of the temporal memory
+     * @param s     the destroyed {@link Synapse}
+     */
+    public void removeReceptorSynapse(Connections c, Synapse s) {
+        c.getReceptorSynapses(this).remove(s);
+    }
+    
     /**
      * Returns the Set of {@link Synapse}s which have this cell
      * as their source cells.
@@ -99,6 +111,12 @@ public class Cell implements Comparable<Cell> {
     public DistalDendrite createSegment(Connections c, int index) {
         DistalDendrite dd = new DistalDendrite(this, index);
         c.getSegments(this).add(dd);
+        c.putSegment(dd);
+        
+        LearningJournal journal = c.getLearningJournal();
+        if(journal != null) {
+            journal.segmentCreated(dd);
+        }
         
         return dd;
     }
@@ -113,6 +131,29 @@ public class Cell implements Comparable<Cell> {
         return c.getSegments(this);
     }
     
+    /**
+     * Destroys the segment of this {@code Cell} which was the least recently
+     * active or learning. Ties are broken in favor of destroying the segment 
+     * with the fewest synapses, then the oldest one.
+     * 
+     * @param   c   the connections state of the temporal memory
+     */
+    public void destroyLeastRecentlyUsedSegment(Connections c) {
+        DistalDendrite leastUsed = null;
+        int leastUsedSynapses = 0;
+        for(DistalDendrite dd : c.getSegments(this)) {
+            int numSynapses = c.getSynapses(dd).size();
+            if(leastUsed == null || dd.getLastUsedIteration() < leastUsed.getLastUsedIteration() ||
+                (dd.getLastUsedIteration() == leastUsed.getLastUsedIteration() && numSynapses < leastUsedSynapses)) {
+                leastUsed = dd;
+                leastUsedSynapses = numSynapses;
+            }
+        }
+        if(leastUsed != null) {
+            leastUsed.destroy(c);
+        }
+    }
+    
     /**
      * {@inheritDoc}
      */
@@ -31,6 +31,7 @@ import java.util.Random;
 import java.util.Set;
 
 import org.numenta.nupic.Connections;
+import org.numenta.nupic.persistence.LearningJournal;
 
 /**
  * Represents a proximal or distal dendritic segment.
@@ -42,8 +43,13 @@ import org.numenta.nupic.Connections;
  * @author David Ray
  */
 public class DistalDendrite extends Segment {
+    /** Permanences below this value are considered to be zero */
+    public static final double EPSILON = 0.00001;
+    
     private Cell cell;
     private int index;
+    private int lastUsedIteration;
+    private boolean destroyed;
     
     /**
      * Constructs a new {@code Segment} object with the specified
@@ -65,6 +71,109 @@ public class DistalDendrite extends Segment {
         return cell;
     }
     
+    /**
+     * Returns this {@code DistalDendrite}'s index.
+     * @return
+     */
+    public int getIndex() {
+        return index;
+    }
+    
+    /**
+     * Returns the iteration of the {@link org.numenta.nupic.research.TemporalMemory}
+     * during which this segment was last active or learning.
+     * @return
+     */
+    public int getLastUsedIteration() {
+        return lastUsedIteration;
+    }
+    
+    /**
+     * Records the iteration during which this segment was last
+     * active or learning.
+     * 
+     * @param iteration     the current iteration
+     */
+    public void setLastUsedIteration(int iteration) {
+        this.lastUsedIteration = iteration;
+    }
+    
+    /**
+     * Returns a flag indicating whether this segment has been destroyed
+     * @return
+     */
+    public boolean isDestroyed() {
+        return destroyed;
+    }
+    
+    /**
+     * Destroys this segment along with all of its {@link Synapse}s, and
+     * removes it from its parent {@link Cell}. Its index is given to a segment
+     * created in a later iteration (see {@link Connections#nextSegmentIndex()}).
+     * 
+     * @param c     the connections state of the temporal memory
+     */
+    public void destroy(Connections c) {
+        List<Synapse> synapses = c.getSynapses(this);
+        for(int i = synapses.size() - 1;i >= 0;i--) {
+            synapses.get(i).destroy(c);
+        }
+        c.getSegments(cell).remove(this);
+        c.removeSegment(this);
+        destroyed = true;
+        
+        LearningJournal journal = c.getLearningJournal();
+        if(journal != null) {
+            journal.segmentDestroyed(this);
+        }
+    }
+    
+    /**
+     * Destroys the specified {@link Synapse} owned by this segment.
+     * 
+     * @param c     the connections state of the temporal memory
+     * @param s     the {@link Synapse} to destroy
+     */
+    public void destroySynapse(Connections c, Synapse s) {
+        // A DistalSynapseStore removes the synapse from this segment itself
+        if(c.getDistalSynapseStore() == null) {
+            c.getSynapses(this).remove(s);
+        }
+        s.destroy(c);
+        
+        LearningJournal journal = c.getLearningJournal();
+        if(journal != null) {
+            journal.synapseDestroyed(this, s);
+        }
+    }
+    
+    /**
+     * Destroys the {@link Synapse}s with the lowest permanences until the 
+     * specified number of synapses have been destroyed, sparing those 
+     * contained in the specified set.
+     * 
+     * @param c         the connections state of the temporal memory
+     * @param count     the number of synapses to destroy
+     * @param exclude   the synapses which must not be destroyed
+     * @return  the number of synapses actually destroyed
+     */
+    public int destroyWeakestSynapses(Connections c, int count, Set<Synapse> exclude) {
+        List<Synapse> synapses = c.getSynapses(this);
+        int destroyedCount = 0;
+        for(;destroyedCount < count;destroyedCount++) {
+            Synapse weakest = null;
+            for(int i = 0;i < synapses.size();i++) {
+                Synapse s = synapses.get(i);
+                if(!exclude.contains(s) && (weakest == null || s.getPermanence() < weakest.getPermanence())) {
+                    weakest = s;
+                }
+            }
+            if(weakest == null) break;
+            destroySynapse(c, weakest);
+        }
+        return destroyedCount;
+    }
+    
     /**
      * Creates and returns a newly created {@link Synapse} with the specified
      * source cell, permanence, and index.
@@ -77,9 +186,20 @@ public class DistalDendrite extends Segment {
      * @return
      */
     public Synapse createSynapse(Connections c, Cell sourceCell, double permanence, int index) {
-    	Pool pool = new Pool(1);
-    	Synapse s = super.createSynapse(c, c.getSynapses(this), sourceCell, pool, index, sourceCell.getIndex());
-    	pool.setPermanence(c, s, permanence);
+        DistalSynapseStore store = c.getDistalSynapseStore();
+        Synapse s = null;
+        if(store != null) {
+            s = new Synapse(c, sourceCell, this, store, index, permanence);
+        }else{
+            Pool pool = new Pool(1);
+            s = super.createSynapse(c, c.getSynapses(this), sourceCell, pool, index, sourceCell.getIndex());
+            pool.setPermanence(c, s, permanence);
+        }
+        
+        LearningJournal journal = c.getLearningJournal();
+        if(journal != null) {
+            journal.synapseCreated(this, s);
+        }
         return s;
     }
     
@@ -116,9 +236,35 @@ public class DistalDendrite extends Segment {
         return connectedSynapses;
     }
     
+    /**
+     * Returns the number of synapses on a segment that are active due to lateral
+     * input from active cells, without collecting them as does
+     * {@link #getConnectedActiveSynapses(Map, double)}.
+     * 
+     * @param activeSynapsesForSegment
+     * @param permanenceThreshold
+     * @return
+     */
+    public int getConnectedActiveSynapseCount(Map<DistalDendrite, Set<Synapse>> activeSynapsesForSegment, double permanenceThreshold) {
+        Set<Synapse> activeSynapses = activeSynapsesForSegment.get(this);
+        if(activeSynapses == null) {
+            return 0;
+        }
+        
+        int count = 0;
+        for(Synapse s : activeSynapses) {
+            if(s.getPermanence() >= permanenceThreshold) {
+                count++;
+            }
+        }
+        return count;
+    }
+    
     /**
      * Called for learning {@code Segment}s so that they may
-     * adjust the permanences of their synapses.
+     * adjust the permanences of their synapses. Synapses whose permanence
+     * drops to zero are destroyed when {@link Connections#getPruneZeroPermanenceSynapses()}
+     * is set.
      * 
      * @param c                     the connections state of the temporal memory
      * @param activeSynapses        a set of active synapses owned by this {@code Segment} which
@@ -128,7 +274,10 @@ public class DistalDendrite extends Segment {
      * @param permanenceDecrement   the increment by which permanences are decreased.
      */
     public void adaptSegment(Connections c, Set<Synapse> activeSynapses, double permanenceIncrement, double permanenceDecrement) {
-        for(Synapse synapse : c.getSynapses(this)) {
+        List<Synapse> synapses = c.getSynapses(this);
+        boolean prune = c.getPruneZeroPermanenceSynapses();
+        for(int i = 0;i < synapses.size();i++) {
+            Synapse synapse = synapses.get(i);
             double permanence = synapse.getPermanence();
             if(activeSynapses.contains(synapse)) {
                 permanence += permanenceIncrement;
@@ -138,8 +287,19 @@ public class DistalDendrite extends Segment {
             
             permanence = Math.max(0, Math.min(1.0, permanence));
             
+            if(prune && permanence < EPSILON) {
+                destroySynapse(c, synapse);
+                i--;
+                continue;
+            }
+            
             synapse.setPermanence(c, permanence);
         }
+        
+        LearningJournal journal = c.getLearningJournal();
+        if(journal != null) {
+            journal.segmentAdapted(c, this);
+        }
     }
     
     /**
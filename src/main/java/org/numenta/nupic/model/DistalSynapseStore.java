@@ -0,0 +1,557 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+package org.numenta.nupic.model;
+
+import gnu.trove.list.array.TIntArrayList;
+
+import java.util.AbstractList;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.Set;
+
+import org.numenta.nupic.Connections;
+
+/**
+ * Structure-of-arrays storage for the {@link Synapse}s of {@link DistalDendrite}s.
+ * <p>
+ * By default each distal {@link Synapse} is an object owning a one entry {@link Pool}
+ * holding several hash maps and sets just to remember its permanence, and is referenced
+ * by the synapse list of its segment and the receptor set of its source cell. When a
+ * {@code DistalSynapseStore} is installed on the {@link Connections} object (see 
+ * {@link Connections#setDistalSynapseStore(DistalSynapseStore)}), distal synapses instead
+ * occupy a slot of this store, which keeps the presynaptic cell index, segment index, 
+ * synapse index and permanence of every synapse in flat primitive arrays. The slots of
+ * the synapses of each segment, and of the synapses having each cell as their source, are
+ * kept in creation order in one int list per segment and per cell. {@link Connections#getSynapses(DistalDendrite)}
+ * and {@link Connections#getReceptorSynapses(Cell)} then return read only views of these
+ * lists, whose {@link Synapse}s are transient views onto their slots: no object is retained
+ * per synapse. A store opened over existing records supplies the initial slots of each
+ * segment and cell through {@link #getBaseSynapseSlot(int, int)} and {@link #getBaseReceptorSlot(int, int)}, 
+ * and a list is only built when first modified.
+ * </p><p>
+ * Permanences may optionally be held as floats, halving the size of the
+ * permanence array at the cost of precision.
+ * </p><p>
+ * Slots released by destroyed synapses (see {@link #remove(int)}) are
+ * handed out again by subsequent calls to {@link #add(int, int, double, int)}.
+ * </p><p>
+ * {@link OffHeapSynapseStore} keeps the records outside of the Java heap.
+ * </p>
+ *
+ * @author David Ray
+ * @see Synapse
+ * @see DistalDendrite#createSynapse(Connections, Cell, double, int)
+ */
+public class DistalSynapseStore {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final boolean floatPermanences;
+
+    private int size;
+    private int[] sourceCells;
+    private int[] segments;
+    private int[] indexes;
+    private double[] permanences;
+    private float[] floatPerms;
+    private TIntArrayList freeSlots = new TIntArrayList();
+    
+    /** The slots of each segment's synapses, by segment index */
+    private TIntArrayList[] segmentSlots = new TIntArrayList[0];
+    /** The slots of the synapses having each cell as their source, by cell index */
+    private TIntArrayList[] receptorSlots = new TIntArrayList[0];
+
+    /**
+     * Constructs a new {@code DistalSynapseStore} holding
+     * permanences at double precision.
+     */
+    public DistalSynapseStore() {
+        this(false);
+    }
+
+    /**
+     * Constructs a new {@code DistalSynapseStore}
+     *
+     * @param floatPermanences  if true, permanences are stored as floats
+     *                          rather than as doubles.
+     */
+    public DistalSynapseStore(boolean floatPermanences) {
+        this(floatPermanences, INITIAL_CAPACITY);
+    }
+    
+    /**
+     * Constructs a new {@code DistalSynapseStore} whose on heap arrays 
+     * initially hold the specified number of synapses. Subclasses keeping
+     * their records elsewhere pass a capacity of zero.
+     * 
+     * @param floatPermanences  if true, permanences are stored as floats
+     *                          rather than as doubles.
+     * @param initialCapacity   the initial capacity of the arrays
+     */
+    protected DistalSynapseStore(boolean floatPermanences, int initialCapacity) {
+        this.floatPermanences = floatPermanences;
+        sourceCells = new int[initialCapacity];
+        segments = new int[initialCapacity];
+        indexes = new int[initialCapacity];
+        if(floatPermanences) {
+            floatPerms = new float[initialCapacity];
+        }else{
+            permanences = new double[initialCapacity];
+        }
+    }
+
+    /**
+     * Reserves a new slot for a synapse, appends it to the synapses of its segment
+     * and to the receptors of its source cell, and returns its slot index. Previously
+     * released slots are reused before any new one is allocated.
+     *
+     * @param sourceCell    the index of the presynaptic {@link Cell}
+     * @param segment       the index of the owning {@link DistalDendrite}
+     * @param permanence    the initial permanence
+     * @param index         the index of the {@link Synapse}
+     * @return  the slot index of the new synapse
+     */
+    public int add(int sourceCell, int segment, double permanence, int index) {
+        int slot = freeSlots.isEmpty() ? allocate() : freeSlots.removeAt(freeSlots.size() - 1);
+        setRecord(slot, sourceCell, segment, index);
+        setPermanence(slot, permanence);
+        link(slot);
+        return slot;
+    }
+    
+    /**
+     * Removes the synapse at the specified slot from the synapses of its
+     * segment and the receptors of its source cell, and releases the slot
+     * so that it may be reused.
+     * 
+     * @param slot  the synapse's slot index
+     */
+    public void remove(int slot) {
+        segmentSlots(getSegment(slot)).remove(slot);
+        receptorSlots(getSourceCell(slot)).remove(slot);
+        freeSlots.add(slot);
+    }
+    
+    /**
+     * Discards the (empty) synapse list of a destroyed segment
+     * 
+     * @param segment   the index of the destroyed {@link DistalDendrite}
+     */
+    public void removeSegment(int segment) {
+        if(segment < segmentSlots.length) {
+            segmentSlots[segment] = null;
+        }
+    }
+    
+    /**
+     * Appends the synapse at the specified slot, whose record has been 
+     * filled, to the synapses of its segment and the receptors of its 
+     * source cell.
+     * 
+     * @param slot  the synapse's slot index
+     */
+    protected void link(int slot) {
+        segmentSlots(getSegment(slot)).add(slot);
+        receptorSlots(getSourceCell(slot)).add(slot);
+    }
+    
+    /**
+     * Returns the number of synapses the specified segment had when this store
+     * was opened. Used as long as the segment's synapses haven't been modified;
+     * stores opened over existing records override it, others have none.
+     * 
+     * @param segment   the index of the {@link DistalDendrite}
+     * @return  the initial number of synapses of the segment
+     */
+    protected int getBaseSynapseCount(int segment) {
+        return 0;
+    }
+    
+    /**
+     * Returns the slot of the specified segment's synapse at the specified
+     * position when this store was opened.
+     * 
+     * @param segment   the index of the {@link DistalDendrite}
+     * @param i         the position of the synapse, less than {@link #getBaseSynapseCount(int)}
+     * @return  the synapse's slot index
+     */
+    protected int getBaseSynapseSlot(int segment, int i) {
+        throw new IndexOutOfBoundsException("Index: " + i + ", Size: 0");
+    }
+    
+    /**
+     * Returns the number of synapses having the specified cell as their source
+     * when this store was opened. Used as long as the cell's receptors haven't 
+     * been modified; stores opened over existing records override it, others 
+     * have none.
+     * 
+     * @param cell  the index of the {@link Cell}
+     * @return  the initial number of receptor synapses of the cell
+     */
+    protected int getBaseReceptorCount(int cell) {
+        return 0;
+    }
+    
+    /**
+     * Returns the slot of the synapse at the specified position among those 
+     * having the specified cell as their source when this store was opened.
+     * 
+     * @param cell  the index of the {@link Cell}
+     * @param i     the position of the synapse, less than {@link #getBaseReceptorCount(int)}
+     * @return  the synapse's slot index
+     */
+    protected int getBaseReceptorSlot(int cell, int i) {
+        throw new IndexOutOfBoundsException("Index: " + i + ", Size: 0");
+    }
+    
+    /**
+     * Returns the modifiable list of the slots of the specified segment's 
+     * synapses, creating it from the initial synapses of the segment if 
+     * it hasn't been modified yet.
+     */
+    private TIntArrayList segmentSlots(int segment) {
+        if(segment >= segmentSlots.length) {
+            segmentSlots = Arrays.copyOf(segmentSlots, Math.max(segment + 1, segmentSlots.length * 2));
+        }
+        TIntArrayList slots = segmentSlots[segment];
+        if(slots == null) {
+            int n = getBaseSynapseCount(segment);
+            segmentSlots[segment] = slots = new TIntArrayList(Math.max(4, n));
+            for(int i = 0;i < n;i++) {
+                slots.add(getBaseSynapseSlot(segment, i));
+            }
+        }
+        return slots;
+    }
+    
+    /**
+     * Returns the modifiable list of the slots of the synapses having the 
+     * specified cell as their source, creating it from the initial receptors
+     * of the cell if they haven't been modified yet.
+     */
+    private TIntArrayList receptorSlots(int cell) {
+        if(cell >= receptorSlots.length) {
+            receptorSlots = Arrays.copyOf(receptorSlots, Math.max(cell + 1, receptorSlots.length * 2));
+        }
+        TIntArrayList slots = receptorSlots[cell];
+        if(slots == null) {
+            int n = getBaseReceptorCount(cell);
+            receptorSlots[cell] = slots = new TIntArrayList(Math.max(4, n));
+            for(int i = 0;i < n;i++) {
+                slots.add(getBaseReceptorSlot(cell, i));
+            }
+        }
+        return slots;
+    }
+    
+    /**
+     * Appends a new slot at the end of the store, growing it if needed,
+     * and returns its index.
+     * 
+     * @return  the index of the new slot
+     */
+    protected int allocate() {
+        if(size == sourceCells.length) {
+            int capacity = Math.max(INITIAL_CAPACITY, size * 2);
+            sourceCells = Arrays.copyOf(sourceCells, capacity);
+            segments = Arrays.copyOf(segments, capacity);
+            indexes = Arrays.copyOf(indexes, capacity);
+            if(floatPermanences) {
+                floatPerms = Arrays.copyOf(floatPerms, capacity);
+            }else{
+                permanences = Arrays.copyOf(permanences, capacity);
+            }
+        }
+        return size++;
+    }
+    
+    /**
+     * Stores the presynaptic cell, owning segment and index of the synapse
+     * at the specified slot.
+     * 
+     * @param slot          the synapse's slot index
+     * @param sourceCell    the index of the presynaptic {@link Cell}
+     * @param segment       the index of the owning {@link DistalDendrite}
+     * @param index         the index of the {@link Synapse}
+     */
+    protected void setRecord(int slot, int sourceCell, int segment, int index) {
+        sourceCells[slot] = sourceCell;
+        segments[slot] = segment;
+        indexes[slot] = index;
+    }
+
+    /**
+     * Returns the permanence of the synapse at the specified slot.
+     *
+     * @param slot  the synapse's slot index
+     * @return  the permanence
+     */
+    public double getPermanence(int slot) {
+        return floatPermanences ? floatPerms[slot] : permanences[slot];
+    }
+
+    /**
+     * Sets the permanence of the synapse at the specified slot.
+     *
+     * @param slot          the synapse's slot index
+     * @param permanence    the new permanence
+     */
+    public void setPermanence(int slot, double permanence) {
+        if(floatPermanences) {
+            floatPerms[slot] = (float)permanence;
+        }else{
+            permanences[slot] = permanence;
+        }
+    }
+
+    /**
+     * Returns the index of the presynaptic {@link Cell} of the synapse
+     * at the specified slot.
+     *
+     * @param slot  the synapse's slot index
+     * @return  the source cell's index
+     */
+    public int getSourceCell(int slot) {
+        return sourceCells[slot];
+    }
+
+    /**
+     * Returns the index of the {@link DistalDendrite} owning the synapse
+     * at the specified slot.
+     *
+     * @param slot  the synapse's slot index
+     * @return  the segment's index
+     */
+    public int getSegment(int slot) {
+        return segments[slot];
+    }
+    
+    /**
+     * Returns the index of the {@link Synapse} at the specified slot.
+     *
+     * @param slot  the synapse's slot index
+     * @return  the synapse's index
+     */
+    public int getIndex(int slot) {
+        return indexes[slot];
+    }
+    
+    /**
+     * Returns the number of synapses of the specified segment
+     * 
+     * @param segment   the index of the {@link DistalDendrite}
+     * @return  the number of synapses
+     */
+    public int getSynapseCount(int segment) {
+        TIntArrayList slots = segment < segmentSlots.length ? segmentSlots[segment] : null;
+        return slots == null ? getBaseSynapseCount(segment) : slots.size();
+    }
+    
+    /**
+     * Returns the slot of the specified segment's synapse at the
+     * specified position, in creation order.
+     * 
+     * @param segment   the index of the {@link DistalDendrite}
+     * @param i         the position of the synapse
+     * @return  the synapse's slot index
+     */
+    public int getSynapseSlot(int segment, int i) {
+        TIntArrayList slots = segment < segmentSlots.length ? segmentSlots[segment] : null;
+        int size = slots == null ? getBaseSynapseCount(segment) : slots.size();
+        if(i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+        }
+        return slots == null ? getBaseSynapseSlot(segment, i) : slots.getQuick(i);
+    }
+    
+    /**
+     * Returns the number of synapses having the specified cell as their source
+     * 
+     * @param cell  the index of the {@link Cell}
+     * @return  the number of receptor synapses
+     */
+    public int getReceptorCount(int cell) {
+        TIntArrayList slots = cell < receptorSlots.length ? receptorSlots[cell] : null;
+        return slots == null ? getBaseReceptorCount(cell) : slots.size();
+    }
+    
+    /**
+     * Returns the slot of the synapse at the specified position among
+     * those having the specified cell as their source, in creation order.
+     * 
+     * @param cell  the index of the {@link Cell}
+     * @param i     the position of the synapse
+     * @return  the synapse's slot index
+     */
+    public int getReceptorSlot(int cell, int i) {
+        TIntArrayList slots = cell < receptorSlots.length ? receptorSlots[cell] : null;
+        int size = slots == null ? getBaseReceptorCount(cell) : slots.size();
+        if(i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+        }
+        return slots == null ? getBaseReceptorSlot(cell, i) : slots.getQuick(i);
+    }
+    
+    /**
+     * Returns a read only view of the {@link Synapse}s of the specified segment
+     * 
+     * @param c         the connections state of the temporal memory
+     * @param segment   the {@link DistalDendrite} whose synapses are returned
+     * @return  the synapses of the segment in creation order
+     */
+    public List<Synapse> getSynapses(Connections c, DistalDendrite segment) {
+        return new SegmentSynapses(c, segment);
+    }
+    
+    /**
+     * Returns a read only view of the {@link Synapse}s having the
+     * specified cell as their source
+     * 
+     * @param c         the connections state of the temporal memory
+     * @param cell      the presynaptic {@link Cell}
+     * @return  the receptor synapses of the cell in creation order
+     */
+    public Set<Synapse> getReceptorSynapses(Connections c, Cell cell) {
+        return new ReceptorSynapses(c, cell);
+    }
+
+    /**
+     * Returns the number of synapses held by this store
+     * @return
+     */
+    public int size() {
+        return getSlotCount() - freeSlots.size();
+    }
+    
+    /**
+     * Returns the number of slots allocated so far, including
+     * the released ones awaiting reuse.
+     * @return
+     */
+    public int getSlotCount() {
+        return size;
+    }
+
+    /**
+     * Returns a flag indicating whether permanences are stored
+     * as floats rather than doubles.
+     * @return
+     */
+    public boolean isFloatPermanences() {
+        return floatPermanences;
+    }
+    
+    /**
+     * The synapses of a segment, viewed through their slots
+     */
+    private class SegmentSynapses extends AbstractList<Synapse> implements RandomAccess {
+        private final Connections c;
+        private final DistalDendrite segment;
+        
+        SegmentSynapses(Connections c, DistalDendrite segment) {
+            this.c = c;
+            this.segment = segment;
+        }
+        
+        @Override
+        public Synapse get(int i) {
+            return new Synapse(c, segment, DistalSynapseStore.this, getSynapseSlot(segment.getIndex(), i));
+        }
+        
+        @Override
+        public int size() {
+            return getSynapseCount(segment.getIndex());
+        }
+        
+        @Override
+        public boolean contains(Object o) {
+            if(!(o instanceof Synapse) || !((Synapse)o).isHeldBy(DistalSynapseStore.this)) {
+                return false;
+            }
+            int slot = ((Synapse)o).getSlot();
+            for(int i = 0, n = size();i < n;i++) {
+                if(getSynapseSlot(segment.getIndex(), i) == slot) return true;
+            }
+            return false;
+        }
+    }
+    
+    /**
+     * The synapses having a cell as their source, viewed through their slots
+     */
+    private class ReceptorSynapses extends AbstractSet<Synapse> {
+        private final Connections c;
+        private final Cell cell;
+        
+        ReceptorSynapses(Connections c, Cell cell) {
+            this.c = c;
+            this.cell = cell;
+        }
+        
+        @Override
+        public Iterator<Synapse> iterator() {
+            return new Iterator<Synapse>() {
+                private int i;
+                
+                @Override
+                public boolean hasNext() {
+                    return i < getReceptorCount(cell.getIndex());
+                }
+                
+                @Override
+                public Synapse next() {
+                    if(!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    int slot = getReceptorSlot(cell.getIndex(), i++);
+                    return new Synapse(c, c.getSegment(getSegment(slot)), DistalSynapseStore.this, slot);
+                }
+                
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+        
+        @Override
+        public int size() {
+            return getReceptorCount(cell.getIndex());
+        }
+        
+        @Override
+        public boolean contains(Object o) {
+            if(!(o instanceof Synapse) || !((Synapse)o).isHeldBy(DistalSynapseStore.this)) {
+                return false;
+            }
+            int slot = ((Synapse)o).getSlot();
+            for(int i = 0, n = size();i < n;i++) {
+                if(getReceptorSlot(cell.getIndex(), i) == slot) return true;
+            }
+            return false;
+        }
+    }
+}
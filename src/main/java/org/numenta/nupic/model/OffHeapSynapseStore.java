@@ -0,0 +1,436 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+package org.numenta.nupic.model;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.numenta.nupic.Connections;
+
+/**
+ * {@link DistalSynapseStore} keeping the presynaptic cell index, segment index, synapse
+ * index and permanence of every distal {@link Synapse} outside of the Java heap, so that
+ * the bulk of a large model's state is neither scanned nor copied by the garbage collector.
+ * Only the int lists of the slots of each segment and of each cell's receptors remain on
+ * the heap: no object is kept per synapse.
+ * <p>
+ * Synapses are stored as fixed size records in an arena made of equally sized chunks,
+ * which are either direct {@link ByteBuffer}s or regions of a file mapped into memory.
+ * The arena grows one chunk at a time, so existing records are never copied. When
+ * backed by a file, the operating system is free to page cold regions of the model
+ * out and back in.
+ * </p><p>
+ * Install it with {@link Connections#setDistalSynapseStore(DistalSynapseStore)} before
+ * initializing the {@link org.numenta.nupic.research.TemporalMemory}, which then runs
+ * unchanged. A file backed store should be {@link #close() closed} when no longer used.
+ * </p><p>
+ * Records are little endian: the index of the source cell, the index of the segment and
+ * the index of the synapse as ints, followed by the permanence as a double or a float.
+ * {@link #map(FileChannel, long, int, boolean, int, int[], int[], int)} opens an existing
+ * block of such records in place, along with an index of the receptors of each cell,
+ * without copying them.
+ * </p>
+ *
+ * @author David Ray
+ */
+public class OffHeapSynapseStore extends DistalSynapseStore implements Closeable {
+    /** Default number of records per chunk (2^16) */
+    public static final int DEFAULT_CHUNK_SHIFT = 16;
+    /** Largest number of records per chunk (2^26), for which a chunk of double records still fits a buffer */
+    public static final int MAX_CHUNK_SHIFT = 26;
+
+    private static final int SOURCE_CELL = 0;
+    private static final int SEGMENT = 4;
+    private static final int INDEX = 8;
+    private static final int PERMANENCE = 12;
+
+    private final int recordSize;
+    private final int chunkShift;
+    private final int chunkMask;
+    private final FileChannel channel;
+    private final List<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+    private final boolean mapped;
+    
+    /** The mapped receptor index, if this store was opened over existing records */
+    private final List<ByteBuffer> receptorIndex = new ArrayList<ByteBuffer>();
+    private int numCells;
+    /** The initial range of slots of each segment, if this store was opened over existing records */
+    private int[] firstSlots = new int[0];
+    private int[] slotCounts = new int[0];
+
+    private int size;
+
+    /**
+     * Constructs a new {@code OffHeapSynapseStore} backed by direct
+     * buffers, holding permanences at double precision.
+     */
+    public OffHeapSynapseStore() {
+        this(false, DEFAULT_CHUNK_SHIFT);
+    }
+
+    /**
+     * Constructs a new {@code OffHeapSynapseStore} backed by direct buffers.
+     *
+     * @param floatPermanences  if true, permanences are stored as floats
+     *                          rather than as doubles.
+     * @param chunkShift        the base 2 logarithm of the number of records per chunk
+     * @throws IllegalArgumentException if the chunk shift isn't within [0, {@link #MAX_CHUNK_SHIFT}]
+     */
+    public OffHeapSynapseStore(boolean floatPermanences, int chunkShift) {
+        super(floatPermanences, 0);
+        this.recordSize = recordSize(floatPermanences);
+        this.chunkShift = checkChunkShift(chunkShift);
+        this.chunkMask = (1 << chunkShift) - 1;
+        this.channel = null;
+        this.mapped = false;
+    }
+
+    /**
+     * Constructs a new {@code OffHeapSynapseStore} whose records are kept in
+     * the specified file, mapped into memory chunk by chunk. The file is
+     * created if needed and any previous content is discarded.
+     *
+     * @param file              the backing file
+     * @param floatPermanences  if true, permanences are stored as floats
+     *                          rather than as doubles.
+     * @param chunkShift        the base 2 logarithm of the number of records per chunk
+     * @throws IOException  if the file can't be opened
+     * @throws IllegalArgumentException if the chunk shift isn't within [0, {@link #MAX_CHUNK_SHIFT}]
+     */
+    public OffHeapSynapseStore(Path file, boolean floatPermanences, int chunkShift) throws IOException {
+        super(floatPermanences, 0);
+        this.recordSize = recordSize(floatPermanences);
+        this.chunkShift = checkChunkShift(chunkShift);
+        this.chunkMask = (1 << chunkShift) - 1;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.mapped = true;
+    }
+    
+    /**
+     * Constructs a store over a block of existing records mapped copy-on-write,
+     * followed by the index of the receptors of each cell.
+     */
+    private OffHeapSynapseStore(FileChannel channel, long position, int count, boolean floatPermanences, 
+        int chunkShift, int[] firstSlots, int[] slotCounts, int numCells) throws IOException {
+        
+        super(floatPermanences, 0);
+        this.recordSize = recordSize(floatPermanences);
+        this.chunkShift = checkChunkShift(chunkShift);
+        this.chunkMask = (1 << chunkShift) - 1;
+        this.channel = null;
+        this.mapped = true;
+        
+        // Whole chunks are mapped in place, the records of a trailing partial
+        // chunk are copied into a direct buffer which can then be grown into.
+        long chunkBytes = (long)recordSize << chunkShift;
+        int numChunks = count >>> chunkShift;
+        for(int i = 0;i < numChunks;i++) {
+            chunks.add(channel.map(FileChannel.MapMode.PRIVATE, position + i * chunkBytes, chunkBytes).order(ByteOrder.LITTLE_ENDIAN));
+        }
+        int tail = (count & chunkMask) * recordSize;
+        if(tail > 0) {
+            grow();
+            ByteBuffer chunk = chunks.get(numChunks);
+            ByteBuffer records = channel.map(FileChannel.MapMode.READ_ONLY, position + numChunks * chunkBytes, tail);
+            chunk.put(records);
+            chunk.clear();
+        }
+        this.size = count;
+        
+        // The receptor index is only read, until a cell's receptors are first modified
+        long indexPosition = position + (long)count * recordSize;
+        long indexLength = numCells + 1L + count;
+        long indexChunkBytes = 4L << chunkShift;
+        for(long offset = 0;offset < indexLength * 4;offset += indexChunkBytes) {
+            receptorIndex.add(channel.map(FileChannel.MapMode.READ_ONLY, indexPosition + offset, 
+                Math.min(indexChunkBytes, indexLength * 4 - offset)).order(ByteOrder.LITTLE_ENDIAN));
+        }
+        this.numCells = numCells;
+        this.firstSlots = firstSlots;
+        this.slotCounts = slotCounts;
+    }
+    
+    /**
+     * Opens a block of records written contiguously, in the layout of this store, at the
+     * specified position of a file. The records are mapped copy-on-write rather than read:
+     * pages are loaded lazily by the operating system, and changes made while learning are
+     * kept private to the process and never written back to the file. Synapses added later
+     * are kept in direct buffers.
+     * <p>
+     * The synapses of each segment must occupy a contiguous range of slots, in creation
+     * order, given by the specified arrays indexed by segment. The records must be followed
+     * by the index of the receptors of each cell, made of little endian ints: the offsets of
+     * the receptors of every cell followed by the total count, then the slots of the receptors
+     * of all cells in cell order, each cell's in creation order. This index is mapped too,
+     * and the slot lists of a segment or a cell are only built when first modified, so that
+     * opening a store takes a time independent of its number of synapses.
+     * </p><p>
+     * The channel must have been opened for reading and writing, as required by copy-on-write
+     * mappings, and may be closed once this method returns.
+     * </p>
+     * 
+     * @param channel           the channel of the file holding the records
+     * @param position          the position of the first record in the file
+     * @param count             the number of records
+     * @param floatPermanences  true if the permanences of the records are floats
+     * @param chunkShift        the base 2 logarithm of the number of records per chunk
+     * @param firstSlots        the slot of the first synapse of each segment, by segment index
+     * @param slotCounts        the number of synapses of each segment, by segment index
+     * @param numCells          the number of cells of the receptor index
+     * @return  a store holding the specified records
+     * @throws IOException  if the records can't be mapped
+     * @throws IllegalArgumentException if the chunk shift isn't within [0, {@link #MAX_CHUNK_SHIFT}]
+     */
+    public static OffHeapSynapseStore map(FileChannel channel, long position, int count, boolean floatPermanences, 
+        int chunkShift, int[] firstSlots, int[] slotCounts, int numCells) throws IOException {
+        
+        return new OffHeapSynapseStore(channel, position, count, floatPermanences, chunkShift, 
+            firstSlots, slotCounts, numCells);
+    }
+    
+    /**
+     * Checks that chunks of the specified number of records can be held in buffers
+     * 
+     * @param chunkShift    the base 2 logarithm of the number of records per chunk
+     * @return  the chunk shift
+     * @throws IllegalArgumentException if the chunk shift isn't within [0, {@link #MAX_CHUNK_SHIFT}]
+     */
+    public static int checkChunkShift(int chunkShift) {
+        if(chunkShift < 0 || chunkShift > MAX_CHUNK_SHIFT) {
+            throw new IllegalArgumentException("Chunk shift must be within [0, " + MAX_CHUNK_SHIFT + "]: " + chunkShift);
+        }
+        return chunkShift;
+    }
+    
+    /**
+     * Returns the size of the receptor index following a block of records
+     * 
+     * @param count     the number of records
+     * @param numCells  the number of cells
+     * @return  the size of the index in bytes
+     */
+    public static long receptorIndexSize(int count, int numCells) {
+        return (numCells + 1L + count) * 4;
+    }
+
+    /**
+     * Returns the size of a record: three ints followed by the permanence.
+     * 
+     * @param floatPermanences  true if permanences are stored as floats
+     * @return  the size of a record in bytes
+     */
+    public static int recordSize(boolean floatPermanences) {
+        return floatPermanences ? 16 : 20;
+    }
+
+    /**
+     * Adds a chunk to the arena
+     */
+    private void grow() {
+        // Fits an int as the chunk shift has been checked
+        int chunkBytes = recordSize << chunkShift;
+        ByteBuffer chunk;
+        if(channel == null) {
+            chunk = ByteBuffer.allocateDirect(chunkBytes);
+        }else{
+            try {
+                chunk = channel.map(FileChannel.MapMode.READ_WRITE, (long)chunks.size() * chunkBytes, chunkBytes);
+            }catch(IOException e) {
+                throw new IllegalStateException("Unable to map synapse chunk " + chunks.size(), e);
+            }
+        }
+        chunks.add(chunk.order(ByteOrder.LITTLE_ENDIAN));
+    }
+
+    private ByteBuffer chunk(int slot) {
+        return chunks.get(slot >>> chunkShift);
+    }
+
+    private int offset(int slot) {
+        return (slot & chunkMask) * recordSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected int allocate() {
+        if((size >>> chunkShift) == chunks.size()) {
+            grow();
+        }
+        return size++;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void setRecord(int slot, int sourceCell, int segment, int index) {
+        ByteBuffer chunk = chunk(slot);
+        int offset = offset(slot);
+        chunk.putInt(offset + SOURCE_CELL, sourceCell);
+        chunk.putInt(offset + SEGMENT, segment);
+        chunk.putInt(offset + INDEX, index);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getPermanence(int slot) {
+        ByteBuffer chunk = chunk(slot);
+        int offset = offset(slot) + PERMANENCE;
+        return isFloatPermanences() ? chunk.getFloat(offset) : chunk.getDouble(offset);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setPermanence(int slot, double permanence) {
+        ByteBuffer chunk = chunk(slot);
+        int offset = offset(slot) + PERMANENCE;
+        if(isFloatPermanences()) {
+            chunk.putFloat(offset, (float)permanence);
+        }else{
+            chunk.putDouble(offset, permanence);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getSourceCell(int slot) {
+        return chunk(slot).getInt(offset(slot) + SOURCE_CELL);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getSegment(int slot) {
+        return chunk(slot).getInt(offset(slot) + SEGMENT);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getIndex(int slot) {
+        return chunk(slot).getInt(offset(slot) + INDEX);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removeSegment(int segment) {
+        if(segment < slotCounts.length) {
+            slotCounts[segment] = 0;
+        }
+        super.removeSegment(segment);
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected int getBaseSynapseCount(int segment) {
+        return segment < slotCounts.length ? slotCounts[segment] : 0;
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected int getBaseSynapseSlot(int segment, int i) {
+        return firstSlots[segment] + i;
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected int getBaseReceptorCount(int cell) {
+        return cell < numCells ? receptorIndexInt(cell + 1) - receptorIndexInt(cell) : 0;
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected int getBaseReceptorSlot(int cell, int i) {
+        return receptorIndexInt(numCells + 1L + receptorIndexInt(cell) + i);
+    }
+    
+    /**
+     * Returns the int at the specified position of the mapped receptor index
+     */
+    private int receptorIndexInt(long i) {
+        return receptorIndex.get((int)(i >>> chunkShift)).getInt((int)(i & chunkMask) << 2);
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getSlotCount() {
+        return size;
+    }
+
+    /**
+     * Returns the number of bytes reserved outside of the heap
+     * @return
+     */
+    public long getCapacityBytes() {
+        return (long)chunks.size() * ((long)recordSize << chunkShift);
+    }
+
+    /**
+     * Returns a flag indicating whether this store is backed by a file
+     * @return
+     */
+    public boolean isMapped() {
+        return mapped;
+    }
+
+    /**
+     * Closes the backing file, if any. Mapped regions stay valid until
+     * they are garbage collected, but the store must not be used anymore.
+     */
+    @Override
+    public void close() throws IOException {
+        if(channel != null) {
+            channel.close();
+        }
+    }
+}
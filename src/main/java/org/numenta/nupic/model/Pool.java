@@ -56,10 +56,21 @@ public class Pool {
 	
 	TIntObjectMap<SynapsePair> connectionPerms = new TIntObjectHashMap<SynapsePair>();
 	
+	/** Cached result of {@link #getSparseConnections()}, reset when a synapse is added */
+	int[] sparseConnections;
+	
 	public Pool(int size) {
 		this.size = size;
 	}
 	
+	/**
+	 * Returns the number of input bits in this pool
+	 * @return
+	 */
+	public int getSize() {
+		return size;
+	}
+	
 	/**
 	 * Returns the permanence value for the {@link Synapse} specified.
 	 * 
@@ -80,6 +91,7 @@ public class Pool {
 		if((synPerm = connectionPerms.get(s.getInputIndex())) == null) {
 			connectionPerms.put(s.getInputIndex(), synPerm = new SynapsePair(s, permanence));
 			synapseOrdering.add(s);
+			sparseConnections = null;
 		}
 		if(permanence > c.getSynPermConnected()) {
 			synapseConnections.add(s.getInputIndex());
@@ -93,7 +105,7 @@ public class Pool {
 	 * adjustments.
 	 */
 	public void resetConnections() {
-		synapseConnections.clear();
+		synapseConnections.resetQuick();
 	}
 	
 	/**
@@ -136,14 +148,44 @@ public class Pool {
 		return retVal;
 	}
 	
+	/**
+	 * Fills the specified array with the permanences of the pool's synapses,
+	 * in the order of {@link #getPotentialIndexes()} (so that perms[i] is the 
+	 * permanence of the synapse connected to input getPotentialIndexes()[i]).
+	 * 
+	 * @param perms		the array to fill, of at least the pool's size
+	 * @return	the specified array
+	 */
+	public double[] getPotentialPermanences(double[] perms) {
+		int[] indexes = getPotentialIndexes();
+		for(int i = 0;i < indexes.length;i++) {
+			perms[i] = connectionPerms.get(indexes[i]).getPermanence();
+		}
+		return perms;
+	}
+	
 	/**
 	 * Returns an array of input bit indexes.
 	 * @return
 	 */
 	public int[] getSparseConnections() {
-		TIntList l = new TIntArrayList(connectionPerms.keys());
-		l.reverse();
-		return l.toArray();
+		return Arrays.copyOf(getPotentialIndexes(), connectionPerms.size());
+	}
+	
+	/**
+	 * Returns the input bit indexes of this pool, in the same order as
+	 * {@link #getSparseConnections()}, without copying them. The returned
+	 * array must not be modified.
+	 * 
+	 * @return
+	 */
+	public int[] getPotentialIndexes() {
+		if(sparseConnections == null) {
+			TIntList l = new TIntArrayList(connectionPerms.keys());
+			l.reverse();
+			sparseConnections = l.toArray();
+		}
+		return sparseConnections;
 	}
 	
 	/**
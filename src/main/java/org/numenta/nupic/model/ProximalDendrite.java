@@ -25,6 +25,7 @@ package org.numenta.nupic.model;
 import java.util.List;
 
 import org.numenta.nupic.Connections;
+import org.numenta.nupic.util.SparseBinaryMatrix;
 
 public class ProximalDendrite extends Segment {
 	private int index;
@@ -80,10 +81,11 @@ public class ProximalDendrite extends Segment {
 		pool.resetConnections();
 		c.getConnectedCounts().clearStatistics(index);
 		List<Synapse> synapses = c.getSynapses(this);
-		for(Synapse s : synapses) {
+		for(int i = 0;i < synapses.size();i++) {
+			Synapse s = synapses.get(i);
 			s.setPermanence(c, perms[s.getInputIndex()]);
 			if(perms[s.getInputIndex()] >= c.getSynPermConnected()) {
-				c.getConnectedCounts().set(1, index, s.getInputIndex());
+				c.getConnectedCounts().setBit(index, s.getInputIndex(), 1);
 			}
 		}
 	}
@@ -95,19 +97,20 @@ public class ProximalDendrite extends Segment {
 	 * format and therefore require the int array identify their corresponding
 	 * indexes.
 	 * 
-	 * Note: This is the "sparse" version of this method.
+	 * Note: This is the "sparse" version of this method. Only the connected
+	 * bits of the pool's inputs which change state are updated in the
+	 * connected matrix, so its cost is proportional to the pool's size.
 	 * 
-	 * @param c			the {@link Connections} memory
-	 * @param perms		the floating point degree of connectedness
+	 * @param c				the {@link Connections} memory
+	 * @param perms			the floating point degree of connectedness
+	 * @param inputIndexes	the input index of each permanence
 	 */
 	public void setPermanences(Connections c, double[] perms, int[] inputIndexes) {
 		pool.resetConnections();
-		c.getConnectedCounts().clearStatistics(index);
+		SparseBinaryMatrix connectedCounts = c.getConnectedCounts();
 		for(int i = 0;i < inputIndexes.length;i++) {
 			pool.setPermanence(c, pool.getSynapseWithInput(inputIndexes[i]), perms[i]);
-			if(perms[i] >= c.getSynPermConnected()) {
-				c.getConnectedCounts().set(1, index, i);
-			}
+			connectedCounts.setBit(index, inputIndexes[i], perms[i] >= c.getSynPermConnected() ? 1 : 0);
 		}
 	}
 	
@@ -37,6 +37,11 @@ import org.numenta.nupic.research.TemporalMemory;
  * 				For ProximalDendrites, there are many synapses within a pool, and in
  * 				that case, the index specifies the synapse's sequence order within
  * 				the pool object, and may be referenced by that index.
+ * 
+ * 				When a {@link DistalSynapseStore} is installed, distal synapses
+ * 				have no pool; their state lives in a slot of the store instead,
+ * 				and {@code Synapse} objects are transient views onto their slots.
+ * 				Two such views are equal when they view the same slot and index.
  *    
  * 
  * @author Chetan Surpur
@@ -51,6 +56,8 @@ public class Synapse {
     private Pool pool;
     private int synapseIndex;
     private int inputIndex;
+    private DistalSynapseStore store;
+    private int slot;
     
     
     /**
@@ -81,6 +88,45 @@ public class Synapse {
         }
     }
     
+    /**
+     * Constructs a new {@code Synapse} whose state is held in a new slot of the 
+     * specified {@link DistalSynapseStore} rather than in a {@link Pool}. The
+     * store adds the synapse to its segment and to the receptors of its source cell.
+     * 
+     * @param c             the connections state of the temporal memory
+     * @param sourceCell    the {@link Cell} which will activate this {@code Synapse}
+     * @param segment       the owning dendritic segment
+     * @param store         the store holding this synapse's state
+     * @param index         this {@code Synapse}'s index
+     * @param permanence    the initial permanence
+     */
+    public Synapse(Connections c, Cell sourceCell, DistalDendrite segment, DistalSynapseStore store, int index, double permanence) {
+        this.sourceCell = sourceCell;
+        this.segment = segment;
+        this.store = store;
+        this.synapseIndex = index;
+        this.inputIndex = sourceCell.getIndex();
+        this.slot = store.add(inputIndex, segment.getIndex(), permanence, index);
+    }
+    
+    /**
+     * Constructs a {@code Synapse} viewing a slot of the specified 
+     * {@link DistalSynapseStore}, from which its source cell and index are read.
+     * 
+     * @param c             the connections state of the temporal memory
+     * @param segment       the owning dendritic segment
+     * @param store         the store holding this synapse's state
+     * @param slot          the slot of this synapse in the store
+     */
+    Synapse(Connections c, DistalDendrite segment, DistalSynapseStore store, int slot) {
+        this.sourceCell = c.getCell(store.getSourceCell(slot));
+        this.segment = segment;
+        this.store = store;
+        this.slot = slot;
+        this.synapseIndex = store.getIndex(slot);
+        this.inputIndex = sourceCell.getIndex();
+    }
+    
     /**
      * Returns this {@code Synapse}'s index.
      * @return
@@ -103,6 +149,9 @@ public class Synapse {
      * @return
      */
     public double getPermanence() {
+        if(store != null) {
+            return store.getPermanence(slot);
+        }
         return pool.getPermanence(this);
     }
     
@@ -111,9 +160,48 @@ public class Synapse {
      * @param perm
      */
     public void setPermanence(Connections c, double perm) {
+        if(store != null) {
+            store.setPermanence(slot, perm);
+            return;
+        }
         pool.setPermanence(c, this, perm);
     }
     
+    /**
+     * Detaches this {@code Synapse} from its source cell, or releases its slot
+     * in the {@link DistalSynapseStore} which then detaches it from its segment
+     * and source cell. Called by {@link DistalDendrite#destroySynapse(Connections, Synapse)}.
+     * 
+     * @param c     the connections state of the temporal memory
+     */
+    void destroy(Connections c) {
+        if(store != null) {
+            store.remove(slot);
+        }else if(sourceCell != null) {
+            sourceCell.removeReceptorSynapse(c, this);
+        }
+    }
+    
+    /**
+     * Returns the slot of this synapse in its {@link DistalSynapseStore}
+     * @return
+     */
+    int getSlot() {
+        return slot;
+    }
+    
+    /**
+     * Returns a flag indicating whether this synapse views a slot of the 
+     * specified store which still holds it, rather than a released slot
+     * which has been reused since.
+     * 
+     * @param store     the {@link DistalSynapseStore}
+     * @return
+     */
+    boolean isHeldBy(DistalSynapseStore store) {
+        return this.store == store && store.getIndex(slot) == synapseIndex;
+    }
+    
     /**
      * Returns the owning dendritic segment
      * @return
@@ -130,6 +218,25 @@ public class Synapse {
         return sourceCell;
     }
     
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        return store == null ? super.hashCode() : 31 * slot + synapseIndex;
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if(this == obj) return true;
+        if(store == null || !(obj instanceof Synapse)) return false;
+        Synapse other = (Synapse)obj;
+        return store == other.store && slot == other.slot && synapseIndex == other.synapseIndex;
+    }
+    
     /**
      * {@inheritDoc}
      */
@@ -0,0 +1,757 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+package org.numenta.nupic.persistence;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.numenta.nupic.ConcurrentConnections;
+import org.numenta.nupic.Connections;
+import org.numenta.nupic.model.Column;
+import org.numenta.nupic.model.DistalDendrite;
+import org.numenta.nupic.model.Synapse;
+import org.numenta.nupic.research.SpatialPooler;
+import org.numenta.nupic.research.TemporalMemory;
+
+/**
+ * Append-only record of the changes learning makes to a {@link Connections}
+ * object, which together with a {@link ModelSnapshot} allows a model to be 
+ * recovered without taking full snapshots often.
+ * <p>
+ * Once installed on a model (see {@link Connections#setLearningJournal(LearningJournal)}),
+ * the journal is told by the {@link SpatialPooler} and the {@link TemporalMemory} of
+ * every proximal permanence update, every distal segment and synapse created or 
+ * destroyed, and the distal permanences of every adapted segment, along with the 
+ * iteration counters at the end of each cycle. Records are appended to an in memory 
+ * buffer which a background thread writes and forces to disk at a fixed interval, 
+ * so the compute thread never waits on the disk.
+ * </p><p>
+ * All files live in a single directory: snapshots named {@code model-<n>.snapshot}
+ * and journals named {@code learning-<n>.journal}. A snapshot numbered n holds the
+ * model with every journal numbered up to n applied. {@link #recover(Path)} loads the 
+ * latest snapshot and replays the later journals in order. 
+ * </p><p>
+ * {@link #compact()} closes the current journal, ending it with the state which is
+ * not journaled (duty cycles, boost factors, random number generator, segment usage
+ * and the activity of the last cycle), and starts a new one; a background thread then 
+ * folds the closed journals into a new snapshot and deletes the files it supersedes. 
+ * Compaction happens automatically at the configured interval. A model recovered from
+ * journals which haven't been compacted has the connectivity and counters of the last
+ * flushed cycle, while its unjournaled state is that of the last compaction and it
+ * starts a new sequence, as after a reset.
+ * </p><p>
+ * Hook methods may be called concurrently by threads changing disjoint segments, as 
+ * the parallel learning of a {@link ConcurrentConnections} does: the records of each 
+ * segment are kept in order, which is all that replaying them needs. {@link #compact()}
+ * must be called from the thread running the model. A torn record at the end of a journal, left by a crash in 
+ * the middle of a write, is ignored on recovery.
+ * </p>
+ * 
+ * @author David Ray
+ * @see ModelSnapshot
+ */
+public class LearningJournal implements Closeable {
+    /** Identifies a journal ("HTMJ") */
+    public static final int MAGIC = 0x484D544A;
+    /** The current version of the format */
+    public static final int VERSION = 1;
+    /** Default interval between two writes of the buffered records */
+    public static final long DEFAULT_FLUSH_INTERVAL = 1000;
+    /** Default interval between two compactions */
+    public static final long DEFAULT_COMPACTION_INTERVAL = 10 * 60 * 1000;
+    
+    private static final byte SEGMENT_CREATED = 1;
+    private static final byte SEGMENT_DESTROYED = 2;
+    private static final byte SYNAPSE_CREATED = 3;
+    private static final byte SYNAPSE_DESTROYED = 4;
+    private static final byte SEGMENT_PERMANENCES = 5;
+    private static final byte PROXIMAL_PERMANENCES = 6;
+    private static final byte COUNTERS = 7;
+    private static final byte STATE = 8;
+    
+    private static final Pattern SNAPSHOT_NAME = Pattern.compile("model-(\\d+)\\.snapshot");
+    private static final Pattern JOURNAL_NAME = Pattern.compile("learning-(\\d+)\\.journal");
+    
+    private static final int INITIAL_BUFFER_SIZE = 1 << 16;
+    
+    private final Path directory;
+    private final Connections connections;
+    private final long compactionInterval;
+    
+    /** Guards the record buffers */
+    private final Object lock = new Object();
+    /** Guards the journal file */
+    private final Object fileLock = new Object();
+    private ByteBuffer pending = newBuffer(INITIAL_BUFFER_SIZE);
+    private ByteBuffer writing = newBuffer(INITIAL_BUFFER_SIZE);
+    /** The records of closed journals awaiting their rotation, guarded by the lock */
+    private Deque<ByteBuffer> closedRecords = new ArrayDeque<ByteBuffer>();
+    /** The compactions of closed journals awaiting their rotation, guarded by the lock */
+    private Deque<Compaction> compactions = new ArrayDeque<Compaction>();
+    
+    private FileChannel channel;
+    private long sequence;
+    private long nextCompaction;
+    private volatile IOException failure;
+    
+    private final ScheduledExecutorService flusher;
+    private final ExecutorService compactor;
+    
+    /**
+     * Opens a journal in the specified directory with the default flush and
+     * compaction intervals, and installs it on the specified model.
+     * 
+     * @param directory     the directory holding snapshots and journals
+     * @param c             the model, which must be the one returned by {@link #recover(Path)}
+     *                      if the directory isn't empty
+     * @throws IOException
+     * @see #LearningJournal(Path, Connections, long, long)
+     */
+    public LearningJournal(Path directory, Connections c) throws IOException {
+        this(directory, c, DEFAULT_FLUSH_INTERVAL, DEFAULT_COMPACTION_INTERVAL);
+    }
+    
+    /**
+     * Opens a journal in the specified directory and installs it on the specified model.
+     * If the directory holds no snapshot, an initial one is saved from the model.
+     * 
+     * @param directory             the directory holding snapshots and journals
+     * @param c                     the model, which must be the one returned by {@link #recover(Path)}
+     *                              if the directory isn't empty
+     * @param flushIntervalMillis   the interval in milliseconds between two writes of the
+     *                              buffered records, or 0 to write them only on {@link #flush()}
+     * @param compactionIntervalMillis  the interval in milliseconds between two compactions,
+     *                              or 0 to compact only on {@link #compact()}
+     * @throws IOException
+     */
+    public LearningJournal(Path directory, Connections c, long flushIntervalMillis, long compactionIntervalMillis) 
+        throws IOException {
+        
+        this.directory = directory;
+        this.connections = c;
+        this.compactionInterval = compactionIntervalMillis;
+        
+        Files.createDirectories(directory);
+        long[] snapshots = sequences(directory, SNAPSHOT_NAME);
+        long[] journals = sequences(directory, JOURNAL_NAME);
+        if(snapshots.length == 0) {
+            if(journals.length > 0) {
+                throw new IOException("Journals without a snapshot in " + directory);
+            }
+            saveSnapshot(c, directory, 0);
+        }
+        long last = snapshots.length == 0 ? 0 : snapshots[snapshots.length - 1];
+        if(journals.length > 0) {
+            last = Math.max(last, journals[journals.length - 1]);
+        }
+        sequence = last + 1;
+        channel = openJournal(sequence);
+        nextCompaction = System.currentTimeMillis() + compactionIntervalMillis;
+        
+        ThreadFactory daemons = new ThreadFactory() {
+            @Override public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "learning-journal");
+                t.setDaemon(true);
+                return t;
+            }
+        };
+        flusher = Executors.newSingleThreadScheduledExecutor(daemons);
+        compactor = Executors.newSingleThreadExecutor(daemons);
+        if(flushIntervalMillis > 0) {
+            flusher.scheduleWithFixedDelay(new Runnable() {
+                @Override public void run() {
+                    try {
+                        writePending();
+                    }catch(IOException e) {
+                        failure = e;
+                    }
+                }
+            }, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+        
+        c.setLearningJournal(this);
+    }
+    
+    /**
+     * Loads the latest snapshot of the specified directory and replays all
+     * subsequent journals onto it.
+     * 
+     * @param directory     the directory holding snapshots and journals
+     * @return  the recovered model
+     * @throws IOException
+     */
+    public static Connections recover(Path directory) throws IOException {
+        return restore(directory, Long.MAX_VALUE);
+    }
+    
+    /**
+     * Replays the records of a journal file onto the specified model, stopping
+     * at the first incomplete record.
+     * 
+     * @param c         the model, in the state the journal started from
+     * @param file      the journal file
+     * @throws IOException  if the file isn't a journal
+     */
+    public static void replay(Connections c, Path file) throws IOException {
+        replayRecords(c, file);
+    }
+    
+    /**
+     * Replays a journal file and returns the type of its last complete 
+     * record, or 0 if it has none.
+     */
+    private static byte replayRecords(Connections c, Path file) throws IOException {
+        ByteBuffer buffer;
+        try(FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size()).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        if(buffer.remaining() < 8 || buffer.getInt() != MAGIC) {
+            throw new IOException("Not a learning journal: " + file);
+        }
+        int version = buffer.getInt();
+        if(version != VERSION) {
+            throw new IOException("Unsupported journal version: " + version);
+        }
+        
+        byte last = 0;
+        while(buffer.remaining() >= 4) {
+            int length = buffer.getInt();
+            if(length <= 0 || buffer.remaining() < length) break;
+            int end = buffer.position() + length;
+            last = buffer.get();
+            ByteBuffer record = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+            record.limit(length - 1);
+            apply(c, last, record);
+            buffer.position(end);
+        }
+        return last;
+    }
+    
+    /**
+     * Applies one record to the model.
+     */
+    private static void apply(Connections c, byte type, ByteBuffer record) throws IOException {
+        switch(type) {
+            case SEGMENT_CREATED: {
+                int index = record.getInt();
+                c.getCell(record.getInt()).createSegment(c, index);
+                break;
+            }
+            case SEGMENT_DESTROYED: {
+                c.getSegment(record.getInt()).destroy(c);
+                break;
+            }
+            case SYNAPSE_CREATED: {
+                DistalDendrite dd = c.getSegment(record.getInt());
+                int source = record.getInt();
+                int index = record.getInt();
+                dd.createSynapse(c, c.getCell(source), record.getDouble(), index);
+                break;
+            }
+            case SYNAPSE_DESTROYED: {
+                DistalDendrite dd = c.getSegment(record.getInt());
+                int index = record.getInt();
+                List<Synapse> synapses = c.getSynapses(dd);
+                for(int i = 0;i < synapses.size();i++) {
+                    if(synapses.get(i).getIndex() == index) {
+                        dd.destroySynapse(c, synapses.get(i));
+                        break;
+                    }
+                }
+                break;
+            }
+            case SEGMENT_PERMANENCES: {
+                List<Synapse> synapses = c.getSynapses(c.getSegment(record.getInt()));
+                int n = record.getInt();
+                for(int i = 0;i < n;i++) {
+                    synapses.get(i).setPermanence(c, record.getDouble());
+                }
+                break;
+            }
+            case PROXIMAL_PERMANENCES: {
+                Column column = c.getColumn(record.getInt());
+                int n = record.getInt();
+                int[] indexes = new int[n];
+                double[] permanences = new double[n];
+                record.asIntBuffer().get(indexes);
+                record.position(record.position() + n * 4);
+                record.asDoubleBuffer().get(permanences);
+                column.setProximalPermanencesSparse(c, permanences, indexes);
+                break;
+            }
+            case COUNTERS: {
+                c.setIterationNum(record.getInt());
+                c.setIterationLearnNum(record.getInt());
+                c.setTmIterationNum(record.getInt());
+                c.setSegmentCount(record.getInt());
+                c.setSynapseCount(record.getInt());
+                break;
+            }
+            case STATE: {
+                byte[] bytes = new byte[record.remaining()];
+                record.get(bytes);
+                ModelSnapshot.readState(c, Channels.newChannel(new ByteArrayInputStream(bytes)));
+                break;
+            }
+            default: throw new IOException("Unknown journal record: " + type);
+        }
+    }
+    
+    /**
+     * Called when a distal segment has been created
+     * @param dd    the new segment
+     */
+    public void segmentCreated(DistalDendrite dd) {
+        synchronized(lock) {
+            ByteBuffer b = begin(SEGMENT_CREATED, 8);
+            b.putInt(dd.getIndex());
+            b.putInt(dd.getParentCell().getIndex());
+        }
+    }
+    
+    /**
+     * Called when a distal segment has been destroyed along with its synapses
+     * @param dd    the destroyed segment
+     */
+    public void segmentDestroyed(DistalDendrite dd) {
+        synchronized(lock) {
+            begin(SEGMENT_DESTROYED, 4).putInt(dd.getIndex());
+        }
+    }
+    
+    /**
+     * Called when a distal synapse has been created
+     * @param dd    the segment owning the synapse
+     * @param s     the new synapse
+     */
+    public void synapseCreated(DistalDendrite dd, Synapse s) {
+        synchronized(lock) {
+            ByteBuffer b = begin(SYNAPSE_CREATED, 20);
+            b.putInt(dd.getIndex());
+            b.putInt(s.getSourceCell().getIndex());
+            b.putInt(s.getIndex());
+            b.putDouble(s.getPermanence());
+        }
+    }
+    
+    /**
+     * Called when a distal synapse has been destroyed
+     * @param dd    the segment which owned the synapse
+     * @param s     the destroyed synapse
+     */
+    public void synapseDestroyed(DistalDendrite dd, Synapse s) {
+        synchronized(lock) {
+            ByteBuffer b = begin(SYNAPSE_DESTROYED, 8);
+            b.putInt(dd.getIndex());
+            b.putInt(s.getIndex());
+        }
+    }
+    
+    /**
+     * Called when the permanences of a distal segment's synapses have been adapted
+     * @param c     the model
+     * @param dd    the adapted segment
+     */
+    public void segmentAdapted(Connections c, DistalDendrite dd) {
+        List<Synapse> synapses = c.getSynapses(dd);
+        int n = synapses.size();
+        synchronized(lock) {
+            ByteBuffer b = begin(SEGMENT_PERMANENCES, 8 + n * 8);
+            b.putInt(dd.getIndex());
+            b.putInt(n);
+            for(int i = 0;i < n;i++) {
+                b.putDouble(synapses.get(i).getPermanence());
+            }
+        }
+    }
+    
+    /**
+     * Called when the permanences of a column's proximal synapses have been updated
+     * 
+     * @param column        the updated column
+     * @param perm          the new permanences
+     * @param indexes       the indexes of the inputs in the column's potential pool
+     * @param dense         true if the permanences are indexed by input, false if
+     *                      they are parallel to the indexes
+     */
+    public void proximalPermanencesChanged(Column column, double[] perm, int[] indexes, boolean dense) {
+        int n = indexes.length;
+        synchronized(lock) {
+            ByteBuffer b = begin(PROXIMAL_PERMANENCES, 8 + n * 12);
+            b.putInt(column.getIndex());
+            b.putInt(n);
+            for(int i = 0;i < n;i++) {
+                b.putInt(indexes[i]);
+            }
+            for(int i = 0;i < n;i++) {
+                b.putDouble(dense ? perm[indexes[i]] : perm[i]);
+            }
+        }
+    }
+    
+    /**
+     * Called at the end of each compute cycle. Records the iteration counters 
+     * and compacts the journal once the compaction interval has elapsed.
+     * 
+     * @param c     the model
+     * @throws IllegalStateException    if the journal could not be written
+     */
+    public void cycleCompleted(Connections c) {
+        if(failure != null) {
+            throw new IllegalStateException("Learning journal failure", failure);
+        }
+        synchronized(lock) {
+            ByteBuffer b = begin(COUNTERS, 20);
+            b.putInt(c.getIterationNum());
+            b.putInt(c.getIterationLearnNum());
+            b.putInt(c.getTmIterationNum());
+            b.putInt(c.getSegmentCount());
+            b.putInt(c.getSynapseCount());
+        }
+        if(compactionInterval > 0 && System.currentTimeMillis() >= nextCompaction) {
+            try {
+                compact();
+            }catch(IOException e) {
+                throw new IllegalStateException("Could not compact the learning journal", e);
+            }
+        }
+    }
+    
+    /**
+     * Writes all buffered records to the current journal file and forces them to disk.
+     * 
+     * @throws IOException  if this or a previous background write failed
+     */
+    public void flush() throws IOException {
+        checkFailure();
+        writePending();
+    }
+    
+    /**
+     * Ends the current journal with the model's unjournaled state and starts a new
+     * one, then folds the latest snapshot and all closed journals into a new snapshot
+     * in the background. Must be called from the thread running the model, between cycles.
+     * <p>
+     * The compute thread only captures the state in memory and sets the closed
+     * journal's records aside: the background thread writes them, rotates the 
+     * journal files and forces them to disk.
+     * </p>
+     * 
+     * @return  a {@link Future} yielding the path of the new snapshot
+     * @throws IOException
+     */
+    public Future<Path> compact() throws IOException {
+        checkFailure();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ModelSnapshot.writeState(connections, Channels.newChannel(bytes));
+        
+        Compaction compaction = new Compaction(sequence++);
+        synchronized(lock) {
+            ByteBuffer b = begin(STATE, bytes.size());
+            b.put(bytes.toByteArray());
+            closedRecords.add(pending);
+            compactions.add(compaction);
+            pending = newBuffer(INITIAL_BUFFER_SIZE);
+        }
+        nextCompaction = System.currentTimeMillis() + compactionInterval;
+        
+        flusher.execute(new Runnable() {
+            @Override public void run() {
+                try {
+                    writePending();
+                }catch(IOException e) {
+                    failure = e;
+                }
+            }
+        });
+        return compaction;
+    }
+    
+    /**
+     * Writes all buffered records, waits for a running compaction to complete and
+     * uninstalls this journal from its model.
+     * 
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        connections.setLearningJournal(null);
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            synchronized(fileLock) {
+                writePending();
+                channel.close();
+            }
+        }catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }finally{
+            compactor.shutdown();
+        }
+        try {
+            compactor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        checkFailure();
+    }
+    
+    /**
+     * Returns the directory holding the snapshots and journals
+     * @return
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+    
+    /**
+     * Reserves room for a record of the specified payload size and writes
+     * its header. Must be called holding the lock.
+     */
+    private ByteBuffer begin(byte type, int size) {
+        int needed = 5 + size;
+        if(pending.remaining() < needed) {
+            ByteBuffer grown = newBuffer(Math.max(pending.capacity() * 2, pending.position() + needed));
+            pending.flip();
+            grown.put(pending);
+            pending = grown;
+        }
+        pending.putInt(1 + size);
+        pending.put(type);
+        return pending;
+    }
+    
+    /**
+     * Swaps the record buffers and writes the filled one to the journal file 
+     * outside of the lock, so that the compute thread keeps appending meanwhile.
+     * The records of journals closed by {@link #compact()} are written first, each
+     * followed by the rotation to the next journal file and the submission of its
+     * compaction.
+     */
+    private void writePending() throws IOException {
+        synchronized(fileLock) {
+            ByteBuffer filled;
+            ByteBuffer[] closed;
+            Compaction[] rotations;
+            synchronized(lock) {
+                closed = closedRecords.toArray(new ByteBuffer[closedRecords.size()]);
+                rotations = compactions.toArray(new Compaction[compactions.size()]);
+                closedRecords.clear();
+                compactions.clear();
+                filled = pending;
+                pending = writing;
+                writing = filled;
+            }
+            for(int i = 0;i < closed.length;i++) {
+                try {
+                    write(closed[i]);
+                    channel.close();
+                    channel = openJournal(rotations[i].closed + 1);
+                }catch(IOException e) {
+                    for(int j = i;j < rotations.length;j++) {
+                        rotations[j].fail(e);
+                    }
+                    throw e;
+                }
+                compactor.execute(rotations[i]);
+            }
+            write(filled);
+            filled.clear();
+        }
+    }
+    
+    /**
+     * Writes the records of the specified buffer to the current journal 
+     * file and forces them to disk.
+     */
+    private void write(ByteBuffer records) throws IOException {
+        records.flip();
+        if(records.hasRemaining()) {
+            while(records.hasRemaining()) {
+                channel.write(records);
+            }
+            channel.force(false);
+        }
+    }
+    
+    private void checkFailure() throws IOException {
+        if(failure != null) {
+            throw failure;
+        }
+    }
+    
+    private FileChannel openJournal(long seq) throws IOException {
+        FileChannel journal = FileChannel.open(journalPath(directory, seq), 
+            StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        ByteBuffer header = newBuffer(8);
+        header.putInt(MAGIC).putInt(VERSION).flip();
+        while(header.hasRemaining()) {
+            journal.write(header);
+        }
+        journal.force(true);
+        return journal;
+    }
+    
+    /**
+     * Loads the latest snapshot numbered at most {@code last} and replays
+     * the journals following it up to {@code last}.
+     */
+    private static Connections restore(Path directory, long last) throws IOException {
+        long[] snapshots = sequences(directory, SNAPSHOT_NAME);
+        long base = -1;
+        for(long seq : snapshots) {
+            if(seq <= last) base = seq;
+        }
+        if(base == -1) {
+            throw new IOException("No snapshot in " + directory);
+        }
+        
+        Connections c = ModelSnapshot.load(snapshotPath(directory, base));
+        byte lastRecord = STATE;
+        for(long seq : sequences(directory, JOURNAL_NAME)) {
+            if(seq > base && seq <= last) {
+                byte type = replayRecords(c, journalPath(directory, seq));
+                lastRecord = type == 0 ? lastRecord : type;
+            }
+        }
+        // The activity of the last cycle is only journaled on compaction; activity 
+        // older than the replayed connectivity is dropped, as on a sequence reset.
+        if(lastRecord != STATE) {
+            c.clear();
+        }
+        return c;
+    }
+    
+    /**
+     * Saves the model obtained by replaying the journals up to {@code last} as a new
+     * snapshot, then deletes the snapshots and journals it supersedes.
+     */
+    private static Path fold(Path directory, long last) throws IOException {
+        Connections c = restore(directory, last);
+        Path target = saveSnapshot(c, directory, last);
+        
+        for(long seq : sequences(directory, SNAPSHOT_NAME)) {
+            if(seq < last) Files.deleteIfExists(snapshotPath(directory, seq));
+        }
+        for(long seq : sequences(directory, JOURNAL_NAME)) {
+            if(seq <= last) Files.deleteIfExists(journalPath(directory, seq));
+        }
+        return target;
+    }
+    
+    /**
+     * Saves a snapshot under a temporary name and moves it into place once 
+     * it is safely on disk, so that a crash never leaves a partial snapshot.
+     */
+    private static Path saveSnapshot(Connections c, Path directory, long seq) throws IOException {
+        Path target = snapshotPath(directory, seq);
+        Path temp = directory.resolve(target.getFileName() + ".tmp");
+        try(FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, 
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ModelSnapshot.write(c, out);
+            out.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+        return target;
+    }
+    
+    /**
+     * Returns the sorted sequence numbers of the files of the directory
+     * whose names match the specified pattern.
+     */
+    private static long[] sequences(Path directory, Pattern pattern) throws IOException {
+        long[] retVal = new long[0];
+        try(DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for(Path file : files) {
+                Matcher m = pattern.matcher(file.getFileName().toString());
+                if(m.matches()) {
+                    retVal = Arrays.copyOf(retVal, retVal.length + 1);
+                    retVal[retVal.length - 1] = Long.parseLong(m.group(1));
+                }
+            }
+        }
+        Arrays.sort(retVal);
+        return retVal;
+    }
+    
+    private static Path snapshotPath(Path directory, long seq) {
+        return directory.resolve(String.format("model-%010d.snapshot", seq));
+    }
+    
+    private static Path journalPath(Path directory, long seq) {
+        return directory.resolve(String.format("learning-%010d.journal", seq));
+    }
+    
+    private static ByteBuffer newBuffer(int capacity) {
+        return ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+    }
+    
+    /**
+     * Folds a closed journal into a new snapshot once the background
+     * thread has rotated the journal files.
+     */
+    private class Compaction extends FutureTask<Path> {
+        private final long closed;
+        
+        Compaction(final long closed) {
+            super(new Callable<Path>() {
+                @Override public Path call() throws IOException {
+                    return fold(directory, closed);
+                }
+            });
+            this.closed = closed;
+        }
+        
+        /**
+         * Completes this compaction with the failure of the rotation.
+         */
+        void fail(Throwable t) {
+            setException(t);
+        }
+    }
+}
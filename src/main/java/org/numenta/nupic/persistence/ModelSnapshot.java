@@ -0,0 +1,761 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+
+package org.numenta.nupic.persistence;
+
+import gnu.trove.impl.Constants;
+import gnu.trove.map.TIntIntMap;
+import gnu.trove.map.hash.TIntIntHashMap;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.numenta.nupic.Connections;
+import org.numenta.nupic.model.Cell;
+import org.numenta.nupic.model.Column;
+import org.numenta.nupic.model.DistalDendrite;
+import org.numenta.nupic.model.DistalSynapseStore;
+import org.numenta.nupic.model.OffHeapSynapseStore;
+import org.numenta.nupic.model.Pool;
+import org.numenta.nupic.model.Synapse;
+import org.numenta.nupic.research.SpatialPooler;
+import org.numenta.nupic.research.TemporalMemory;
+import org.numenta.nupic.util.MersenneTwister;
+
+/**
+ * Saves and restores the complete state of a {@link Connections} object, as 
+ * used by the {@link SpatialPooler} and the {@link TemporalMemory}, in a compact 
+ * versioned binary format.
+ * <p>
+ * A snapshot holds, in this order:
+ * <ol>
+ * <li>a header made of the {@link #MAGIC} number, the {@link #VERSION} of the 
+ * format and flags telling which sections follow</li>
+ * <li>all configuration parameters and iteration counters</li>
+ * <li>the state of the {@link MersenneTwister}, if one is in use</li>
+ * <li>the spatial pooler section: tie breakers, duty cycles, boost factors, and the
+ * potential pool of every column along with the permanences of its synapses</li>
+ * <li>the temporal memory section: every distal segment along with the range of its
+ * synapses, a contiguous block holding every distal synapse, grouped by segment, in the
+ * record layout of the {@link OffHeapSynapseStore}, the index of the receptors of every
+ * cell, and the cell, segment and synapse activity of the last cycle</li>
+ * <li>the {@link #MAGIC} number again, to detect truncated snapshots</li>
+ * </ol>
+ * All values are little endian. Data is streamed through NIO channels with bulk
+ * transfers of the primitive arrays, so that saving and loading proceed at the
+ * speed of the disk.
+ * </p><p>
+ * {@link #map(Path)} opens a snapshot file without reading its synapse block: the
+ * block and the receptor index are mapped into an {@link OffHeapSynapseStore}, so that
+ * the distal synapses are used directly from the file's pages, and the time taken to
+ * open a model doesn't depend on its number of synapses. The synapse block is mapped
+ * copy-on-write, so learning never modifies the file.
+ * </p><p>
+ * A restored model continues exactly as the saved one would have: the same 
+ * inputs produce the same outputs and the same learning. Scratch state which is 
+ * rebuilt on demand (inhibition caches, workspaces, the reused cycles of the 
+ * {@link org.numenta.nupic.research.IndexedTemporalMemory}) is not saved. Distal
+ * synapses held in a {@link DistalSynapseStore} are restored into an on heap store
+ * of the same permanence precision. Random
+ * number generators other than a {@link MersenneTwister} can't be captured; the 
+ * restored model then uses a {@link MersenneTwister} seeded with the configured seed.
+ * </p>
+ * 
+ * @author David Ray
+ */
+public class ModelSnapshot {
+    /** Identifies a snapshot ("HTMS") */
+    public static final int MAGIC = 0x484D5453;
+    /** The current version of the format */
+    public static final int VERSION = 2;
+    
+    private static final int SPATIAL_POOLER = 1;
+    private static final int TEMPORAL_MEMORY = 2;
+    
+    private static final int STATE_BUFFER_SIZE = 1 << 16;
+    
+    private static final int NO_STORE = 0;
+    private static final int DOUBLE_STORE = 1;
+    private static final int FLOAT_STORE = 2;
+    
+    private ModelSnapshot() {}
+    
+    /**
+     * Saves the specified {@link Connections} to a file, replacing
+     * any previous content.
+     * 
+     * @param c         the model to save
+     * @param file      the destination file
+     * @throws IOException
+     */
+    public static void save(Connections c, Path file) throws IOException {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, 
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(c, channel);
+        }
+    }
+    
+    /**
+     * Loads a {@link Connections} previously saved with {@link #save(Connections, Path)}
+     * 
+     * @param file      the snapshot file
+     * @return  the restored model
+     * @throws IOException
+     */
+    public static Connections load(Path file) throws IOException {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return read(channel);
+        }
+    }
+    
+    /**
+     * Opens a {@link Connections} saved with {@link #save(Connections, Path)}, mapping its
+     * distal synapse block copy-on-write into an {@link OffHeapSynapseStore} rather than 
+     * reading it. The file must not be modified while the returned model is in use.
+     * 
+     * @param file      the snapshot file
+     * @return  the restored model
+     * @throws IOException
+     */
+    public static Connections map(Path file) throws IOException {
+        return map(file, OffHeapSynapseStore.DEFAULT_CHUNK_SHIFT);
+    }
+    
+    /**
+     * Opens a {@link Connections} saved with {@link #save(Connections, Path)}, mapping its
+     * distal synapse block copy-on-write in chunks of the specified size.
+     * 
+     * @param file          the snapshot file
+     * @param chunkShift    the base 2 logarithm of the number of synapses per mapped chunk
+     * @return  the restored model
+     * @throws IOException
+     * @throws IllegalArgumentException if the chunk shift isn't within [0, {@link OffHeapSynapseStore#MAX_CHUNK_SHIFT}]
+     * @see #map(Path)
+     */
+    public static Connections map(Path file, int chunkShift) throws IOException {
+        OffHeapSynapseStore.checkChunkShift(chunkShift);
+        // Copy-on-write mappings require a writable channel, the file itself is never written
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return read(channel, channel, chunkShift);
+        }
+    }
+    
+    /**
+     * Returns a deep copy of the specified {@link Connections}, made by writing it 
+     * to an in memory snapshot and reading it back. The copy shares no state with 
+     * the original and continues exactly as the original would.
+     * 
+     * @param c     the model to copy
+     * @return  the copy
+     */
+    public static Connections copy(Connections c) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            write(c, Channels.newChannel(bytes));
+            return read(Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray())));
+        }catch(IOException e) {
+            // In memory streams don't fail
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    /**
+     * Writes the specified {@link Connections} to a channel. The channel 
+     * is left open.
+     * 
+     * @param c         the model to save
+     * @param channel   the destination channel
+     * @throws IOException
+     */
+    public static void write(Connections c, WritableByteChannel channel) throws IOException {
+        SnapshotWriter out = new SnapshotWriter(channel, SnapshotWriter.DEFAULT_BUFFER_SIZE);
+        
+        boolean hasSP = c.getPotentialPools() != null;
+        boolean hasTM = c.getCells() != null;
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt((hasSP ? SPATIAL_POOLER : 0) | (hasTM ? TEMPORAL_MEMORY : 0));
+        
+        writeParameters(c, out);
+        writeRandom(c, out);
+        if(hasSP) {
+            writeSpatialPooler(c, out);
+        }
+        if(hasTM) {
+            writeTemporalMemory(c, out);
+        }
+        
+        out.writeInt(MAGIC);
+        out.flush();
+    }
+    
+    /**
+     * Reads a {@link Connections} from a channel positioned at the start of
+     * a snapshot. The channel is left open.
+     * 
+     * @param channel   the source channel
+     * @return  the restored model
+     * @throws IOException  if the data isn't a valid snapshot
+     */
+    public static Connections read(ReadableByteChannel channel) throws IOException {
+        return read(channel, null, 0);
+    }
+    
+    /**
+     * Reads a snapshot, mapping its synapse block from the specified file
+     * channel if it isn't null.
+     */
+    private static Connections read(ReadableByteChannel channel, FileChannel mapped, int chunkShift) throws IOException {
+        SnapshotReader in = new SnapshotReader(channel, SnapshotWriter.DEFAULT_BUFFER_SIZE);
+        
+        if(in.readInt() != MAGIC) {
+            throw new IOException("Not a model snapshot");
+        }
+        int version = in.readInt();
+        if(version != VERSION) {
+            throw new IOException("Unsupported snapshot version: " + version);
+        }
+        int sections = in.readInt();
+        
+        Connections c = new Connections();
+        readParameters(c, in);
+        byte[] randomState = in.readBoolean() ? in.readByteArray() : null;
+        int synapseCount = c.getSynapseCount();
+        if((sections & SPATIAL_POOLER) != 0) {
+            readSpatialPooler(c, in);
+        }
+        if((sections & TEMPORAL_MEMORY) != 0) {
+            readTemporalMemory(c, in, mapped, chunkShift);
+        }
+        // Creating the synapses above advanced the counter
+        c.setSynapseCount(synapseCount);
+        
+        if(in.readInt() != MAGIC) {
+            throw new IOException("Corrupted snapshot: missing end marker");
+        }
+        
+        // Restored last, as rebuilding the model may draw random numbers
+        readRandom(c, randomState);
+        
+        return c;
+    }
+    
+    /**
+     * Writes the part of the model's state which changes on every cycle besides
+     * its connectivity: iteration and element counters, random number generator,
+     * duty cycles and boost factors, segment usage and the activity of the last
+     * cycle. Used by the {@link LearningJournal} to complete the connectivity
+     * changes it records.
+     * 
+     * @param c         the model
+     * @param channel   the destination channel
+     * @throws IOException
+     */
+    static void writeState(Connections c, WritableByteChannel channel) throws IOException {
+        SnapshotWriter out = new SnapshotWriter(channel, STATE_BUFFER_SIZE);
+        boolean hasSP = c.getPotentialPools() != null;
+        boolean hasTM = c.getCells() != null;
+        out.writeInt((hasSP ? SPATIAL_POOLER : 0) | (hasTM ? TEMPORAL_MEMORY : 0));
+        out.writeInt(c.getIterationNum());
+        out.writeInt(c.getIterationLearnNum());
+        out.writeInt(c.getTmIterationNum());
+        out.writeInt(c.getSegmentCount());
+        out.writeInt(c.getSynapseCount());
+        out.writeInt(c.getInhibitionRadius());
+        writeRandom(c, out);
+        if(hasSP) {
+            writeDutyCycles(c, out);
+        }
+        if(hasTM) {
+            int numSegments = 0;
+            for(int i = 0;i < c.getSegmentCount();i++) {
+                DistalDendrite dd = c.getSegment(i);
+                if(dd != null && !dd.isDestroyed()) numSegments++;
+            }
+            out.writeInt(numSegments);
+            for(int i = 0;i < c.getSegmentCount();i++) {
+                DistalDendrite dd = c.getSegment(i);
+                if(dd != null && !dd.isDestroyed()) {
+                    out.writeInt(i);
+                    out.writeInt(dd.getLastUsedIteration());
+                }
+            }
+            writeActivity(c, out);
+        }
+        out.flush();
+    }
+    
+    /**
+     * Restores the state written by {@link #writeState(Connections, WritableByteChannel)}
+     * onto a model having the same connectivity.
+     * 
+     * @param c         the model
+     * @param channel   the source channel
+     * @throws IOException
+     */
+    static void readState(Connections c, ReadableByteChannel channel) throws IOException {
+        SnapshotReader in = new SnapshotReader(channel, STATE_BUFFER_SIZE);
+        int sections = in.readInt();
+        c.setIterationNum(in.readInt());
+        c.setIterationLearnNum(in.readInt());
+        c.setTmIterationNum(in.readInt());
+        c.setSegmentCount(in.readInt());
+        c.setSynapseCount(in.readInt());
+        c.setInhibitionRadius(in.readInt());
+        readRandom(c, in.readBoolean() ? in.readByteArray() : null);
+        if((sections & SPATIAL_POOLER) != 0) {
+            readDutyCycles(c, in);
+        }
+        if((sections & TEMPORAL_MEMORY) != 0) {
+            int numSegments = in.readInt();
+            for(int i = 0;i < numSegments;i++) {
+                c.getSegment(in.readInt()).setLastUsedIteration(in.readInt());
+            }
+            readActivity(c, in);
+        }
+    }
+    
+    ///////////////////////////////// Parameters /////////////////////////////////
+    
+    private static void writeParameters(Connections c, SnapshotWriter out) throws IOException {
+        out.writeIntArray(c.getInputDimensions());
+        out.writeIntArray(c.getColumnDimensions());
+        out.writeInt(c.getCellsPerColumn());
+        out.writeInt(c.getNumInputs());
+        out.writeInt(c.getNumColumns());
+        out.writeInt(c.getSeed());
+        
+        out.writeInt(c.getPotentialRadius());
+        out.writeDouble(c.getPotentialPct());
+        out.writeBoolean(c.getGlobalInhibition());
+        out.writeDouble(c.getLocalAreaDensity());
+        out.writeDouble(c.getNumActiveColumnsPerInhArea());
+        out.writeDouble(c.getStimulusThreshold());
+        out.writeDouble(c.getSynPermInactiveDec());
+        out.writeDouble(c.getSynPermActiveInc());
+        out.writeDouble(c.getSynPermConnected());
+        out.writeDouble(c.getSynPermBelowStimulusInc());
+        out.writeDouble(c.getMinPctOverlapDutyCycles());
+        out.writeDouble(c.getMinPctActiveDutyCycles());
+        out.writeInt(c.getDutyCyclePeriod());
+        out.writeDouble(c.getMaxBoost());
+        out.writeInt(c.getSpVerbosity());
+        out.writeDouble(c.getSynPermTrimThreshold());
+        out.writeInt(c.getUpdatePeriod());
+        out.writeInt(c.getInhibitionRadius());
+        out.writeInt(c.getIterationNum());
+        out.writeInt(c.getIterationLearnNum());
+        
+        out.writeInt(c.getActivationThreshold());
+        out.writeInt(c.getLearningRadius());
+        out.writeInt(c.getMinThreshold());
+        out.writeInt(c.getMaxNewSynapseCount());
+        out.writeDouble(c.getInitialPermanence());
+        out.writeDouble(c.getConnectedPermanence());
+        out.writeDouble(c.getPermanenceIncrement());
+        out.writeDouble(c.getPermanenceDecrement());
+        out.writeInt(c.getMaxSegmentsPerCell());
+        out.writeInt(c.getMaxSynapsesPerSegment());
+        out.writeBoolean(c.getPruneZeroPermanenceSynapses());
+        out.writeInt(c.getTmIterationNum());
+        out.writeInt(c.getSegmentCount());
+        out.writeInt(c.getSynapseCount());
+    }
+    
+    private static void readParameters(Connections c, SnapshotReader in) throws IOException {
+        c.setInputDimensions(in.readIntArray());
+        c.setColumnDimensions(in.readIntArray());
+        c.setCellsPerColumn(in.readInt());
+        c.setNumInputs(in.readInt());
+        c.setNumColumns(in.readInt());
+        c.setSeed(in.readInt());
+        
+        c.setPotentialRadius(in.readInt());
+        c.setPotentialPct(in.readDouble());
+        c.setGlobalInhibition(in.readBoolean());
+        c.setLocalAreaDensity(in.readDouble());
+        c.setNumActiveColumnsPerInhArea(in.readDouble());
+        c.setStimulusThreshold(in.readDouble());
+        c.setSynPermInactiveDec(in.readDouble());
+        c.setSynPermActiveInc(in.readDouble());
+        c.setSynPermConnected(in.readDouble());
+        c.setSynPermBelowStimulusInc(in.readDouble());
+        c.setMinPctOverlapDutyCycles(in.readDouble());
+        c.setMinPctActiveDutyCycles(in.readDouble());
+        c.setDutyCyclePeriod(in.readInt());
+        c.setMaxBoost(in.readDouble());
+        c.setSpVerbosity(in.readInt());
+        c.setSynPermTrimThreshold(in.readDouble());
+        c.setUpdatePeriod(in.readInt());
+        c.setInhibitionRadius(in.readInt());
+        c.setIterationNum(in.readInt());
+        c.setIterationLearnNum(in.readInt());
+        
+        c.setActivationThreshold(in.readInt());
+        c.setLearningRadius(in.readInt());
+        c.setMinThreshold(in.readInt());
+        c.setMaxNewSynapseCount(in.readInt());
+        c.setInitialPermanence(in.readDouble());
+        c.setConnectedPermanence(in.readDouble());
+        c.setPermanenceIncrement(in.readDouble());
+        c.setPermanenceDecrement(in.readDouble());
+        c.setMaxSegmentsPerCell(in.readInt());
+        c.setMaxSynapsesPerSegment(in.readInt());
+        c.setPruneZeroPermanenceSynapses(in.readBoolean());
+        c.setTmIterationNum(in.readInt());
+        c.setSegmentCount(in.readInt());
+        c.setSynapseCount(in.readInt());
+    }
+    
+    private static void readRandom(Connections c, byte[] state) throws IOException {
+        MersenneTwister random = new MersenneTwister(c.getSeed());
+        if(state != null) {
+            random.readState(new DataInputStream(new ByteArrayInputStream(state)));
+        }
+        c.setRandom(random);
+    }
+    
+    private static void writeRandom(Connections c, SnapshotWriter out) throws IOException {
+        if(!(c.getRandom() instanceof MersenneTwister)) {
+            out.writeBoolean(false);
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream stream = new DataOutputStream(bytes);
+        ((MersenneTwister)c.getRandom()).writeState(stream);
+        stream.flush();
+        out.writeBoolean(true);
+        out.writeByteArray(bytes.toByteArray());
+    }
+    
+    ///////////////////////////////// Spatial Pooler /////////////////////////////////
+    
+    private static void writeSpatialPooler(Connections c, SnapshotWriter out) throws IOException {
+        out.writeDoubleArray(c.getTieBreaker());
+        writeDutyCycles(c, out);
+        
+        int numColumns = c.getNumColumns();
+        int[] indexes = new int[0];
+        double[] permanences = new double[0];
+        for(int i = 0;i < numColumns;i++) {
+            Pool pool = c.getPotentialPools().getObject(i);
+            // Synapses in creation order, which determines the pool's internal ordering
+            List<Synapse> synapses = c.getSynapses(c.getColumn(i).getProximalDendrite());
+            int n = synapses.size();
+            if(indexes.length < n) {
+                indexes = new int[n];
+                permanences = new double[n];
+            }
+            for(int j = 0;j < n;j++) {
+                Synapse s = synapses.get(j);
+                indexes[j] = s.getInputIndex();
+                permanences[j] = pool.getPermanence(s);
+            }
+            out.writeInt(n);
+            out.writeInts(indexes, 0, n);
+            out.writeDoubles(permanences, 0, n);
+        }
+    }
+    
+    private static void readSpatialPooler(Connections c, SnapshotReader in) throws IOException {
+        int numInputs = c.getNumInputs();
+        int numColumns = c.getNumColumns();
+        int inhibitionRadius = c.getInhibitionRadius();
+        new SpatialPooler().initMatrices(c);
+        c.setInhibitionRadius(inhibitionRadius);
+        if(c.getNumInputs() != numInputs || c.getNumColumns() != numColumns) {
+            throw new IOException("Corrupted snapshot: dimensions don't match the number of inputs or columns");
+        }
+        
+        c.setTieBreaker(in.readDoubleArray());
+        readDutyCycles(c, in);
+        
+        for(int i = 0;i < numColumns;i++) {
+            int n = in.readInt();
+            int[] indexes = new int[n];
+            double[] permanences = new double[n];
+            in.readInts(indexes, 0, n);
+            in.readDoubles(permanences, 0, n);
+            
+            Column column = c.getColumn(i);
+            c.getPotentialPools().set(i, column.createPotentialPool(c, indexes));
+            column.setProximalPermanencesSparse(c, permanences, indexes);
+        }
+    }
+    
+    private static void writeDutyCycles(Connections c, SnapshotWriter out) throws IOException {
+        out.writeDoubleArray(c.getOverlapDutyCycles());
+        out.writeDoubleArray(c.getActiveDutyCycles());
+        out.writeDoubleArray(c.getMinOverlapDutyCycles());
+        out.writeDoubleArray(c.getMinActiveDutyCycles());
+        out.writeDoubleArray(c.getBoostFactors());
+    }
+    
+    private static void readDutyCycles(Connections c, SnapshotReader in) throws IOException {
+        c.setOverlapDutyCycles(in.readDoubleArray());
+        c.setActiveDutyCycles(in.readDoubleArray());
+        c.setMinOverlapDutyCycles(in.readDoubleArray());
+        c.setMinActiveDutyCycles(in.readDoubleArray());
+        c.setBoostFactors(in.readDoubleArray());
+    }
+    
+    ///////////////////////////////// Temporal Memory /////////////////////////////////
+    
+    private static void writeTemporalMemory(Connections c, SnapshotWriter out) throws IOException {
+        DistalSynapseStore store = c.getDistalSynapseStore();
+        out.writeInt(store == null ? NO_STORE : store.isFloatPermanences() ? FLOAT_STORE : DOUBLE_STORE);
+        
+        List<DistalDendrite> segments = new ArrayList<DistalDendrite>();
+        for(int i = 0;i < c.getSegmentCount();i++) {
+            DistalDendrite dd = c.getSegment(i);
+            if(dd != null && !dd.isDestroyed()) {
+                segments.add(dd);
+            }
+        }
+        
+        // The synapses of each segment are written contiguously in creation order,
+        // so that each segment's slots form a range once the block is mapped.
+        out.writeInt(segments.size());
+        int numSynapses = 0;
+        for(DistalDendrite dd : segments) {
+            int n = c.getSynapses(dd).size();
+            out.writeInt(dd.getIndex());
+            out.writeInt(dd.getParentCell().getIndex());
+            out.writeInt(dd.getLastUsedIteration());
+            out.writeInt(numSynapses);
+            out.writeInt(n);
+            numSynapses += n;
+        }
+        
+        // The slot of each synapse in the block, by synapse index
+        int[] slots = new int[c.getSynapseCount()];
+        boolean floatPermanences = store != null && store.isFloatPermanences();
+        out.writeInt(numSynapses);
+        int slot = 0;
+        for(DistalDendrite dd : segments) {
+            for(Synapse s : c.getSynapses(dd)) {
+                slots[s.getIndex()] = slot++;
+                out.writeInt(s.getSourceCell().getIndex());
+                out.writeInt(dd.getIndex());
+                out.writeInt(s.getIndex());
+                if(floatPermanences) {
+                    out.writeFloat((float)s.getPermanence());
+                }else{
+                    out.writeDouble(s.getPermanence());
+                }
+            }
+        }
+        
+        // The receptor index: the offset of each cell's receptors, then their slots
+        Cell[] cells = c.getCells();
+        int offset = 0;
+        out.writeInt(offset);
+        for(Cell cell : cells) {
+            offset += c.getReceptorSynapses(cell).size();
+            out.writeInt(offset);
+        }
+        for(Cell cell : cells) {
+            for(Synapse s : c.getReceptorSynapses(cell)) {
+                out.writeInt(slots[s.getIndex()]);
+            }
+        }
+        
+        writeActivity(c, out);
+    }
+    
+    /**
+     * Writes the cell, segment and synapse activity of the last cycle
+     */
+    private static void writeActivity(Connections c, SnapshotWriter out) throws IOException {
+        out.writeIntArray(cellIndexes(c.getActiveCells()));
+        out.writeIntArray(cellIndexes(c.getWinnerCells()));
+        out.writeIntArray(cellIndexes(c.getPredictiveCells()));
+        int[] columns = new int[c.getPredictedColumns().size()];
+        int i = 0;
+        for(Column column : c.getPredictedColumns()) {
+            columns[i++] = column.getIndex();
+        }
+        out.writeIntArray(columns);
+        out.writeIntArray(segmentIndexes(c.getActiveSegments()));
+        out.writeIntArray(segmentIndexes(c.getLearningSegments()));
+        
+        Map<DistalDendrite, Set<Synapse>> activeSynapses = c.getActiveSynapsesForSegment();
+        out.writeInt(segmentIndexes(activeSynapses.keySet()).length);
+        // Positions of the synapses of a segment by synapse index, -1 for destroyed synapses
+        TIntIntMap ownedPositions = new TIntIntHashMap(Constants.DEFAULT_CAPACITY, Constants.DEFAULT_LOAD_FACTOR, -1, -1);
+        for(Map.Entry<DistalDendrite, Set<Synapse>> entry : activeSynapses.entrySet()) {
+            DistalDendrite dd = entry.getKey();
+            if(dd.isDestroyed()) continue;
+            List<Synapse> owned = c.getSynapses(dd);
+            ownedPositions.clear();
+            for(int j = 0;j < owned.size();j++) {
+                ownedPositions.put(owned.get(j).getIndex(), j);
+            }
+            int[] positions = new int[entry.getValue().size()];
+            int n = 0;
+            for(Synapse s : entry.getValue()) {
+                int position = ownedPositions.get(s.getIndex());
+                if(position != -1) {
+                    positions[n++] = position;
+                }
+            }
+            out.writeInt(dd.getIndex());
+            out.writeInt(n);
+            out.writeInts(positions, 0, n);
+        }
+    }
+    
+    private static void readTemporalMemory(Connections c, SnapshotReader in, FileChannel mapped, int chunkShift) 
+        throws IOException {
+        
+        int segmentCount = c.getSegmentCount();
+        new TemporalMemory().init(c);
+        
+        int store = in.readInt();
+        boolean floatPermanences = store == FLOAT_STORE;
+        if(store != NO_STORE && mapped == null) {
+            c.setDistalSynapseStore(new DistalSynapseStore(floatPermanences));
+        }
+        
+        int numSegments = in.readInt();
+        int[] firstSlots = new int[segmentCount];
+        int[] slotCounts = new int[segmentCount];
+        for(int i = 0;i < numSegments;i++) {
+            int index = in.readInt();
+            Cell cell = c.getCell(in.readInt());
+            cell.createSegment(c, index).setLastUsedIteration(in.readInt());
+            firstSlots[index] = in.readInt();
+            slotCounts[index] = in.readInt();
+        }
+        c.setSegmentCount(segmentCount);
+        
+        int numSynapses = in.readInt();
+        for(int i = 0;i < segmentCount;i++) {
+            if(firstSlots[i] < 0 || slotCounts[i] < 0 || (long)firstSlots[i] + slotCounts[i] > numSynapses) {
+                throw new IOException("Corrupted snapshot: synapses of segment " + i + " out of range");
+            }
+        }
+        int numCells = c.getCells().length;
+        long indexSize = OffHeapSynapseStore.receptorIndexSize(numSynapses, numCells);
+        if(mapped != null) {
+            OffHeapSynapseStore offHeap = OffHeapSynapseStore.map(mapped, in.position(), numSynapses, 
+                floatPermanences, chunkShift, firstSlots, slotCounts, numCells);
+            in.skip((long)numSynapses * OffHeapSynapseStore.recordSize(floatPermanences) + indexSize);
+            c.setDistalSynapseStore(offHeap);
+        }else{
+            int[] sources = new int[numSynapses];
+            int[] segments = new int[numSynapses];
+            double[] permanences = new double[numSynapses];
+            // Synapse indexes in the high half, slots in the low half
+            long[] order = new long[numSynapses];
+            for(int i = 0;i < numSynapses;i++) {
+                sources[i] = in.readInt();
+                segments[i] = in.readInt();
+                order[i] = ((long)in.readInt() << 32) | i;
+                permanences[i] = floatPermanences ? in.readFloat() : in.readDouble();
+            }
+            in.skip(indexSize);
+            
+            // Recreating synapses in creation order restores the order of
+            // each segment's synapses as well as that of each cell's receptors.
+            Arrays.sort(order);
+            for(long entry : order) {
+                int i = (int)entry;
+                c.getSegment(segments[i]).createSynapse(c, c.getCell(sources[i]), permanences[i], (int)(entry >>> 32));
+            }
+        }
+        
+        readActivity(c, in);
+    }
+    
+    private static void readActivity(Connections c, SnapshotReader in) throws IOException {
+        c.setActiveCells(c.getCellSet(in.readIntArray()));
+        c.setWinnerCells(c.getCellSet(in.readIntArray()));
+        c.setPredictiveCells(c.getCellSet(in.readIntArray()));
+        c.setPredictedColumns(c.getColumnSet(in.readIntArray()));
+        c.setActiveSegments(segmentSet(c, in.readIntArray()));
+        c.setLearningSegments(segmentSet(c, in.readIntArray()));
+        
+        Map<DistalDendrite, Set<Synapse>> activeSynapses = new LinkedHashMap<DistalDendrite, Set<Synapse>>();
+        int numEntries = in.readInt();
+        for(int i = 0;i < numEntries;i++) {
+            DistalDendrite dd = c.getSegment(in.readInt());
+            List<Synapse> owned = c.getSynapses(dd);
+            Set<Synapse> set = new LinkedHashSet<Synapse>();
+            int n = in.readInt();
+            for(int j = 0;j < n;j++) {
+                set.add(owned.get(in.readInt()));
+            }
+            activeSynapses.put(dd, set);
+        }
+        c.setActiveSynapsesForSegment(activeSynapses);
+    }
+    
+    private static int[] cellIndexes(Collection<Cell> cells) {
+        int[] retVal = new int[cells.size()];
+        int i = 0;
+        for(Cell cell : cells) {
+            retVal[i++] = cell.getIndex();
+        }
+        return retVal;
+    }
+    
+    /**
+     * Returns the indexes of the specified segments, skipping destroyed ones
+     */
+    private static int[] segmentIndexes(Collection<DistalDendrite> segments) {
+        int[] retVal = new int[segments.size()];
+        int i = 0;
+        for(DistalDendrite dd : segments) {
+            if(!dd.isDestroyed()) {
+                retVal[i++] = dd.getIndex();
+            }
+        }
+        return Arrays.copyOf(retVal, i);
+    }
+    
+    private static Set<DistalDendrite> segmentSet(Connections c, int[] indexes) {
+        Set<DistalDendrite> retVal = new LinkedHashSet<DistalDendrite>();
+        for(int index : indexes) {
+            retVal.add(c.getSegment(index));
+        }
+        return retVal;
+    }
+}
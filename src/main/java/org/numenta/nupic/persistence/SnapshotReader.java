@@ -0,0 +1,203 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+
+package org.numenta.nupic.persistence;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * Reads the primitives and primitive arrays written by a {@link SnapshotWriter}
+ * from a {@link ReadableByteChannel} through a direct buffer.
+ * 
+ * @author David Ray
+ * @see SnapshotWriter
+ */
+class SnapshotReader {
+    private final ReadableByteChannel channel;
+    private final ByteBuffer buffer;
+    /** Number of bytes transferred from the channel so far */
+    private long transferred;
+    
+    /**
+     * Constructs a new {@code SnapshotReader}
+     * 
+     * @param channel       the channel read from
+     * @param bufferSize    the size of the transfer buffer in bytes
+     */
+    SnapshotReader(ReadableByteChannel channel, int bufferSize) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocateDirect(Math.max(bufferSize, 64)).order(ByteOrder.LITTLE_ENDIAN);
+        this.buffer.limit(0);
+    }
+    
+    /**
+     * Refills the buffer until at least the specified number of bytes
+     * are available.
+     */
+    private void require(int bytes) throws IOException {
+        if(buffer.remaining() >= bytes) return;
+        
+        buffer.compact();
+        while(buffer.position() < bytes) {
+            int n = channel.read(buffer);
+            if(n < 0) {
+                throw new EOFException("Unexpected end of snapshot");
+            }
+            transferred += n;
+        }
+        buffer.flip();
+    }
+    
+    /**
+     * Returns the number of bytes consumed from the start of the snapshot
+     * @return
+     */
+    long position() {
+        return transferred - buffer.remaining();
+    }
+    
+    /**
+     * Skips the specified number of bytes, seeking when the channel allows it.
+     * 
+     * @param bytes     the number of bytes to skip
+     * @throws IOException
+     */
+    void skip(long bytes) throws IOException {
+        if(bytes <= buffer.remaining()) {
+            buffer.position(buffer.position() + (int)bytes);
+            return;
+        }
+        bytes -= buffer.remaining();
+        buffer.position(0).limit(0);
+        if(channel instanceof SeekableByteChannel) {
+            SeekableByteChannel seekable = (SeekableByteChannel)channel;
+            if(seekable.position() + bytes > seekable.size()) {
+                throw new EOFException("Unexpected end of snapshot");
+            }
+            seekable.position(seekable.position() + bytes);
+            transferred += bytes;
+            return;
+        }
+        while(bytes > 0) {
+            require(1);
+            int n = (int)Math.min(bytes, buffer.remaining());
+            buffer.position(buffer.position() + n);
+            bytes -= n;
+        }
+    }
+    
+    int readInt() throws IOException {
+        require(4);
+        return buffer.getInt();
+    }
+    
+    long readLong() throws IOException {
+        require(8);
+        return buffer.getLong();
+    }
+    
+    float readFloat() throws IOException {
+        require(4);
+        return buffer.getFloat();
+    }
+    
+    double readDouble() throws IOException {
+        require(8);
+        return buffer.getDouble();
+    }
+    
+    boolean readBoolean() throws IOException {
+        require(1);
+        return buffer.get() != 0;
+    }
+    
+    /**
+     * Reads an array written by {@link SnapshotWriter#writeIntArray(int[])}
+     */
+    int[] readIntArray() throws IOException {
+        int length = readInt();
+        if(length < 0) return null;
+        int[] values = new int[length];
+        readInts(values, 0, length);
+        return values;
+    }
+    
+    /**
+     * Reads an array written by {@link SnapshotWriter#writeDoubleArray(double[])}
+     */
+    double[] readDoubleArray() throws IOException {
+        int length = readInt();
+        if(length < 0) return null;
+        double[] values = new double[length];
+        readDoubles(values, 0, length);
+        return values;
+    }
+    
+    /**
+     * Reads an array written by {@link SnapshotWriter#writeByteArray(byte[])}
+     */
+    byte[] readByteArray() throws IOException {
+        byte[] values = new byte[readInt()];
+        int offset = 0;
+        while(offset < values.length) {
+            require(1);
+            int n = Math.min(values.length - offset, buffer.remaining());
+            buffer.get(values, offset, n);
+            offset += n;
+        }
+        return values;
+    }
+    
+    /**
+     * Fills a range of the specified array.
+     */
+    void readInts(int[] values, int offset, int length) throws IOException {
+        int end = offset + length;
+        while(offset < end) {
+            require(4);
+            int n = Math.min(end - offset, buffer.remaining() >> 2);
+            buffer.asIntBuffer().get(values, offset, n);
+            buffer.position(buffer.position() + (n << 2));
+            offset += n;
+        }
+    }
+    
+    /**
+     * Fills a range of the specified array.
+     */
+    void readDoubles(double[] values, int offset, int length) throws IOException {
+        int end = offset + length;
+        while(offset < end) {
+            require(8);
+            int n = Math.min(end - offset, buffer.remaining() >> 3);
+            buffer.asDoubleBuffer().get(values, offset, n);
+            buffer.position(buffer.position() + (n << 3));
+            offset += n;
+        }
+    }
+}
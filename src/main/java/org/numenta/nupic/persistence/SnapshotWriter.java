@@ -0,0 +1,175 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+
+package org.numenta.nupic.persistence;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes primitives and primitive arrays to a {@link WritableByteChannel} through
+ * a direct buffer, in little endian order. Arrays are transferred in bulk, so large
+ * models are written at the speed of the underlying channel.
+ * 
+ * @author David Ray
+ * @see SnapshotReader
+ */
+class SnapshotWriter {
+    /** Default size of the transfer buffer */
+    static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+    
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer;
+    
+    /**
+     * Constructs a new {@code SnapshotWriter}
+     * 
+     * @param channel       the channel written to
+     * @param bufferSize    the size of the transfer buffer in bytes
+     */
+    SnapshotWriter(WritableByteChannel channel, int bufferSize) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocateDirect(Math.max(bufferSize, 64)).order(ByteOrder.LITTLE_ENDIAN);
+    }
+    
+    /**
+     * Writes the buffered bytes to the channel if fewer than the 
+     * specified number of bytes remain in the buffer.
+     */
+    private void ensure(int bytes) throws IOException {
+        if(buffer.remaining() < bytes) {
+            drain();
+        }
+    }
+    
+    private void drain() throws IOException {
+        buffer.flip();
+        while(buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+    
+    /**
+     * Writes all buffered bytes to the channel.
+     * @throws IOException
+     */
+    void flush() throws IOException {
+        drain();
+    }
+    
+    void writeInt(int value) throws IOException {
+        ensure(4);
+        buffer.putInt(value);
+    }
+    
+    void writeLong(long value) throws IOException {
+        ensure(8);
+        buffer.putLong(value);
+    }
+    
+    void writeFloat(float value) throws IOException {
+        ensure(4);
+        buffer.putFloat(value);
+    }
+    
+    void writeDouble(double value) throws IOException {
+        ensure(8);
+        buffer.putDouble(value);
+    }
+    
+    void writeBoolean(boolean value) throws IOException {
+        ensure(1);
+        buffer.put(value ? (byte)1 : (byte)0);
+    }
+    
+    /**
+     * Writes the length of the specified array, or -1 if it is null,
+     * followed by its contents.
+     */
+    void writeIntArray(int[] values) throws IOException {
+        if(values == null) {
+            writeInt(-1);
+            return;
+        }
+        writeInt(values.length);
+        writeInts(values, 0, values.length);
+    }
+    
+    /**
+     * Writes the length of the specified array, or -1 if it is null,
+     * followed by its contents.
+     */
+    void writeDoubleArray(double[] values) throws IOException {
+        if(values == null) {
+            writeInt(-1);
+            return;
+        }
+        writeInt(values.length);
+        writeDoubles(values, 0, values.length);
+    }
+    
+    /**
+     * Writes the length of the specified array followed by its contents.
+     */
+    void writeByteArray(byte[] values) throws IOException {
+        writeInt(values.length);
+        int offset = 0;
+        while(offset < values.length) {
+            ensure(1);
+            int n = Math.min(values.length - offset, buffer.remaining());
+            buffer.put(values, offset, n);
+            offset += n;
+        }
+    }
+    
+    /**
+     * Writes a range of the specified array without any length prefix.
+     */
+    void writeInts(int[] values, int offset, int length) throws IOException {
+        int end = offset + length;
+        while(offset < end) {
+            ensure(4);
+            int n = Math.min(end - offset, buffer.remaining() >> 2);
+            buffer.asIntBuffer().put(values, offset, n);
+            buffer.position(buffer.position() + (n << 2));
+            offset += n;
+        }
+    }
+    
+    /**
+     * Writes a range of the specified array without any length prefix.
+     */
+    void writeDoubles(double[] values, int offset, int length) throws IOException {
+        int end = offset + length;
+        while(offset < end) {
+            ensure(8);
+            int n = Math.min(end - offset, buffer.remaining() >> 3);
+            buffer.asDoubleBuffer().put(values, offset, n);
+            buffer.position(buffer.position() + (n << 3));
+            offset += n;
+        }
+    }
+}
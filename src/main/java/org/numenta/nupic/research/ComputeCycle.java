@@ -49,6 +49,7 @@ public class ComputeCycle {
     Set<Column> predictedColumns = new LinkedHashSet<Column>();
     Set<DistalDendrite> activeSegments = new LinkedHashSet<DistalDendrite>();
     Set<DistalDendrite> learningSegments = new LinkedHashSet<DistalDendrite>();
+    Set<DistalDendrite> matchingSegments = new LinkedHashSet<DistalDendrite>();
     Map<DistalDendrite, Set<Synapse>> activeSynapsesForSegment = new LinkedHashMap<DistalDendrite, Set<Synapse>>();
     
     
@@ -125,6 +126,15 @@ public class ComputeCycle {
         return activeSegments;
     }
     
+    /**
+     * Returns the Set of matching {@link DistalDendrite}s, whose number of
+     * active synapses, connected or not, reaches the minimum threshold.
+     * @return
+     */
+    public Set<DistalDendrite> matchingSegments() {
+        return matchingSegments;
+    }
+    
     /**
      * Returns the mapping of Segments to active synapses in t-1
      * @return
@@ -0,0 +1,229 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+package org.numenta.nupic.research;
+
+import gnu.trove.list.array.TIntArrayList;
+
+import java.util.BitSet;
+
+import org.numenta.nupic.Connections;
+
+/**
+ * Index based counterpart of {@link ComputeCycle} used by the {@link IndexedTemporalMemory}.
+ * Cells, columns and segments are referred to by their flat indexes, held in
+ * {@link TIntArrayList}s (which preserve insertion order) paired with {@link BitSet}s
+ * for constant time membership tests. Per segment activity is kept in a
+ * {@link SegmentActivity}, as by the {@link TemporalMemory}.
+ *
+ * Instances are meant to be reused from cycle to cycle; {@link #clear()} only resets
+ * the entries which were set during the last cycle and never releases the
+ * underlying buffers.
+ *
+ * @author David Ray
+ * @see IndexedTemporalMemory
+ */
+public class IndexedComputeCycle {
+    TIntArrayList activeColumns = new TIntArrayList();
+    TIntArrayList activeCells = new TIntArrayList();
+    TIntArrayList winnerCells = new TIntArrayList();
+    TIntArrayList predictiveCells = new TIntArrayList();
+    TIntArrayList predictedColumns = new TIntArrayList();
+    TIntArrayList activeSegments = new TIntArrayList();
+    TIntArrayList learningSegments = new TIntArrayList();
+
+    BitSet activeColumnSet;
+    BitSet activeCellSet;
+    BitSet winnerCellSet;
+    BitSet predictiveCellSet;
+    BitSet predictedColumnSet;
+    BitSet learningSegmentSet = new BitSet();
+
+    /** Number of active (and active connected) synapses per segment */
+    SegmentActivity activity = new SegmentActivity();
+
+    /** Scratch space used when picking cells to learn on */
+    TIntArrayList candidates = new TIntArrayList();
+    BitSet candidateSet;
+    /** Scratch space holding the cells picked to learn on */
+    TIntArrayList learnCells = new TIntArrayList();
+
+
+    /**
+     * Constructs a new {@code IndexedComputeCycle} sized according to the
+     * configuration of the specified {@link Connections}
+     *
+     * @param c     the {@link Connections} whose column and cell counts
+     *              determine the size of this cycle's buffers.
+     */
+    public IndexedComputeCycle(Connections c) {
+        int numColumns = c.getMemory().getMaxIndex() + 1;
+        int numCells = numColumns * c.getCellsPerColumn();
+        activeColumnSet = new BitSet(numColumns);
+        predictedColumnSet = new BitSet(numColumns);
+        activeCellSet = new BitSet(numCells);
+        winnerCellSet = new BitSet(numCells);
+        predictiveCellSet = new BitSet(numCells);
+        candidateSet = new BitSet(numCells);
+        activity.reset(c.getSegmentCount());
+    }
+
+    /**
+     * Resets the state of this cycle so that it may be reused,
+     * retaining all allocated buffers.
+     */
+    public void clear() {
+        clear(activeColumns, activeColumnSet);
+        clear(activeCells, activeCellSet);
+        clear(winnerCells, winnerCellSet);
+        clear(predictiveCells, predictiveCellSet);
+        clear(predictedColumns, predictedColumnSet);
+        clear(learningSegments, learningSegmentSet);
+        activeSegments.resetQuick();
+        activity.reset(0);
+    }
+
+    /**
+     * Unsets only the bits listed in the specified list, then
+     * empties the list.
+     *
+     * @param list      the indexes to clear
+     * @param set       the membership set to clear
+     */
+    private void clear(TIntArrayList list, BitSet set) {
+        for(int i = 0;i < list.size();i++) {
+            set.clear(list.getQuick(i));
+        }
+        list.resetQuick();
+    }
+
+    /**
+     * Returns the number of active synapses on the specified segment,
+     * including all synapses with non-zero permanences.
+     *
+     * @param segment   the index of the segment
+     * @return
+     */
+    public int getNumActivePotential(int segment) {
+        return segment < activity.getCapacity() ? activity.getNumActivePotential(segment) : 0;
+    }
+
+    /**
+     * Returns the number of active connected synapses on the specified segment.
+     *
+     * @param segment   the index of the segment
+     * @return
+     */
+    public int getNumActiveConnected(int segment) {
+        return segment < activity.getCapacity() ? activity.getNumActiveConnected(segment) : 0;
+    }
+
+    /**
+     * Returns the indexes of the active columns in order of input
+     *
+     * @return  the list of active column indexes
+     */
+    public TIntArrayList activeColumns() {
+        return activeColumns;
+    }
+
+    /**
+     * Returns the indexes of the current active cells
+     *
+     * @return  the list of active cell indexes
+     */
+    public TIntArrayList activeCells() {
+        return activeCells;
+    }
+
+    /**
+     * Returns the indexes of the current winner cells
+     *
+     * @return  the list of winner cell indexes
+     */
+    public TIntArrayList winnerCells() {
+        return winnerCells;
+    }
+
+    /**
+     * Returns the indexes of the predictive cells.
+     *
+     * @return  the list of predictive cell indexes
+     */
+    public TIntArrayList predictiveCells() {
+        return predictiveCells;
+    }
+
+    /**
+     * Returns the indexes of the predicted columns
+     *
+     * @return  the list of predicted column indexes
+     */
+    public TIntArrayList predictedColumns() {
+        return predictedColumns;
+    }
+
+    /**
+     * Returns the indexes of the active segments
+     *
+     * @return  the list of active segment indexes
+     */
+    public TIntArrayList activeSegments() {
+        return activeSegments;
+    }
+
+    /**
+     * Returns the indexes of the learning segments
+     *
+     * @return  the list of learning segment indexes
+     */
+    public TIntArrayList learningSegments() {
+        return learningSegments;
+    }
+
+    /**
+     * Returns a flag indicating whether the specified cell is active
+     * @param cell  the cell index
+     * @return
+     */
+    public boolean isActiveCell(int cell) {
+        return activeCellSet.get(cell);
+    }
+
+    /**
+     * Returns a flag indicating whether the specified cell is a winner cell
+     * @param cell  the cell index
+     * @return
+     */
+    public boolean isWinnerCell(int cell) {
+        return winnerCellSet.get(cell);
+    }
+
+    /**
+     * Returns a flag indicating whether the specified cell is predictive
+     * @param cell  the cell index
+     * @return
+     */
+    public boolean isPredictiveCell(int cell) {
+        return predictiveCellSet.get(cell);
+    }
+}
@@ -0,0 +1,507 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+package org.numenta.nupic.research;
+
+import gnu.trove.list.array.TIntArrayList;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.numenta.nupic.Connections;
+import org.numenta.nupic.model.Cell;
+import org.numenta.nupic.model.Column;
+import org.numenta.nupic.model.DistalDendrite;
+import org.numenta.nupic.model.Synapse;
+import org.numenta.nupic.persistence.LearningJournal;
+import org.numenta.nupic.util.SparseObjectMatrix;
+import org.numenta.nupic.util.TraceSink;
+
+/**
+ * Temporal Memory implementation operating on flat cell, column and segment
+ * indexes rather than on {@link java.util.Set}s and {@link java.util.Map}s of model objects.
+ * <p>
+ * The algorithm (and the order in which it consumes random numbers) is identical
+ * to that of the {@link TemporalMemory}, so both produce the same cells, segments
+ * and synapses given the same {@link Connections} configuration and input. The
+ * state of each cycle is kept in two {@link IndexedComputeCycle}s stored in the
+ * {@link Connections} object which are swapped and reused on every call to
+ * {@link #compute(Connections, int[], boolean)}; therefore the returned cycle is
+ * only valid until the next call to compute.
+ * </p>
+ *
+ * @author Chetan Surpur
+ * @author David Ray
+ * @see TemporalMemory
+ * @see IndexedComputeCycle
+ */
+public class IndexedTemporalMemory {
+
+    /**
+     * Constructs a new {@code IndexedTemporalMemory}
+     */
+    public IndexedTemporalMemory() {}
+
+    /**
+     * Uses the specified {@link Connections} object to Build the structural
+     * anatomy needed by this {@code IndexedTemporalMemory} to implement its
+     * algorithms, and allocates the reusable cycle state.
+     *
+     * @param	c		{@link Connections} object
+     */
+    public void init(Connections c) {
+        SparseObjectMatrix<Column> matrix = c.getMemory() == null ?
+            new SparseObjectMatrix<Column>(c.getColumnDimensions()) :
+                c.getMemory();
+        c.setMemory(matrix);
+
+        int numColumns = matrix.getMaxIndex() + 1;
+        int cellsPerColumn = c.getCellsPerColumn();
+        Cell[] cells = new Cell[numColumns * cellsPerColumn];
+
+        //Used as flag to determine if Column objects have been created.
+        Column colZero = matrix.getObject(0);
+        for(int i = 0;i < numColumns;i++) {
+            Column column = colZero == null ?
+                new Column(cellsPerColumn, i) : matrix.getObject(i);
+            for(int j = 0;j < cellsPerColumn;j++) {
+                cells[i * cellsPerColumn + j] = column.getCell(j);
+            }
+            //If columns have not been previously configured
+            if(colZero == null) matrix.set(i, column);
+        }
+        c.setCells(cells);
+
+        c.setIndexedCycle(new IndexedComputeCycle(c));
+        c.setPrevIndexedCycle(new IndexedComputeCycle(c));
+    }
+
+    /////////////////////////// CORE FUNCTIONS /////////////////////////////
+
+    /**
+     * Feeds input record through TM, performing inferencing and learning.
+     * The returned {@link IndexedComputeCycle} is reused and is only valid
+     * until the next call to this method.
+     *
+     * @param c                 the connection memory
+     * @param activeColumns     direct proximal dendrite input
+     * @param learn             learning mode flag
+     * @return                  {@link IndexedComputeCycle} container for one cycle of inference values.
+     */
+    public IndexedComputeCycle compute(Connections c, int[] activeColumns, boolean learn) {
+        if(c.getIndexedCycle() == null) {
+            c.setIndexedCycle(new IndexedComputeCycle(c));
+            c.setPrevIndexedCycle(new IndexedComputeCycle(c));
+        }
+
+        c.setTmIterationNum(c.getTmIterationNum() + 1);
+
+        IndexedComputeCycle prev = c.getIndexedCycle();
+        IndexedComputeCycle cycle = c.getPrevIndexedCycle();
+        cycle.clear();
+
+        computeFn(c, activeColumns, prev, cycle, learn);
+
+        c.setPrevIndexedCycle(prev);
+        c.setIndexedCycle(cycle);
+
+        LearningJournal journal = c.getLearningJournal();
+        if(journal != null) {
+            journal.cycleCompleted(c);
+        }
+
+        TraceSink trace = c.getTraceSink();
+        if(trace.isEnabled(TraceSink.SUMMARY)) {
+            trace.metric("TemporalMemory", "activeCells", cycle.activeCells().size());
+            trace.metric("TemporalMemory", "winnerCells", cycle.winnerCells().size());
+            trace.metric("TemporalMemory", "predictiveCells", cycle.predictiveCells().size());
+            trace.metric("TemporalMemory", "burstingColumns", cycle.activeColumns().size() - cycle.predictedColumns().size());
+            trace.metric("TemporalMemory", "segments", c.getSegmentCount());
+            trace.metric("TemporalMemory", "synapses", c.getSynapseCount());
+            if(trace.isEnabled(TraceSink.DETAIL)) {
+                trace.trace(TraceSink.DETAIL, "TemporalMemory", "predictive cells: " + cycle.predictiveCells());
+            }
+        }
+
+        return cycle;
+    }
+
+    /**
+     * Functional version of {@link #compute(Connections, int[], boolean)}
+     * which writes its results into the specified (empty) cycle.
+     *
+     * @param c                 {@link Connections} object containing state of memory members
+     * @param activeColumns     proximal dendrite input
+     * @param prev              the state of the previous cycle
+     * @param cycle             the cleared cycle into which the results are written
+     * @param learn             whether mode is "learning" mode
+     */
+    public void computeFn(Connections c, int[] activeColumns, IndexedComputeCycle prev, IndexedComputeCycle cycle, boolean learn) {
+        for(int column : activeColumns) {
+            if(!cycle.activeColumnSet.get(column)) {
+                cycle.activeColumnSet.set(column);
+                cycle.activeColumns.add(column);
+            }
+        }
+
+        activateCorrectlyPredictiveCells(c, prev, cycle);
+
+        burstColumns(c, prev, cycle);
+
+        if(learn) {
+            learnOnSegments(c, prev, cycle);
+        }
+
+        computeActiveSynapses(c, cycle);
+
+        computePredictiveCells(c, cycle);
+    }
+
+    /**
+     * Phase 1: Activate the correctly predictive cells
+     *
+     * @param c         the Connections state of the temporal memory
+     * @param prev      the state of the previous cycle
+     * @param cycle     the state of the current cycle
+     * @see TemporalMemory#activateCorrectlyPredictiveCells(ComputeCycle, java.util.Set, java.util.Set)
+     */
+    public void activateCorrectlyPredictiveCells(Connections c, IndexedComputeCycle prev, IndexedComputeCycle cycle) {
+        int cellsPerColumn = c.getCellsPerColumn();
+        TIntArrayList prevPredictiveCells = prev.predictiveCells;
+        for(int i = 0;i < prevPredictiveCells.size();i++) {
+            int cell = prevPredictiveCells.getQuick(i);
+            int column = cell / cellsPerColumn;
+            if(cycle.activeColumnSet.get(column)) {
+                cycle.activeCells.add(cell);
+                cycle.activeCellSet.set(cell);
+                cycle.winnerCells.add(cell);
+                cycle.winnerCellSet.set(cell);
+                if(!cycle.predictedColumnSet.get(column)) {
+                    cycle.predictedColumnSet.set(column);
+                    cycle.predictedColumns.add(column);
+                }
+            }
+        }
+    }
+
+    /**
+     * Phase 2: Burst unpredicted columns.
+     *
+     * @param c         the Connections state of the temporal memory
+     * @param prev      the state of the previous cycle
+     * @param cycle     the state of the current cycle
+     * @see TemporalMemory#burstColumns(ComputeCycle, Connections, java.util.Set, java.util.Set, java.util.Map)
+     */
+    public void burstColumns(Connections c, IndexedComputeCycle prev, IndexedComputeCycle cycle) {
+        int cellsPerColumn = c.getCellsPerColumn();
+        TIntArrayList activeColumns = cycle.activeColumns;
+        for(int i = 0;i < activeColumns.size();i++) {
+            int column = activeColumns.getQuick(i);
+            if(cycle.predictedColumnSet.get(column)) continue;
+
+            int start = column * cellsPerColumn;
+            for(int cell = start;cell < start + cellsPerColumn;cell++) {
+                cycle.activeCells.add(cell);
+                cycle.activeCellSet.set(cell);
+            }
+
+            // Inlined getBestMatchingCell(): keeps the first cell having the
+            // most previously active synapses on its best matching segment.
+            Cell bestCell = null;
+            DistalDendrite bestSegment = null;
+            int maxSynapses = 0;
+            for(int cell = start;cell < start + cellsPerColumn;cell++) {
+                DistalDendrite dd = getBestMatchingSegment(c, c.getCell(cell), prev);
+                if(dd != null) {
+                    int numActive = prev.getNumActivePotential(dd.getIndex());
+                    if(numActive > maxSynapses) {
+                        maxSynapses = numActive;
+                        bestCell = c.getCell(cell);
+                        bestSegment = dd;
+                    }
+                }
+            }
+
+            if(bestCell == null) {
+                bestCell = c.getColumn(column).getLeastUsedCell(c, c.getRandom());
+            }
+
+            if(!cycle.winnerCellSet.get(bestCell.getIndex())) {
+                cycle.winnerCellSet.set(bestCell.getIndex());
+                cycle.winnerCells.add(bestCell.getIndex());
+            }
+
+            if(bestSegment == null) {
+                if(bestCell.getSegments(c).size() >= c.getMaxSegmentsPerCell()) {
+                    bestCell.destroyLeastRecentlyUsedSegment(c);
+                }
+                bestSegment = bestCell.createSegment(c, c.nextSegmentIndex());
+            }
+
+            bestSegment.setLastUsedIteration(c.getTmIterationNum());
+
+            if(!cycle.learningSegmentSet.get(bestSegment.getIndex())) {
+                cycle.learningSegmentSet.set(bestSegment.getIndex());
+                cycle.learningSegments.add(bestSegment.getIndex());
+            }
+        }
+    }
+
+    /**
+     * Phase 3: Perform learning by adapting segments.
+     * <p>
+     * A synapse is considered to have been active in t-1 if its source cell
+     * was active in t-1 and it existed prior to this phase; synapses grown here
+     * are given indexes from the synapse count at the start of this phase onwards,
+     * so only the synapses of lower indexes need to be considered.
+     * </p>
+     *
+     * @param c         the Connections state of the temporal memory
+     * @param prev      the state of the previous cycle
+     * @param cycle     the state of the current cycle
+     * @see TemporalMemory#learnOnSegments(Connections, java.util.Set, java.util.Set, java.util.Map, java.util.Set, java.util.Set)
+     */
+    public void learnOnSegments(Connections c, IndexedComputeCycle prev, IndexedComputeCycle cycle) {
+        double permanenceIncrement = c.getPermanenceIncrement();
+        double permanenceDecrement = c.getPermanenceDecrement();
+        boolean prune = c.getPruneZeroPermanenceSynapses();
+        int firstNewSynapse = c.getSynapseCount();
+
+        TIntArrayList prevActiveSegments = prev.activeSegments;
+        TIntArrayList learningSegments = cycle.learningSegments;
+        int numPrevActive = prevActiveSegments.size();
+        int total = numPrevActive + learningSegments.size();
+
+        for(int i = 0;i < total;i++) {
+            int segment = i < numPrevActive ?
+                prevActiveSegments.getQuick(i) : learningSegments.getQuick(i - numPrevActive);
+            DistalDendrite dd = c.getSegment(segment);
+            // Segments evicted while bursting columns in this cycle
+            if(dd == null) continue;
+
+            List<Synapse> synapses = c.getSynapses(dd);
+
+            boolean isLearningSegment = cycle.learningSegmentSet.get(segment);
+            boolean isFromWinnerCell = cycle.winnerCellSet.get(dd.getParentCell().getIndex());
+
+            if(isLearningSegment || isFromWinnerCell) {
+                for(int j = 0;j < synapses.size();j++) {
+                    Synapse synapse = synapses.get(j);
+                    double permanence = synapse.getPermanence();
+                    if(wasActive(synapse, firstNewSynapse, prev)) {
+                        permanence += permanenceIncrement;
+                    }else{
+                        permanence -= permanenceDecrement;
+                    }
+
+                    permanence = Math.max(0, Math.min(1.0, permanence));
+
+                    if(prune && permanence < DistalDendrite.EPSILON) {
+                        dd.destroySynapse(c, synapse);
+                        j--;
+                        continue;
+                    }
+
+                    synapse.setPermanence(c, permanence);
+                }
+
+                dd.setLastUsedIteration(c.getTmIterationNum());
+
+                LearningJournal journal = c.getLearningJournal();
+                if(journal != null) {
+                    journal.segmentAdapted(c, dd);
+                }
+            }
+
+            if(isLearningSegment) {
+                int n = c.getMaxNewSynapseCount() - prev.getNumActivePotential(segment);
+                growSynapses(c, dd, n, firstNewSynapse, prev, cycle);
+            }
+        }
+
+    }
+
+    /**
+     * Grows synapses on the specified segment to up to n randomly selected
+     * previous winner cells to which the segment isn't already connected.
+     * If this would exceed {@link Connections#getMaxSynapsesPerSegment()}, the
+     * weakest synapses which weren't active in t-1 are destroyed first.
+     *
+     * @param c                 the Connections state of the temporal memory
+     * @param dd                the segment to grow synapses on
+     * @param n                 the maximum number of synapses to grow
+     * @param firstNewSynapse   the index of the first synapse grown in this cycle
+     * @param prev              the state of the previous cycle
+     * @param cycle             the state of the current cycle
+     * @see DistalDendrite#pickCellsToLearnOn(Connections, int, java.util.Set, java.util.Random)
+     */
+    private void growSynapses(Connections c, DistalDendrite dd, int n, int firstNewSynapse, 
+        IndexedComputeCycle prev, IndexedComputeCycle cycle) {
+        
+        List<Synapse> synapses = c.getSynapses(dd);
+        TIntArrayList candidates = cycle.candidates;
+        candidates.resetQuick();
+        for(int j = 0;j < synapses.size();j++) {
+            cycle.candidateSet.set(synapses.get(j).getSourceCell().getIndex());
+        }
+        TIntArrayList prevWinners = prev.winnerCells;
+        for(int j = 0;j < prevWinners.size();j++) {
+            int cell = prevWinners.getQuick(j);
+            if(!cycle.candidateSet.get(cell)) {
+                candidates.add(cell);
+            }
+        }
+        for(int j = 0;j < synapses.size();j++) {
+            cycle.candidateSet.clear(synapses.get(j).getSourceCell().getIndex());
+        }
+
+        n = Math.min(n, candidates.size());
+        candidates.sort();
+
+        TIntArrayList learnCells = cycle.learnCells;
+        learnCells.resetQuick();
+        for(int x = 0;x < n;x++) {
+            int i = c.getRandom().nextInt(candidates.size());
+            learnCells.add(candidates.getQuick(i));
+            candidates.removeAt(i);
+        }
+        candidates.resetQuick();
+
+        int maxSynapses = c.getMaxSynapsesPerSegment();
+        int overrun = synapses.size() + learnCells.size() - maxSynapses;
+        if(overrun > 0) {
+            Set<Synapse> activeSynapses = new HashSet<Synapse>();
+            for(int j = 0;j < synapses.size();j++) {
+                if(wasActive(synapses.get(j), firstNewSynapse, prev)) {
+                    activeSynapses.add(synapses.get(j));
+                }
+            }
+            dd.destroyWeakestSynapses(c, overrun, activeSynapses);
+        }
+        int room = Math.min(learnCells.size(), maxSynapses - synapses.size());
+
+        int synapseCounter = c.getSynapseCount();
+        double initialPermanence = c.getInitialPermanence();
+        for(int x = 0;x < room;x++) {
+            dd.createSynapse(c, c.getCell(learnCells.getQuick(x)), initialPermanence, synapseCounter);
+            synapseCounter += 1;
+        }
+        c.setSynapseCount(synapseCounter);
+        learnCells.resetQuick();
+    }
+
+    /**
+     * Returns a flag indicating whether the specified synapse was active
+     * in t-1, that is whether it existed before this cycle's learning phase
+     * and its source cell was active in t-1.
+     *
+     * @param s                 the {@link Synapse} to check
+     * @param firstNewSynapse   the index of the first synapse grown in this cycle
+     * @param prev              the state of the previous cycle
+     * @return  true if the synapse was active in t-1
+     */
+    private boolean wasActive(Synapse s, int firstNewSynapse, IndexedComputeCycle prev) {
+        return s.getIndex() < firstNewSynapse && prev.activeCellSet.get(s.getSourceCell().getIndex());
+    }
+
+    /**
+     * Forward propagates activity from active cells to the synapses that touch
+     * them, tallying the number of active (and active connected) synapses of
+     * each segment.
+     *
+     * @param c         the Connections state of the temporal memory
+     * @param cycle     the state of the current cycle
+     */
+    public void computeActiveSynapses(Connections c, IndexedComputeCycle cycle) {
+        double connectedPermanence = c.getConnectedPermanence();
+        TIntArrayList activeCells = cycle.activeCells;
+        SegmentActivity activity = cycle.activity;
+        activity.reset(c.getSegmentCount());
+        for(int i = 0;i < activeCells.size();i++) {
+            activity.propagate(c, c.getCell(activeCells.getQuick(i)), connectedPermanence);
+        }
+    }
+
+    /**
+     * Phase 4: Compute predictive cells due to lateral input on distal dendrites.
+     *
+     * @param c         the Connections state of the temporal memory
+     * @param cycle     the state of the current cycle
+     * @see TemporalMemory#computePredictiveCells(Connections, ComputeCycle, java.util.Map)
+     */
+    public void computePredictiveCells(Connections c, IndexedComputeCycle cycle) {
+        int activationThreshold = c.getActivationThreshold();
+        SegmentActivity activity = cycle.activity;
+        for(int i = 0;i < activity.getNumTouched();i++) {
+            int segment = activity.getTouched(i);
+            if(activity.getNumActiveConnected(segment) >= activationThreshold) {
+                DistalDendrite dd = c.getSegment(segment);
+                dd.setLastUsedIteration(c.getTmIterationNum());
+                cycle.activeSegments.add(segment);
+                int cell = dd.getParentCell().getIndex();
+                if(!cycle.predictiveCellSet.get(cell)) {
+                    cycle.predictiveCellSet.set(cell);
+                    cycle.predictiveCells.add(cell);
+                }
+            }
+        }
+    }
+
+    /**
+     * Called to start the input of a new sequence.
+     *
+     * @param   c   the Connections state of the temporal memory
+     */
+    public void reset(Connections c) {
+        if(c.getIndexedCycle() != null) {
+            c.getIndexedCycle().clear();
+            c.getPrevIndexedCycle().clear();
+        }
+    }
+
+    /////////////////////////// HELPER FUNCTIONS ///////////////////////////
+
+    /**
+     * Gets the segment on a cell with the largest number of synapses
+     * active in t-1, including all synapses with non-zero permanences.
+     *
+     * @param c         encapsulated memory and state
+     * @param cell      the {@link Cell} whose segments are searched
+     * @param prev      the state of the previous cycle
+     * @return  the best segment or null if none reached the minThreshold
+     */
+    public DistalDendrite getBestMatchingSegment(Connections c, Cell cell, IndexedComputeCycle prev) {
+        int maxSynapses = c.getMinThreshold();
+        DistalDendrite bestSegment = null;
+        List<DistalDendrite> segments = cell.getSegments(c);
+        for(int i = 0;i < segments.size();i++) {
+            DistalDendrite dd = segments.get(i);
+            int numActive = prev.getNumActivePotential(dd.getIndex());
+            if(numActive >= maxSynapses) {
+                maxSynapses = numActive;
+                bestSegment = dd;
+            }
+        }
+        return bestSegment;
+    }
+}
@@ -0,0 +1,181 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+package org.numenta.nupic.research;
+
+import gnu.trove.list.array.TIntArrayList;
+
+import java.util.Arrays;
+
+import org.numenta.nupic.Connections;
+import org.numenta.nupic.model.Cell;
+import org.numenta.nupic.model.DistalDendrite;
+import org.numenta.nupic.model.Synapse;
+
+/**
+ * Per segment activity counters filled by the propagation kernel of the
+ * {@link TemporalMemory} (see {@link TemporalMemory#computeSegmentActivity(Connections, ComputeCycle)})
+ * and of the {@link IndexedTemporalMemory}, whose {@link IndexedComputeCycle}s each hold one.
+ * <p>
+ * For every {@link DistalDendrite} receiving input from an active cell, the
+ * number of active synapses (potential activity) and the number of those which
+ * are also connected (connected activity) are counted in arrays indexed by
+ * segment index. The segments touched during a cycle are remembered in the order
+ * in which they were first reached so that clearing the counters and walking
+ * them costs time proportional to the activity, not to the number of segments.
+ * </p><p>
+ * One instance is held by each {@link Connections} object (see
+ * {@link Connections#getSegmentActivity()}). Like the rest of the {@link Connections}
+ * state it must not be shared by concurrently computing threads, and its contents
+ * are only meaningful during a compute cycle.
+ * </p>
+ * 
+ * @author David Ray
+ */
+public class SegmentActivity {
+    private int[] numActiveConnected = new int[0];
+    private int[] numActivePotential = new int[0];
+    /** Flags the segments whose active synapses are kept for the next cycle */
+    private boolean[] retained = new boolean[0];
+    /** Indexes of the segments with at least one active synapse, in order of first activation */
+    private TIntArrayList touched = new TIntArrayList();
+    
+    /**
+     * Clears the counters of the previous cycle and makes room
+     * for the specified number of segments.
+     * 
+     * @param numSegments   the number of segment indexes in use
+     */
+    public void reset(int numSegments) {
+        for(int i = 0;i < touched.size();i++) {
+            int index = touched.getQuick(i);
+            numActiveConnected[index] = 0;
+            numActivePotential[index] = 0;
+            retained[index] = false;
+        }
+        touched.resetQuick();
+        
+        if(numSegments > numActivePotential.length) {
+            int capacity = Math.max(numSegments, numActivePotential.length * 2);
+            numActiveConnected = Arrays.copyOf(numActiveConnected, capacity);
+            numActivePotential = Arrays.copyOf(numActivePotential, capacity);
+            retained = Arrays.copyOf(retained, capacity);
+        }
+    }
+    
+    /**
+     * Returns the number of segment indexes the counters currently hold
+     * @return
+     */
+    public int getCapacity() {
+        return numActivePotential.length;
+    }
+    
+    /**
+     * Counts the receptor synapses of the specified active cell on the
+     * segments they belong to.
+     * 
+     * @param c                     the model owning the cell
+     * @param cell                  the active cell
+     * @param connectedPermanence   the permanence from which a synapse is connected
+     */
+    public void propagate(Connections c, Cell cell, double connectedPermanence) {
+        for(Synapse s : cell.getReceptorSynapses(c)) {
+            increment(((DistalDendrite)s.getSegment()).getIndex(), s.getPermanence() >= connectedPermanence);
+        }
+    }
+    
+    /**
+     * Counts one active synapse of the specified segment.
+     * 
+     * @param segmentIndex  the index of the synapse's segment
+     * @param connected     whether the synapse is connected
+     */
+    public void increment(int segmentIndex, boolean connected) {
+        if(numActivePotential[segmentIndex]++ == 0) {
+            touched.add(segmentIndex);
+        }
+        if(connected) {
+            numActiveConnected[segmentIndex]++;
+        }
+    }
+    
+    /**
+     * Returns the number of segments having at least one active synapse
+     * @return
+     */
+    public int getNumTouched() {
+        return touched.size();
+    }
+    
+    /**
+     * Returns the index of the i'th segment to have received activity
+     * 
+     * @param i     the rank of the segment's first activation
+     * @return  the segment index
+     */
+    public int getTouched(int i) {
+        return touched.getQuick(i);
+    }
+    
+    /**
+     * Returns the number of active connected synapses of the specified segment
+     * 
+     * @param segmentIndex  the segment's index
+     * @return
+     */
+    public int getNumActiveConnected(int segmentIndex) {
+        return numActiveConnected[segmentIndex];
+    }
+    
+    /**
+     * Returns the number of active synapses of the specified segment,
+     * whatever their permanence.
+     * 
+     * @param segmentIndex  the segment's index
+     * @return
+     */
+    public int getNumActivePotential(int segmentIndex) {
+        return numActivePotential[segmentIndex];
+    }
+    
+    /**
+     * Marks the specified segment as one whose active synapses
+     * are needed by the next cycle.
+     * 
+     * @param segmentIndex  the segment's index
+     */
+    public void retain(int segmentIndex) {
+        retained[segmentIndex] = true;
+    }
+    
+    /**
+     * Returns a flag indicating whether the active synapses of the
+     * specified segment are needed by the next cycle.
+     * 
+     * @param segmentIndex  the segment's index
+     * @return
+     */
+    public boolean isRetained(int segmentIndex) {
+        return retained[segmentIndex];
+    }
+}
@@ -28,16 +28,20 @@ import gnu.trove.set.hash.TIntHashSet;
 import org.numenta.nupic.Connections;
 import org.numenta.nupic.model.Column;
 import org.numenta.nupic.model.Pool;
+import org.numenta.nupic.persistence.LearningJournal;
 import org.numenta.nupic.util.ArrayUtils;
 import org.numenta.nupic.util.Condition;
+import org.numenta.nupic.util.NeighborhoodIndex;
 import org.numenta.nupic.util.SparseBinaryMatrix;
 import org.numenta.nupic.util.SparseMatrix;
 import org.numenta.nupic.util.SparseObjectMatrix;
+import org.numenta.nupic.util.TraceSink;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.RecursiveAction;
 
 
 /**
@@ -169,21 +173,27 @@ public class SpatialPooler {
             throw new IllegalArgumentException("Input array must be same size as the defined number of inputs");
         }
         
+        //All intermediate arrays live in the workspace so a cycle doesn't allocate
+        SpatialPoolerWorkspace w = c.getSpatialPoolerWorkspace();
+        
         updateBookeepingVars(c, learn);
-        int[] overlaps = calculateOverlap(c, inputVector);
+        w.numActiveInputs = 0;
+        for(int i = 0;i < inputVector.length;i++) {
+        	if(inputVector[i] > 0) w.activeInputs[w.numActiveInputs++] = i;
+        }
+        int[] overlaps = calculateOverlapSparse(c, w.activeInputs, w.numActiveInputs, w.overlaps);
         
-        double[] boostedOverlaps;
-        if(learn) {
-        	boostedOverlaps = ArrayUtils.multiply(c.getBoostFactors(), overlaps);
-        }else{
-        	boostedOverlaps = ArrayUtils.toDoubleArray(overlaps);
+        double[] boostedOverlaps = w.boostedOverlaps;
+        double[] boostFactors = c.getBoostFactors();
+        for(int i = 0;i < overlaps.length;i++) {
+        	boostedOverlaps[i] = learn ? boostFactors[i] * overlaps[i] : overlaps[i];
         }
         
-        int[] activeColumns = inhibitColumns(c, boostedOverlaps);
+        w.numActiveColumns = inhibitColumns(c, boostedOverlaps, w.activeColumns);
         
         if(learn) {
-        	adaptSynapses(c, inputVector, activeColumns);
-        	updateDutyCycles(c, overlaps, activeColumns);
+        	adaptSynapses(c, w.activeInputs, w.numActiveInputs, w.activeColumns, w.numActiveColumns);
+        	updateDutyCycles(c, overlaps, w.activeColumns, w.numActiveColumns);
         	bumpUpWeakColumns(c);
         	updateBoostFactors(c);
         	if(isUpdateRound(c)) {
@@ -191,12 +201,27 @@ public class SpatialPooler {
         		updateMinDutyCycles(c);
         	}
         }else if(stripNeverLearned){
-        	activeColumns = stripUnlearnedColumns(c, activeColumns).toArray();
+        	w.numActiveColumns = stripUnlearnedColumns(c, w.activeColumns, w.numActiveColumns);
         }
         
         Arrays.fill(activeArray, 0);
-        if(activeColumns.length > 0) {
-        	ArrayUtils.setIndexesTo(activeArray, activeColumns, 1);
+        for(int i = 0;i < w.numActiveColumns;i++) {
+        	activeArray[w.activeColumns[i]] = 1;
+        }
+        
+        LearningJournal journal = c.getLearningJournal();
+        if(journal != null) {
+        	journal.cycleCompleted(c);
+        }
+        
+        TraceSink trace = c.getTraceSink();
+        if(trace.isEnabled(TraceSink.SUMMARY)) {
+        	trace.metric("SpatialPooler", "activeInputs", w.numActiveInputs);
+        	trace.metric("SpatialPooler", "activeColumns", w.numActiveColumns);
+        	if(trace.isEnabled(TraceSink.DETAIL)) {
+        		trace.trace(TraceSink.DETAIL, "SpatialPooler", "iteration " + c.getIterationNum() + 
+        			", active columns: " + Arrays.toString(Arrays.copyOf(w.activeColumns, w.numActiveColumns)));
+        	}
         }
     }
     
@@ -226,6 +251,27 @@ public class SpatialPooler {
     	return l;
     }
     
+    /**
+     * Version of {@link #stripUnlearnedColumns(Connections, int[])} which
+     * removes the never active columns in place, keeping the order of
+     * the remaining ones.
+     * 
+     * @param c					the {@link Connections} (spatial pooler memory)
+     * @param activeColumns		buffer starting with the indices of the active columns
+     * @param numActiveColumns	the number of active columns
+     * @return	the number of columns left at the start of activeColumns
+     */
+    public int stripUnlearnedColumns(Connections c, int[] activeColumns, int numActiveColumns) {
+    	double[] colDutyCycles = c.getActiveDutyCycles();
+    	int numLeft = 0;
+    	for(int i = 0;i < numActiveColumns;i++) {
+    		if(colDutyCycles[activeColumns[i]] > 0) {
+    			activeColumns[numLeft++] = activeColumns[i];
+    		}
+    	}
+    	return numLeft;
+    }
+    
     /**
      * Updates the minimum duty cycles defining normal activity for a column. A
      * column with activity duty cycle below this minimum threshold is boosted.
@@ -267,15 +313,22 @@ public class SpatialPooler {
      * @param c
      */
     public void updateMinDutyCyclesLocal(Connections c) {
+    	NeighborhoodIndex neighborhoods = getNeighborhoodIndex(c, true);
+    	int[] neighbors = neighborhoods.getNeighbors();
+    	double[] overlapDutyCycles = c.getOverlapDutyCycles();
+    	double[] activeDutyCycles = c.getActiveDutyCycles();
     	int len = c.getNumColumns();
     	for(int i = 0;i < len;i++) {
-    		int[] maskNeighbors = getNeighborsND(c, i, c.getMemory(), c.getInhibitionRadius(), true).toArray();
-    		c.getMinOverlapDutyCycles()[i] = ArrayUtils.max(
-    			ArrayUtils.sub(c.getOverlapDutyCycles(), maskNeighbors)) *
-    				c.getMinPctOverlapDutyCycles();
-    		c.getMinActiveDutyCycles()[i] = ArrayUtils.max(
-    			ArrayUtils.sub(c.getActiveDutyCycles(), maskNeighbors)) *
-    				c.getMinPctActiveDutyCycles();
+    		// Same starting value as ArrayUtils.max(double[])
+    		double maxOverlap = Double.MIN_VALUE;
+    		double maxActive = Double.MIN_VALUE;
+    		for(int j = neighborhoods.start(i), end = neighborhoods.end(i);j < end;j++) {
+    			int n = neighbors[j];
+    			if(overlapDutyCycles[n] > maxOverlap) maxOverlap = overlapDutyCycles[n];
+    			if(activeDutyCycles[n] > maxActive) maxActive = activeDutyCycles[n];
+    		}
+    		c.getMinOverlapDutyCycles()[i] = maxOverlap * c.getMinPctOverlapDutyCycles();
+    		c.getMinActiveDutyCycles()[i] = maxActive * c.getMinPctActiveDutyCycles();
     	}
     }
     
@@ -294,11 +347,27 @@ public class SpatialPooler {
      *              			the sparse set of columns which survived inhibition
      */
     public void updateDutyCycles(Connections c, int[] overlaps, int[] activeColumns) {
-    	double[] overlapArray = new double[c.getNumColumns()];
-    	double[] activeArray = new double[c.getNumColumns()];
+    	updateDutyCycles(c, overlaps, activeColumns, activeColumns.length);
+    }
+    
+    /**
+     * Version of {@link #updateDutyCycles(Connections, int[], int[])} reading the
+     * active columns from a reused buffer, which updates the duty cycles in place.
+     * 
+     * @param c					the {@link Connections} (spatial pooler memory)
+     * @param overlaps			an array containing the overlap score for each column.
+     * @param activeColumns		buffer starting with the indices of the active columns
+     * @param numActiveColumns	the number of active columns
+     */
+    public void updateDutyCycles(Connections c, int[] overlaps, int[] activeColumns, int numActiveColumns) {
+    	SpatialPoolerWorkspace w = c.getSpatialPoolerWorkspace();
+    	double[] overlapArray = w.overlapArray;
+    	double[] activeArray = w.activeArray;
+    	Arrays.fill(overlapArray, 0);
+    	Arrays.fill(activeArray, 0);
     	ArrayUtils.greaterThanXThanSetToY(overlaps, 0, 1);
-    	if(activeColumns.length > 0) {
-    		ArrayUtils.setIndexesTo(activeArray, activeColumns, 1);
+    	for(int i = 0;i < numActiveColumns;i++) {
+    		activeArray[activeColumns[i]] = 1;
     	}
     	
     	int period = c.getDutyCyclePeriod();
@@ -306,11 +375,8 @@ public class SpatialPooler {
     		period  = c.getIterationNum();
     	}
     	
-    	c.setOverlapDutyCycles(
-    		updateDutyCyclesHelper(c, c.getOverlapDutyCycles(), overlapArray, period));
-    	
-    	c.setActiveDutyCycles(
-        	updateDutyCyclesHelper(c, c.getActiveDutyCycles(), activeArray, period));
+    	updateDutyCyclesInPlace(c.getOverlapDutyCycles(), overlapArray, period);
+    	updateDutyCyclesInPlace(c.getActiveDutyCycles(), activeArray, period);
     }
    
     /**
@@ -337,6 +403,17 @@ public class SpatialPooler {
     	return ArrayUtils.divide(ArrayUtils.d_add(ArrayUtils.multiply(dutyCycles, period - 1), newInput), period);
     }
     
+    /**
+     * Same computation as {@link #updateDutyCyclesHelper(Connections, double[], double[], double)}
+     * writing the updated duty cycles back into the specified array.
+     */
+    private void updateDutyCyclesInPlace(double[] dutyCycles, double[] newInput, double period) {
+    	double divisor = period == 0 ? 1 : period;
+    	for(int i = 0;i < dutyCycles.length;i++) {
+    		dutyCycles[i] = (dutyCycles[i] * (period - 1) + newInput[i]) / divisor;
+    	}
+    }
+    
     /**
      * The range of connectedSynapses per column, averaged for each dimension.
      * This value is used to calculate the inhibition radius. This variation of
@@ -430,16 +507,45 @@ public class SpatialPooler {
             @Override
     		public boolean eval(int i) { return i > 0; }
     	});
-    	double[] permChanges = new double[c.getNumInputs()];
-    	Arrays.fill(permChanges, -1 * c.getSynPermInactiveDec());
-    	ArrayUtils.setIndexesTo(permChanges, inputIndices, c.getSynPermActiveInc());
-    	for(int i = 0;i < activeColumns.length;i++) {
+    	adaptSynapses(c, inputIndices, inputIndices.length, activeColumns, activeColumns.length);
+    }
+    
+    /**
+     * Version of {@link #adaptSynapses(Connections, int[], int[])} taking the active
+     * inputs and columns from reused buffers. Only the permanences of each active
+     * column's potential pool are visited and updated in place, and only the
+     * connected bits which change state are updated in the connected matrix, so
+     * the cost is proportional to the number of active columns times the pool size
+     * rather than to the number of inputs.
+     * 
+     * @param c					the {@link Connections} (spatial pooler memory)
+     * @param activeInputs		buffer starting with the indices of the active input bits
+     * @param numActiveInputs	the number of active input bits
+     * @param activeColumns		buffer starting with the indices of the active columns
+     * @param numActiveColumns	the number of active columns
+     */
+    public void adaptSynapses(Connections c, int[] activeInputs, int numActiveInputs, int[] activeColumns, int numActiveColumns) {
+    	SpatialPoolerWorkspace w = c.getSpatialPoolerWorkspace();
+    	boolean[] activeInputMask = w.activeInputMask;
+    	for(int i = 0;i < numActiveInputs;i++) {
+    		activeInputMask[activeInputs[i]] = true;
+    	}
+    	
+    	double activeInc = c.getSynPermActiveInc();
+    	double inactiveDec = c.getSynPermInactiveDec();
+    	for(int i = 0;i < numActiveColumns;i++) {
     		Pool pool = c.getPotentialPools().getObject(activeColumns[i]);
-    		double[] perm = pool.getDensePermanences(c);
-    		int[] indexes = pool.getSparseConnections();
-    		ArrayUtils.raiseValuesBy(permChanges, perm);
+    		int[] indexes = pool.getPotentialIndexes();
+    		double[] perm = pool.getPotentialPermanences(w.getSparsePermanences(indexes.length));
+    		for(int j = 0;j < indexes.length;j++) {
+    			perm[j] += activeInputMask[indexes[j]] ? activeInc : -1 * inactiveDec;
+    		}
     		Column col = c.getColumn(activeColumns[i]);
-    		updatePermanencesForColumn(c, perm, col, indexes, true);
+    		updatePermanencesForColumnSparse(c, perm, col, indexes, true);
+    	}
+    	
+    	for(int i = 0;i < numActiveInputs;i++) {
+    		activeInputMask[activeInputs[i]] = false;
     	}
     }
     
@@ -452,18 +558,18 @@ public class SpatialPooler {
      * @param c
      */
     public void bumpUpWeakColumns(final Connections c) {
-    	int[] weakColumns = ArrayUtils.where(c.getMemory().get1DIndexes(), new Condition.Adapter<Integer>() {
-    		@Override public boolean eval(int i) {
-    			return c.getOverlapDutyCycles()[i] < c.getMinOverlapDutyCycles()[i];
-    		}
-    	});
-    	
-    	for(int i = 0;i < weakColumns.length;i++) {
-    		Pool pool = c.getPotentialPools().getObject(weakColumns[i]);
-    		double[] perm = pool.getSparsePermanences();
+    	SpatialPoolerWorkspace w = c.getSpatialPoolerWorkspace();
+    	double[] overlapDutyCycles = c.getOverlapDutyCycles();
+    	double[] minOverlapDutyCycles = c.getMinOverlapDutyCycles();
+    	int len = c.getNumColumns();
+    	for(int i = 0;i < len;i++) {
+    		if(!(overlapDutyCycles[i] < minOverlapDutyCycles[i])) continue;
+    		
+    		Pool pool = c.getPotentialPools().getObject(i);
+    		int[] indexes = pool.getPotentialIndexes();
+    		double[] perm = pool.getPotentialPermanences(w.getSparsePermanences(indexes.length));
     		ArrayUtils.raiseValuesBy(c.getSynPermBelowStimulusInc(), perm);
-    		int[] indexes = pool.getSparseConnections();
-    		Column col = c.getColumn(weakColumns[i]);
+    		Column col = c.getColumn(i);
     		updatePermanencesForColumnSparse(c, perm, col, indexes, true);
     	}
     }
@@ -542,6 +648,11 @@ public class SpatialPooler {
         ArrayUtils.lessThanOrEqualXThanSetToY(perm, c.getSynPermTrimThreshold(), 0);
         ArrayUtils.clip(perm, c.getSynPermMin(), c.getSynPermMax());
         column.setProximalPermanences(c, perm);
+        
+        LearningJournal journal = c.getLearningJournal();
+        if(journal != null) {
+            journal.proximalPermanencesChanged(column, perm, maskPotential, true);
+        }
     }
     
     /**
@@ -569,6 +680,11 @@ public class SpatialPooler {
         ArrayUtils.lessThanOrEqualXThanSetToY(perm, c.getSynPermTrimThreshold(), 0);
         ArrayUtils.clip(perm, c.getSynPermMin(), c.getSynPermMax());
         column.setProximalPermanencesSparse(c, perm, maskPotential);
+        
+        LearningJournal journal = c.getLearningJournal();
+        if(journal != null) {
+            journal.proximalPermanencesChanged(column, perm, maskPotential, false);
+        }
     }
     
     /**
@@ -788,6 +904,37 @@ public class SpatialPooler {
         return neighbors;
     }
     
+    /**
+     * Returns the neighborhoods of all columns for the current inhibition radius,
+     * as computed by {@link #getNeighborsND(Connections, int, SparseMatrix, int, boolean)}
+     * over the column topology. The neighborhoods are computed once and cached in the
+     * {@link Connections} until the inhibition radius changes.
+     * 
+     * @param c             the {@link Connections} (spatial pooler memory)
+     * @param wrapAround    whether the neighborhoods wrap around the column topology
+     * @return
+     */
+    public NeighborhoodIndex getNeighborhoodIndex(Connections c, boolean wrapAround) {
+    	int radius = c.getInhibitionRadius();
+    	NeighborhoodIndex index = c.getNeighborhoodIndex(wrapAround);
+    	if(index != null && index.getRadius() == radius && index.getNumColumns() == c.getNumColumns()) {
+    		return index;
+    	}
+    	
+    	int numCols = c.getNumColumns();
+    	int[] offsets = new int[numCols + 1];
+    	TIntArrayList neighbors = new TIntArrayList();
+    	for(int i = 0;i < numCols;i++) {
+    		offsets[i] = neighbors.size();
+    		neighbors.addAll(getNeighborsND(c, i, c.getMemory(), radius, wrapAround));
+    	}
+    	offsets[numCols] = neighbors.size();
+    	
+    	index = new NeighborhoodIndex(radius, wrapAround, offsets, neighbors.toArray());
+    	c.setNeighborhoodIndex(index);
+    	return index;
+    }
+    
     /**
      * Returns true if enough rounds have passed to warrant updates of
      * duty cycles
@@ -828,8 +975,45 @@ public class SpatialPooler {
      * @return
      */
     public int[] calculateOverlap(Connections c, int[] inputVector) {
-        int[] overlaps = new int[c.getNumColumns()];
-        c.getConnectedCounts().rightVecSumAtNZ(inputVector, overlaps);
+        int numOn = 0;
+        for(int i = 0;i < inputVector.length;i++) {
+            if(inputVector[i] > 0) numOn++;
+        }
+        int[] onBits = new int[numOn];
+        for(int i = 0, j = 0;j < numOn;i++) {
+            if(inputVector[i] > 0) onBits[j++] = i;
+        }
+        return calculateOverlapSparse(c, onBits);
+    }
+    
+    /**
+     * Sparse version of {@link #calculateOverlap(Connections, int[])} which
+     * takes the indexes of the active input bits. Each active bit is looked
+     * up in the inverted (input bit to connected columns) index of the connected
+     * matrix, so the cost scales with the number of active bits rather than 
+     * with the width of the input.
+     * 
+     * @param c				the {@link Connections} memory encapsulation
+     * @param activeInputs  the indexes of the input bits which are turned on
+     * @return
+     */
+    public int[] calculateOverlapSparse(Connections c, int[] activeInputs) {
+        return calculateOverlapSparse(c, activeInputs, activeInputs.length, new int[c.getNumColumns()]);
+    }
+    
+    /**
+     * Version of {@link #calculateOverlapSparse(Connections, int[])} reading the
+     * active inputs from, and writing the overlaps into, reused buffers.
+     * 
+     * @param c					the {@link Connections} memory encapsulation
+     * @param activeInputs		buffer starting with the indexes of the input bits which are turned on
+     * @param numActiveInputs	the number of input bits which are turned on
+     * @param overlaps			the array of size numColumns receiving the overlaps
+     * @return	the overlaps array
+     */
+    public int[] calculateOverlapSparse(Connections c, int[] activeInputs, int numActiveInputs, int[] overlaps) {
+        Arrays.fill(overlaps, 0);
+        c.getConnectedCounts().rightVecSumAtNZSparse(activeInputs, numActiveInputs, overlaps);
         ArrayUtils.lessThanXThanSetToY(overlaps, (int)c.getStimulusThreshold(), 0);
         return overlaps;
     }
@@ -859,14 +1043,7 @@ public class SpatialPooler {
     public int[] inhibitColumns(Connections c, double[] overlaps) {
     	overlaps = Arrays.copyOf(overlaps, overlaps.length);
     	
-    	double density;
-    	double inhibitionArea;
-    	if((density = c.getLocalAreaDensity()) <= 0) {
-    		inhibitionArea = Math.pow(2 * c.getInhibitionRadius() + 1, c.getColumnDimensions().length);
-    		inhibitionArea = Math.min(c.getNumColumns(), inhibitionArea);
-    		density = c.getNumActiveColumnsPerInhArea() / inhibitionArea;
-    		density = Math.min(density, 0.5);
-    	}
+    	double density = inhibitionDensity(c);
     	
     	//Add our fixed little bit of random noise to the scores to help break ties.
     	ArrayUtils.d_add(overlaps, c.getTieBreaker());
@@ -877,11 +1054,56 @@ public class SpatialPooler {
     	return inhibitColumnsLocal(c, overlaps, density);
     }
     
+    /**
+     * Version of {@link #inhibitColumns(Connections, double[])} used by the compute
+     * cycle, which writes the active columns into a reused buffer. The specified
+     * overlaps are left untouched.
+     * 
+     * @param c					the {@link Connections} matrix
+     * @param overlaps			an array containing the overlap score for each  column.
+     * @param activeColumns		the array of size numColumns receiving the active columns
+     * @return	the number of active columns written at the start of activeColumns
+     */
+    public int inhibitColumns(Connections c, double[] overlaps, int[] activeColumns) {
+    	double[] inhibitionOverlaps = c.getSpatialPoolerWorkspace().inhibitionOverlaps;
+    	System.arraycopy(overlaps, 0, inhibitionOverlaps, 0, overlaps.length);
+    	
+    	double density = inhibitionDensity(c);
+    	
+    	//Add our fixed little bit of random noise to the scores to help break ties.
+    	ArrayUtils.d_add(inhibitionOverlaps, c.getTieBreaker());
+    	
+    	if(c.getGlobalInhibition() || c.getInhibitionRadius() > ArrayUtils.max(c.getColumnDimensions())) {
+    		return inhibitColumnsGlobal(c, inhibitionOverlaps, density, activeColumns);
+    	}
+    	return inhibitColumnsLocal(c, inhibitionOverlaps, density, activeColumns);
+    }
+    
+    /**
+     * Returns the fraction of columns to survive inhibition, derived from
+     * the local area density or the number of active columns per inhibition area.
+     * 
+     * @param c		the {@link Connections} matrix
+     * @return
+     */
+    private double inhibitionDensity(Connections c) {
+    	double density;
+    	double inhibitionArea;
+    	if((density = c.getLocalAreaDensity()) <= 0) {
+    		inhibitionArea = Math.pow(2 * c.getInhibitionRadius() + 1, c.getColumnDimensions().length);
+    		inhibitionArea = Math.min(c.getNumColumns(), inhibitionArea);
+    		density = c.getNumActiveColumnsPerInhArea() / inhibitionArea;
+    		density = Math.min(density, 0.5);
+    	}
+    	return density;
+    }
+    
     /**
      * Perform global inhibition. Performing global inhibition entails picking the
      * top 'numActive' columns with the highest overlap score in the entire
      * region. At most half of the columns in a local neighborhood are allowed to
-     * be active.
+     * be active. The winners are selected in linear time by the {@link Connections}'
+     * {@link org.numenta.nupic.util.TopKSelector}, ties going to the lower index.
      * 
      * @param c				the {@link Connections} matrix
      * @param overlaps		an array containing the overlap score for each  column.
@@ -895,11 +1117,22 @@ public class SpatialPooler {
     public int[] inhibitColumnsGlobal(Connections c, double[] overlaps, double density) {
     	int numCols = c.getNumColumns();
     	int numActive = (int)(density * numCols);
-    	int[] activeColumns = new int[numCols];
-    	Arrays.fill(activeColumns, 0);
-    	int[] winners = ArrayUtils.nGreatest(overlaps, numActive);
-    	Arrays.sort(winners);
-    	return winners;
+    	return c.getTopKSelector().select(overlaps, numActive);
+    }
+    
+    /**
+     * Version of {@link #inhibitColumnsGlobal(Connections, double[], double)}
+     * writing the winners into a reused buffer.
+     * 
+     * @param c				the {@link Connections} matrix
+     * @param overlaps		an array containing the overlap score for each  column.
+     * @param density		The fraction of columns to survive inhibition.
+     * @param activeColumns	the array of size numColumns receiving the winners
+     * @return	the number of winners
+     */
+    public int inhibitColumnsGlobal(Connections c, double[] overlaps, double density, int[] activeColumns) {
+    	int numActive = (int)(density * c.getNumColumns());
+    	return c.getTopKSelector().select(overlaps, numActive, activeColumns);
     }
     
     /**
@@ -915,25 +1148,172 @@ public class SpatialPooler {
      * @return
      */
     public int[] inhibitColumnsLocal(Connections c, double[] overlaps, double density) {
+    	if(c.getInhibitionPool() != null) {
+    		return inhibitColumnsLocalParallel(c, overlaps, density);
+    	}
+    	
+    	int[] activeColumns = new int[c.getNumColumns()];
+    	int numActive = inhibitColumnsLocal(c, overlaps, density, activeColumns);
+    	return Arrays.copyOf(activeColumns, numActive);
+    }
+    
+    /**
+     * Version of {@link #inhibitColumnsLocal(Connections, double[], double)}
+     * writing the winners, in ascending order, into a reused buffer. The
+     * sequential algorithm doesn't allocate.
+     * 
+     * @param c				the {@link Connections} matrix
+     * @param overlaps		an array containing the overlap score for each  column.
+     * @param density		The fraction of columns to survive inhibition.
+     * @param activeColumns	the array of size numColumns receiving the winners
+     * @return	the number of winners
+     */
+    public int inhibitColumnsLocal(Connections c, double[] overlaps, double density, int[] activeColumns) {
+    	if(c.getInhibitionPool() != null) {
+    		int[] winners = inhibitColumnsLocalParallel(c, overlaps, density);
+    		System.arraycopy(winners, 0, activeColumns, 0, winners.length);
+    		return winners.length;
+    	}
+    	
+    	NeighborhoodIndex neighborhoods = getNeighborhoodIndex(c, false);
+    	int[] neighbors = neighborhoods.getNeighbors();
     	int numCols = c.getNumColumns();
-    	int[] activeColumns = new int[numCols];
-    	Arrays.fill(activeColumns, 0);
+    	int numWinners = 0;
     	double addToWinners = ArrayUtils.max(overlaps) / 1000.0;
     	for(int i = 0;i < numCols;i++) {
-    		TIntArrayList maskNeighbors = getNeighborsND(c, i, c.getMemory(), c.getInhibitionRadius(), false);
-    		double[] overlapSlice = ArrayUtils.sub(overlaps, maskNeighbors.toArray());
-    		int numActive = (int)(0.5 + density * (maskNeighbors.size() + 1));
-    		int numBigger = ArrayUtils.valueGreaterCount(overlaps[i], overlapSlice);
+    		int numActive = (int)(0.5 + density * (neighborhoods.size(i) + 1));
+    		int numBigger = 0;
+    		for(int j = neighborhoods.start(i), end = neighborhoods.end(i);j < end;j++) {
+    			if(overlaps[neighbors[j]] > overlaps[i]) numBigger++;
+    		}
     		if(numBigger < numActive) {
-    			activeColumns[i] = 1;
+    			activeColumns[numWinners++] = i;
     			overlaps[i] += addToWinners;
     		}
     	}
-    	return ArrayUtils.where(activeColumns, new Condition.Adapter<Integer>() {
-    		@Override public boolean eval(int n) {
-				return n > 0;
-			}
-    	});
+    	return numWinners;
+    }
+    
+    /**
+     * Parallel version of {@link #inhibitColumnsLocal(Connections, double[], double)} 
+     * run on the {@link Connections#getInhibitionPool()}, which returns exactly 
+     * the same winners.
+     * <p>
+     * In the sequential algorithm each winner's overlap is raised by a small amount
+     * before the following columns are evaluated, so a column's outcome may depend
+     * on the outcome of its lower indexed neighbors. Since raising a neighbor's overlap
+     * can only increase the number of neighbors beating a column, every column is
+     * first bounded in parallel: it surely wins if it would win even were all its
+     * lower neighbors raised, and surely loses if it loses with none of them raised.
+     * The few columns left undecided (near ties) are then resolved in index order,
+     * by which time the outcome of all their lower neighbors is known.
+     * </p>
+     * 
+     * @param c			the {@link Connections} matrix
+     * @param overlaps	an array containing the overlap score for each  column.
+     * @param density	The fraction of columns to survive inhibition.
+     * @return
+     */
+    public int[] inhibitColumnsLocalParallel(Connections c, double[] overlaps, double density) {
+    	int numCols = c.getNumColumns();
+    	double addToWinners = ArrayUtils.max(overlaps) / 1000.0;
+    	byte[] outcomes = new byte[numCols];
+    	// Built up front so that the tasks only ever read the cache
+    	NeighborhoodIndex neighborhoods = getNeighborhoodIndex(c, false);
+    	int[] neighbors = neighborhoods.getNeighbors();
+    	
+    	c.getInhibitionPool().invoke(
+    		new LocalInhibitionTask(neighborhoods, overlaps, density, addToWinners, outcomes, 0, numCols));
+    	
+    	int numWinners = 0;
+    	for(int i = 0;i < numCols;i++) {
+    		if(outcomes[i] == LocalInhibitionTask.UNDECIDED) {
+    			int numActive = (int)(0.5 + density * (neighborhoods.size(i) + 1));
+    			int numBigger = 0;
+    			for(int j = neighborhoods.start(i), end = neighborhoods.end(i);j < end;j++) {
+    				int n = neighbors[j];
+    				double overlap = n < i && outcomes[n] == LocalInhibitionTask.WINNER ? 
+    					overlaps[n] + addToWinners : overlaps[n];
+    				if(overlap > overlaps[i]) numBigger++;
+    			}
+    			outcomes[i] = numBigger < numActive ? LocalInhibitionTask.WINNER : LocalInhibitionTask.LOSER;
+    		}
+    		if(outcomes[i] == LocalInhibitionTask.WINNER) numWinners++;
+    	}
+    	
+    	int[] winners = new int[numWinners];
+    	for(int i = 0, j = 0;i < numCols;i++) {
+    		if(outcomes[i] == LocalInhibitionTask.WINNER) {
+    			winners[j++] = i;
+    			overlaps[i] += addToWinners;
+    		}
+    	}
+    	return winners;
+    }
+    
+    /**
+     * Recursively splits the range of columns to be bounded in parallel 
+     * by {@link SpatialPooler#inhibitColumnsLocalParallel(Connections, double[], double)}
+     */
+    @SuppressWarnings("serial")
+    private class LocalInhibitionTask extends RecursiveAction {
+    	static final byte UNDECIDED = 0;
+    	static final byte WINNER = 1;
+    	static final byte LOSER = 2;
+    	/** Number of columns below which a range is no longer split */
+    	static final int GRAIN = 64;
+    	
+    	private final NeighborhoodIndex neighborhoods;
+    	private final double[] overlaps;
+    	private final double density;
+    	private final double addToWinners;
+    	private final byte[] outcomes;
+    	private final int start;
+    	private final int end;
+    	
+    	LocalInhibitionTask(NeighborhoodIndex neighborhoods, double[] overlaps, double density, double addToWinners, 
+    		byte[] outcomes, int start, int end) {
+    		this.neighborhoods = neighborhoods;
+    		this.overlaps = overlaps;
+    		this.density = density;
+    		this.addToWinners = addToWinners;
+    		this.outcomes = outcomes;
+    		this.start = start;
+    		this.end = end;
+    	}
+    	
+    	@Override 
+    	protected void compute() {
+    		if(end - start <= GRAIN) {
+    			for(int i = start;i < end;i++) {
+    				outcomes[i] = bound(i);
+    			}
+    			return;
+    		}
+    		int mid = (start + end) >>> 1;
+    		invokeAll(
+    			new LocalInhibitionTask(neighborhoods, overlaps, density, addToWinners, outcomes, start, mid),
+    			new LocalInhibitionTask(neighborhoods, overlaps, density, addToWinners, outcomes, mid, end));
+    	}
+    	
+    	private byte bound(int i) {
+    		int[] neighbors = neighborhoods.getNeighbors();
+    		int numActive = (int)(0.5 + density * (neighborhoods.size(i) + 1));
+    		double overlap = overlaps[i];
+    		int numBigger = 0;
+    		int numUncertain = 0;
+    		for(int j = neighborhoods.start(i), end = neighborhoods.end(i);j < end;j++) {
+    			int n = neighbors[j];
+    			if(overlaps[n] > overlap) {
+    				numBigger++;
+    			}else if(n < i && overlaps[n] + addToWinners > overlap) {
+    				numUncertain++;
+    			}
+    		}
+    		if(numBigger >= numActive) return LOSER;
+    		if(numBigger + numUncertain < numActive) return WINNER;
+    		return UNDECIDED;
+    	}
     }
     
     /**
@@ -961,30 +1341,30 @@ public class SpatialPooler {
      *         minActiveDutyCycle
      */
     public void updateBoostFactors(Connections c) {
-    	//Indexes of values > 0
-    	int[] mask = ArrayUtils.where(c.getMinActiveDutyCycles(), new Condition.Adapter<Object>() {
-    		@Override public boolean eval(double d) { return d > 0; }
-    	});
- 
     	final double[] activeDutyCycles = c.getActiveDutyCycles();
     	final double[] minActiveDutyCycles = c.getMinActiveDutyCycles();
+    	double[] boostFactors = c.getBoostFactors();
+    	int numCols = c.getNumColumns();
     	
-    	double[] boostInterim;
-    	if(mask.length < 1) {
-    		boostInterim = c.getBoostFactors();
-    	}else{
-	    	double[] numerator = new double[c.getNumColumns()];
-	    	Arrays.fill(numerator, 1 - c.getMaxBoost());
-	    	boostInterim = ArrayUtils.divide(numerator, minActiveDutyCycles, 0, 0);
-	    	boostInterim = ArrayUtils.multiply(boostInterim, activeDutyCycles, 0, 0);
-	    	boostInterim = ArrayUtils.d_add(boostInterim, c.getMaxBoost());
+    	//The line only applies once some minimum duty cycle is > 0
+    	boolean anyPositive = false;
+    	for(int i = 0;i < numCols && !anyPositive;i++) {
+    		anyPositive = minActiveDutyCycles[i] > 0;
     	}
     	
-    	ArrayUtils.setIndexesTo(boostInterim, ArrayUtils.where(activeDutyCycles, new Condition.Adapter<Object>() {
-    		int i = 0;
-    		@Override public boolean eval(double d) { return d > minActiveDutyCycles[i++]; }
-    	}), 1.0d);
+    	if(anyPositive) {
+    		double numerator = 1 - c.getMaxBoost();
+    		for(int i = 0;i < numCols;i++) {
+    			double denom = minActiveDutyCycles[i];
+    			double slope = numerator / (denom == 0 ? 1 : denom);
+    			boostFactors[i] = slope * activeDutyCycles[i] + c.getMaxBoost();
+    		}
+    	}
     	
-    	c.setBoostFactors(boostInterim);
+    	for(int i = 0;i < numCols;i++) {
+    		if(activeDutyCycles[i] > minActiveDutyCycles[i]) {
+    			boostFactors[i] = 1.0d;
+    		}
+    	}
     }
 }
@@ -0,0 +1,129 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+package org.numenta.nupic.research;
+
+import gnu.trove.map.hash.TIntObjectHashMap;
+
+import org.numenta.nupic.Connections;
+
+/**
+ * Scratch buffers reused by {@link SpatialPooler#compute(Connections, int[], int[], boolean, boolean)}
+ * so that, once warmed up, a compute cycle does not allocate on the heap.
+ * <p>
+ * One workspace is held by each {@link Connections} object (see
+ * {@link Connections#getSpatialPoolerWorkspace()}) and sized from its number
+ * of inputs and columns. Like the rest of the {@link Connections} state it must
+ * not be shared by concurrently computing threads. The contents of the buffers
+ * are only meaningful during a compute cycle.
+ * </p>
+ * 
+ * @author David Ray
+ */
+public class SpatialPoolerWorkspace {
+    private final int numInputs;
+    private final int numColumns;
+    
+    /** Indexes of the active input bits, valid up to {@link #numActiveInputs} */
+    int[] activeInputs;
+    int numActiveInputs;
+    /** Indexes of the active columns, valid up to {@link #numActiveColumns} */
+    int[] activeColumns;
+    int numActiveColumns;
+    
+    int[] overlaps;
+    double[] boostedOverlaps;
+    double[] inhibitionOverlaps;
+    
+    /** Flags the active input bits during {@link SpatialPooler#adaptSynapses(Connections, int[], int, int[], int)} */
+    boolean[] activeInputMask;
+    
+    double[] overlapArray;
+    double[] activeArray;
+    
+    /** Sparse permanence buffers keyed by potential pool size */
+    private TIntObjectHashMap<double[]> sparsePermanences = new TIntObjectHashMap<double[]>();
+    
+    /**
+     * Constructs a new {@code SpatialPoolerWorkspace}
+     * 
+     * @param numInputs     the number of input bits
+     * @param numColumns    the number of columns
+     */
+    public SpatialPoolerWorkspace(int numInputs, int numColumns) {
+        this.numInputs = numInputs;
+        this.numColumns = numColumns;
+        
+        activeInputs = new int[numInputs];
+        activeColumns = new int[numColumns];
+        overlaps = new int[numColumns];
+        boostedOverlaps = new double[numColumns];
+        inhibitionOverlaps = new double[numColumns];
+        activeInputMask = new boolean[numInputs];
+        overlapArray = new double[numColumns];
+        activeArray = new double[numColumns];
+    }
+    
+    /**
+     * Returns a flag indicating whether this workspace is sized
+     * for the specified {@link Connections}
+     * 
+     * @param c     the {@link Connections} memory
+     * @return
+     */
+    public boolean fits(Connections c) {
+        return numInputs == c.getNumInputs() && numColumns == c.getNumColumns();
+    }
+    
+    /**
+     * Returns a buffer of exactly the specified length to hold the 
+     * sparse permanences of a potential pool.
+     * 
+     * @param length    the size of the potential pool
+     * @return
+     */
+    double[] getSparsePermanences(int length) {
+        double[] retVal = sparsePermanences.get(length);
+        if(retVal == null) {
+            sparsePermanences.put(length, retVal = new double[length]);
+        }
+        return retVal;
+    }
+    
+    /**
+     * Returns the indexes of the active columns computed by the last cycle,
+     * valid up to {@link #getNumActiveColumns()}.
+     * 
+     * @return
+     */
+    public int[] getActiveColumns() {
+        return activeColumns;
+    }
+    
+    /**
+     * Returns the number of active columns computed by the last cycle
+     * @return
+     */
+    public int getNumActiveColumns() {
+        return numActiveColumns;
+    }
+}
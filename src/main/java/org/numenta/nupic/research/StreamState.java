@@ -0,0 +1,315 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+package org.numenta.nupic.research;
+
+import gnu.trove.impl.Constants;
+import gnu.trove.map.TIntIntMap;
+import gnu.trove.map.hash.TIntIntHashMap;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.numenta.nupic.Connections;
+import org.numenta.nupic.model.Cell;
+import org.numenta.nupic.model.Column;
+import org.numenta.nupic.model.DistalDendrite;
+import org.numenta.nupic.model.Synapse;
+import org.numenta.nupic.persistence.ModelSnapshot;
+import org.numenta.nupic.util.MersenneTwister;
+
+/**
+ * The state of one input stream computed by the {@link TemporalMemory} against a
+ * trained model shared with other streams.
+ * <p>
+ * A {@link Connections} object holds both the learned structure (segments, synapses
+ * and their permanences) and the activity of the sequence it is fed. A {@code StreamState}
+ * holds the activity of one stream, along with its own random generator and segment 
+ * activity counters, while referencing the learned structure of a shared model. Since 
+ * {@link TemporalMemory#compute(StreamState, int[], boolean)} only reads the shared model 
+ * when not learning, any number of streams may be computed concurrently against one model,
+ * as long as each stream is computed by one thread at a time and the model itself
+ * isn't modified meanwhile.
+ * </p><p>
+ * The first time a stream learns, it forks: it takes a private copy of the model (see 
+ * {@link ModelSnapshot#copy(Connections)}), moves its activity onto the copy, and from 
+ * then on is computed against the copy exactly as a {@link Connections} of its own.
+ * The shared model is never modified.
+ * </p><p>
+ * Usage:
+ * <pre>
+ * model.prepareForSharing();
+ * StreamState stream = new StreamState(model);
+ * ComputeCycle cycle = tm.compute(stream, activeColumns, false);
+ * </pre>
+ * </p>
+ * 
+ * @author David Ray
+ */
+public class StreamState {
+    private final Connections model;
+    private Connections fork;
+    
+    private Random random;
+    private SegmentActivity segmentActivity = new SegmentActivity();
+    
+    private Set<Cell> activeCells = new LinkedHashSet<Cell>();
+    private Set<Cell> winnerCells = new LinkedHashSet<Cell>();
+    private Set<Cell> predictiveCells = new LinkedHashSet<Cell>();
+    private Set<Column> predictedColumns = new LinkedHashSet<Column>();
+    private Set<DistalDendrite> activeSegments = new LinkedHashSet<DistalDendrite>();
+    private Set<DistalDendrite> learningSegments = new LinkedHashSet<DistalDendrite>();
+    private Map<DistalDendrite, Set<Synapse>> activeSynapsesForSegment = new LinkedHashMap<DistalDendrite, Set<Synapse>>();
+    
+    /**
+     * Constructs a new {@code StreamState} starting a new sequence on the specified
+     * model, with a {@link MersenneTwister} seeded with the model's seed.
+     * 
+     * @param model     the shared model, see {@link Connections#prepareForSharing()}
+     */
+    public StreamState(Connections model) {
+        this(model, new MersenneTwister(model.getSeed()));
+    }
+    
+    /**
+     * Constructs a new {@code StreamState} starting a new sequence on the specified
+     * model.
+     * 
+     * @param model     the shared model, see {@link Connections#prepareForSharing()}
+     * @param random    the random generator of this stream
+     */
+    public StreamState(Connections model, Random random) {
+        this.model = model;
+        this.random = random;
+    }
+    
+    /**
+     * Returns the shared model this stream was created on.
+     * @return
+     */
+    public Connections getModel() {
+        return model;
+    }
+    
+    /**
+     * Returns the model this stream is computed against: its private copy
+     * once forked, the shared model otherwise.
+     * @return
+     */
+    public Connections getConnections() {
+        return fork == null ? model : fork;
+    }
+    
+    /**
+     * Returns a flag indicating whether this stream has taken a 
+     * private copy of the model.
+     * @return
+     */
+    public boolean isForked() {
+        return fork != null;
+    }
+    
+    /**
+     * Takes a private copy of the shared model, if not already done, and moves the
+     * activity of this stream onto it. Called by the {@link TemporalMemory} the first 
+     * time this stream learns. Must not be called while the shared model is modified.
+     * 
+     * @return  the private copy
+     */
+    public Connections fork() {
+        if(fork != null) {
+            return fork;
+        }
+        
+        Connections copy = ModelSnapshot.copy(model);
+        copy.setRandom(random);
+        copy.setActiveCells(cellsOf(copy, activeCells));
+        copy.setWinnerCells(cellsOf(copy, winnerCells));
+        copy.setPredictiveCells(cellsOf(copy, predictiveCells));
+        Set<Column> columns = new LinkedHashSet<Column>();
+        for(Column column : predictedColumns) {
+            columns.add(copy.getColumn(column.getIndex()));
+        }
+        copy.setPredictedColumns(columns);
+        copy.setActiveSegments(segmentsOf(copy, activeSegments));
+        copy.setLearningSegments(segmentsOf(copy, learningSegments));
+        
+        // Synapses are matched by their position within their segment, which the copy preserves
+        Map<DistalDendrite, Set<Synapse>> activeSynapses = new LinkedHashMap<DistalDendrite, Set<Synapse>>();
+        TIntIntMap ownedPositions = new TIntIntHashMap(Constants.DEFAULT_CAPACITY, Constants.DEFAULT_LOAD_FACTOR, -1, -1);
+        for(Map.Entry<DistalDendrite, Set<Synapse>> entry : activeSynapsesForSegment.entrySet()) {
+            List<Synapse> owned = model.getSynapses(entry.getKey());
+            List<Synapse> copied = copy.getSynapses(copy.getSegment(entry.getKey().getIndex()));
+            ownedPositions.clear();
+            for(int i = 0;i < owned.size();i++) {
+                ownedPositions.put(owned.get(i).getIndex(), i);
+            }
+            Set<Synapse> set = new LinkedHashSet<Synapse>();
+            for(Synapse s : entry.getValue()) {
+                set.add(copied.get(ownedPositions.get(s.getIndex())));
+            }
+            activeSynapses.put(copy.getSegment(entry.getKey().getIndex()), set);
+        }
+        copy.setActiveSynapsesForSegment(activeSynapses);
+        
+        fork = copy;
+        activeCells = winnerCells = predictiveCells = null;
+        predictedColumns = null;
+        activeSegments = learningSegments = null;
+        activeSynapsesForSegment = null;
+        segmentActivity = null;
+        return fork;
+    }
+    
+    /**
+     * Returns the cells of the copy with the indexes of the specified cells.
+     */
+    private Set<Cell> cellsOf(Connections copy, Set<Cell> cells) {
+        Set<Cell> retVal = new LinkedHashSet<Cell>();
+        for(Cell cell : cells) {
+            retVal.add(copy.getCell(cell.getIndex()));
+        }
+        return retVal;
+    }
+    
+    /**
+     * Returns the segments of the copy with the indexes of the specified segments.
+     */
+    private Set<DistalDendrite> segmentsOf(Connections copy, Set<DistalDendrite> segments) {
+        Set<DistalDendrite> retVal = new LinkedHashSet<DistalDendrite>();
+        for(DistalDendrite dd : segments) {
+            retVal.add(copy.getSegment(dd.getIndex()));
+        }
+        return retVal;
+    }
+    
+    /**
+     * Stores the results of a cycle computed against the shared model.
+     * 
+     * @param cycle     the cycle's results
+     */
+    void update(ComputeCycle cycle) {
+        activeCells = cycle.activeCells;
+        winnerCells = cycle.winnerCells;
+        predictiveCells = cycle.predictiveCells;
+        predictedColumns = cycle.predictedColumns;
+        activeSegments = cycle.activeSegments;
+        learningSegments = cycle.learningSegments;
+        activeSynapsesForSegment = cycle.activeSynapsesForSegment;
+    }
+    
+    /**
+     * Starts a new sequence on this stream.
+     */
+    public void reset() {
+        if(fork != null) {
+            fork.getActiveCells().clear();
+            fork.getPredictiveCells().clear();
+            fork.getActiveSegments().clear();
+            fork.getActiveSynapsesForSegment().clear();
+            fork.getWinnerCells().clear();
+            return;
+        }
+        activeCells.clear();
+        predictiveCells.clear();
+        activeSegments.clear();
+        activeSynapsesForSegment.clear();
+        winnerCells.clear();
+    }
+    
+    /**
+     * Returns the random generator of this stream.
+     * @return
+     */
+    public Random getRandom() {
+        return fork == null ? random : fork.getRandom();
+    }
+    
+    /**
+     * Returns the segment activity counters of this stream, used
+     * while it is computed against the shared model.
+     * @return
+     */
+    public SegmentActivity getSegmentActivity() {
+        return fork == null ? segmentActivity : fork.getSegmentActivity();
+    }
+    
+    /**
+     * Returns the cells active in the last cycle.
+     * @return
+     */
+    public Set<Cell> getActiveCells() {
+        return fork == null ? activeCells : fork.getActiveCells();
+    }
+    
+    /**
+     * Returns the winner cells of the last cycle.
+     * @return
+     */
+    public Set<Cell> getWinnerCells() {
+        return fork == null ? winnerCells : fork.getWinnerCells();
+    }
+    
+    /**
+     * Returns the cells predicted for the next cycle.
+     * @return
+     */
+    public Set<Cell> getPredictiveCells() {
+        return fork == null ? predictiveCells : fork.getPredictiveCells();
+    }
+    
+    /**
+     * Returns the columns correctly predicted in the last cycle.
+     * @return
+     */
+    public Set<Column> getPredictedColumns() {
+        return fork == null ? predictedColumns : fork.getPredictedColumns();
+    }
+    
+    /**
+     * Returns the segments active in the last cycle.
+     * @return
+     */
+    public Set<DistalDendrite> getActiveSegments() {
+        return fork == null ? activeSegments : fork.getActiveSegments();
+    }
+    
+    /**
+     * Returns the best matching segments of the columns bursting in the last cycle.
+     * @return
+     */
+    public Set<DistalDendrite> getLearningSegments() {
+        return fork == null ? learningSegments : fork.getLearningSegments();
+    }
+    
+    /**
+     * Returns the active synapses of the segments active or matching in the last cycle.
+     * @return
+     */
+    public Map<DistalDendrite, Set<Synapse>> getActiveSynapsesForSegment() {
+        return fork == null ? activeSynapsesForSegment : fork.getActiveSynapsesForSegment();
+    }
+}
@@ -23,18 +23,27 @@
 package org.numenta.nupic.research;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
+import org.numenta.nupic.ConcurrentConnections;
 import org.numenta.nupic.Connections;
 import org.numenta.nupic.model.Cell;
 import org.numenta.nupic.model.Column;
 import org.numenta.nupic.model.DistalDendrite;
 import org.numenta.nupic.model.Synapse;
+import org.numenta.nupic.persistence.LearningJournal;
+import org.numenta.nupic.util.MersenneTwister;
 import org.numenta.nupic.util.SparseObjectMatrix;
+import org.numenta.nupic.util.TraceSink;
 
 /**
  * Temporal Memory implementation in Java
@@ -43,6 +52,14 @@ import org.numenta.nupic.util.SparseObjectMatrix;
  * @author David Ray
  */
 public class TemporalMemory {
+    /** The number of columns of each partition learned in parallel, see {@link ConcurrentConnections#setLearningPool(ForkJoinPool)} */
+    private static final int LEARNING_PARTITION_COLUMNS = 64;
+    /** Orders segments by index */
+    private static final Comparator<DistalDendrite> SEGMENT_ORDER = new Comparator<DistalDendrite>() {
+        @Override public int compare(DistalDendrite d1, DistalDendrite d2) {
+            return d1.getIndex() - d2.getIndex();
+        }
+    };
     
     /**
      * Constructs a new {@code TemporalMemory}
@@ -91,6 +108,8 @@ public class TemporalMemory {
      * @return                  {@link ComputeCycle} container for one cycle of inference values.
      */
     public ComputeCycle compute(Connections connections, int[] activeColumns, boolean learn) {
+        connections.setTmIterationNum(connections.getTmIterationNum() + 1);
+        
         ComputeCycle result = computeFn(connections, connections.getColumnSet(activeColumns), new LinkedHashSet<Cell>(connections.getPredictiveCells()), 
             new LinkedHashSet<DistalDendrite>(connections.getActiveSegments()), new LinkedHashMap<DistalDendrite, Set<Synapse>>(connections.getActiveSynapsesForSegment()), 
                 new LinkedHashSet<Cell>(connections.getWinnerCells()), learn);
@@ -103,9 +122,50 @@ public class TemporalMemory {
         connections.setLearningSegments(result.learningSegments());
         connections.setActiveSynapsesForSegment(result.activeSynapsesForSegment());
         
+        LearningJournal journal = connections.getLearningJournal();
+        if(journal != null) {
+            journal.cycleCompleted(connections);
+        }
+        
+        TraceSink trace = connections.getTraceSink();
+        if(trace.isEnabled(TraceSink.SUMMARY)) {
+            trace.metric("TemporalMemory", "activeCells", result.activeCells().size());
+            trace.metric("TemporalMemory", "winnerCells", result.winnerCells().size());
+            trace.metric("TemporalMemory", "predictiveCells", result.predictiveCells().size());
+            trace.metric("TemporalMemory", "burstingColumns", activeColumns.length - result.predictedColumns().size());
+            trace.metric("TemporalMemory", "segments", connections.getSegmentCount());
+            trace.metric("TemporalMemory", "synapses", connections.getSynapseCount());
+            if(trace.isEnabled(TraceSink.DETAIL)) {
+                trace.trace(TraceSink.DETAIL, "TemporalMemory", "iteration " + connections.getTmIterationNum() + 
+                    ", predictive cells: " + connections.asCellIndexes(result.predictiveCells()));
+            }
+        }
+        
         return result; 
     }
     
+    /**
+     * Feeds an input record of one stream through TM. While the stream doesn't learn 
+     * it is computed against its shared model without modifying it (see {@link #inferFn(StreamState, Set)}),
+     * so that other streams of the same model may be computed concurrently. The first 
+     * time it learns the stream forks a private copy of the model (see {@link StreamState#fork()}),
+     * against which it is computed from then on.
+     * 
+     * @param stream            the state of the stream
+     * @param activeColumns     direct proximal dendrite input
+     * @param learn             learning mode flag
+     * @return                  {@link ComputeCycle} container for one cycle of inference values.
+     */
+    public ComputeCycle compute(StreamState stream, int[] activeColumns, boolean learn) {
+        if(learn || stream.isForked()) {
+            return compute(stream.fork(), activeColumns, learn);
+        }
+        
+        ComputeCycle result = inferFn(stream, stream.getModel().getColumnSet(activeColumns));
+        stream.update(result);
+        return result;
+    }
+    
     /**
      * Functional version of {@link #compute(int[], boolean)}. 
      * This method is stateless and concurrency safe.
@@ -132,13 +192,51 @@ public class TemporalMemory {
             learnOnSegments(c, prevActiveSegments, cycle.learningSegments, prevActiveSynapsesForSegment, cycle.winnerCells, prevWinnerCells);
         }
         
-        cycle.activeSynapsesForSegment = computeActiveSynapses(c, cycle.activeCells);
-        
-        computePredictiveCells(c, cycle, cycle.activeSynapsesForSegment);
+        computeSegmentActivity(c, cycle);
         
         return cycle;
     }
 
+    /**
+     * Computes one cycle of a stream against its shared model without learning, and
+     * without modifying the model: unlike {@link #computeFn(Connections, Set, Set, Set, Map, Set, boolean)}
+     * with learning off, bursting columns without a matching segment don't grow an
+     * empty segment, segments don't record their last use, and the stream's own random
+     * generator and segment activity counters are used. The active and predictive cells
+     * are the same as those of {@code computeFn}.
+     * 
+     * @param stream            the state of the stream
+     * @param activeColumns     proximal dendrite input
+     * @return
+     */
+    public ComputeCycle inferFn(StreamState stream, Set<Column> activeColumns) {
+        Connections c = stream.getModel();
+        ComputeCycle cycle = new ComputeCycle();
+        
+        activateCorrectlyPredictiveCells(cycle, stream.getPredictiveCells(), activeColumns);
+        
+        DistalDendrite[] bestSegment = new DistalDendrite[1];
+        Cell[] bestCell = new Cell[1];
+        for(Column column : activeColumns) {
+            if(cycle.predictedColumns.contains(column)) continue;
+            
+            cycle.activeCells.addAll(column.getCells());
+            bestSegment[0] = null;
+            bestCell[0] = null;
+            findBestMatch(c, column, stream.getActiveSynapsesForSegment(), bestSegment, bestCell, 0);
+            if(bestCell[0] == null) {
+                bestCell[0] = column.getLeastUsedCell(c, stream.getRandom());
+            }else{
+                cycle.learningSegments.add(bestSegment[0]);
+            }
+            cycle.winnerCells.add(bestCell[0]);
+        }
+        
+        computeSegmentActivity(c, cycle, stream.getSegmentActivity(), false);
+        
+        return cycle;
+    }
+    
     /**
      * Phase 1: Activate the correctly predictive cells
      * 
@@ -176,6 +274,8 @@ public class TemporalMemory {
      *     - (learning)
      *       - if it has no matching segment
      *         - (optimization) if there are prev winner cells
+     *           - if the cell is at its segment capacity
+     *             - destroy its least recently used segment
      *           - add a segment to it
      *       - mark the segment as learning
      * 
@@ -192,23 +292,48 @@ public class TemporalMemory {
         Set<Column> unpred = new LinkedHashSet<Column>(activeColumns);
         
         unpred.removeAll(predictedColumns);
-        for(Column column : unpred) {
+        Column[] columns = unpred.toArray(new Column[unpred.size()]);
+        
+        // Search phase: only reads the connections, so columns may be searched concurrently
+        DistalDendrite[] bestSegments = new DistalDendrite[columns.length];
+        Cell[] bestCells = new Cell[columns.length];
+        ForkJoinPool pool = c.getBurstPool();
+        if(pool != null && columns.length > 1) {
+            // Cell segment lists are created on first access, so create them here
+            // in the sequential order to keep the search itself free of writes
+            for(Column column : columns) {
+                for(Cell cell : column.getCells()) {
+                    cell.getSegments(c);
+                }
+            }
+            pool.invoke(new BestMatchTask(c, columns, prevActiveSynapsesForSegment, bestSegments, bestCells, 0, columns.length));
+        }else{
+            for(int i = 0;i < columns.length;i++) {
+                findBestMatch(c, columns[i], prevActiveSynapsesForSegment, bestSegments, bestCells, i);
+            }
+        }
+        
+        // Commit phase: random choices and segment creation happen in column order
+        for(int i = 0;i < columns.length;i++) {
+            Column column = columns[i];
             List<Cell> cells = column.getCells();
             cycle.activeCells.addAll(cells);
             
-            Object[] bestSegmentAndCell = getBestMatchingCell(c, column, prevActiveSynapsesForSegment);
-            DistalDendrite bestSegment = (DistalDendrite)bestSegmentAndCell[0];
-            Cell bestCell = (Cell)bestSegmentAndCell[1];
-            if(bestCell != null) {
-                cycle.winnerCells.add(bestCell);
+            DistalDendrite bestSegment = bestSegments[i];
+            Cell bestCell = bestCells[i];
+            if(bestCell == null) {
+                bestCell = column.getLeastUsedCell(c, c.getRandom());
             }
+            cycle.winnerCells.add(bestCell);
             
-            int segmentCounter = c.getSegmentCount();
             if(bestSegment == null) {
-                bestSegment = bestCell.createSegment(c, segmentCounter);
-                c.setSegmentCount(segmentCounter + 1);
+                if(bestCell.getSegments(c).size() >= c.getMaxSegmentsPerCell()) {
+                    destroyLeastRecentlyUsedSegment(c, bestCell);
+                }
+                bestSegment = bestCell.createSegment(c, c.nextSegmentIndex());
             }
             
+            bestSegment.setLastUsedIteration(c.getTmIterationNum());
             cycle.learningSegments.add(bestSegment);
         }
     }
@@ -225,7 +350,13 @@ public class TemporalMemory {
      *   - if learning segment
      *   - add some synapses to the segment
      *     - subsample from prev winner cells
+     *     - if the segment is at its synapse capacity
+     *       - destroy its weakest inactive synapses
      * </pre>    
+     * When the {@link Connections} is a {@link ConcurrentConnections} with a learning pool, 
+     * the segments of disjoint partitions of {@link #LEARNING_PARTITION_COLUMNS} columns are
+     * learned on in parallel, each partition with a random generator of its own. The new 
+     * synapses are then grown in partition order.
      *     
      * @param c                             the Connections state of the temporal memory
      * @param prevActiveSegments			the Set of segments active in the previous cycle.
@@ -237,32 +368,50 @@ public class TemporalMemory {
     public void learnOnSegments(Connections c, Set<DistalDendrite> prevActiveSegments, Set<DistalDendrite> learningSegments,
         Map<DistalDendrite, Set<Synapse>> prevActiveSynapseSegments, Set<Cell> winnerCells, Set<Cell> prevWinnerCells) {
         
-    	double permanenceIncrement = c.getPermanenceIncrement();
-    	double permanenceDecrement = c.getPermanenceDecrement();
-    		
         List<DistalDendrite> prevAndLearning = new ArrayList<DistalDendrite>(prevActiveSegments);
         prevAndLearning.addAll(learningSegments);
         
+        ForkJoinPool pool = c instanceof ConcurrentConnections ? ((ConcurrentConnections)c).getLearningPool() : null;
+        if(pool == null) {
+            LearnTask task = new LearnTask(c, prevAndLearning, learningSegments, prevActiveSynapseSegments, 
+                winnerCells, prevWinnerCells, c.getRandom());
+            task.run();
+            task.grow();
+            return;
+        }
+        
+        // Partition the segments by the columns of their cells, keeping their order
+        int numColumns = c.getCells().length / c.getCellsPerColumn();
+        int numPartitions = (numColumns + LEARNING_PARTITION_COLUMNS - 1) / LEARNING_PARTITION_COLUMNS;
+        List<List<DistalDendrite>> partitions = new ArrayList<List<DistalDendrite>>(numPartitions);
+        for(int i = 0;i < numPartitions;i++) {
+            partitions.add(null);
+        }
         for(DistalDendrite dd : prevAndLearning) {
-            boolean isLearningSegment = learningSegments.contains(dd);
-            boolean isFromWinnerCell = winnerCells.contains(dd.getParentCell());
-            
-            Set<Synapse> activeSynapses = new LinkedHashSet<Synapse>(dd.getConnectedActiveSynapses(prevActiveSynapseSegments, 0));
-            
-            if(isLearningSegment || isFromWinnerCell) {
-                dd.adaptSegment(c, activeSynapses, permanenceIncrement, permanenceDecrement);
-            }
-            
-            int synapseCounter = c.getSynapseCount();  
-            if(isLearningSegment) {
-                int n = c.getMaxNewSynapseCount() - activeSynapses.size();
-                Set<Cell> learnCells = dd.pickCellsToLearnOn(c, n, prevWinnerCells, c.getRandom());
-                for(Cell sourceCell : learnCells) {
-                    dd.createSynapse(c, sourceCell, c.getInitialPermanence(), synapseCounter);
-                    synapseCounter += 1;
-                }
-                c.setSynapseCount(synapseCounter);
+            int partition = dd.getParentCell().getParentColumn().getIndex() / LEARNING_PARTITION_COLUMNS;
+            List<DistalDendrite> segments = partitions.get(partition);
+            if(segments == null) {
+                partitions.set(partition, segments = new ArrayList<DistalDendrite>());
             }
+            segments.add(dd);
+        }
+        
+        // Segments are learned on in index order and each partition is seeded in turn so 
+        // that learning doesn't depend on the scheduling. Likewise the synapses picked by
+        // each partition are grown once all partitions are done, in partition order, so
+        // that they are numbered and added to the receptors of their cells in that order.
+        List<LearnTask> tasks = new ArrayList<LearnTask>();
+        for(List<DistalDendrite> segments : partitions) {
+            if(segments == null) continue;
+            Collections.sort(segments, SEGMENT_ORDER);
+            tasks.add(new LearnTask(c, segments, learningSegments, prevActiveSynapseSegments, winnerCells, prevWinnerCells, 
+                new MersenneTwister(c.getRandom().nextInt())));
+        }
+        if(tasks.isEmpty()) return;
+        
+        pool.invoke(new LearnAction(tasks, 0, tasks.size()));
+        for(LearnTask task : tasks) {
+            task.grow();
         }
     }
     
@@ -283,9 +432,89 @@ public class TemporalMemory {
         for(DistalDendrite dd : activeDendrites.keySet()) {
             Set<Synapse> connectedActive = dd.getConnectedActiveSynapses(activeDendrites, c.getConnectedPermanence());
             if(connectedActive.size() >= c.getActivationThreshold()) {
+                dd.setLastUsedIteration(c.getTmIterationNum());
+                cycle.activeSegments.add(dd);
+                cycle.predictiveCells.add(dd.getParentCell());
+            }
+        }
+    }
+    
+    /**
+     * Phase 4 propagation kernel, replacing {@link #computeActiveSynapses(Connections, Set)}
+     * followed by {@link #computePredictiveCells(Connections, ComputeCycle, Map)}.
+     * <pre>
+     * - for each receptor synapse of each active cell
+     *   - count it as potentially active on its segment
+     *   - if connected, count it as connected active on its segment
+     * - for each segment with activity, in order of first activation
+     *   - if connected activity >= activationThreshold
+     *     - mark the segment as active and its cell as predictive
+     *   - if potential activity >= minThreshold
+     *     - mark the segment as matching
+     * - collect the active synapses of the active and matching segments
+     * </pre>
+     * Only active and matching segments are read by the next cycle (the others
+     * can neither be learned on nor be the best matching segment of a bursting
+     * column), so only their active synapses are collected into
+     * {@link ComputeCycle#activeSynapsesForSegment()}.
+     * 
+     * @param c         the Connections state of the temporal memory
+     * @param cycle     the state during the current compute cycle
+     */
+    public void computeSegmentActivity(Connections c, ComputeCycle cycle) {
+        computeSegmentActivity(c, cycle, c.getSegmentActivity(), true);
+    }
+    
+    /**
+     * Phase 4 propagation kernel filling the specified counters.
+     * 
+     * @param c             the Connections state of the temporal memory
+     * @param cycle         the state during the current compute cycle
+     * @param activity      the counters to use
+     * @param markUsed      whether active segments record this iteration as their last use
+     */
+    private void computeSegmentActivity(Connections c, ComputeCycle cycle, SegmentActivity activity, boolean markUsed) {
+        activity.reset(c.getSegmentCount());
+        
+        double connectedPermanence = c.getConnectedPermanence();
+        for(Cell cell : cycle.activeCells) {
+            activity.propagate(c, cell, connectedPermanence);
+        }
+        
+        int activationThreshold = c.getActivationThreshold();
+        int minThreshold = c.getMinThreshold();
+        for(int i = 0;i < activity.getNumTouched();i++) {
+            int index = activity.getTouched(i);
+            boolean isActive = activity.getNumActiveConnected(index) >= activationThreshold;
+            boolean isMatching = activity.getNumActivePotential(index) >= minThreshold;
+            if(!isActive && !isMatching) continue;
+            
+            DistalDendrite dd = c.getSegment(index);
+            if(isActive) {
+                if(markUsed) {
+                    dd.setLastUsedIteration(c.getTmIterationNum());
+                }
                 cycle.activeSegments.add(dd);
                 cycle.predictiveCells.add(dd.getParentCell());
             }
+            if(isMatching) {
+                cycle.matchingSegments.add(dd);
+            }
+            activity.retain(index);
+        }
+        
+        Map<DistalDendrite, Set<Synapse>> activeSynapses = cycle.activeSynapsesForSegment;
+        for(Cell cell : cycle.activeCells) {
+            for(Synapse s : cell.getReceptorSynapses(c)) {
+                DistalDendrite dd = (DistalDendrite)s.getSegment();
+                if(!activity.isRetained(dd.getIndex())) continue;
+                
+                Set<Synapse> set = activeSynapses.get(dd);
+                if(set == null) {
+                    activeSynapses.put(dd, set = new LinkedHashSet<Synapse>());
+                }
+                set.add(s);
+            }
         }
     }
     
@@ -340,29 +569,45 @@ public class TemporalMemory {
      * @return		an object array whose first index contains a segment, and the second contains a cell
      */
     public Object[] getBestMatchingCell(Connections c, Column column, Map<DistalDendrite, Set<Synapse>> prevActiveSynapsesForSegment) {
-        Object[] retVal = new Object[2];
-        Cell bestCell = null;
-        DistalDendrite bestSegment = null;
+        DistalDendrite[] bestSegment = new DistalDendrite[1];
+        Cell[] bestCell = new Cell[1];
+        findBestMatch(c, column, prevActiveSynapsesForSegment, bestSegment, bestCell, 0);
+        
+        if(bestCell[0] == null) {
+            bestCell[0] = column.getLeastUsedCell(c, c.getRandom());
+        }
+        
+        return new Object[] { bestSegment[0], bestCell[0] };
+    }
+    
+    /**
+     * Stores the cell of the specified column whose best matching segment has the
+     * largest number of active synapses, along with that segment, at the specified
+     * index of the output arrays. Both are left null if no cell has a matching segment.
+     * Only reads the {@link Connections}, and never uses its random generator.
+     * 
+     * @param c									encapsulated memory and state
+     * @param column							{@link Column} within which to search for best cell
+     * @param prevActiveSynapsesForSegment		a {@link DistalDendrite}'s previously active {@link Synapse}s
+     * @param bestSegments						receives the best segment
+     * @param bestCells							receives the best cell
+     * @param index								the index at which to store the results
+     */
+    private void findBestMatch(Connections c, Column column, Map<DistalDendrite, Set<Synapse>> prevActiveSynapsesForSegment,
+        DistalDendrite[] bestSegments, Cell[] bestCells, int index) {
+        
         int maxSynapses = 0;
         for(Cell cell : column.getCells()) {
             DistalDendrite dd = getBestMatchingSegment(c, cell, prevActiveSynapsesForSegment);
             if(dd != null) {
-                Set<Synapse> connectedActiveSynapses = dd.getConnectedActiveSynapses(prevActiveSynapsesForSegment, 0);
-                if(connectedActiveSynapses.size() > maxSynapses) {
-                    maxSynapses = connectedActiveSynapses.size();
-                    bestCell = cell;
-                    bestSegment = dd;
+                int numActiveSynapses = dd.getConnectedActiveSynapseCount(prevActiveSynapsesForSegment, 0);
+                if(numActiveSynapses > maxSynapses) {
+                    maxSynapses = numActiveSynapses;
+                    bestCells[index] = cell;
+                    bestSegments[index] = dd;
                 }
             }
         }
-        
-        if(bestCell == null) {
-            bestCell = column.getLeastUsedCell(c, c.getRandom());
-        }
-        
-        retVal[0] = bestSegment;
-        retVal[1] = bestCell;
-        return retVal;
     }
     
     /**
@@ -378,15 +623,27 @@ public class TemporalMemory {
         int maxSynapses = c.getMinThreshold();
         DistalDendrite bestSegment = null;
         for(DistalDendrite dd : cell.getSegments(c)) {
-            Set<Synapse> activeSyns = dd.getConnectedActiveSynapses(activeSynapseSegments, 0);
-            if(activeSyns.size() >= maxSynapses) {
-                maxSynapses = activeSyns.size();
+            int numActiveSyns = dd.getConnectedActiveSynapseCount(activeSynapseSegments, 0);
+            if(numActiveSyns >= maxSynapses) {
+                maxSynapses = numActiveSyns;
                 bestSegment = dd;
             }
         }
         return bestSegment;
     }
     
+    /**
+     * Destroys the segment of the specified cell which was the least recently
+     * active or learning. Ties are broken in favor of destroying the segment 
+     * with the fewest synapses, then the oldest one.
+     * 
+     * @param c         encapsulated memory and state
+     * @param cell      the {@link Cell} whose segment is destroyed
+     */
+    protected void destroyLeastRecentlyUsedSegment(Connections c, Cell cell) {
+        cell.destroyLeastRecentlyUsedSegment(c);
+    }
+    
     /**
      * Returns the column index given the cells per column and
      * the cell index passed in.
@@ -434,4 +691,160 @@ public class TemporalMemory {
     public LinkedHashSet<Column> getColumns(Connections c, int[] columnIndexes) {
     	return c.getColumnSet(columnIndexes);
     }
- }
+     
+    /**
+     * Searches the best matching cells of a range of bursting columns,
+     * splitting it in halves until it is small enough to be searched
+     * sequentially.
+     */
+    private class BestMatchTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private static final int GRAIN = 4;
+        
+        private final Connections c;
+        private final Column[] columns;
+        private final Map<DistalDendrite, Set<Synapse>> prevActiveSynapsesForSegment;
+        private final DistalDendrite[] bestSegments;
+        private final Cell[] bestCells;
+        private final int start;
+        private final int end;
+        
+        BestMatchTask(Connections c, Column[] columns, Map<DistalDendrite, Set<Synapse>> prevActiveSynapsesForSegment,
+            DistalDendrite[] bestSegments, Cell[] bestCells, int start, int end) {
+            this.c = c;
+            this.columns = columns;
+            this.prevActiveSynapsesForSegment = prevActiveSynapsesForSegment;
+            this.bestSegments = bestSegments;
+            this.bestCells = bestCells;
+            this.start = start;
+            this.end = end;
+        }
+        
+        @Override
+        protected void compute() {
+            if(end - start <= GRAIN) {
+                for(int i = start;i < end;i++) {
+                    findBestMatch(c, columns[i], prevActiveSynapsesForSegment, bestSegments, bestCells, i);
+                }
+                return;
+            }
+            int mid = (start + end) >>> 1;
+            invokeAll(
+                new BestMatchTask(c, columns, prevActiveSynapsesForSegment, bestSegments, bestCells, start, mid),
+                new BestMatchTask(c, columns, prevActiveSynapsesForSegment, bestSegments, bestCells, mid, end));
+        }
+    }
+    
+    /**
+     * The learning of one column partition, or of all segments when learning is
+     * sequential. The synapses picked for the learning segments are recorded by 
+     * {@link #run()}, which may run concurrently with other partitions, and only 
+     * grown by {@link #grow()}, so that their indexes don't depend on the scheduling.
+     */
+    private class LearnTask {
+        private final Connections c;
+        private final List<DistalDendrite> segments;
+        private final Set<DistalDendrite> learningSegments;
+        private final Map<DistalDendrite, Set<Synapse>> prevActiveSynapseSegments;
+        private final Set<Cell> winnerCells;
+        private final Set<Cell> prevWinnerCells;
+        private final Random random;
+        /** The segments to grow synapses on, paired with the source cells of the synapses */
+        private final List<DistalDendrite> growSegments = new ArrayList<DistalDendrite>();
+        private final List<Cell> growCells = new ArrayList<Cell>();
+        
+        LearnTask(Connections c, List<DistalDendrite> segments, Set<DistalDendrite> learningSegments,
+            Map<DistalDendrite, Set<Synapse>> prevActiveSynapseSegments, Set<Cell> winnerCells, Set<Cell> prevWinnerCells, 
+                Random random) {
+            this.c = c;
+            this.segments = segments;
+            this.learningSegments = learningSegments;
+            this.prevActiveSynapseSegments = prevActiveSynapseSegments;
+            this.winnerCells = winnerCells;
+            this.prevWinnerCells = prevWinnerCells;
+            this.random = random;
+        }
+        
+        /**
+         * Adapts the segments in order, and picks the winner cells to grow 
+         * synapses from with this task's random generator. Learning segments
+         * belong to bursting columns, whose segments weren't active, so each
+         * segment is listed once and growing its synapses later changes nothing.
+         */
+        void run() {
+            double permanenceIncrement = c.getPermanenceIncrement();
+            double permanenceDecrement = c.getPermanenceDecrement();
+            
+            for(DistalDendrite dd : segments) {
+                // Segments evicted while bursting columns in this cycle
+                if(dd.isDestroyed()) continue;
+                
+                boolean isLearningSegment = learningSegments.contains(dd);
+                boolean isFromWinnerCell = winnerCells.contains(dd.getParentCell());
+                
+                Set<Synapse> activeSynapses = new LinkedHashSet<Synapse>(dd.getConnectedActiveSynapses(prevActiveSynapseSegments, 0));
+                
+                if(isLearningSegment || isFromWinnerCell) {
+                    dd.adaptSegment(c, activeSynapses, permanenceIncrement, permanenceDecrement);
+                    dd.setLastUsedIteration(c.getTmIterationNum());
+                }
+                
+                if(isLearningSegment) {
+                    int n = c.getMaxNewSynapseCount() - activeSynapses.size();
+                    Set<Cell> learnCells = dd.pickCellsToLearnOn(c, n, prevWinnerCells, random);
+                    int maxSynapses = c.getMaxSynapsesPerSegment();
+                    int overrun = c.getSynapses(dd).size() + learnCells.size() - maxSynapses;
+                    if(overrun > 0) {
+                        dd.destroyWeakestSynapses(c, overrun, activeSynapses);
+                    }
+                    int room = maxSynapses - c.getSynapses(dd).size();
+                    for(Cell sourceCell : learnCells) {
+                        if(room-- <= 0) break;
+                        growSegments.add(dd);
+                        growCells.add(sourceCell);
+                    }
+                }
+            }
+        }
+        
+        /**
+         * Grows the synapses picked by {@link #run()}, numbering them in order
+         */
+        void grow() {
+            double initialPermanence = c.getInitialPermanence();
+            for(int i = 0;i < growSegments.size();i++) {
+                growSegments.get(i).createSynapse(c, growCells.get(i), initialPermanence, c.nextSynapseIndex());
+            }
+        }
+    }
+    
+    /**
+     * Runs a range of partition learning tasks, splitting it in halves
+     * until a single partition remains.
+     */
+    private class LearnAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        
+        private final List<LearnTask> tasks;
+        private final int start;
+        private final int end;
+        
+        LearnAction(List<LearnTask> tasks, int start, int end) {
+            this.tasks = tasks;
+            this.start = start;
+            this.end = end;
+        }
+        
+        @Override
+        protected void compute() {
+            if(end - start <= 1) {
+                if(start < end) {
+                    tasks.get(start).run();
+                }
+                return;
+            }
+            int mid = (start + end) >>> 1;
+            invokeAll(new LearnAction(tasks, start, mid), new LearnAction(tasks, mid, end));
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+package org.numenta.nupic.research;
+
+import gnu.trove.list.array.TIntArrayList;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.numenta.nupic.Connections;
+
+/**
+ * Computes blocks of many small, independent {@link TemporalMemory} models
+ * (one {@link Connections} per model) on a fixed pool of worker threads.
+ * <p>
+ * Each model is bound to one worker for the lifetime of the batch, chosen from
+ * its identity, so that a model is always computed by the same thread. This keeps
+ * the model's state in that worker's caches, and guarantees that records of a
+ * model appearing several times in one block are computed in block order, never
+ * concurrently. Within a block each worker computes its models in block order.
+ * </p><p>
+ * Each worker owns one {@link SegmentActivity} which it lends to the models it
+ * computes, instead of every model holding its own counters sized by its number
+ * of segments.
+ * </p><p>
+ * Usage:
+ * <pre>
+ * TemporalMemoryBatch batch = new TemporalMemoryBatch(new TemporalMemory(), 8);
+ * ComputeCycle[] results = batch.compute(models, activeColumns, true);
+ * ...
+ * batch.close();
+ * </pre>
+ * The models must not be computed by other threads while a block is running.
+ * </p>
+ * 
+ * @author David Ray
+ */
+public class TemporalMemoryBatch implements Closeable {
+    private final TemporalMemory tm;
+    private final ExecutorService[] workers;
+    private final SegmentActivity[] scratch;
+    
+    /**
+     * Constructs a new {@code TemporalMemoryBatch} running one worker
+     * per available processor.
+     * 
+     * @param tm    the {@link TemporalMemory} computing every model
+     */
+    public TemporalMemoryBatch(TemporalMemory tm) {
+        this(tm, Runtime.getRuntime().availableProcessors());
+    }
+    
+    /**
+     * Constructs a new {@code TemporalMemoryBatch}
+     * 
+     * @param tm            the {@link TemporalMemory} computing every model
+     * @param numWorkers    the number of worker threads
+     */
+    public TemporalMemoryBatch(TemporalMemory tm, int numWorkers) {
+        if(numWorkers < 1) {
+            throw new IllegalArgumentException("At least one worker is needed: " + numWorkers);
+        }
+        this.tm = tm;
+        workers = new ExecutorService[numWorkers];
+        scratch = new SegmentActivity[numWorkers];
+        for(int i = 0;i < numWorkers;i++) {
+            final String name = "tm-batch-" + i;
+            workers[i] = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, name);
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            scratch[i] = new SegmentActivity();
+        }
+    }
+    
+    /**
+     * Feeds each model the active columns of its record and returns the results,
+     * the i'th result belonging to the i'th model.
+     * 
+     * @param models            the {@link Connections} of each model, which may repeat
+     * @param activeColumns     the active columns fed to each model
+     * @param learn             whether the models learn
+     * @return  the {@link ComputeCycle} of each (model, activeColumns) pair
+     */
+    public ComputeCycle[] compute(Connections[] models, int[][] activeColumns, boolean learn) {
+        if(models.length != activeColumns.length) {
+            throw new IllegalArgumentException("Got " + models.length + " models for " + activeColumns.length + " inputs");
+        }
+        
+        TIntArrayList[] assignments = new TIntArrayList[workers.length];
+        for(int i = 0;i < models.length;i++) {
+            int worker = workerFor(models[i]);
+            if(assignments[worker] == null) {
+                assignments[worker] = new TIntArrayList();
+            }
+            assignments[worker].add(i);
+        }
+        
+        ComputeCycle[] results = new ComputeCycle[models.length];
+        List<Future<?>> pending = new ArrayList<Future<?>>(workers.length);
+        for(int w = 0;w < workers.length;w++) {
+            if(assignments[w] == null) continue;
+            pending.add(workers[w].submit(new Block(models, activeColumns, learn, assignments[w], scratch[w], results)));
+        }
+        
+        try {
+            for(Future<?> future : pending) {
+                future.get();
+            }
+        }catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while computing a block", e);
+        }catch(ExecutionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+        
+        return results;
+    }
+    
+    /**
+     * Returns the index of the worker computing the specified model
+     * 
+     * @param model     the model's {@link Connections}
+     * @return  the worker's index
+     */
+    public int workerFor(Connections model) {
+        return (System.identityHashCode(model) & Integer.MAX_VALUE) % workers.length;
+    }
+    
+    /**
+     * Returns the number of worker threads
+     * @return
+     */
+    public int getNumWorkers() {
+        return workers.length;
+    }
+    
+    /**
+     * Stops the worker threads once the running blocks are computed.
+     */
+    @Override
+    public void close() {
+        for(ExecutorService worker : workers) {
+            worker.shutdown();
+        }
+    }
+    
+    /**
+     * The models of one block assigned to one worker
+     */
+    private class Block implements Callable<Void> {
+        private final Connections[] models;
+        private final int[][] activeColumns;
+        private final boolean learn;
+        private final TIntArrayList indexes;
+        private final SegmentActivity activity;
+        private final ComputeCycle[] results;
+        
+        Block(Connections[] models, int[][] activeColumns, boolean learn, TIntArrayList indexes, 
+            SegmentActivity activity, ComputeCycle[] results) {
+            this.models = models;
+            this.activeColumns = activeColumns;
+            this.learn = learn;
+            this.indexes = indexes;
+            this.activity = activity;
+            this.results = results;
+        }
+        
+        @Override
+        public Void call() {
+            for(int i = 0;i < indexes.size();i++) {
+                int index = indexes.getQuick(i);
+                Connections c = models[index];
+                c.setSegmentActivity(activity);
+                try {
+                    results[index] = tm.compute(c, activeColumns[index], learn);
+                }finally{
+                    c.setSegmentActivity(null);
+                }
+            }
+            return null;
+        }
+    }
+}
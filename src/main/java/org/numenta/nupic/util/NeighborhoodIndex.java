@@ -0,0 +1,139 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+package org.numenta.nupic.util;
+
+import java.util.Arrays;
+
+/**
+ * Immutable adjacency table holding the neighbors of every column for a
+ * given inhibition radius, stored as one flat array of neighbor indexes
+ * together with the offset at which each column's neighbors start
+ * (the neighbors of column i lie in [offsets[i], offsets[i + 1])).
+ * <p>
+ * The neighborhoods only depend on the column topology, the radius and the
+ * wrap around flag, so they can be computed once and shared by every
+ * inhibition and duty cycle update until the radius changes.
+ * </p>
+ *
+ * @author David Ray
+ */
+public class NeighborhoodIndex {
+    private final int radius;
+    private final boolean wrapAround;
+    private final int[] offsets;
+    private final int[] neighbors;
+
+    /**
+     * Constructs a new {@code NeighborhoodIndex}
+     *
+     * @param radius        the inhibition radius the neighborhoods were computed for
+     * @param wrapAround    whether the neighborhoods wrap around the topology's borders
+     * @param offsets       the start offset of each column's neighbors, followed by
+     *                      the total number of neighbors (length = numColumns + 1)
+     * @param neighbors     the concatenated neighbors of all columns
+     */
+    public NeighborhoodIndex(int radius, boolean wrapAround, int[] offsets, int[] neighbors) {
+        this.radius = radius;
+        this.wrapAround = wrapAround;
+        this.offsets = offsets;
+        this.neighbors = neighbors;
+    }
+
+    /**
+     * Returns the inhibition radius this index was computed for
+     * @return
+     */
+    public int getRadius() {
+        return radius;
+    }
+
+    /**
+     * Returns a flag indicating whether the neighborhoods wrap around
+     * the borders of the topology
+     * @return
+     */
+    public boolean isWrapAround() {
+        return wrapAround;
+    }
+
+    /**
+     * Returns the number of columns indexed
+     * @return
+     */
+    public int getNumColumns() {
+        return offsets.length - 1;
+    }
+
+    /**
+     * Returns the offset into {@link #getNeighbors()} of the first
+     * neighbor of the specified column.
+     *
+     * @param column    the column index
+     * @return
+     */
+    public int start(int column) {
+        return offsets[column];
+    }
+
+    /**
+     * Returns the offset into {@link #getNeighbors()} following the last
+     * neighbor of the specified column.
+     *
+     * @param column    the column index
+     * @return
+     */
+    public int end(int column) {
+        return offsets[column + 1];
+    }
+
+    /**
+     * Returns the number of neighbors of the specified column
+     *
+     * @param column    the column index
+     * @return
+     */
+    public int size(int column) {
+        return offsets[column + 1] - offsets[column];
+    }
+
+    /**
+     * Returns the flat array of all neighbors, to be read between
+     * {@link #start(int)} and {@link #end(int)}. The returned array
+     * must not be modified.
+     *
+     * @return
+     */
+    public int[] getNeighbors() {
+        return neighbors;
+    }
+
+    /**
+     * Returns a copy of the neighbors of the specified column
+     *
+     * @param column    the column index
+     * @return
+     */
+    public int[] getNeighbors(int column) {
+        return Arrays.copyOfRange(neighbors, offsets[column], offsets[column + 1]);
+    }
+}
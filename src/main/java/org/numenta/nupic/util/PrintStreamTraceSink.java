@@ -0,0 +1,75 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+package org.numenta.nupic.util;
+
+import java.io.PrintStream;
+
+/**
+ * {@link TraceSink} printing the messages and metrics up to
+ * a given level to a {@link PrintStream}.
+ * 
+ * @author David Ray
+ */
+public class PrintStreamTraceSink implements TraceSink {
+    private final PrintStream out;
+    private final int level;
+    
+    /**
+     * Constructs a new {@code PrintStreamTraceSink}
+     * 
+     * @param out       the stream to print to
+     * @param level     the highest level printed, such as a verbosity
+     */
+    public PrintStreamTraceSink(PrintStream out, int level) {
+        this.out = out;
+        this.level = level;
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isEnabled(int level) {
+        return level <= this.level;
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void trace(int level, String source, String message) {
+        if(isEnabled(level)) {
+            out.println(message);
+        }
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void metric(String source, String name, double value) {
+        if(isEnabled(SUMMARY)) {
+            out.println(source + " " + name + " = " + value);
+        }
+    }
+}
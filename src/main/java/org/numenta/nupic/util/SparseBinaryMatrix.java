@@ -32,11 +32,28 @@ import gnu.trove.map.hash.TIntIntHashMap;
 import java.lang.reflect.Array;
 import java.util.Arrays;
 
+/**
+ * Sparse binary matrix whose "on" bits are held per outer index (row) in
+ * compressed form: each row keeps the sorted offsets of its set bits within
+ * the row, and the count of set bits per row is maintained incrementally as
+ * bits are set and cleared. No dense backing array is allocated, so memory
+ * is proportional to the number of set bits rather than to the size of the
+ * matrix, and {@link #rightVecSumAtNZ(int[], int[])} only visits set bits.
+ * An inverted index from offset to rows is kept alongside, allowing
+ * {@link #rightVecSumAtNZSparse(int[], int[])} to work from sparse input.
+ * 
+ * @author David Ray
+ */
 @SuppressWarnings("rawtypes")
 public class SparseBinaryMatrix extends SparseMatrix {
     private TIntIntMap sparseMap = new TIntIntHashMap();
-    private TIntList trueCounts;
-    private Object backingArray;
+    /** Sorted offsets of the on bits within each row; null for empty rows */
+    private TIntArrayList[] rows;
+    /** Sorted rows having each offset set; the transpose of {@link #rows} */
+    private TIntArrayList[] inverted;
+    private int[] trueCounts;
+    /** Number of elements held by each row */
+    private int rowSize;
     
     public SparseBinaryMatrix(int[] dimensions) {
         this(dimensions, false);
@@ -44,65 +61,217 @@ public class SparseBinaryMatrix extends SparseMatrix {
     
     public SparseBinaryMatrix(int[] dimensions, boolean useColumnMajorOrdering) {
         super(dimensions, useColumnMajorOrdering);
-        this.backingArray = Array.newInstance(int.class, dimensions);
-        this.trueCounts = new TIntArrayList(dimensions[0]);
-        for(int i = 0;i < dimensions[0];i++) {
-        	trueCounts.add(0);
+        this.rows = new TIntArrayList[dimensions[0]];
+        this.trueCounts = new int[dimensions[0]];
+        this.rowSize = 1;
+        for(int i = 1;i < dimensions.length;i++) {
+            rowSize *= dimensions[i];
+        }
+        this.inverted = new TIntArrayList[rowSize];
+    }
+    
+    /**
+     * Returns the row major offset within its row of the element
+     * specified by the coordinates passed in.
+     * 
+     * @param coordinates   the full coordinates of an element
+     * @return  the offset within the row
+     */
+    private int rowOffset(int... coordinates) {
+        int offset = 0;
+        for(int i = 1;i < coordinates.length;i++) {
+            offset = offset * dimensions[i] + coordinates[i];
         }
+        return offset;
     }
     
     /**
-     * Called during mutation operations to simultaneously set the value
-     * on the backing array dynamically.
+     * Called during mutation operations to simultaneously update the
+     * compressed row holding the specified element, and its true count.
      * @param val
      * @param coordinates
      */
     private void back(int val, int... coordinates) {
-		ArrayUtils.setValue(this.backingArray, val, coordinates);
-        //update true counts
-        trueCounts.set(coordinates[0], ArrayUtils.aggregateArray(((Object[])this.backingArray)[coordinates[0]]));
-	}
+        back(val, coordinates[0], rowOffset(coordinates));
+    }
+    
+    private void back(int val, int row, int offset) {
+        TIntArrayList bits = rows[row];
+        int pos = bits == null ? -1 : bits.binarySearch(offset);
+        if(val != 0 && pos < 0) {
+            if(bits == null) {
+                bits = rows[row] = new TIntArrayList();
+            }
+            bits.insert(-(pos + 1), offset);
+            trueCounts[row]++;
+            
+            TIntArrayList column = inverted[offset];
+            if(column == null) {
+                column = inverted[offset] = new TIntArrayList();
+            }
+            column.insert(-(column.binarySearch(row) + 1), row);
+        }else if(val == 0 && pos >= 0) {
+            bits.removeAt(pos);
+            trueCounts[row]--;
+            
+            TIntArrayList column = inverted[offset];
+            column.removeAt(column.binarySearch(row));
+        }
+    }
     
     /**
      * Returns the slice specified by the passed in coordinates.
      * The array is returned as an object, therefore it is the caller's
      * responsibility to cast the array to the appropriate dimensions.
      * 
+     * Note: the returned array is a dense copy which is not backed
+     * by this matrix.
+     * 
      * @param coordinates	the coordinates which specify the returned array
      * @return	the array specified
      * @throws	IllegalArgumentException if the specified coordinates address
      * 			an actual value instead of the array holding it.
      */
-     public Object getSlice(int... coordinates) {
-		Object slice = backingArray;
-		for(int i = 0;i < coordinates.length;i++) {
-			Object s = Array.get(slice, coordinates[i]);
-			slice = s.getClass().isArray() ? s : s;
-		}
-		//Ensure return value is of type Array
-		if(!slice.getClass().isArray()) {
-			throw new IllegalArgumentException(
-				"This method only returns the array holding the specified index: " + 
-					Arrays.toString(coordinates));
-		}
-		
-		return slice;
-	}
+    public Object getSlice(int... coordinates) {
+        if(coordinates.length >= dimensions.length) {
+            throw new IllegalArgumentException(
+                "This method only returns the array holding the specified index: " + 
+                    Arrays.toString(coordinates));
+        }
+        
+        int[] sliceDims = Arrays.copyOfRange(dimensions, coordinates.length, dimensions.length);
+        Object slice = Array.newInstance(int.class, sliceDims);
+        
+        int first = coordinates.length == 0 ? 0 : coordinates[0];
+        int last = coordinates.length == 0 ? dimensions[0] - 1 : coordinates[0];
+        for(int row = first;row <= last;row++) {
+            TIntArrayList bits = rows[row];
+            if(bits == null) continue;
+            
+            //Offsets of the requested block within the row
+            int start = 0;
+            int blockSize = rowSize;
+            if(coordinates.length > 0) {
+                int[] padded = new int[dimensions.length];
+                System.arraycopy(coordinates, 0, padded, 0, coordinates.length);
+                start = rowOffset(padded);
+                blockSize = 1;
+                for(int d : sliceDims) blockSize *= d;
+            }
+            int pos = bits.binarySearch(start);
+            for(int i = pos < 0 ? -(pos + 1) : pos;i < bits.size() && bits.getQuick(i) < start + blockSize;i++) {
+                int[] coords = toCoordinates(row, bits.getQuick(i));
+                ArrayUtils.setValue(slice, 1, Arrays.copyOfRange(coords, coordinates.length, coords.length));
+            }
+        }
+        return slice;
+    }
+    
+    /**
+     * Converts an offset within the specified row to the 
+     * full coordinates of the element.
+     * 
+     * @param row       the outer index
+     * @param offset    the offset within the row
+     * @return  the element's coordinates
+     */
+    private int[] toCoordinates(int row, int offset) {
+        int[] coords = new int[dimensions.length];
+        coords[0] = row;
+        for(int i = coords.length - 1;i > 0;i--) {
+            coords[i] = offset % dimensions[i];
+            offset /= dimensions[i];
+        }
+        return coords;
+    }
     
     /**
      * Fills the specified results array with the result of the 
-     * matrix vector multiplication.
+     * matrix vector multiplication. Only the set bits of each
+     * row are visited.
      * 
      * @param inputVector		the right side vector
      * @param results			the results array
      */
     public void rightVecSumAtNZ(int[] inputVector, int[] results) {
-    	for(int i = 0;i < dimensions[0];i++) {
-    		int[] slice = (int[])(dimensions.length > 1 ? getSlice(i) : backingArray);
-    		for(int j = 0;j < slice.length;j++) {
-    			results[i] += (inputVector[j] * slice[j]);
-    		}
-    	}
+        if(dimensions.length == 1) {
+            int sum = 0;
+            for(int j = 0;j < dimensions[0];j++) {
+                // A cleared bit leaves an empty row behind
+                sum += rows[j] == null || rows[j].isEmpty() ? 0 : inputVector[j];
+            }
+            for(int i = 0;i < results.length;i++) {
+                results[i] += sum;
+            }
+            return;
+        }
+        
+        for(int i = 0;i < dimensions[0];i++) {
+            TIntArrayList bits = rows[i];
+            if(bits == null) continue;
+            int sum = 0;
+            for(int j = 0;j < bits.size();j++) {
+                sum += inputVector[bits.getQuick(j)];
+            }
+            results[i] += sum;
+        }
+    }
+    
+    /**
+     * Fills the specified results array with the result of the matrix
+     * vector multiplication, where the right side vector is binary and
+     * given as the indexes of its on bits. Each on bit is looked up in 
+     * the inverted (offset to rows) index, so the cost of this operation
+     * scales with the number of on bits rather than with the size of the
+     * matrix.
+     * 
+     * @param onBits            the indexes of the on bits of the right side vector
+     * @param results           the results array
+     */
+    public void rightVecSumAtNZSparse(int[] onBits, int[] results) {
+        rightVecSumAtNZSparse(onBits, onBits.length, results);
+    }
+    
+    /**
+     * Same as {@link #rightVecSumAtNZSparse(int[], int[])} reading only the
+     * first {@code numOnBits} entries of {@code onBits}, which allows the 
+     * indexes to be held in a reused buffer.
+     * 
+     * @param onBits        buffer starting with the indexes of the active input bits
+     * @param numOnBits     the number of active input bits
+     * @param results       the array into which the sums are accumulated
+     */
+    public void rightVecSumAtNZSparse(int[] onBits, int numOnBits, int[] results) {
+        for(int i = 0;i < numOnBits;i++) {
+            TIntArrayList column = inverted[onBits[i]];
+            if(column == null) continue;
+            for(int j = 0;j < column.size();j++) {
+                results[column.getQuick(j)]++;
+            }
+        }
+    }
+    
+    /**
+     * Returns the sorted rows having the bit at the specified offset set,
+     * which for a two dimensional matrix are the rows set at the specified
+     * column.
+     * 
+     * @param offset    the offset within a row
+     * @return  the sorted indexes of the rows having the offset set
+     */
+    public int[] getColumnIndices(int offset) {
+        return inverted[offset] == null ? new int[0] : inverted[offset].toArray();
+    }
+    
+    /**
+     * Returns the sorted offsets of the set bits of the specified row,
+     * which for a two dimensional matrix are its set column indexes.
+     * 
+     * @param row   the outer index
+     * @return  the sorted offsets of the row's set bits
+     */
+    public int[] getRowIndices(int row) {
+        return rows[row] == null ? new int[0] : rows[row].toArray();
     }
     
     /**
@@ -130,6 +299,30 @@ public class SparseBinaryMatrix extends SparseMatrix {
         return this;
     }
     
+    /**
+     * Sets the bit at the specified offset within the specified row (first
+     * dimension) to the specified value. Equivalent to {@link #set(int, int...)}
+     * with the coordinates addressing that bit, but does not need the
+     * coordinates to be allocated. Setting a bit to zero clears it the same
+     * way {@link #clearStatistics(int)} does, so a row's bits may be updated
+     * one at a time rather than cleared and rebuilt.
+     * 
+     * @param row       the index along the first dimension
+     * @param offset    the flat index of the bit within the row
+     * @param value     the value to set
+     * @return this matrix
+     */
+    public SparseBinaryMatrix setBit(int row, int offset, int value) {
+        int index = isColumnMajor ? computeIndex(toCoordinates(row, offset)) : row * rowSize + offset;
+        if(value == 0) {
+            sparseMap.remove(index);
+        }else{
+            sparseMap.put(index, value);
+        }
+        back(value, row, offset);
+        return this;
+    }
+    
     /**
      * Sets the specified values at the specified indexes.
      * 
@@ -179,7 +372,7 @@ public class SparseBinaryMatrix extends SparseMatrix {
      * @return
      */
     public int getTrueCount(int index) {
-    	return trueCounts.get(index);
+    	return trueCounts[index];
     }
     
     /**
@@ -188,7 +381,7 @@ public class SparseBinaryMatrix extends SparseMatrix {
      * @param count
      */
     public void setTrueCount(int index, int count) {
-    	this.trueCounts.set(index, count);
+    	this.trueCounts[index] = count;
     }
     
     /**
@@ -196,18 +389,26 @@ public class SparseBinaryMatrix extends SparseMatrix {
      * @return
      */
     public int[] getTrueCounts() {
-    	return trueCounts.toArray();
+    	return Arrays.copyOf(trueCounts, trueCounts.length);
     }
     
     /**
-     * Clears the true counts prior to a cycle where they're
-     * being set
+     * Clears the set bits and true count of the specified row
+     * prior to a cycle where they're being set
      */
     public void clearStatistics(int row) {
-    	int[] slice = (int[])Array.get(backingArray, row);
-    	Arrays.fill(slice, 0);
-		trueCounts.set(row, 0);
-		sparseMap.put(row, 0);
+        TIntArrayList bits = rows[row];
+        if(bits != null) {
+            int base = row * rowSize;
+            for(int i = 0;i < bits.size();i++) {
+                int offset = bits.getQuick(i);
+                sparseMap.remove(isColumnMajor ? 
+                    computeIndex(toCoordinates(row, offset)) : base + offset);
+                inverted[offset].removeAt(inverted[offset].binarySearch(row));
+            }
+            bits.resetQuick();
+        }
+        trueCounts[row] = 0;
     }
     
     /**
@@ -0,0 +1,141 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+package org.numenta.nupic.util;
+
+import java.util.Arrays;
+
+/**
+ * Selects the indexes of the k greatest values of a double array in expected
+ * linear time using quickselect over a reusable index buffer, without
+ * modifying the values themselves.
+ * <p>
+ * Ties are broken in favor of the lower index, so the selection is
+ * deterministic and equals the first k entries of the indexes stably
+ * sorted by decreasing value.
+ * </p><p>
+ * Instances hold their scratch buffer and are therefore not thread safe.
+ * </p>
+ *
+ * @author David Ray
+ */
+public class TopKSelector {
+    private int[] indexes = new int[0];
+
+    /**
+     * Returns the indexes of the {@code k} greatest entries of {@code values},
+     * sorted in ascending index order.
+     *
+     * @param values    the values to select from; left unchanged
+     * @param k         the number of indexes to select
+     * @return  a new array holding the selected indexes
+     */
+    public int[] select(double[] values, int k) {
+        k = Math.max(0, Math.min(k, values.length));
+        int[] retVal = new int[k];
+        select(values, k, retVal);
+        return retVal;
+    }
+
+    /**
+     * Writes the indexes of the {@code k} greatest entries of {@code values}
+     * into the first {@code k} slots of {@code out}, in ascending index order.
+     *
+     * @param values    the values to select from; left unchanged
+     * @param k         the number of indexes to select, at most values.length
+     * @param out       the array receiving the indexes
+     * @return  the number of indexes written
+     */
+    public int select(double[] values, int k, int[] out) {
+        int n = values.length;
+        k = Math.max(0, Math.min(k, n));
+        if(indexes.length < n) {
+            indexes = new int[n];
+        }
+        for(int i = 0;i < n;i++) {
+            indexes[i] = i;
+        }
+
+        if(k < n) {
+            int left = 0;
+            int right = n - 1;
+            while(left < right) {
+                int pivot = partition(values, left, right, medianOfThree(values, left, (left + right) >>> 1, right));
+                if(pivot == k) break;
+                if(pivot < k) {
+                    left = pivot + 1;
+                }else{
+                    right = pivot - 1;
+                }
+            }
+        }
+
+        System.arraycopy(indexes, 0, out, 0, k);
+        Arrays.sort(out, 0, k);
+        return k;
+    }
+
+    /**
+     * Returns true if the entry at index a ranks before the one at index b,
+     * i.e. has a greater value or an equal value and a lower index.
+     */
+    private static boolean before(double[] values, int a, int b) {
+        return values[a] > values[b] || (values[a] == values[b] && a < b);
+    }
+
+    /**
+     * Returns the position among left, mid and right holding the median
+     * of the three referenced entries.
+     */
+    private int medianOfThree(double[] values, int left, int mid, int right) {
+        int a = indexes[left], b = indexes[mid], c = indexes[right];
+        if(before(values, a, b)) {
+            if(before(values, b, c)) return mid;
+            return before(values, a, c) ? right : left;
+        }
+        if(before(values, a, c)) return left;
+        return before(values, b, c) ? right : mid;
+    }
+
+    /**
+     * Moves the entries ranking before the pivot to its left and returns
+     * the pivot's final position.
+     */
+    private int partition(double[] values, int left, int right, int pivotPos) {
+        int pivot = indexes[pivotPos];
+        swap(pivotPos, right);
+        int store = left;
+        for(int i = left;i < right;i++) {
+            if(before(values, indexes[i], pivot)) {
+                swap(i, store++);
+            }
+        }
+        swap(store, right);
+        return store;
+    }
+
+    private void swap(int i, int j) {
+        int tmp = indexes[i];
+        indexes[i] = indexes[j];
+        indexes[j] = tmp;
+    }
+}
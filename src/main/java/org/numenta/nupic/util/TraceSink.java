@@ -0,0 +1,80 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+package org.numenta.nupic.util;
+
+/**
+ * Receives the diagnostic messages and metrics of the algorithms, in place of
+ * printing them to the console. Messages carry a level, 1 for a summary of each
+ * compute cycle and 2 and above for increasingly detailed output, and callers
+ * first ask {@link #isEnabled(int)} so that no message is even formatted when
+ * its level is disabled. {@link #DISABLED} makes tracing cost a single check
+ * per call site.
+ * 
+ * @author David Ray
+ * @see PrintStreamTraceSink
+ */
+public interface TraceSink {
+    /** Level of the per cycle summary messages and metrics */
+    public static final int SUMMARY = 1;
+    /** Level of the detailed messages */
+    public static final int DETAIL = 2;
+    
+    /** Sink discarding everything */
+    public static final TraceSink DISABLED = new Adapter();
+    
+    /**
+     * Convenience adapter, disabled at all levels, for sinks
+     * overriding only some of the methods.
+     */
+    public class Adapter implements TraceSink {
+        public boolean isEnabled(int level) { return false; }
+        public void trace(int level, String source, String message) {}
+        public void metric(String source, String name, double value) {}
+    }
+    
+    /**
+     * Returns a flag indicating whether messages of the specified level are recorded
+     * 
+     * @param level     the message level
+     * @return  true if messages of this level should be sent
+     */
+    public boolean isEnabled(int level);
+    
+    /**
+     * Records a message
+     * 
+     * @param level     the message level
+     * @param source    the name of the emitting algorithm
+     * @param message   the message
+     */
+    public void trace(int level, String source, String message);
+    
+    /**
+     * Records the value of a metric, sent at the {@link #SUMMARY} level
+     * 
+     * @param source    the name of the emitting algorithm
+     * @param name      the name of the metric
+     * @param value     its value for the current cycle
+     */
+    public void metric(String source, String name, double value);
+}
@@ -0,0 +1,201 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+package org.numenta.nupic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import org.numenta.nupic.Parameters.KEY;
+import org.numenta.nupic.model.Cell;
+import org.numenta.nupic.model.DistalDendrite;
+import org.numenta.nupic.model.DistalSynapseStore;
+import org.numenta.nupic.model.Synapse;
+import org.numenta.nupic.research.ComputeCycle;
+import org.numenta.nupic.research.TemporalMemory;
+import org.numenta.nupic.util.MersenneTwister;
+
+public class ConcurrentConnectionsTest {
+    private static final int NUM_COLUMNS = 256;
+    
+    private TemporalMemory tm = new TemporalMemory();
+    
+    private <T extends Connections> T init(T c) {
+        Parameters p = Parameters.getAllDefaultParameters();
+        p.setParameterByKey(KEY.COLUMN_DIMENSIONS, new int[] { NUM_COLUMNS });
+        p.setParameterByKey(KEY.CELLS_PER_COLUMN, 4);
+        p.setParameterByKey(KEY.INITIAL_PERMANENCE, 0.3);
+        p.setParameterByKey(KEY.CONNECTED_PERMANENCE, 0.5);
+        p.setParameterByKey(KEY.MIN_THRESHOLD, 2);
+        p.setParameterByKey(KEY.MAX_NEW_SYNAPSE_COUNT, 8);
+        p.setParameterByKey(KEY.PERMANENCE_INCREMENT, 0.1);
+        p.setParameterByKey(KEY.PERMANENCE_DECREMENT, 0.05);
+        p.setParameterByKey(KEY.ACTIVATION_THRESHOLD, 3);
+        p.apply(c);
+        c.setRandom(new MersenneTwister(42));
+        tm.init(c);
+        return c;
+    }
+    
+    /**
+     * Returns a sequence of patterns spread over all column partitions
+     */
+    private int[][] sequence() {
+        Random random = new Random(42);
+        int[][] sequence = new int[8][12];
+        for(int i = 0;i < sequence.length;i++) {
+            for(int j = 0;j < sequence[i].length;j++) {
+                sequence[i][j] = random.nextInt(NUM_COLUMNS);
+            }
+        }
+        return sequence;
+    }
+    
+    private void assertSameStructure(Connections expected, Connections actual) {
+        assertEquals(expected.getSegmentCount(), actual.getSegmentCount());
+        assertEquals(expected.getSynapseCount(), actual.getSynapseCount());
+        for(int i = 0;i < expected.getSegmentCount();i++) {
+            List<Synapse> expectedSynapses = expected.getSynapses(expected.getSegment(i));
+            List<Synapse> actualSynapses = actual.getSynapses(actual.getSegment(i));
+            assertEquals(expectedSynapses.size(), actualSynapses.size());
+            for(int j = 0;j < expectedSynapses.size();j++) {
+                assertEquals(expectedSynapses.get(j).getSourceCell().getIndex(), actualSynapses.get(j).getSourceCell().getIndex());
+                assertEquals(expectedSynapses.get(j).getIndex(), actualSynapses.get(j).getIndex());
+                assertEquals(expectedSynapses.get(j).getPermanence(), actualSynapses.get(j).getPermanence(), 0);
+            }
+        }
+    }
+    
+    @Test
+    public void testSequentialMatchesConnections() {
+        Connections plain = init(new Connections());
+        ConcurrentConnections concurrent = init(new ConcurrentConnections());
+        for(int pass = 0;pass < 5;pass++) {
+            for(int[] pattern : sequence()) {
+                ComputeCycle expected = tm.compute(plain, pattern, true);
+                ComputeCycle actual = tm.compute(concurrent, pattern, true);
+                assertEquals(plain.asCellIndexes(expected.predictiveCells()), concurrent.asCellIndexes(actual.predictiveCells()));
+            }
+        }
+        assertSameStructure(plain, concurrent);
+    }
+    
+    @Test
+    public void testParallelLearningIndependentOfThreads() {
+        ConcurrentConnections single = init(new ConcurrentConnections());
+        ConcurrentConnections parallel = init(new ConcurrentConnections());
+        ForkJoinPool one = new ForkJoinPool(1);
+        ForkJoinPool four = new ForkJoinPool(4);
+        single.setLearningPool(one);
+        parallel.setLearningPool(four);
+        
+        int numPredictions = 0;
+        for(int pass = 0;pass < 5;pass++) {
+            for(int[] pattern : sequence()) {
+                ComputeCycle expected = tm.compute(single, pattern, true);
+                ComputeCycle actual = tm.compute(parallel, pattern, true);
+                assertEquals(single.asCellIndexes(expected.predictiveCells()), parallel.asCellIndexes(actual.predictiveCells()));
+                numPredictions += actual.predictiveCells().size();
+            }
+        }
+        assertTrue(numPredictions > 0);
+        assertSameStructure(single, parallel);
+        
+        // Synapses are numbered without gaps, and added to receptors in the same order
+        int numSynapses = 0;
+        for(Cell cell : parallel.getCells()) {
+            List<Integer> expected = new ArrayList<Integer>();
+            for(Synapse s : single.getReceptorSynapses(single.getCell(cell.getIndex()))) {
+                expected.add(s.getIndex());
+            }
+            List<Integer> actual = new ArrayList<Integer>();
+            for(Synapse s : parallel.getReceptorSynapses(cell)) {
+                actual.add(s.getIndex());
+            }
+            assertEquals(expected, actual);
+            numSynapses += actual.size();
+        }
+        assertEquals(numSynapses, parallel.getSynapseCount());
+        
+        one.shutdown();
+        four.shutdown();
+    }
+    
+    @Test
+    public void testConcurrentGrowth() throws Exception {
+        final ConcurrentConnections c = init(new ConcurrentConnections());
+        final int numThreads = 4;
+        final int cellsPerThread = c.getCells().length / numThreads;
+        
+        // Each thread grows segments on its own cells, with synapses from the cells of all threads
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        List<Future<Void>> results = new ArrayList<Future<Void>>();
+        for(int t = 0;t < numThreads;t++) {
+            final int first = t * cellsPerThread;
+            results.add(executor.submit(new Callable<Void>() {
+                @Override public Void call() {
+                    Cell[] cells = c.getCells();
+                    for(int i = first;i < first + cellsPerThread;i++) {
+                        DistalDendrite dd = cells[i].createSegment(c, c.nextSegmentIndex());
+                        for(int j = 0;j < 4;j++) {
+                            Cell source = cells[(i + j * cellsPerThread + 1) % cells.length];
+                            dd.createSynapse(c, source, 0.3, c.nextSynapseIndex());
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+        for(Future<Void> result : results) {
+            result.get();
+        }
+        executor.shutdown();
+        
+        assertEquals(c.getCells().length, c.getSegmentCount());
+        assertEquals(c.getCells().length * 4, c.getSynapseCount());
+        int numReceptors = 0;
+        for(Cell cell : c.getCells()) {
+            numReceptors += cell.getReceptorSynapses(c).size();
+        }
+        assertEquals(c.getSynapseCount(), numReceptors);
+        for(int i = 0;i < c.getSegmentCount();i++) {
+            DistalDendrite dd = c.getSegment(i);
+            assertEquals(i, dd.getIndex());
+            assertEquals(4, c.getSynapses(dd).size());
+        }
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsDistalSynapseStore() {
+        new ConcurrentConnections().setDistalSynapseStore(new DistalSynapseStore());
+    }
+}
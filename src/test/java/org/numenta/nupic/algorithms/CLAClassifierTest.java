@@ -26,11 +26,16 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import gnu.trove.list.array.TIntArrayList;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 import org.junit.Test;
+import org.numenta.nupic.util.TraceSink;
 
 public class CLAClassifierTest {
 	private CLAClassifier classifier;
@@ -246,6 +251,137 @@ public class CLAClassifierTest {
 		assertEquals(0.87699877, result.getStat(1, 5), 0.00001);
 	}
 	
+	@Test
+	public void testBinarySerialization() {
+		classifier = new CLAClassifier(new TIntArrayList(new int[] { 1 }), 0.1, 0.1, 0);
+		int recordNum = 0;
+		Map<String, Object> classification = new LinkedHashMap<String, Object>();
+		classification.put("bucketIdx", 4);
+		classification.put("actValue", 34.7);
+		ClassifierResult<Double> result = classifier.compute(recordNum, classification, new int[] { 1, 5, 9 }, true, true);
+		recordNum += 1;
+		
+		classification.put("bucketIdx", 5);
+		classification.put("actValue", 41.7);
+		result = classifier.compute(recordNum, classification, new int[] { 0, 6, 9, 11 }, true, true);
+		recordNum += 1;
+		
+		classification.put("bucketIdx", 5);
+		classification.put("actValue", 44.9);
+		result = classifier.compute(recordNum, classification, new int[] { 6, 9 }, true, true);
+		recordNum += 1;
+		
+		classification.put("bucketIdx", 4);
+		classification.put("actValue", 42.9);
+		result = classifier.compute(recordNum, classification, new int[] { 1, 5, 9 }, true, true);
+		recordNum += 1;
+		
+		byte[] bytes = classifier.serializeBinary();
+		
+		//Using the deserialized classifier, continue test
+		CLAClassifier c = CLAClassifier.deSerializeBinary(bytes);
+		classification.put("bucketIdx", 4);
+		classification.put("actValue", 34.7);
+		result = c.compute(recordNum, classification, new int[] { 1, 5, 9 }, true, true);
+		ClassifierResult<Double> expected = classifier.compute(recordNum, classification, new int[] { 1, 5, 9 }, true, true);
+		recordNum += 1;
+		
+		assertTrue(Arrays.equals(new int[] { 1 }, result.stepSet()));
+		assertEquals(35.520000457763672, result.getActualValue(4), 0.00001);
+		assertEquals(42.020000457763672, result.getActualValue(5), 0.00001);
+		assertEquals(6, result.getStatCount(1));
+		assertEquals(0.12300123, result.getStat(1, 4), 0.00001);
+		assertEquals(0.87699877, result.getStat(1, 5), 0.00001);
+		for(int i = 0;i < 6;i++) {
+			assertEquals(expected.getStat(1, i), result.getStat(1, i), 0);
+		}
+		
+		// Category values and empty histories
+		CLAClassifier categories = new CLAClassifier(new TIntArrayList(new int[] { 0, 2 }), 0.1, 0.1, 0);
+		classification.put("bucketIdx", 1);
+		classification.put("actValue", "B");
+		categories.compute(0, classification, new int[] { 3, 4 }, true, true);
+		CLAClassifier restored = CLAClassifier.deSerializeBinary(categories.serializeBinary());
+		ClassifierResult<String> categoryResult = restored.compute(1, classification, new int[] { 3, 4 }, true, true);
+		assertEquals("B", categoryResult.getActualValue(1));
+		assertEquals(1.0, categoryResult.getStat(0, 1), 0.00001);
+		
+		assertEquals(null, CLAClassifier.deSerializeBinary(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 }));
+	}
+	
+	@Test
+	public void testBitHistoryKeys() {
+		long key = CLAClassifier.bitHistoryKey(70000, 5);
+		assertEquals(70000, CLAClassifier.keyBit(key));
+		assertEquals(5, CLAClassifier.keySteps(key));
+		assertTrue(key != CLAClassifier.bitHistoryKey(5, 70000));
+		
+		classifier = new CLAClassifier(new TIntArrayList(new int[] { 1, 2 }), 0.1, 0.1, 0);
+		Map<String, Object> classification = new LinkedHashMap<String, Object>();
+		classification.put("bucketIdx", 3);
+		classification.put("actValue", 10.0);
+		for(int recordNum = 0;recordNum < 3;recordNum++) {
+			classifier.compute(recordNum, classification, new int[] { 7, 300 }, true, true);
+		}
+		assertEquals(4, classifier.activeBitHistory.size());
+		BitHistory history = classifier.activeBitHistory.get(CLAClassifier.bitHistoryKey(300, 2));
+		assertEquals("300[2]", history.getId());
+		assertEquals(4, history.stats.length);
+	}
+	
+	@Test
+	public void testTraceSink() {
+		classifier = new CLAClassifier();
+		assertTrue(classifier.getTraceSink() == TraceSink.DISABLED);
+		
+		final List<String> messages = new ArrayList<String>();
+		classifier = new CLAClassifier(new TIntArrayList(new int[] { 1 }), 0.1, 0.1, 0);
+		classifier.setTraceSink(new TraceSink.Adapter() {
+			@Override public boolean isEnabled(int level) { return level <= TraceSink.DETAIL; }
+			@Override public void trace(int level, String source, String message) { messages.add(message); }
+		});
+		Map<String, Object> classification = new LinkedHashMap<String, Object>();
+		classification.put("bucketIdx", 2);
+		classification.put("actValue", 7.0);
+		classifier.compute(0, classification, new int[] { 1, 5 }, true, true);
+		classifier.compute(1, classification, new int[] { 1, 5 }, true, true);
+		
+		assertTrue(messages.contains(" recordNum: 1"));
+		boolean bestBucketTraced = false;
+		for(String message : messages) {
+			bestBucketTraced |= message.startsWith("   most likely bucket idx: ");
+		}
+		assertTrue(bestBucketTraced);
+		assertTrue(messages.contains("updated DC for 5[1],  bucket 2 to 0.100000"));
+	}
+	
+	@Test
+	public void testParallelInference() {
+		TIntArrayList steps = new TIntArrayList(new int[] { 1, 5, 10, 50, 100 });
+		CLAClassifier sequential = new CLAClassifier(steps, 0.1, 0.1, 0);
+		CLAClassifier parallel = new CLAClassifier(steps, 0.1, 0.1, 0);
+		ForkJoinPool pool = new ForkJoinPool(4);
+		parallel.setInferencePool(pool);
+		
+		Random random = new Random(42);
+		for(int recordNum = 0;recordNum < 300;recordNum++) {
+			int[] patternNZ = new int[20];
+			for(int i = 0;i < patternNZ.length;i++) {
+				patternNZ[i] = random.nextInt(200);
+			}
+			Map<String, Object> classification = new LinkedHashMap<String, Object>();
+			classification.put("bucketIdx", recordNum % 10);
+			classification.put("actValue", (double)(recordNum % 10));
+			
+			ClassifierResult<Double> expected = sequential.compute(recordNum, classification, patternNZ, true, true);
+			ClassifierResult<Double> actual = parallel.compute(recordNum, classification, patternNZ, true, true);
+			for(int nSteps : steps.toArray()) {
+				assertTrue(Arrays.equals(expected.getStats(nSteps), actual.getStats(nSteps)));
+			}
+		}
+		pool.shutdown();
+	}
+	
 	@Test
 	public void testOverlapPattern() {
 		setUp();
@@ -0,0 +1,81 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+package org.numenta.nupic.algorithms;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class PatternHistoryTest {
+
+	@Test
+	public void testAppendAndFind() {
+		PatternHistory history = new PatternHistory(3);
+		history.append(0, new int[] { 1, 5 });
+		history.append(1, new int[] { 2 });
+		history.append(2, new int[] { 3, 4, 6, 8 });
+		assertEquals(3, history.size());
+		
+		int slot = history.find(0);
+		assertEquals(2, history.getLength(slot));
+		assertEquals(5, history.getBit(slot, 1));
+		assertTrue(Arrays.equals(new int[] { 2 }, history.get(1)));
+		assertTrue(Arrays.equals(new int[] { 3, 4, 6, 8 }, history.get(2)));
+		
+		// Evicts iteration 0
+		history.append(3, new int[] { 7 });
+		assertEquals(-1, history.find(0));
+		assertEquals(3, history.size());
+		assertTrue(Arrays.equals(new int[] { 1, 2, 3 }, history.iterations()));
+		assertTrue(Arrays.equals(new int[] { 3, 4, 6, 8 }, history.get(2)));
+	}
+	
+	@Test
+	public void testMissingIterations() {
+		PatternHistory history = new PatternHistory(4);
+		history.append(0, new int[] { 1 });
+		history.append(2, new int[] { 2 });
+		history.append(7, new int[] { 3 });
+		assertTrue(Arrays.equals(new int[] { 0, 2, 7 }, history.iterations()));
+		
+		// Iteration 11 shares the slot of iteration 7
+		history.append(11, new int[] { 4 });
+		assertEquals(-1, history.find(7));
+		assertEquals(-1, history.find(1));
+		assertTrue(Arrays.equals(new int[] { 0, 2, 11 }, history.iterations()));
+	}
+	
+	@Test
+	public void testRepeatedIterationAgesOldest() {
+		PatternHistory history = new PatternHistory(2);
+		history.append(0, new int[] { 1 });
+		history.append(1, new int[] { 2 });
+		history.append(1, new int[] { 2 });
+		assertEquals(-1, history.find(0));
+		assertEquals(1, history.size());
+		assertTrue(Arrays.equals(new int[] { 2 }, history.get(1)));
+	}
+}
@@ -0,0 +1,238 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+package org.numenta.nupic.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.numenta.nupic.Connections;
+import org.numenta.nupic.Parameters;
+import org.numenta.nupic.Parameters.KEY;
+import org.numenta.nupic.research.ComputeCycle;
+import org.numenta.nupic.research.TemporalMemory;
+import org.numenta.nupic.util.MersenneTwister;
+
+public class DistalSynapseStoreTest {
+
+    @Test
+    public void testAddAndGrow() {
+        DistalSynapseStore store = new DistalSynapseStore();
+        for(int i = 0;i < 200;i++) {
+            assertEquals(i, store.add(i * 2, i / 4, 0.25, i));
+        }
+        assertEquals(200, store.size());
+        assertEquals(398, store.getSourceCell(199));
+        assertEquals(49, store.getSegment(199));
+        assertEquals(0.25, store.getPermanence(150), 0);
+
+        store.setPermanence(150, 0.75);
+        assertEquals(0.75, store.getPermanence(150), 0);
+    }
+
+    @Test
+    public void testRemoveReusesSlots() {
+        DistalSynapseStore store = new DistalSynapseStore();
+        for(int i = 0;i < 4;i++) {
+            store.add(i, 0, 0.5, i);
+        }
+        store.remove(1);
+        store.remove(3);
+        assertEquals(2, store.size());
+        assertEquals(4, store.getSlotCount());
+        
+        assertEquals(3, store.add(7, 1, 0.2, 4));
+        assertEquals(1, store.add(8, 1, 0.4, 5));
+        assertEquals(4, store.add(9, 1, 0.6, 6));
+        assertEquals(5, store.size());
+        assertEquals(8, store.getSourceCell(1));
+        assertEquals(1, store.getSegment(1));
+        assertEquals(0.4, store.getPermanence(1), 0);
+    }
+
+    @Test
+    public void testSegmentAndReceptorSlots() {
+        DistalSynapseStore store = new DistalSynapseStore();
+        store.add(5, 0, 0.1, 0);
+        store.add(6, 0, 0.2, 1);
+        store.add(5, 1, 0.3, 2);
+        store.add(7, 0, 0.4, 3);
+        assertEquals(3, store.getSynapseCount(0));
+        assertEquals(1, store.getSynapseCount(1));
+        assertEquals(0, store.getSynapseCount(2));
+        assertEquals(2, store.getReceptorCount(5));
+        assertEquals(2, store.getReceptorSlot(5, 1));
+        
+        store.remove(1);
+        assertEquals(2, store.getSynapseCount(0));
+        assertEquals(0, store.getSynapseSlot(0, 0));
+        assertEquals(3, store.getSynapseSlot(0, 1));
+        assertEquals(0, store.getReceptorCount(6));
+        
+        // The reused slot is appended to the lists of its new segment and cell
+        assertEquals(1, store.add(5, 1, 0.5, 4));
+        assertEquals(4, store.getIndex(1));
+        assertEquals(1, store.getSynapseSlot(1, 1));
+        assertEquals(1, store.getReceptorSlot(5, 2));
+    }
+
+    @Test
+    public void testFloatPermanences() {
+        DistalSynapseStore store = new DistalSynapseStore(true);
+        assertTrue(store.isFloatPermanences());
+        int slot = store.add(3, 0, 0.1, 0);
+        assertEquals(0.1, store.getPermanence(slot), 1e-7);
+        store.setPermanence(slot, 0.7);
+        assertEquals(0.7, store.getPermanence(slot), 1e-7);
+    }
+
+    @Test
+    public void testSynapseView() {
+        TemporalMemory tm = new TemporalMemory();
+        Connections cn = new Connections();
+        cn.setDistalSynapseStore(new DistalSynapseStore());
+        tm.init(cn);
+
+        DistalDendrite dd = cn.getCell(0).createSegment(cn, 0);
+        Synapse s = dd.createSynapse(cn, cn.getCell(23), 0.6, 0);
+        assertEquals(0.6, s.getPermanence(), 0);
+        assertEquals(23, s.getInputIndex());
+        assertTrue(cn.getCell(23).getReceptorSynapses(cn).contains(s));
+        assertTrue(dd.getAllSynapses(cn).contains(s));
+
+        s.setPermanence(cn, 0.2);
+        assertEquals(0.2, cn.getDistalSynapseStore().getPermanence(0), 0);
+        assertEquals(23, cn.getDistalSynapseStore().getSourceCell(0));
+        assertEquals(0, cn.getDistalSynapseStore().getSegment(0));
+        
+        // Synapses are transient views onto their slots
+        Synapse view = cn.getSynapses(dd).get(0);
+        assertTrue(view != s);
+        assertEquals(s, view);
+        assertEquals(s.hashCode(), view.hashCode());
+        assertEquals(0.2, view.getPermanence(), 0);
+        assertEquals(dd, view.getSegment());
+        
+        dd.destroySynapse(cn, s);
+        assertTrue(cn.getSynapses(dd).isEmpty());
+        assertTrue(cn.getCell(23).getReceptorSynapses(cn).isEmpty());
+        
+        // A view of a destroyed synapse doesn't match the synapse reusing its slot
+        Synapse reused = dd.createSynapse(cn, cn.getCell(23), 0.4, 1);
+        assertTrue(!reused.equals(s));
+        assertTrue(!cn.getCell(23).getReceptorSynapses(cn).contains(s));
+        assertTrue(cn.getCell(23).getReceptorSynapses(cn).contains(reused));
+    }
+
+    /**
+     * The store must not alter the behavior of the {@link TemporalMemory}
+     */
+    @Test
+    public void testTemporalMemoryEquivalence() {
+        int[][] sequence = { { 0, 5, 9 }, { 12, 17, 20 }, { 3, 25, 31 }, { 7, 14, 28 } };
+        assertEquivalence(parameters(), sequence);
+    }
+
+    /**
+     * Destroying synapses and segments releases slots which are reused
+     */
+    @Test
+    public void testTemporalMemoryEquivalenceWithLimits() {
+        Parameters p = parameters();
+        p.setParameterByKey(KEY.MAX_SEGMENTS_PER_CELL, 1);
+        p.setParameterByKey(KEY.MAX_SYNAPSES_PER_SEGMENT, 3);
+        p.setParameterByKey(KEY.PERMANENCE_DECREMENT, 0.3);
+        p.setParameterByKey(KEY.PRUNE_ZERO_PERMANENCE_SYNAPSES, true);
+        Random random = new Random(42);
+        int[][] sequence = new int[12][6];
+        for(int[] pattern : sequence) {
+            for(int i = 0;i < pattern.length;i++) {
+                pattern[i] = random.nextInt(32);
+            }
+        }
+        Connections flat = assertEquivalence(p, sequence);
+        
+        DistalSynapseStore store = flat.getDistalSynapseStore();
+        assertTrue(store.getSlotCount() < flat.getSynapseCount());
+    }
+
+    private Parameters parameters() {
+        Parameters p = Parameters.getAllDefaultParameters();
+        p.setParameterByKey(KEY.COLUMN_DIMENSIONS, new int[] { 32 });
+        p.setParameterByKey(KEY.CELLS_PER_COLUMN, 4);
+        p.setParameterByKey(KEY.INITIAL_PERMANENCE, 0.3);
+        p.setParameterByKey(KEY.CONNECTED_PERMANENCE, 0.5);
+        p.setParameterByKey(KEY.MIN_THRESHOLD, 1);
+        p.setParameterByKey(KEY.MAX_NEW_SYNAPSE_COUNT, 6);
+        p.setParameterByKey(KEY.PERMANENCE_INCREMENT, 0.1);
+        p.setParameterByKey(KEY.PERMANENCE_DECREMENT, 0.05);
+        p.setParameterByKey(KEY.ACTIVATION_THRESHOLD, 1);
+        return p;
+    }
+
+    private Connections assertEquivalence(Parameters p, int[][] sequence) {
+        TemporalMemory tm = new TemporalMemory();
+        Connections pooled = new Connections();
+        p.apply(pooled);
+        pooled.setRandom(new MersenneTwister(42));
+        tm.init(pooled);
+
+        Connections flat = new Connections();
+        p.apply(flat);
+        flat.setRandom(new MersenneTwister(42));
+        flat.setDistalSynapseStore(new DistalSynapseStore());
+        tm.init(flat);
+
+        for(int pass = 0;pass < 6;pass++) {
+            for(int[] pattern : sequence) {
+                ComputeCycle expected = tm.compute(pooled, pattern, true);
+                ComputeCycle actual = tm.compute(flat, pattern, true);
+                assertEquals(pooled.asCellIndexes(expected.predictiveCells()), flat.asCellIndexes(actual.predictiveCells()));
+            }
+            tm.reset(pooled);
+            tm.reset(flat);
+        }
+
+        assertEquals(pooled.getSynapseCount(), flat.getSynapseCount());
+        assertTrue(flat.getDistalSynapseStore().size() > 0);
+        for(int i = 0;i < pooled.getSegmentCount();i++) {
+            assertEquals(pooled.getSegment(i) == null, flat.getSegment(i) == null);
+            if(pooled.getSegment(i) == null) continue;
+            
+            List<Synapse> expected = pooled.getSynapses(pooled.getSegment(i));
+            List<Synapse> actual = flat.getSynapses(flat.getSegment(i));
+            assertEquals(expected.size(), actual.size());
+            for(int j = 0;j < expected.size();j++) {
+                assertEquals(expected.get(j).getIndex(), actual.get(j).getIndex());
+                assertEquals(expected.get(j).getPermanence(), actual.get(j).getPermanence(), 0);
+            }
+        }
+        for(Cell cell : pooled.getCells()) {
+            assertEquals(cell.getReceptorSynapses(pooled).toString(), flat.getCell(cell.getIndex()).getReceptorSynapses(flat).toString());
+        }
+        return flat;
+    }
+}
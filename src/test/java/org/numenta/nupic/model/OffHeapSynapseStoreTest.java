@@ -0,0 +1,160 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+package org.numenta.nupic.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.numenta.nupic.Connections;
+import org.numenta.nupic.Parameters;
+import org.numenta.nupic.Parameters.KEY;
+import org.numenta.nupic.research.ComputeCycle;
+import org.numenta.nupic.research.TemporalMemory;
+import org.numenta.nupic.util.MersenneTwister;
+
+public class OffHeapSynapseStoreTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private void fillAndCheck(DistalSynapseStore store) {
+        for(int i = 0;i < 1000;i++) {
+            assertEquals(i, store.add(i * 3, i / 7, i / 1000.0, i));
+        }
+        assertEquals(1000, store.size());
+        for(int i = 0;i < 1000;i++) {
+            assertEquals(i * 3, store.getSourceCell(i));
+            assertEquals(i / 7, store.getSegment(i));
+            assertEquals(i / 1000.0, store.getPermanence(i), store.isFloatPermanences() ? 1e-7 : 0);
+        }
+        store.setPermanence(517, 0.25);
+        assertEquals(0.25, store.getPermanence(517), 0);
+        assertEquals(516 * 3, store.getSourceCell(516));
+        assertEquals(518 * 3, store.getSourceCell(518));
+    }
+
+    @Test
+    public void testDirectChunks() {
+        // 64 records per chunk to span several chunks
+        OffHeapSynapseStore store = new OffHeapSynapseStore(false, 6);
+        fillAndCheck(store);
+        assertEquals(16 * 20 * 64, store.getCapacityBytes());
+        assertTrue(!store.isMapped());
+    }
+
+    @Test
+    public void testFloatPermanences() {
+        OffHeapSynapseStore store = new OffHeapSynapseStore(true, 6);
+        fillAndCheck(store);
+        assertEquals(16 * 16 * 64, store.getCapacityBytes());
+    }
+
+    @Test
+    public void testMappedFile() throws IOException {
+        File file = folder.newFile("synapses.bin");
+        OffHeapSynapseStore store = new OffHeapSynapseStore(file.toPath(), false, 6);
+        try {
+            assertTrue(store.isMapped());
+            fillAndCheck(store);
+            assertEquals(store.getCapacityBytes(), file.length());
+        }finally{
+            store.close();
+        }
+    }
+
+    @Test
+    public void testChunkShiftRange() throws IOException {
+        // Nothing is allocated until the first record is added
+        new OffHeapSynapseStore(false, OffHeapSynapseStore.MAX_CHUNK_SHIFT);
+        new OffHeapSynapseStore(true, 0);
+        
+        File file = folder.newFile("synapses.bin");
+        for(int chunkShift : new int[] { -1, OffHeapSynapseStore.MAX_CHUNK_SHIFT + 1, 31 }) {
+            try {
+                new OffHeapSynapseStore(false, chunkShift);
+                fail();
+            }catch(IllegalArgumentException e) {}
+            try {
+                new OffHeapSynapseStore(file.toPath(), true, chunkShift);
+                fail();
+            }catch(IllegalArgumentException e) {}
+        }
+    }
+
+    /**
+     * The {@link TemporalMemory} must run unchanged against the off heap store
+     */
+    @Test
+    public void testTemporalMemoryEquivalence() {
+        Parameters p = Parameters.getAllDefaultParameters();
+        p.setParameterByKey(KEY.COLUMN_DIMENSIONS, new int[] { 32 });
+        p.setParameterByKey(KEY.CELLS_PER_COLUMN, 4);
+        p.setParameterByKey(KEY.INITIAL_PERMANENCE, 0.3);
+        p.setParameterByKey(KEY.CONNECTED_PERMANENCE, 0.5);
+        p.setParameterByKey(KEY.MIN_THRESHOLD, 1);
+        p.setParameterByKey(KEY.MAX_NEW_SYNAPSE_COUNT, 6);
+        p.setParameterByKey(KEY.PERMANENCE_INCREMENT, 0.1);
+        p.setParameterByKey(KEY.PERMANENCE_DECREMENT, 0.05);
+        p.setParameterByKey(KEY.ACTIVATION_THRESHOLD, 1);
+
+        TemporalMemory tm = new TemporalMemory();
+        Connections pooled = new Connections();
+        p.apply(pooled);
+        pooled.setRandom(new MersenneTwister(42));
+        tm.init(pooled);
+
+        Connections offHeap = new Connections();
+        p.apply(offHeap);
+        offHeap.setRandom(new MersenneTwister(42));
+        offHeap.setDistalSynapseStore(new OffHeapSynapseStore(false, 4));
+        tm.init(offHeap);
+
+        int[][] sequence = { { 0, 5, 9 }, { 12, 17, 20 }, { 3, 25, 31 }, { 7, 14, 28 } };
+        for(int pass = 0;pass < 6;pass++) {
+            for(int[] pattern : sequence) {
+                ComputeCycle expected = tm.compute(pooled, pattern, true);
+                ComputeCycle actual = tm.compute(offHeap, pattern, true);
+                assertEquals(pooled.asCellIndexes(expected.predictiveCells()), offHeap.asCellIndexes(actual.predictiveCells()));
+            }
+            tm.reset(pooled);
+            tm.reset(offHeap);
+        }
+
+        assertTrue(offHeap.getDistalSynapseStore().size() > 16);
+        for(int i = 0;i < pooled.getSegmentCount();i++) {
+            List<Synapse> expected = pooled.getSynapses(pooled.getSegment(i));
+            List<Synapse> actual = offHeap.getSynapses(offHeap.getSegment(i));
+            assertEquals(expected.size(), actual.size());
+            for(int j = 0;j < expected.size();j++) {
+                assertEquals(expected.get(j).getPermanence(), actual.get(j).getPermanence(), 0);
+            }
+        }
+    }
+}
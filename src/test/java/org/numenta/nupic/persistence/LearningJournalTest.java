@@ -0,0 +1,275 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+package org.numenta.nupic.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.numenta.nupic.persistence.PersistenceTestFixture.createInput;
+import static org.numenta.nupic.persistence.PersistenceTestFixture.createModel;
+import static org.numenta.nupic.persistence.PersistenceTestFixture.run;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.numenta.nupic.ConcurrentConnections;
+import org.numenta.nupic.Connections;
+import org.numenta.nupic.model.DistalDendrite;
+import org.numenta.nupic.model.DistalSynapseStore;
+import org.numenta.nupic.model.Synapse;
+
+public class LearningJournalTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    private void assertSameConnectivity(Connections expected, Connections actual) {
+        assertEquals(expected.getSegmentCount(), actual.getSegmentCount());
+        assertEquals(expected.getSynapseCount(), actual.getSynapseCount());
+        assertEquals(expected.getIterationNum(), actual.getIterationNum());
+        assertEquals(expected.getIterationLearnNum(), actual.getIterationLearnNum());
+        assertEquals(expected.getTmIterationNum(), actual.getTmIterationNum());
+        for(int i = 0;i < expected.getNumColumns();i++) {
+            assertTrue(Arrays.equals(expected.getPotentialPools().getObject(i).getDensePermanences(expected), 
+                actual.getPotentialPools().getObject(i).getDensePermanences(actual)));
+            assertEquals(expected.getConnectedCounts().getTrueCount(i), actual.getConnectedCounts().getTrueCount(i));
+        }
+        for(int i = 0;i < expected.getSegmentCount();i++) {
+            DistalDendrite dd = expected.getSegment(i);
+            if(dd == null) {
+                assertNull(actual.getSegment(i));
+                continue;
+            }
+            List<Synapse> e = expected.getSynapses(dd);
+            List<Synapse> a = actual.getSynapses(actual.getSegment(i));
+            assertEquals(dd.getParentCell().getIndex(), actual.getSegment(i).getParentCell().getIndex());
+            assertEquals(e.size(), a.size());
+            for(int j = 0;j < e.size();j++) {
+                assertEquals(e.get(j).getIndex(), a.get(j).getIndex());
+                assertEquals(e.get(j).getSourceCell().getIndex(), a.get(j).getSourceCell().getIndex());
+                assertEquals(e.get(j).getPermanence(), a.get(j).getPermanence(), 0);
+            }
+        }
+    }
+    
+    private List<String> listFiles(Path directory) {
+        List<String> names = new ArrayList<String>();
+        for(File file : directory.toFile().listFiles()) {
+            names.add(file.getName());
+        }
+        Collections.sort(names);
+        return names;
+    }
+    
+    @Test
+    public void testRecover() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        Connections c = createModel();
+        int[][] input = createInput(40, 8);
+        
+        LearningJournal journal = new LearningJournal(directory, c, 0, 0);
+        assertTrue(c.getLearningJournal() == journal);
+        for(int[] pattern : input) {
+            run(c, pattern);
+        }
+        journal.flush();
+        
+        Connections recovered = LearningJournal.recover(directory);
+        assertTrue(c.getSegmentCount() > 0);
+        assertSameConnectivity(c, recovered);
+        assertTrue(recovered.getActiveCells().isEmpty());
+        assertNull(recovered.getLearningJournal());
+        
+        journal.close();
+        assertNull(c.getLearningJournal());
+    }
+    
+    @Test
+    public void testRecoverWithPruningAndStore() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        Connections c = createModel();
+        c.setDistalSynapseStore(new DistalSynapseStore(true));
+        c.setMaxSegmentsPerCell(1);
+        c.setMaxSynapsesPerSegment(8);
+        c.setPruneZeroPermanenceSynapses(true);
+        
+        LearningJournal journal = new LearningJournal(directory, c, 0, 0);
+        for(int[] pattern : createInput(200, 200)) {
+            run(c, pattern);
+        }
+        journal.close();
+        
+        Connections recovered = LearningJournal.recover(directory);
+        int numDestroyed = 0;
+        for(int i = 0;i < c.getSegmentCount();i++) {
+            if(c.getSegment(i) == null) numDestroyed++;
+        }
+        assertTrue(numDestroyed > 0);
+        assertSameConnectivity(c, recovered);
+    }
+    
+    /**
+     * A model folded from a snapshot and compacted journals must 
+     * continue exactly as the journaled one
+     */
+    @Test
+    public void testCompact() throws Exception {
+        Path directory = folder.newFolder().toPath();
+        Connections c = createModel();
+        int[][] input = createInput(80, 8);
+        
+        LearningJournal journal = new LearningJournal(directory, c, 0, 0);
+        for(int i = 0;i < 20;i++) {
+            run(c, input[i]);
+        }
+        Path snapshot = journal.compact().get();
+        assertEquals("model-0000000001.snapshot", snapshot.getFileName().toString());
+        assertEquals(Arrays.asList("learning-0000000002.journal", "model-0000000001.snapshot"), listFiles(directory));
+        
+        for(int i = 20;i < 40;i++) {
+            run(c, input[i]);
+        }
+        journal.compact().get();
+        assertEquals(Arrays.asList("learning-0000000003.journal", "model-0000000002.snapshot"), listFiles(directory));
+        
+        Connections recovered = LearningJournal.recover(directory);
+        assertSameConnectivity(c, recovered);
+        assertTrue(Arrays.equals(c.getActiveDutyCycles(), recovered.getActiveDutyCycles()));
+        assertTrue(Arrays.equals(c.getBoostFactors(), recovered.getBoostFactors()));
+        assertEquals(c.asCellIndexes(c.getActiveCells()), recovered.asCellIndexes(recovered.getActiveCells()));
+        
+        int numPredictions = 0;
+        for(int i = 40;i < input.length;i++) {
+            List<Integer> predicted = run(c, input[i]);
+            assertEquals(predicted, run(recovered, input[i]));
+            numPredictions += predicted.size();
+        }
+        assertTrue(numPredictions > 0);
+        journal.close();
+        
+        // Reopening continues with the next journal
+        journal = new LearningJournal(directory, LearningJournal.recover(directory), 0, 0);
+        journal.close();
+        assertTrue(listFiles(directory).contains("learning-0000000004.journal"));
+    }
+    
+    /**
+     * Compactions only set the closed journal aside; learning continues into the
+     * next journal while the background thread rotates the files
+     */
+    @Test
+    public void testCompactWithoutWaiting() throws Exception {
+        Path directory = folder.newFolder().toPath();
+        Connections c = createModel();
+        int[][] input = createInput(60, 8);
+        
+        LearningJournal journal = new LearningJournal(directory, c, 0, 0);
+        List<Future<Path>> compactions = new ArrayList<Future<Path>>();
+        for(int i = 0;i < input.length;i++) {
+            run(c, input[i]);
+            if(i % 20 == 19) {
+                compactions.add(journal.compact());
+            }
+        }
+        for(Future<Path> compaction : compactions) {
+            compaction.get();
+        }
+        journal.close();
+        
+        assertEquals(Arrays.asList("learning-0000000004.journal", "model-0000000003.snapshot"), listFiles(directory));
+        assertSameConnectivity(c, LearningJournal.recover(directory));
+    }
+    
+    /**
+     * Segments adapted in parallel on the learning pool are journaled without
+     * changing what is learned
+     */
+    @Test
+    public void testRecoverParallelLearning() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        ConcurrentConnections c = new ConcurrentConnections();
+        ConcurrentConnections unjournaled = new ConcurrentConnections();
+        createModel(c, 512);
+        createModel(unjournaled, 512);
+        c.setLearningPool(pool);
+        unjournaled.setLearningPool(pool);
+        
+        LearningJournal journal = new LearningJournal(directory, c, 0, 0);
+        int numPredictions = 0;
+        for(int[] pattern : createInput(100, 8)) {
+            List<Integer> predicted = run(c, pattern);
+            assertEquals(run(unjournaled, pattern), predicted);
+            numPredictions += predicted.size();
+        }
+        journal.close();
+        pool.shutdown();
+        
+        assertTrue(numPredictions > 0);
+        assertSameConnectivity(unjournaled, c);
+        assertSameConnectivity(c, LearningJournal.recover(directory));
+    }
+    
+    @Test
+    public void testTornRecordIgnored() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        Connections c = createModel();
+        LearningJournal journal = new LearningJournal(directory, c, 0, 0);
+        for(int[] pattern : createInput(10, 8)) {
+            run(c, pattern);
+        }
+        journal.close();
+        
+        Path file = directory.resolve("learning-0000000001.journal");
+        Files.write(file, new byte[] { 20, 0, 0, 0, 3, 1, 0 }, StandardOpenOption.APPEND);
+        assertSameConnectivity(c, LearningJournal.recover(directory));
+    }
+    
+    @Test
+    public void testBackgroundFlush() throws Exception {
+        Path directory = folder.newFolder().toPath();
+        Connections c = createModel();
+        LearningJournal journal = new LearningJournal(directory, c, 10, 0);
+        for(int[] pattern : createInput(10, 8)) {
+            run(c, pattern);
+        }
+        
+        Path file = directory.resolve("learning-0000000001.journal");
+        for(int i = 0;i < 500 && Files.size(file) == 8;i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(Files.size(file) > 8);
+        journal.close();
+    }
+}
@@ -0,0 +1,248 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+
+package org.numenta.nupic.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.numenta.nupic.persistence.PersistenceTestFixture.createInput;
+import static org.numenta.nupic.persistence.PersistenceTestFixture.createModel;
+import static org.numenta.nupic.persistence.PersistenceTestFixture.run;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.numenta.nupic.Connections;
+import org.numenta.nupic.model.Cell;
+import org.numenta.nupic.model.DistalDendrite;
+import org.numenta.nupic.model.DistalSynapseStore;
+import org.numenta.nupic.model.OffHeapSynapseStore;
+import org.numenta.nupic.model.Synapse;
+import org.numenta.nupic.research.TemporalMemory;
+
+public class ModelSnapshotTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    private void assertSameModel(Connections expected, Connections actual) {
+        assertEquals(expected.getSegmentCount(), actual.getSegmentCount());
+        assertEquals(expected.getSynapseCount(), actual.getSynapseCount());
+        assertEquals(expected.getIterationNum(), actual.getIterationNum());
+        assertEquals(expected.getTmIterationNum(), actual.getTmIterationNum());
+        assertEquals(expected.getInhibitionRadius(), actual.getInhibitionRadius());
+        assertTrue(Arrays.equals(expected.getActiveDutyCycles(), actual.getActiveDutyCycles()));
+        assertTrue(Arrays.equals(expected.getBoostFactors(), actual.getBoostFactors()));
+        for(int i = 0;i < expected.getNumColumns();i++) {
+            assertTrue(Arrays.equals(expected.getPotentialPools().getObject(i).getPotentialIndexes(), 
+                actual.getPotentialPools().getObject(i).getPotentialIndexes()));
+            assertTrue(Arrays.equals(expected.getPotentialPools().getObject(i).getDensePermanences(expected), 
+                actual.getPotentialPools().getObject(i).getDensePermanences(actual)));
+            assertEquals(expected.getConnectedCounts().getTrueCount(i), actual.getConnectedCounts().getTrueCount(i));
+        }
+        for(int i = 0;i < expected.getSegmentCount();i++) {
+            DistalDendrite dd = expected.getSegment(i);
+            if(dd == null) {
+                assertNull(actual.getSegment(i));
+                continue;
+            }
+            List<Synapse> e = expected.getSynapses(dd);
+            List<Synapse> a = actual.getSynapses(actual.getSegment(i));
+            assertEquals(dd.getParentCell().getIndex(), actual.getSegment(i).getParentCell().getIndex());
+            assertEquals(e.size(), a.size());
+            for(int j = 0;j < e.size();j++) {
+                assertEquals(e.get(j).getSourceCell().getIndex(), a.get(j).getSourceCell().getIndex());
+                assertEquals(e.get(j).getPermanence(), a.get(j).getPermanence(), 0);
+            }
+        }
+        for(Cell cell : expected.getCells()) {
+            List<Integer> e = new ArrayList<Integer>();
+            for(Synapse s : expected.getReceptorSynapses(cell)) {
+                e.add(s.getIndex());
+            }
+            List<Integer> a = new ArrayList<Integer>();
+            for(Synapse s : actual.getReceptorSynapses(actual.getCell(cell.getIndex()))) {
+                a.add(s.getIndex());
+            }
+            assertEquals(e, a);
+        }
+        assertEquals(expected.asCellIndexes(expected.getActiveCells()), actual.asCellIndexes(actual.getActiveCells()));
+        assertEquals(expected.asCellIndexes(expected.getPredictiveCells()), actual.asCellIndexes(actual.getPredictiveCells()));
+    }
+    
+    /**
+     * A restored model must continue exactly as the saved one
+     */
+    private void checkRoundTrip(Connections c, int[][] input) throws IOException {
+        for(int i = 0;i < input.length / 2;i++) {
+            run(c, input[i]);
+        }
+        
+        File file = folder.newFile();
+        ModelSnapshot.save(c, file.toPath());
+        Connections restored = ModelSnapshot.load(file.toPath());
+        assertSameModel(c, restored);
+        
+        int numPredictions = 0;
+        for(int i = input.length / 2;i < input.length;i++) {
+            List<Integer> predicted = run(c, input[i]);
+            assertEquals(predicted, run(restored, input[i]));
+            numPredictions += predicted.size();
+        }
+        assertTrue(numPredictions > 0);
+        assertSameModel(c, restored);
+    }
+    
+    @Test
+    public void testRoundTrip() throws IOException {
+        checkRoundTrip(createModel(), createInput(60, 8));
+    }
+    
+    @Test
+    public void testRoundTripWithPruningAndStore() throws IOException {
+        Connections c = createModel();
+        c.setDistalSynapseStore(new DistalSynapseStore(true));
+        c.setMaxSegmentsPerCell(1);
+        c.setMaxSynapsesPerSegment(8);
+        c.setPruneZeroPermanenceSynapses(true);
+        checkRoundTrip(c, createInput(200, 200));
+        
+        Connections restored = ModelSnapshot.load(folder.getRoot().listFiles()[0].toPath());
+        assertTrue(restored.getDistalSynapseStore().isFloatPermanences());
+        assertEquals(1, restored.getMaxSegmentsPerCell());
+        // Indexes of evicted segments are reused: at most one segment per cell
+        // is alive, plus those of the 4 columns bursting in the last cycle
+        assertTrue(restored.getSegmentCount() <= restored.getCells().length + 4);
+    }
+    
+    /**
+     * A mapped model must behave as the saved one without modifying the file
+     */
+    private void checkMapped(Connections c, int[][] input) throws IOException {
+        for(int i = 0;i < input.length / 2;i++) {
+            run(c, input[i]);
+        }
+        
+        File file = folder.newFile();
+        ModelSnapshot.save(c, file.toPath());
+        byte[] saved = Files.readAllBytes(file.toPath());
+        // 8 synapses per chunk so that most of them are mapped rather than copied
+        Connections mapped = ModelSnapshot.map(file.toPath(), 3);
+        
+        OffHeapSynapseStore store = (OffHeapSynapseStore)mapped.getDistalSynapseStore();
+        assertTrue(store.isMapped());
+        assertEquals(c.getDistalSynapseStore() != null && c.getDistalSynapseStore().isFloatPermanences(), 
+            store.isFloatPermanences());
+        assertTrue(store.size() > 16);
+        assertSameModel(c, mapped);
+        
+        for(int i = input.length / 2;i < input.length;i++) {
+            assertEquals(run(c, input[i]), run(mapped, input[i]));
+        }
+        assertSameModel(c, mapped);
+        assertTrue(Arrays.equals(saved, Files.readAllBytes(file.toPath())));
+    }
+    
+    @Test
+    public void testMapped() throws IOException {
+        checkMapped(createModel(), createInput(60, 8));
+    }
+    
+    @Test
+    public void testMappedFloatPermanences() throws IOException {
+        Connections c = createModel();
+        c.setDistalSynapseStore(new DistalSynapseStore(true));
+        checkMapped(c, createInput(60, 8));
+    }
+    
+    @Test
+    public void testMappedWithPruning() throws IOException {
+        Connections c = createModel();
+        c.setDistalSynapseStore(new DistalSynapseStore(true));
+        c.setMaxSegmentsPerCell(1);
+        c.setMaxSynapsesPerSegment(8);
+        c.setPruneZeroPermanenceSynapses(true);
+        checkMapped(c, createInput(200, 200));
+    }
+    
+    @Test
+    public void testTemporalMemoryOnly() throws IOException {
+        Connections c = new Connections();
+        c.setColumnDimensions(new int[] { 32 });
+        c.setCellsPerColumn(4);
+        c.setMinThreshold(1);
+        c.setActivationThreshold(1);
+        TemporalMemory tm = new TemporalMemory();
+        tm.init(c);
+        tm.compute(c, new int[] { 0, 1, 2 }, true);
+        tm.compute(c, new int[] { 3, 4, 5 }, true);
+        
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ModelSnapshot.write(c, Channels.newChannel(bytes));
+        Connections restored = ModelSnapshot.read(Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray())));
+        
+        assertNull(restored.getPotentialPools());
+        assertEquals(c.getSegmentCount(), restored.getSegmentCount());
+        assertEquals(c.asCellIndexes(tm.compute(c, new int[] { 6, 7, 8 }, true).activeCells()),
+            restored.asCellIndexes(tm.compute(restored, new int[] { 6, 7, 8 }, true).activeCells()));
+    }
+    
+    @Test
+    public void testInvalidSnapshots() throws IOException {
+        try {
+            ModelSnapshot.read(Channels.newChannel(new ByteArrayInputStream(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 })));
+            fail();
+        }catch(IOException e) {
+            assertEquals("Not a model snapshot", e.getMessage());
+        }
+        
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ModelSnapshot.write(createModel(), Channels.newChannel(bytes));
+        byte[] truncated = Arrays.copyOf(bytes.toByteArray(), bytes.size() - 100);
+        try {
+            ModelSnapshot.read(Channels.newChannel(new ByteArrayInputStream(truncated)));
+            fail();
+        }catch(EOFException e) {
+            assertEquals("Unexpected end of snapshot", e.getMessage());
+        }
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testMappedChunkShiftTooLarge() throws IOException {
+        File file = folder.newFile();
+        ModelSnapshot.save(createModel(), file.toPath());
+        ModelSnapshot.map(file.toPath(), OffHeapSynapseStore.MAX_CHUNK_SHIFT + 1);
+    }
+}
@@ -0,0 +1,106 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+package org.numenta.nupic.persistence;
+
+import java.util.List;
+import java.util.Random;
+
+import org.numenta.nupic.Connections;
+import org.numenta.nupic.Parameters;
+import org.numenta.nupic.Parameters.KEY;
+import org.numenta.nupic.research.ComputeCycle;
+import org.numenta.nupic.research.SpatialPooler;
+import org.numenta.nupic.research.TemporalMemory;
+import org.numenta.nupic.util.ArrayUtils;
+import org.numenta.nupic.util.MersenneTwister;
+
+/**
+ * The model and input shared by the persistence tests.
+ *
+ * @author David Ray
+ */
+final class PersistenceTestFixture {
+    
+    private PersistenceTestFixture() {}
+    
+    static Connections createModel() {
+        return createModel(new Connections(), 64);
+    }
+    
+    /**
+     * Initializes the specified model with the specified number of columns, 
+     * a sixteenth of which are active in each cycle
+     */
+    static Connections createModel(Connections c, int numColumns) {
+        Parameters p = Parameters.getAllDefaultParameters();
+        p.setParameterByKey(KEY.INPUT_DIMENSIONS, new int[] { 64 });
+        p.setParameterByKey(KEY.COLUMN_DIMENSIONS, new int[] { numColumns });
+        p.setParameterByKey(KEY.POTENTIAL_RADIUS, 8);
+        p.setParameterByKey(KEY.GLOBAL_INHIBITIONS, true);
+        p.setParameterByKey(KEY.NUM_ACTIVE_COLUMNS_PER_INH_AREA, numColumns / 16.0);
+        p.setParameterByKey(KEY.SYN_PERM_TRIM_THRESHOLD, 0.05);
+        p.setParameterByKey(KEY.CELLS_PER_COLUMN, 4);
+        p.setParameterByKey(KEY.INITIAL_PERMANENCE, 0.3);
+        p.setParameterByKey(KEY.CONNECTED_PERMANENCE, 0.5);
+        p.setParameterByKey(KEY.MIN_THRESHOLD, 1);
+        p.setParameterByKey(KEY.MAX_NEW_SYNAPSE_COUNT, 6);
+        p.setParameterByKey(KEY.PERMANENCE_INCREMENT, 0.1);
+        p.setParameterByKey(KEY.PERMANENCE_DECREMENT, 0.05);
+        p.setParameterByKey(KEY.ACTIVATION_THRESHOLD, 1);
+        
+        p.apply(c);
+        c.setRandom(new MersenneTwister(42));
+        new SpatialPooler().init(c);
+        new TemporalMemory().init(c);
+        return c;
+    }
+    
+    /**
+     * Returns a sequence of random patterns repeated up to the specified length
+     */
+    static int[][] createInput(int numPatterns, int sequenceLength) {
+        Random random = new Random(42);
+        int[][] sequence = new int[sequenceLength][64];
+        for(int[] pattern : sequence) {
+            for(int j = 0;j < 16;j++) {
+                pattern[random.nextInt(64)] = 1;
+            }
+        }
+        int[][] input = new int[numPatterns][];
+        for(int i = 0;i < numPatterns;i++) {
+            input[i] = sequence[i % sequence.length];
+        }
+        return input;
+    }
+    
+    /**
+     * Runs one cycle of the spatial pooler followed by the temporal memory 
+     * and returns the indexes of the predictive cells.
+     */
+    static List<Integer> run(Connections c, int[] input) {
+        int[] activeArray = new int[c.getNumColumns()];
+        new SpatialPooler().compute(c, input, activeArray, true, false);
+        ComputeCycle cycle = new TemporalMemory().compute(c, ArrayUtils.where(activeArray, ArrayUtils.WHERE_1), true);
+        return c.asCellIndexes(cycle.predictiveCells());
+    }
+}
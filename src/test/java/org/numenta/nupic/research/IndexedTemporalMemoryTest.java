@@ -0,0 +1,275 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+package org.numenta.nupic.research;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+import org.numenta.nupic.Connections;
+import org.numenta.nupic.Parameters;
+import org.numenta.nupic.Parameters.KEY;
+import org.numenta.nupic.model.Cell;
+import org.numenta.nupic.model.DistalDendrite;
+import org.numenta.nupic.model.Synapse;
+import org.numenta.nupic.util.MersenneTwister;
+
+/**
+ * Verifies that the {@link IndexedTemporalMemory} produces exactly the
+ * same results as the {@link TemporalMemory}.
+ *
+ * @author David Ray
+ */
+public class IndexedTemporalMemoryTest {
+
+    private Parameters basicParameters() {
+        Parameters p = Parameters.getAllDefaultParameters();
+        p.setParameterByKey(KEY.COLUMN_DIMENSIONS, new int[] { 32 });
+        p.setParameterByKey(KEY.CELLS_PER_COLUMN, 4);
+        p.setParameterByKey(KEY.INITIAL_PERMANENCE, 0.3);
+        p.setParameterByKey(KEY.CONNECTED_PERMANENCE, 0.5);
+        p.setParameterByKey(KEY.MIN_THRESHOLD, 1);
+        p.setParameterByKey(KEY.MAX_NEW_SYNAPSE_COUNT, 6);
+        p.setParameterByKey(KEY.PERMANENCE_INCREMENT, 0.1);
+        p.setParameterByKey(KEY.PERMANENCE_DECREMENT, 0.05);
+        p.setParameterByKey(KEY.ACTIVATION_THRESHOLD, 1);
+        return p;
+    }
+
+    private Parameters extensiveParameters() {
+        Parameters p = Parameters.getAllDefaultParameters();
+        p.setParameterByKey(KEY.COLUMN_DIMENSIONS, new int[] { 100 });
+        p.setParameterByKey(KEY.CELLS_PER_COLUMN, 1);
+        p.setParameterByKey(KEY.INITIAL_PERMANENCE, 0.8);
+        p.setParameterByKey(KEY.CONNECTED_PERMANENCE, 0.7);
+        p.setParameterByKey(KEY.MIN_THRESHOLD, 11);
+        p.setParameterByKey(KEY.MAX_NEW_SYNAPSE_COUNT, 11);
+        p.setParameterByKey(KEY.PERMANENCE_INCREMENT, 0.4);
+        p.setParameterByKey(KEY.PERMANENCE_DECREMENT, 0.0);
+        p.setParameterByKey(KEY.ACTIVATION_THRESHOLD, 8);
+        return p;
+    }
+
+    /**
+     * Creates a list of patterns made of a few sequences, each of which
+     * is repeated several times. Null entries denote resets.
+     */
+    private List<int[]> createInput(int numColumns, int w, int seqLength, int numSequences, int repeats) {
+        Random random = new Random(42);
+        List<int[]> input = new ArrayList<int[]>();
+        for(int s = 0;s < numSequences;s++) {
+            List<int[]> sequence = new ArrayList<int[]>();
+            for(int i = 0;i < seqLength;i++) {
+                int[] pattern = new int[w];
+                for(int j = 0;j < w;j++) {
+                    pattern[j] = random.nextInt(numColumns);
+                }
+                sequence.add(pattern);
+            }
+            for(int r = 0;r < repeats;r++) {
+                input.addAll(sequence);
+                input.add(null);
+            }
+        }
+        return input;
+    }
+
+    private int[] toIndexes(Set<Cell> cells) {
+        int[] retVal = new int[cells.size()];
+        int i = 0;
+        for(Cell cell : cells) {
+            retVal[i++] = cell.getIndex();
+        }
+        return retVal;
+    }
+
+    private int[] segmentIndexes(Set<DistalDendrite> segments) {
+        int[] retVal = new int[segments.size()];
+        int i = 0;
+        for(DistalDendrite dd : segments) {
+            retVal[i++] = dd.getIndex();
+        }
+        return retVal;
+    }
+
+    private void assertSameState(Connections classic, Connections indexed) {
+        assertEquals(classic.getSegmentCount(), indexed.getSegmentCount());
+        assertEquals(classic.getSynapseCount(), indexed.getSynapseCount());
+        for(int i = 0;i < classic.getSegmentCount();i++) {
+            // Destroyed segments leave their index unused
+            assertEquals(classic.getSegment(i) == null, indexed.getSegment(i) == null);
+            if(classic.getSegment(i) == null) continue;
+
+            List<Synapse> expected = classic.getSynapses(classic.getSegment(i));
+            List<Synapse> actual = indexed.getSynapses(indexed.getSegment(i));
+            assertEquals(classic.getSegment(i).getParentCell().getIndex(), indexed.getSegment(i).getParentCell().getIndex());
+            assertEquals(expected.size(), actual.size());
+            for(int j = 0;j < expected.size();j++) {
+                assertEquals(expected.get(j).getSourceCell().getIndex(), actual.get(j).getSourceCell().getIndex());
+                assertEquals(expected.get(j).getPermanence(), actual.get(j).getPermanence(), 0);
+            }
+        }
+    }
+
+    private Connections runComparison(Parameters p, List<int[]> input, boolean learn) {
+        // Each Connections needs its own generator as Parameters hands out a shared instance
+        TemporalMemory tm = new TemporalMemory();
+        Connections classic = new Connections();
+        p.apply(classic);
+        classic.setRandom(new MersenneTwister(42));
+        tm.init(classic);
+
+        IndexedTemporalMemory itm = new IndexedTemporalMemory();
+        Connections indexed = new Connections();
+        p.apply(indexed);
+        indexed.setRandom(new MersenneTwister(42));
+        itm.init(indexed);
+
+        int numPredictions = 0;
+        for(int[] pattern : input) {
+            if(pattern == null) {
+                tm.reset(classic);
+                itm.reset(indexed);
+                continue;
+            }
+
+            ComputeCycle expected = tm.compute(classic, pattern, learn);
+            IndexedComputeCycle actual = itm.compute(indexed, pattern, learn);
+
+            assertTrue(Arrays.equals(toIndexes(expected.activeCells()), actual.activeCells().toArray()));
+            assertTrue(Arrays.equals(toIndexes(expected.winnerCells()), actual.winnerCells().toArray()));
+            assertTrue(Arrays.equals(toIndexes(expected.predictiveCells()), actual.predictiveCells().toArray()));
+            assertTrue(Arrays.equals(segmentIndexes(expected.activeSegments()), actual.activeSegments().toArray()));
+            assertTrue(Arrays.equals(segmentIndexes(expected.learningSegments()), actual.learningSegments().toArray()));
+            assertEquals(expected.predictedColumns().size(), actual.predictedColumns().size());
+
+            for(DistalDendrite dd : expected.activeSynapsesForSegment().keySet()) {
+                assertEquals(expected.activeSynapsesForSegment().get(dd).size(), actual.getNumActivePotential(dd.getIndex()));
+            }
+
+            numPredictions += actual.predictiveCells().size();
+        }
+
+        assertSameState(classic, indexed);
+        if(learn) {
+            assertTrue(numPredictions > 0);
+        }
+        return indexed;
+    }
+
+    @Test
+    public void testMatchesTemporalMemoryBasic() {
+        runComparison(basicParameters(), createInput(32, 3, 5, 3, 6), true);
+    }
+
+    @Test
+    public void testMatchesTemporalMemoryExtensive() {
+        runComparison(extensiveParameters(), createInput(100, 23, 10, 2, 3), true);
+    }
+
+    @Test
+    public void testMatchesTemporalMemoryWithLimits() {
+        Parameters p = basicParameters();
+        p.setParameterByKey(KEY.MAX_SEGMENTS_PER_CELL, 1);
+        p.setParameterByKey(KEY.MAX_SYNAPSES_PER_SEGMENT, 4);
+        p.setParameterByKey(KEY.PERMANENCE_DECREMENT, 0.3);
+        p.setParameterByKey(KEY.PRUNE_ZERO_PERMANENCE_SYNAPSES, true);
+        Connections cn = runComparison(p, createInput(32, 3, 5, 6, 4), true);
+
+        int numSegments = 0;
+        for(Cell cell : cn.getCells()) {
+            assertTrue(cell.getSegments(cn).size() <= 1);
+            for(DistalDendrite dd : cell.getSegments(cn)) {
+                assertTrue(cn.getSynapses(dd).size() <= 4);
+                numSegments++;
+            }
+        }
+        assertTrue(numSegments < cn.getSegmentCount());
+    }
+
+    @Test
+    public void testSegmentIndexesReusedOnStream() {
+        IndexedTemporalMemory itm = new IndexedTemporalMemory();
+        Connections cn = new Connections();
+        cn.setColumnDimensions(new int[] { 32 });
+        cn.setCellsPerColumn(2);
+        cn.setMinThreshold(4);
+        cn.setActivationThreshold(4);
+        cn.setMaxNewSynapseCount(4);
+        cn.setInitialPermanence(0.3);
+        cn.setMaxSegmentsPerCell(1);
+        itm.init(cn);
+
+        int bound = cn.getCells().length + 4;
+        Random random = new Random(42);
+        Set<DistalDendrite> created = new HashSet<DistalDendrite>();
+        for(int i = 0;i < 2000;i++) {
+            int[] pattern = new int[4];
+            for(int j = 0;j < pattern.length;j++) {
+                pattern[j] = random.nextInt(32);
+            }
+            IndexedComputeCycle cycle = itm.compute(cn, pattern, true);
+            for(Cell cell : cn.getCells()) {
+                created.addAll(cell.getSegments(cn));
+            }
+            assertTrue(cn.getSegmentCount() <= bound);
+            assertTrue(cycle.activity.getCapacity() <= 2 * bound);
+            assertTrue(cn.getPrevIndexedCycle().activity.getCapacity() <= 2 * bound);
+        }
+        assertTrue(created.size() > 10 * bound);
+    }
+
+    @Test
+    public void testMatchesTemporalMemoryNoLearning() {
+        runComparison(basicParameters(), createInput(32, 3, 5, 2, 2), false);
+    }
+
+    @Test
+    public void testCycleReuse() {
+        IndexedTemporalMemory itm = new IndexedTemporalMemory();
+        Connections cn = new Connections();
+        basicParameters().apply(cn);
+        itm.init(cn);
+
+        IndexedComputeCycle first = itm.compute(cn, new int[] { 0, 1, 2 }, true);
+        IndexedComputeCycle second = itm.compute(cn, new int[] { 3, 4, 5 }, true);
+        IndexedComputeCycle third = itm.compute(cn, new int[] { 6, 7, 8 }, true);
+
+        assertTrue(first != second);
+        assertTrue(first == third);
+        assertEquals(12, third.activeCells().size());
+        assertTrue(third.isActiveCell(24));
+        assertTrue(!third.isActiveCell(0));
+
+        itm.reset(cn);
+        assertEquals(0, cn.getIndexedCycle().activeCells().size());
+        assertEquals(0, cn.getPrevIndexedCycle().activeCells().size());
+    }
+}
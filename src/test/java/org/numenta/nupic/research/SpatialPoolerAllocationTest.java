@@ -0,0 +1,119 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+package org.numenta.nupic.research;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import org.junit.Test;
+import org.numenta.nupic.Connections;
+import org.numenta.nupic.Parameters;
+import org.numenta.nupic.Parameters.KEY;
+import org.numenta.nupic.util.ArrayUtils;
+import org.numenta.nupic.util.MersenneTwister;
+
+/**
+ * Verifies that, once warmed up, {@link SpatialPooler#compute(Connections, int[], int[], boolean, boolean)}
+ * does not allocate on the heap, by measuring the bytes allocated by the
+ * current thread over a series of compute cycles.
+ */
+public class SpatialPoolerAllocationTest {
+    private static final int WARMUP = 300;
+    private static final int MEASURED = 200;
+
+    private com.sun.management.ThreadMXBean threadBean() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean retVal = (com.sun.management.ThreadMXBean)bean;
+        assumeTrue(retVal.isThreadAllocatedMemorySupported());
+        retVal.setThreadAllocatedMemoryEnabled(true);
+        return retVal;
+    }
+
+    private int[][] createPatterns(int numPatterns, int numInputs, int numOn) {
+        Random random = new Random(42);
+        int[][] patterns = new int[numPatterns][numInputs];
+        for(int[] pattern : patterns) {
+            for(int i = 0;i < numOn;i++) {
+                pattern[random.nextInt(numInputs)] = 1;
+            }
+        }
+        return patterns;
+    }
+
+    private long measure(boolean learn, boolean globalInhibition) {
+        com.sun.management.ThreadMXBean bean = threadBean();
+
+        Parameters p = Parameters.getAllDefaultParameters();
+        p.setParameterByKey(KEY.INPUT_DIMENSIONS, new int[] { 256 });
+        p.setParameterByKey(KEY.COLUMN_DIMENSIONS, new int[] { 512 });
+        p.setParameterByKey(KEY.POTENTIAL_RADIUS, 16);
+        p.setParameterByKey(KEY.GLOBAL_INHIBITIONS, globalInhibition);
+        p.setParameterByKey(KEY.NUM_ACTIVE_COLUMNS_PER_INH_AREA, 10.0);
+        p.setParameterByKey(KEY.RANDOM, new MersenneTwister(42));
+
+        SpatialPooler sp = new SpatialPooler();
+        Connections c = new Connections();
+        p.apply(c);
+        sp.init(c);
+
+        int[][] patterns = createPatterns(10, c.getNumInputs(), 20);
+        int[] activeArray = new int[c.getNumColumns()];
+        //Always learn while warming up so that inference has learned columns to keep
+        for(int i = 0;i < WARMUP;i++) {
+            sp.compute(c, patterns[i % patterns.length], activeArray, true, false);
+        }
+        for(int i = 0;i < patterns.length;i++) {
+            sp.compute(c, patterns[i], activeArray, learn, !learn);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long before = bean.getThreadAllocatedBytes(threadId);
+        for(int i = 0;i < MEASURED;i++) {
+            sp.compute(c, patterns[i % patterns.length], activeArray, learn, !learn);
+        }
+        long allocated = bean.getThreadAllocatedBytes(threadId) - before;
+
+        assertTrue(ArrayUtils.sum(activeArray) > 0);
+        return allocated;
+    }
+
+    @Test
+    public void testInferenceDoesNotAllocate() {
+        assertEquals(0, measure(false, true));
+    }
+
+    @Test
+    public void testLearningDoesNotAllocate() {
+        assertEquals(0, measure(true, true));
+    }
+
+    @Test
+    public void testLocalInhibitionInferenceDoesNotAllocate() {
+        assertEquals(0, measure(false, false));
+    }
+}
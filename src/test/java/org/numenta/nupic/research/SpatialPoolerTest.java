@@ -23,11 +23,13 @@ package org.numenta.nupic.research;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.set.hash.TIntHashSet;
 
 import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
 
 import org.junit.Test;
 import org.numenta.nupic.Connections;
@@ -38,6 +40,7 @@ import org.numenta.nupic.research.SpatialPooler;
 import org.numenta.nupic.util.ArrayUtils;
 import org.numenta.nupic.util.Condition;
 import org.numenta.nupic.util.MersenneTwister;
+import org.numenta.nupic.util.NeighborhoodIndex;
 import org.numenta.nupic.util.SparseBinaryMatrix;
 import org.numenta.nupic.util.SparseMatrix;
 import org.numenta.nupic.util.SparseObjectMatrix;
@@ -140,8 +143,9 @@ public class SpatialPoolerTest {
     	initSP();
     	
     	SpatialPooler mock = new SpatialPooler() {
-    		public int[] inhibitColumns(Connections c, double[] overlaps) {
-    			return new int[] { 0, 1, 2, 3, 4 };
+    		public int inhibitColumns(Connections c, double[] overlaps, int[] activeColumns) {
+    			System.arraycopy(new int[] { 0, 1, 2, 3, 4 }, 0, activeColumns, 0, 5);
+    			return 5;
     		}
     	};
     	
@@ -184,8 +188,9 @@ public class SpatialPoolerTest {
      	initSP();
      	
      	SpatialPooler mock = new SpatialPooler() {
-     		public int[] inhibitColumns(Connections c, double[] overlaps) {
-     			return new int[] { 0, 1, 2, 3, 4 };
+     		public int inhibitColumns(Connections c, double[] overlaps, int[] activeColumns) {
+     			System.arraycopy(new int[] { 0, 1, 2, 3, 4 }, 0, activeColumns, 0, 5);
+     			return 5;
      		}
      	};
      	
@@ -1713,6 +1718,163 @@ public class SpatialPoolerTest {
 		assertTrue(Arrays.equals(trueOverlapsPct, overlapsPct));
     }
     
+    /**
+     * The parallel local inhibition must select exactly the
+     * same columns as the sequential version, including when
+     * many overlaps are tied.
+     */
+    @Test
+    public void testInhibitColumnsLocalParallel() {
+    	setupParameters();
+    	parameters.setInputDimensions(new int[] { 40, 30 });
+    	parameters.setColumnDimensions(new int[] { 40, 30 });
+    	initSP();
+    	
+    	ForkJoinPool pool = new ForkJoinPool(4);
+    	java.util.Random random = new java.util.Random(42);
+    	int[] radii = { 1, 2, 5 };
+    	double[] densities = { 0.02, 0.1, 0.3 };
+    	for(int radius : radii) {
+    		for(double density : densities) {
+    			mem.setInhibitionRadius(radius);
+    			double[] overlaps = new double[mem.getNumColumns()];
+    			for(int i = 0;i < overlaps.length;i++) {
+    				//Small integer overlaps produce plenty of ties
+    				overlaps[i] = random.nextInt(6);
+    			}
+    			double[] parallelOverlaps = Arrays.copyOf(overlaps, overlaps.length);
+    			
+    			mem.setInhibitionPool(null);
+    			int[] expected = sp.inhibitColumnsLocal(mem, overlaps, density);
+    			mem.setInhibitionPool(pool);
+    			int[] actual = sp.inhibitColumnsLocal(mem, parallelOverlaps, density);
+    			
+    			assertTrue(Arrays.equals(expected, actual));
+    			assertTrue(Arrays.equals(overlaps, parallelOverlaps));
+    		}
+    	}
+    	pool.shutdown();
+    }
+    
+    /**
+     * The sparse, in place, update of {@link SpatialPooler#adaptSynapses(Connections, int[], int[])}
+     * must give the same permanences and connected bits as the dense algorithm.
+     */
+    @Test
+    public void testAdaptSynapsesMatchesDense() {
+    	setupParameters();
+    	parameters.setInputDimensions(new int[] { 64 });
+    	parameters.setColumnDimensions(new int[] { 32 });
+    	parameters.setPotentialRadius(8);
+    	parameters.setPotentialPct(0.5);
+    	parameters.setSynPermTrimThreshold(0.02);
+    	
+    	parameters.setRandom(new MersenneTwister(42));
+    	initSP();
+    	Connections sparse = mem;
+    	parameters.setRandom(new MersenneTwister(42));
+    	initSP();
+    	Connections dense = mem;
+    	
+    	java.util.Random random = new java.util.Random(42);
+    	for(int iteration = 0;iteration < 30;iteration++) {
+    		int[] inputVector = new int[64];
+    		for(int i = 0;i < 12;i++) inputVector[random.nextInt(64)] = 1;
+    		int[] activeColumns = new int[10];
+    		for(int i = 0;i < activeColumns.length;i++) activeColumns[i] = iteration % 3 + 3 * i;
+    		
+    		sp.adaptSynapses(sparse, inputVector, activeColumns);
+    		
+    		//Former dense algorithm
+    		double[] permChanges = new double[dense.getNumInputs()];
+    		for(int i = 0;i < permChanges.length;i++) {
+    			permChanges[i] = inputVector[i] > 0 ? dense.getSynPermActiveInc() : -1 * dense.getSynPermInactiveDec();
+    		}
+    		for(int col : activeColumns) {
+    			Pool pool = dense.getPotentialPools().getObject(col);
+    			double[] perm = pool.getDensePermanences(dense);
+    			ArrayUtils.raiseValuesBy(permChanges, perm);
+    			sp.updatePermanencesForColumn(dense, perm, dense.getColumn(col), pool.getSparseConnections(), true);
+    		}
+    		
+    		for(int col = 0;col < 32;col++) {
+    			assertTrue(Arrays.equals(
+    				dense.getPotentialPools().getObject(col).getDensePermanences(dense),
+    				sparse.getPotentialPools().getObject(col).getDensePermanences(sparse)));
+    			assertTrue(Arrays.equals(
+    				dense.getConnectedCounts().getRowIndices(col), sparse.getConnectedCounts().getRowIndices(col)));
+    			assertEquals(dense.getConnectedCounts().getTrueCount(col), sparse.getConnectedCounts().getTrueCount(col));
+    		}
+    	}
+    }
+    
+    @Test
+    public void testNeighborhoodIndex() {
+    	setupParameters();
+    	parameters.setInputDimensions(new int[] { 12, 10 });
+    	parameters.setColumnDimensions(new int[] { 12, 10 });
+    	initSP();
+    	
+    	for(boolean wrapAround : new boolean[] { false, true }) {
+    		mem.setInhibitionRadius(2);
+    		NeighborhoodIndex index = sp.getNeighborhoodIndex(mem, wrapAround);
+    		assertEquals(2, index.getRadius());
+    		assertEquals(mem.getNumColumns(), index.getNumColumns());
+    		for(int i = 0;i < mem.getNumColumns();i++) {
+    			int[] expected = sp.getNeighborsND(mem, i, mem.getMemory(), 2, wrapAround).toArray();
+    			assertTrue(Arrays.equals(expected, index.getNeighbors(i)));
+    			assertEquals(expected.length, index.size(i));
+    		}
+    		
+    		//Cached until the radius changes
+    		assertTrue(index == sp.getNeighborhoodIndex(mem, wrapAround));
+    		mem.setInhibitionRadius(2);
+    		assertTrue(index == sp.getNeighborhoodIndex(mem, wrapAround));
+    		mem.setInhibitionRadius(3);
+    		assertNull(mem.getNeighborhoodIndex(wrapAround));
+    		NeighborhoodIndex rebuilt = sp.getNeighborhoodIndex(mem, wrapAround);
+    		assertEquals(3, rebuilt.getRadius());
+    		assertTrue(Arrays.equals(
+    			sp.getNeighborsND(mem, 57, mem.getMemory(), 3, wrapAround).toArray(), rebuilt.getNeighbors(57)));
+    	}
+    }
+    
+    @Test
+    public void testCalculateOverlapSparse() {
+    	setupParameters();
+    	parameters.setInputDimensions(new int[] { 10 });
+    	parameters.setColumnDimensions(new int[] { 5 });
+    	initSP();
+    	
+    	int[][] connectedSynapses = new int[][] {
+			{1, 1, 1, 1, 1, 1, 1, 1, 1, 1},
+		    {0, 0, 1, 1, 1, 1, 1, 1, 1, 1},
+		    {0, 0, 0, 0, 1, 1, 1, 1, 1, 1},
+		    {0, 0, 0, 0, 0, 0, 1, 1, 1, 1},
+		    {0, 0, 0, 0, 0, 0, 0, 0, 1, 1}};
+    	SparseBinaryMatrix sm = new SparseBinaryMatrix(new int[] { 5, 10 });
+		for(int i = 0;i < sm.getDimensions()[0];i++) {
+			for(int j = 0;j < sm.getDimensions()[1];j++) {
+				sm.set(connectedSynapses[i][j], i, j);
+			}
+		}
+		mem.setConnectedMatrix(sm);
+		
+		int[] inputVector = new int[] { 0, 1, 0, 0, 1, 0, 0, 0, 1, 0 };
+		int[] overlaps = sp.calculateOverlapSparse(mem, new int[] { 1, 4, 8 });
+		assertTrue(Arrays.equals(new int[] { 3, 2, 2, 1, 1 }, overlaps));
+		assertTrue(Arrays.equals(sp.calculateOverlap(mem, inputVector), overlaps));
+		
+		//Disconnecting a synapse must be reflected in the inverted index
+		sm.set(0, 2, 4);
+		overlaps = sp.calculateOverlapSparse(mem, new int[] { 1, 4, 8 });
+		assertTrue(Arrays.equals(new int[] { 3, 2, 1, 1, 1 }, overlaps));
+		
+		mem.setStimulusThreshold(2);
+		overlaps = sp.calculateOverlapSparse(mem, new int[] { 1, 4, 8 });
+		assertTrue(Arrays.equals(new int[] { 3, 2, 0, 0, 0 }, overlaps));
+    }
+    
     /**
      * test initial permanence generation. ensure that
      * a correct amount of synapses are initialized in 
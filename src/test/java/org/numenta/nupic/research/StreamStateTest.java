@@ -0,0 +1,185 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+package org.numenta.nupic.research;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import org.numenta.nupic.Connections;
+import org.numenta.nupic.Parameters;
+import org.numenta.nupic.Parameters.KEY;
+import org.numenta.nupic.persistence.ModelSnapshot;
+import org.numenta.nupic.util.MersenneTwister;
+
+public class StreamStateTest {
+    private static final int[][] SEQUENCE = { 
+        { 0, 5, 9 }, { 12, 17, 20 }, { 3, 25, 31 }, { 7, 14, 28 }, { 1, 10, 22 } 
+    };
+    
+    private TemporalMemory tm = new TemporalMemory();
+    
+    /**
+     * Returns a model trained on the {@link #SEQUENCE}
+     */
+    private Connections trainedModel() {
+        Parameters p = Parameters.getAllDefaultParameters();
+        p.setParameterByKey(KEY.COLUMN_DIMENSIONS, new int[] { 32 });
+        p.setParameterByKey(KEY.CELLS_PER_COLUMN, 4);
+        p.setParameterByKey(KEY.INITIAL_PERMANENCE, 0.3);
+        p.setParameterByKey(KEY.CONNECTED_PERMANENCE, 0.5);
+        p.setParameterByKey(KEY.MIN_THRESHOLD, 1);
+        p.setParameterByKey(KEY.MAX_NEW_SYNAPSE_COUNT, 6);
+        p.setParameterByKey(KEY.PERMANENCE_INCREMENT, 0.1);
+        p.setParameterByKey(KEY.PERMANENCE_DECREMENT, 0.05);
+        p.setParameterByKey(KEY.ACTIVATION_THRESHOLD, 1);
+        
+        Connections c = new Connections();
+        p.apply(c);
+        c.setRandom(new MersenneTwister(42));
+        tm.init(c);
+        for(int pass = 0;pass < 6;pass++) {
+            for(int[] pattern : SEQUENCE) {
+                tm.compute(c, pattern, true);
+            }
+            tm.reset(c);
+        }
+        c.prepareForSharing();
+        return c;
+    }
+    
+    /**
+     * Feeds the sequence twice to a stream and returns its predictive cell indexes
+     */
+    private List<List<Integer>> infer(StreamState stream) {
+        List<List<Integer>> predictions = new ArrayList<List<Integer>>();
+        for(int pass = 0;pass < 2;pass++) {
+            for(int[] pattern : SEQUENCE) {
+                ComputeCycle cycle = tm.compute(stream, pattern, false);
+                predictions.add(stream.getModel().asCellIndexes(cycle.predictiveCells()));
+            }
+        }
+        return predictions;
+    }
+    
+    @Test
+    public void testInferenceMatchesPrivateModel() {
+        Connections model = trainedModel();
+        int segments = model.getSegmentCount();
+        int synapses = model.getSynapseCount();
+        
+        Connections copy = ModelSnapshot.copy(model);
+        StreamState stream = new StreamState(model);
+        int numPredictions = 0;
+        for(int[] pattern : SEQUENCE) {
+            ComputeCycle expected = tm.compute(copy, pattern, false);
+            ComputeCycle actual = tm.compute(stream, pattern, false);
+            assertEquals(copy.asCellIndexes(expected.activeCells()), model.asCellIndexes(actual.activeCells()));
+            assertEquals(copy.asCellIndexes(expected.predictiveCells()), model.asCellIndexes(actual.predictiveCells()));
+            numPredictions += actual.predictiveCells().size();
+        }
+        assertTrue(numPredictions > 0);
+        assertFalse(stream.isForked());
+        assertTrue(stream.getConnections() == model);
+        
+        // The shared model is left untouched
+        assertEquals(segments, model.getSegmentCount());
+        assertEquals(synapses, model.getSynapseCount());
+        assertTrue(model.getActiveCells().isEmpty());
+    }
+    
+    @Test
+    public void testConcurrentStreams() throws Exception {
+        final Connections model = trainedModel();
+        List<List<Integer>> expected = infer(new StreamState(model));
+        
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<List<List<Integer>>>> results = new ArrayList<Future<List<List<Integer>>>>();
+        for(int i = 0;i < 16;i++) {
+            results.add(executor.submit(new Callable<List<List<Integer>>>() {
+                @Override public List<List<Integer>> call() {
+                    return infer(new StreamState(model));
+                }
+            }));
+        }
+        for(Future<List<List<Integer>>> result : results) {
+            assertEquals(expected, result.get());
+        }
+        executor.shutdown();
+    }
+    
+    @Test
+    public void testForkOnLearning() {
+        Connections model = trainedModel();
+        int synapses = model.getSynapseCount();
+        
+        Connections twin = ModelSnapshot.copy(model);
+        twin.setRandom(new MersenneTwister(7));
+        StreamState stream = new StreamState(model, new MersenneTwister(7));
+        
+        int[][] novel = { { 2, 4, 6 }, { 8, 11, 13 }, { 15, 18, 21 } };
+        for(int pass = 0;pass < 4;pass++) {
+            for(int[] pattern : novel) {
+                ComputeCycle expected = tm.compute(twin, pattern, true);
+                ComputeCycle actual = tm.compute(stream, pattern, true);
+                assertTrue(stream.isForked());
+                assertEquals(twin.asCellIndexes(expected.winnerCells()), stream.getConnections().asCellIndexes(actual.winnerCells()));
+                assertEquals(twin.asCellIndexes(expected.predictiveCells()), stream.getConnections().asCellIndexes(actual.predictiveCells()));
+            }
+        }
+        assertEquals(twin.getSynapseCount(), stream.getConnections().getSynapseCount());
+        assertTrue(stream.getConnections().getSynapseCount() > synapses);
+        assertEquals(synapses, model.getSynapseCount());
+    }
+    
+    @Test
+    public void testForkAfterInference() {
+        Connections model = trainedModel();
+        int synapses = model.getSynapseCount();
+        
+        StreamState stream = new StreamState(model);
+        tm.compute(stream, SEQUENCE[0], false);
+        List<Integer> predicted = model.asCellIndexes(stream.getPredictiveCells());
+        assertFalse(predicted.isEmpty());
+        
+        Connections fork = stream.fork();
+        assertTrue(fork != model);
+        assertEquals(predicted, fork.asCellIndexes(stream.getPredictiveCells()));
+        assertEquals(stream.getActiveSynapsesForSegment().size(), fork.getActiveSynapsesForSegment().size());
+        
+        ComputeCycle cycle = tm.compute(stream, SEQUENCE[1], true);
+        assertFalse(cycle.predictedColumns().isEmpty());
+        assertEquals(synapses, model.getSynapseCount());
+        
+        stream.reset();
+        assertTrue(stream.getPredictiveCells().isEmpty());
+    }
+}
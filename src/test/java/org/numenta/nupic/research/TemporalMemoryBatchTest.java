@@ -0,0 +1,106 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+package org.numenta.nupic.research;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+import org.numenta.nupic.Connections;
+import org.numenta.nupic.Parameters;
+import org.numenta.nupic.Parameters.KEY;
+import org.numenta.nupic.util.MersenneTwister;
+
+public class TemporalMemoryBatchTest {
+    private static final int NUM_MODELS = 40;
+    
+    private Connections createModel(TemporalMemory tm) {
+        Parameters p = Parameters.getAllDefaultParameters();
+        p.setParameterByKey(KEY.COLUMN_DIMENSIONS, new int[] { 32 });
+        p.setParameterByKey(KEY.CELLS_PER_COLUMN, 4);
+        p.setParameterByKey(KEY.INITIAL_PERMANENCE, 0.3);
+        p.setParameterByKey(KEY.CONNECTED_PERMANENCE, 0.5);
+        p.setParameterByKey(KEY.MIN_THRESHOLD, 1);
+        p.setParameterByKey(KEY.MAX_NEW_SYNAPSE_COUNT, 6);
+        p.setParameterByKey(KEY.ACTIVATION_THRESHOLD, 1);
+        
+        Connections c = new Connections();
+        p.apply(c);
+        c.setRandom(new MersenneTwister(42));
+        tm.init(c);
+        return c;
+    }
+    
+    @Test
+    public void testMatchesSequentialCompute() {
+        TemporalMemory tm = new TemporalMemory();
+        Connections[] batched = new Connections[NUM_MODELS];
+        Connections[] sequential = new Connections[NUM_MODELS];
+        for(int i = 0;i < NUM_MODELS;i++) {
+            batched[i] = createModel(tm);
+            sequential[i] = createModel(tm);
+        }
+        
+        TemporalMemoryBatch batch = new TemporalMemoryBatch(tm, 4);
+        Random random = new Random(42);
+        for(int record = 0;record < 30;record++) {
+            // Every model once, and model 0 a second time at the end of the block
+            Connections[] models = new Connections[NUM_MODELS + 1];
+            Connections[] twins = new Connections[NUM_MODELS + 1];
+            int[][] inputs = new int[NUM_MODELS + 1][];
+            for(int i = 0;i <= NUM_MODELS;i++) {
+                models[i] = batched[i % NUM_MODELS];
+                twins[i] = sequential[i % NUM_MODELS];
+                inputs[i] = new int[] { random.nextInt(32), random.nextInt(32), random.nextInt(32) };
+            }
+            
+            ComputeCycle[] results = batch.compute(models, inputs, true);
+            assertEquals(models.length, results.length);
+            for(int i = 0;i < models.length;i++) {
+                ComputeCycle expected = tm.compute(twins[i], inputs[i], true);
+                assertEquals(twins[i].asCellIndexes(expected.activeCells()), models[i].asCellIndexes(results[i].activeCells()));
+                assertEquals(twins[i].asCellIndexes(expected.predictiveCells()), models[i].asCellIndexes(results[i].predictiveCells()));
+            }
+        }
+        batch.close();
+        
+        for(int i = 0;i < NUM_MODELS;i++) {
+            assertEquals(sequential[i].getSegmentCount(), batched[i].getSegmentCount());
+            assertEquals(sequential[i].getSynapseCount(), batched[i].getSynapseCount());
+            assertTrue(batched[i].getSynapseCount() > 0);
+        }
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testMismatchedBlock() {
+        TemporalMemory tm = new TemporalMemory();
+        TemporalMemoryBatch batch = new TemporalMemoryBatch(tm, 2);
+        try {
+            batch.compute(new Connections[] { createModel(tm) }, new int[0][], true);
+        }finally{
+            batch.close();
+        }
+    }
+}
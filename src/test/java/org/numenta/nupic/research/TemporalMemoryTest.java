@@ -27,12 +27,14 @@ import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
 import org.junit.Test;
 import org.numenta.nupic.Connections;
@@ -42,6 +44,8 @@ import org.numenta.nupic.model.DistalDendrite;
 import org.numenta.nupic.model.Synapse;
 import org.numenta.nupic.research.ComputeCycle;
 import org.numenta.nupic.research.TemporalMemory;
+import org.numenta.nupic.util.MersenneTwister;
+import org.numenta.nupic.util.TraceSink;
 
 
 /**
@@ -331,6 +335,57 @@ public class TemporalMemoryTest {
         assertTrue(cycle.predictiveCells().contains(cn.getCell(0)) && cycle.predictiveCells().size() == 1);
     }
     
+    @Test
+    public void testComputeSegmentActivity() {
+        TemporalMemory tm = new TemporalMemory();
+        Connections cn = new Connections();
+        cn.setActivationThreshold(2);
+        cn.setMinThreshold(2);
+        tm.init(cn);
+        
+        DistalDendrite dd = cn.getCell(0).createSegment(cn, 0);
+        Synapse s0 = dd.createSynapse(cn, cn.getCell(23), 0.6, 0);
+        Synapse s1 = dd.createSynapse(cn, cn.getCell(37), 0.5, 1);
+        dd.createSynapse(cn, cn.getCell(477), 0.9, 2);
+        
+        // Matching but not active: only one connected synapse
+        DistalDendrite dd1 = cn.getCell(1).createSegment(cn, 1);
+        Synapse s3 = dd1.createSynapse(cn, cn.getCell(733), 0.7, 3);
+        Synapse s4 = dd1.createSynapse(cn, cn.getCell(734), 0.4, 4);
+        
+        // Neither active nor matching
+        DistalDendrite dd2 = cn.getCell(8).createSegment(cn, 2);
+        dd2.createSynapse(cn, cn.getCell(486), 0.9, 5);
+        cn.setSegmentCount(3);
+        
+        ComputeCycle cycle = new ComputeCycle();
+        cycle.activeCells.addAll(Arrays.asList(cn.getCell(23), cn.getCell(37), cn.getCell(733), cn.getCell(734), cn.getCell(486)));
+        tm.computeSegmentActivity(cn, cycle);
+        
+        SegmentActivity activity = cn.getSegmentActivity();
+        assertEquals(2, activity.getNumActiveConnected(0));
+        assertEquals(1, activity.getNumActiveConnected(1));
+        assertEquals(2, activity.getNumActivePotential(1));
+        assertEquals(1, activity.getNumActivePotential(2));
+        
+        assertEquals(new LinkedHashSet<DistalDendrite>(Arrays.asList(dd)), cycle.activeSegments());
+        assertEquals(new LinkedHashSet<Cell>(Arrays.asList(cn.getCell(0))), cycle.predictiveCells());
+        assertEquals(new LinkedHashSet<DistalDendrite>(Arrays.asList(dd, dd1)), cycle.matchingSegments());
+        
+        // Only the synapses of active and matching segments are collected
+        assertEquals(2, cycle.activeSynapsesForSegment().size());
+        assertEquals(new LinkedHashSet<Synapse>(Arrays.asList(s0, s1)), cycle.activeSynapsesForSegment().get(dd));
+        assertEquals(new LinkedHashSet<Synapse>(Arrays.asList(s3, s4)), cycle.activeSynapsesForSegment().get(dd1));
+        
+        // Counters are cleared by the next cycle
+        ComputeCycle next = new ComputeCycle();
+        next.activeCells.add(cn.getCell(486));
+        tm.computeSegmentActivity(cn, next);
+        assertEquals(0, activity.getNumActivePotential(0));
+        assertEquals(1, activity.getNumActivePotential(2));
+        assertTrue(next.activeSynapsesForSegment().isEmpty());
+    }
+    
     @SuppressWarnings("unused")
     @Test
     public void testComputeActiveSynapses() {
@@ -680,4 +735,260 @@ public class TemporalMemoryTest {
         List<Cell> learnCells = new ArrayList<Cell>(dd.pickCellsToLearnOn(cn, 2, winnerCells, cn.getRandom()));
         assertTrue(learnCells.isEmpty());
     }
+    
+    @Test
+    public void testAdaptSegmentPrunesZeroPermanence() {
+        TemporalMemory tm = new TemporalMemory();
+        Connections cn = new Connections();
+        cn.setPruneZeroPermanenceSynapses(true);
+        tm.init(cn);
+        
+        DistalDendrite dd = cn.getCell(0).createSegment(cn, 0);
+        Synapse s0 = dd.createSynapse(cn, cn.getCell(23), 0.1, 0);
+        Synapse s1 = dd.createSynapse(cn, cn.getCell(37), 0.6, 1);
+        Synapse s2 = dd.createSynapse(cn, cn.getCell(41), 0.05, 2);
+        
+        Set<Synapse> activeSynapses = new LinkedHashSet<Synapse>();
+        activeSynapses.add(s1);
+        
+        dd.adaptSegment(cn, activeSynapses, cn.getPermanenceIncrement(), cn.getPermanenceDecrement());
+        assertEquals(1, dd.getAllSynapses(cn).size());
+        assertEquals(s1, dd.getAllSynapses(cn).get(0));
+        assertEquals(0.7, s1.getPermanence(), 0.01);
+        assertTrue(cn.getCell(23).getReceptorSynapses(cn).isEmpty());
+        assertTrue(cn.getCell(41).getReceptorSynapses(cn).isEmpty());
+        assertTrue(!cn.getCell(37).getReceptorSynapses(cn).isEmpty());
+        assertTrue(!dd.getAllSynapses(cn).contains(s0) && !dd.getAllSynapses(cn).contains(s2));
+    }
+    
+    @Test
+    public void testDestroyLeastRecentlyUsedSegment() {
+        TemporalMemory tm = new TemporalMemory();
+        Connections cn = new Connections();
+        tm.init(cn);
+        
+        Cell cell = cn.getCell(0);
+        DistalDendrite dd0 = cell.createSegment(cn, 0);
+        dd0.createSynapse(cn, cn.getCell(23), 0.6, 0);
+        dd0.setLastUsedIteration(5);
+        DistalDendrite dd1 = cell.createSegment(cn, 1);
+        dd1.createSynapse(cn, cn.getCell(37), 0.6, 1);
+        dd1.createSynapse(cn, cn.getCell(41), 0.6, 2);
+        dd1.setLastUsedIteration(3);
+        DistalDendrite dd2 = cell.createSegment(cn, 2);
+        dd2.createSynapse(cn, cn.getCell(52), 0.6, 3);
+        dd2.setLastUsedIteration(3);
+        
+        // dd1 and dd2 are equally old, dd2 has fewer synapses
+        tm.destroyLeastRecentlyUsedSegment(cn, cell);
+        assertTrue(dd2.isDestroyed());
+        assertEquals(Arrays.asList(dd0, dd1), cell.getSegments(cn));
+        assertNull(cn.getSegment(2));
+        assertTrue(cn.getCell(52).getReceptorSynapses(cn).isEmpty());
+        
+        tm.destroyLeastRecentlyUsedSegment(cn, cell);
+        assertTrue(dd1.isDestroyed());
+        assertEquals(Arrays.asList(dd0), cell.getSegments(cn));
+        assertTrue(cn.getCell(37).getReceptorSynapses(cn).isEmpty());
+        assertTrue(cn.getCell(41).getReceptorSynapses(cn).isEmpty());
+        assertEquals(dd0, cn.getSegment(0));
+    }
+    
+    @Test
+    public void testLearnOnSegmentsMaxSynapsesPerSegment() {
+        TemporalMemory tm = new TemporalMemory();
+        Connections cn = new Connections();
+        cn.setMaxNewSynapseCount(4);
+        cn.setMaxSynapsesPerSegment(3);
+        tm.init(cn);
+        
+        DistalDendrite dd = cn.getCell(0).createSegment(cn, 0);
+        Synapse s0 = dd.createSynapse(cn, cn.getCell(23), 0.6, 0);
+        Synapse s1 = dd.createSynapse(cn, cn.getCell(37), 0.3, 1);
+        cn.setSegmentCount(1);
+        cn.setSynapseCount(2);
+        
+        Set<DistalDendrite> learningSegments = new LinkedHashSet<DistalDendrite>();
+        learningSegments.add(dd);
+        Map<DistalDendrite, Set<Synapse>> prevActiveSynapsesForSegment = new LinkedHashMap<DistalDendrite, Set<Synapse>>();
+        prevActiveSynapsesForSegment.put(dd, new LinkedHashSet<Synapse>(Arrays.asList(new Synapse[] { s0 })));
+        Set<Cell> prevWinnerCells = new LinkedHashSet<Cell>();
+        prevWinnerCells.add(cn.getCell(10));
+        prevWinnerCells.add(cn.getCell(11));
+        prevWinnerCells.add(cn.getCell(12));
+        
+        tm.learnOnSegments(cn, new LinkedHashSet<DistalDendrite>(), learningSegments, prevActiveSynapsesForSegment, 
+            new LinkedHashSet<Cell>(), prevWinnerCells);
+        
+        // The weak inactive synapse makes room, the active one is kept
+        List<Synapse> synapses = dd.getAllSynapses(cn);
+        assertEquals(3, synapses.size());
+        assertTrue(synapses.contains(s0));
+        assertTrue(!synapses.contains(s1));
+        assertTrue(cn.getCell(37).getReceptorSynapses(cn).isEmpty());
+    }
+    
+    @Test
+    public void testBoundedCapacityOnStream() {
+        TemporalMemory tm = new TemporalMemory();
+        Connections cn = new Connections();
+        cn.setColumnDimensions(new int[] { 32 });
+        cn.setCellsPerColumn(2);
+        cn.setMinThreshold(1);
+        cn.setActivationThreshold(1);
+        cn.setMaxNewSynapseCount(6);
+        cn.setInitialPermanence(0.3);
+        cn.setPermanenceDecrement(0.1);
+        cn.setMaxSegmentsPerCell(2);
+        cn.setMaxSynapsesPerSegment(5);
+        cn.setPruneZeroPermanenceSynapses(true);
+        tm.init(cn);
+        
+        Random random = new Random(42);
+        Set<DistalDendrite> created = new HashSet<DistalDendrite>();
+        for(int i = 0;i < 500;i++) {
+            int[] pattern = new int[4];
+            for(int j = 0;j < pattern.length;j++) {
+                pattern[j] = random.nextInt(32);
+            }
+            tm.compute(cn, pattern, true);
+            for(Cell cell : cn.getCells()) {
+                created.addAll(cell.getSegments(cn));
+            }
+        }
+        
+        int numSegments = 0;
+        int numSynapses = 0;
+        for(Cell cell : cn.getCells()) {
+            assertTrue(cell.getSegments(cn).size() <= 2);
+            numSegments += cell.getSegments(cn).size();
+            for(DistalDendrite dd : cell.getSegments(cn)) {
+                assertTrue(!dd.isDestroyed());
+                assertEquals(dd, cn.getSegment(dd.getIndex()));
+                assertTrue(dd.getAllSynapses(cn).size() <= 5);
+                for(Synapse s : dd.getAllSynapses(cn)) {
+                    assertTrue(s.getPermanence() > 0);
+                    assertTrue(s.getSourceCell().getReceptorSynapses(cn).contains(s));
+                }
+                numSynapses += dd.getAllSynapses(cn).size();
+            }
+        }
+        
+        int numReceptors = 0;
+        for(Cell cell : cn.getCells()) {
+            numReceptors += cell.getReceptorSynapses(cn).size();
+        }
+        assertEquals(numSynapses, numReceptors);
+        // Segments have been evicted along the way, and their indexes reused
+        assertTrue(created.size() > numSegments);
+        assertTrue(cn.getSegmentCount() < created.size());
+    }
+    
+    @Test
+    public void testSegmentIndexesReusedOnStream() {
+        TemporalMemory tm = new TemporalMemory();
+        Connections cn = new Connections();
+        cn.setColumnDimensions(new int[] { 32 });
+        cn.setCellsPerColumn(2);
+        cn.setMinThreshold(4);
+        cn.setActivationThreshold(4);
+        cn.setMaxNewSynapseCount(4);
+        cn.setInitialPermanence(0.3);
+        cn.setMaxSegmentsPerCell(1);
+        tm.init(cn);
+        
+        // At most one segment per cell is alive, plus the segments grown by the
+        // 4 columns bursting in a cycle while the indexes they evict are held back
+        int bound = cn.getCells().length + 4;
+        Random random = new Random(42);
+        Set<DistalDendrite> created = new HashSet<DistalDendrite>();
+        for(int i = 0;i < 2000;i++) {
+            int[] pattern = new int[4];
+            for(int j = 0;j < pattern.length;j++) {
+                pattern[j] = random.nextInt(32);
+            }
+            tm.compute(cn, pattern, true);
+            for(Cell cell : cn.getCells()) {
+                created.addAll(cell.getSegments(cn));
+            }
+            assertTrue(cn.getSegmentCount() <= bound);
+            assertTrue(cn.getSegmentActivity().getCapacity() <= 2 * bound);
+        }
+        assertTrue(created.size() > 10 * bound);
+    }
+    
+    private Connections noisyStreamConnections() {
+        Connections cn = new Connections();
+        cn.setColumnDimensions(new int[] { 64 });
+        cn.setCellsPerColumn(4);
+        cn.setMinThreshold(1);
+        cn.setActivationThreshold(2);
+        cn.setMaxNewSynapseCount(6);
+        cn.setInitialPermanence(0.3);
+        cn.setMaxSegmentsPerCell(3);
+        cn.setRandom(new MersenneTwister(42));
+        return cn;
+    }
+    
+    @Test
+    public void testParallelBurstingMatchesSequential() {
+        TemporalMemory tm = new TemporalMemory();
+        Connections sequential = noisyStreamConnections();
+        tm.init(sequential);
+        Connections parallel = noisyStreamConnections();
+        tm.init(parallel);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        parallel.setBurstPool(pool);
+        
+        Random random = new Random(42);
+        for(int i = 0;i < 300;i++) {
+            int[] pattern = new int[12];
+            for(int j = 0;j < pattern.length;j++) {
+                pattern[j] = random.nextInt(64);
+            }
+            ComputeCycle expected = tm.compute(sequential, pattern, true);
+            ComputeCycle actual = tm.compute(parallel, pattern, true);
+            assertEquals(sequential.asCellIndexes(expected.winnerCells()), parallel.asCellIndexes(actual.winnerCells()));
+            assertEquals(sequential.asCellIndexes(expected.predictiveCells()), parallel.asCellIndexes(actual.predictiveCells()));
+        }
+        pool.shutdown();
+        
+        assertEquals(sequential.getSegmentCount(), parallel.getSegmentCount());
+        assertEquals(sequential.getSynapseCount(), parallel.getSynapseCount());
+        for(int i = 0;i < sequential.getSegmentCount();i++) {
+            DistalDendrite expected = sequential.getSegment(i);
+            DistalDendrite actual = parallel.getSegment(i);
+            assertEquals(expected.getParentCell().getIndex(), actual.getParentCell().getIndex());
+            assertEquals(expected.isDestroyed(), actual.isDestroyed());
+        }
+    }
+    
+    @Test
+    public void testTraceSinkMetrics() {
+        TemporalMemory tm = new TemporalMemory();
+        Connections cn = new Connections();
+        cn.setColumnDimensions(new int[] { 32 });
+        cn.setCellsPerColumn(4);
+        tm.init(cn);
+        assertTrue(cn.getTraceSink() == TraceSink.DISABLED);
+        
+        final Map<String, Double> metrics = new LinkedHashMap<String, Double>();
+        final List<String> messages = new ArrayList<String>();
+        cn.setTraceSink(new TraceSink.Adapter() {
+            @Override public boolean isEnabled(int level) { return level <= TraceSink.SUMMARY; }
+            @Override public void trace(int level, String source, String message) { messages.add(message); }
+            @Override public void metric(String source, String name, double value) { metrics.put(name, value); }
+        });
+        
+        tm.compute(cn, new int[] { 0, 1, 2 }, true);
+        assertEquals(12, metrics.get("activeCells"), 0);
+        assertEquals(3, metrics.get("winnerCells"), 0);
+        assertEquals(3, metrics.get("burstingColumns"), 0);
+        assertEquals(cn.getSegmentCount(), metrics.get("segments"), 0);
+        // Detailed messages are not even formatted
+        assertTrue(messages.isEmpty());
+        
+        cn.setTraceSink(null);
+        assertTrue(cn.getTraceSink() == TraceSink.DISABLED);
+    }
 }
@@ -29,6 +29,7 @@ import java.util.Arrays;
 import java.util.Random;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 public class SparseBinaryMatrixTest {
@@ -215,4 +216,92 @@ public class SparseBinaryMatrixTest {
     }
 
 
+
+    @Test
+    public void testIncrementalTrueCountsAndClear() {
+        SparseBinaryMatrix sm = new SparseBinaryMatrix(new int[] { 3, 8 });
+        sm.set(1, 1, 5);
+        sm.set(1, 1, 2);
+        sm.set(1, 1, 5);
+        assertEquals(2, sm.getTrueCount(1));
+        assertTrue(Arrays.equals(new int[] { 2, 5 }, sm.getRowIndices(1)));
+        assertEquals(0, sm.getRowIndices(0).length);
+
+        sm.set(0, 1, 2);
+        sm.set(0, 1, 3);
+        assertEquals(1, sm.getTrueCount(1));
+        assertEquals(0, sm.getIntValue(1, 2));
+
+        sm.set(1, 2, 7);
+        sm.clearStatistics(1);
+        assertEquals(0, sm.getTrueCount(1));
+        assertEquals(0, sm.getIntValue(1, 5));
+        assertEquals(1, sm.getIntValue(2, 7));
+        assertEquals(0, ((int[])sm.getSlice(1))[5]);
+        assertEquals(1, ((int[])sm.getSlice(2))[7]);
+    }
+
+    @Test
+    public void testLargeTopology() {
+        SparseBinaryMatrix sm = new SparseBinaryMatrix(new int[] { 4096, 16384 });
+        for(int i = 0;i < 4096;i++) {
+            sm.set(1, i, (i * 7) % 16384);
+            sm.set(1, i, (i * 13 + 1) % 16384);
+        }
+        int[] inputVector = new int[16384];
+        inputVector[7] = 1;
+        inputVector[14] = 1;
+        int[] results = new int[4096];
+        sm.rightVecSumAtNZ(inputVector, results);
+        assertEquals(0, results[0]);
+        assertEquals(2, results[1]);
+        assertEquals(1, results[2]);
+        assertEquals(2, sm.getTrueCount(4095));
+    }
+
+    @Test
+    public void testRightVecSumAtNZOneDimensionClearedBit() {
+        SparseBinaryMatrix sm = new SparseBinaryMatrix(new int[] { 6 });
+        sm.set(1, 1);
+        sm.set(4, 1);
+        sm.set(4, 0);
+        
+        int[] inputVector = new int[] { 1, 1, 1, 1, 1, 1 };
+        int[] results = new int[6];
+        sm.rightVecSumAtNZ(inputVector, results);
+        for(int i = 0;i < results.length;i++) {
+            assertEquals(1, results[i]);
+        }
+    }
+    
+    @Test
+    public void testRightVecSumAtNZSparse() {
+        Random r = new Random(42);
+        SparseBinaryMatrix sm = new SparseBinaryMatrix(new int[] { 20, 50 });
+        for(int i = 0;i < 20;i++) {
+            for(int j = 0;j < 50;j++) {
+                sm.set(r.nextInt(2), i, j);
+            }
+        }
+        sm.clearStatistics(3);
+        
+        int[] inputVector = new int[50];
+        int[] onBits = new int[] { 0, 7, 19, 33, 49 };
+        for(int bit : onBits) {
+            inputVector[bit] = 1;
+        }
+        
+        int[] dense = new int[20];
+        int[] sparse = new int[20];
+        sm.rightVecSumAtNZ(inputVector, dense);
+        sm.rightVecSumAtNZSparse(onBits, sparse);
+        assertTrue(Arrays.equals(dense, sparse));
+        assertEquals(0, sparse[3]);
+        
+        for(int j = 0;j < 50;j++) {
+            for(int row : sm.getColumnIndices(j)) {
+                assertEquals(1, sm.getIntValue(row, j));
+            }
+        }
+    }
 }
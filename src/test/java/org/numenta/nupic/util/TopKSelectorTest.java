@@ -0,0 +1,87 @@
+/* ---------------------------------------------------------------------
+ * Numenta Platform for Intelligent Computing (NuPIC)
+ * Copyright (C) 2014, Numenta, Inc.  Unless you have an agreement
+ * with Numenta, Inc., for a separate license for this software code, the
+ * following terms and conditions apply:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses.
+ *
+ * http://numenta.org/licenses/
+ * ---------------------------------------------------------------------
+ */
+
+package org.numenta.nupic.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TopKSelectorTest {
+
+    /**
+     * Reference selection: stable sort of the indexes by decreasing value
+     */
+    private int[] reference(final double[] values, int k) {
+        Integer[] order = new Integer[values.length];
+        for(int i = 0;i < order.length;i++) order[i] = i;
+        Arrays.sort(order, new java.util.Comparator<Integer>() {
+            @Override public int compare(Integer a, Integer b) {
+                return Double.compare(values[b], values[a]);
+            }
+        });
+        int[] retVal = new int[k];
+        for(int i = 0;i < k;i++) retVal[i] = order[i];
+        Arrays.sort(retVal);
+        return retVal;
+    }
+
+    @Test
+    public void testSelect() {
+        TopKSelector selector = new TopKSelector();
+        double[] values = { 1, 5, 3, 9, 7, 2 };
+        double[] copy = Arrays.copyOf(values, values.length);
+        assertTrue(Arrays.equals(new int[] { 1, 3, 4 }, selector.select(values, 3)));
+        assertTrue(Arrays.equals(copy, values));
+        assertTrue(Arrays.equals(new int[0], selector.select(values, 0)));
+        assertTrue(Arrays.equals(new int[] { 0, 1, 2, 3, 4, 5 }, selector.select(values, 6)));
+    }
+
+    @Test
+    public void testTiesGoToLowerIndex() {
+        TopKSelector selector = new TopKSelector();
+        double[] values = { 2, 4, 4, 1, 4, 4 };
+        assertTrue(Arrays.equals(new int[] { 1, 2 }, selector.select(values, 2)));
+        assertTrue(Arrays.equals(new int[] { 1, 2, 4 }, selector.select(values, 3)));
+    }
+
+    @Test
+    public void testMatchesSort() {
+        TopKSelector selector = new TopKSelector();
+        Random random = new Random(42);
+        int[] out = new int[2000];
+        for(int trial = 0;trial < 50;trial++) {
+            double[] values = new double[1 + random.nextInt(2000)];
+            for(int i = 0;i < values.length;i++) {
+                // Few distinct values to exercise the tie breaking
+                values[i] = trial % 2 == 0 ? random.nextInt(10) : random.nextDouble();
+            }
+            int k = random.nextInt(values.length + 1);
+            assertEquals(k, selector.select(values, k, out));
+            assertTrue(Arrays.equals(reference(values, k), Arrays.copyOf(out, k)));
+        }
+    }
+}